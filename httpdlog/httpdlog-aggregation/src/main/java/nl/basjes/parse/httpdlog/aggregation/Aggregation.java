@@ -0,0 +1,493 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.TypedSlotRecord;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * Computes aggregates (counts, sums, minimum, maximum, percentiles, distinct counts and most frequent values)
+ * grouped by one or more fields directly from the values the parser delivers, like the requests and bytes per
+ * status per minute:
+ * <pre>
+ * Aggregation aggregation = new Aggregation(logformat)
+ *     .groupBy("STRING:request.status.last")
+ *     .groupByTime("TIME.EPOCH:request.receive.time.epoch", 60000)
+ *     .count("requests")
+ *     .sum("bytes", "BYTES:response.body.bytes");
+ * for (String line : lines) {
+ *     aggregation.add(line);
+ * }
+ * AggregationResult result = aggregation.getResult();
+ * </pre>
+ * Each field is delivered into a slot of a single reused record (as a long if possible, else as a double,
+ * else as a String). The group key is a set of longs (a string becomes the id in a dictionary) that is looked up
+ * in a primitive hash table and all metrics keep their state in primitive arrays indexed by group number.
+ * So nothing is allocated per line except the strings the parser creates.
+ * <p>
+ * Without any group fields there is a single group; so an Aggregation with only distinct and topK metrics is a sink
+ * that maintains these sketches over all lines in bounded memory.
+ * <p>
+ * An Aggregation is not thread safe; use one per thread and {@link #merge(Aggregation)} them afterwards.
+ * All metrics (including the sketches, which are Serializable) can be merged.
+ */
+public class Aggregation {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Aggregation.class);
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private final String logformat;
+
+    // The definition
+    private final List<String> groupFields = new ArrayList<>();
+    private final List<Long> groupBuckets = new ArrayList<>();
+    private final List<String> metricNames = new ArrayList<>();
+    private final List<String> metricFields = new ArrayList<>();
+    private final List<Boolean> metricNumeric = new ArrayList<>();
+    private final List<Function<Metric.Input, Metric>> metricFactories = new ArrayList<>();
+
+    // The state
+    private final Parser<AggregationRecord> parser;
+    private AggregationRecord record = null;
+    private GroupColumn[] groupColumns;
+    private Metric[] metrics;
+    private GroupIndex groupIndex;
+    private long[] key;
+
+    private final LineCounter counter = new LineCounter(LOG);
+
+    public Aggregation(String logformat) {
+        this.logformat = logformat;
+        this.parser = new HttpdLoglineParser<>(AggregationRecord.class, logformat);
+    }
+
+    /**
+     * Group by the value of this field: as a number if the field can be cast to a LONG or DOUBLE, else as a String.
+     */
+    public Aggregation groupBy(String field) {
+        return groupBy(field, 0);
+    }
+
+    /**
+     * Group by the value of this field (which must be castable to a LONG) rounded down to a multiple of the bucket.
+     * Use it with TIME.EPOCH:request.receive.time.epoch and 60000 to group per minute.
+     */
+    public Aggregation groupByTime(String field, long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("The bucket size must be positive (was " + bucketMillis + ")");
+        }
+        return groupBy(field, bucketMillis);
+    }
+
+    private Aggregation groupBy(String field, long bucket) {
+        checkNotStarted();
+        groupFields.add(Parser.cleanupFieldValue(field));
+        groupBuckets.add(bucket);
+        return this;
+    }
+
+    /**
+     * The number of lines in the group.
+     */
+    public Aggregation count(String name) {
+        return addMetric(name, null, false, input -> new Metric.Count(name));
+    }
+
+    /**
+     * The sum of the values of the field; a Long if the field can be cast to a LONG, else a Double.
+     */
+    public Aggregation sum(String name, String field) {
+        return addMetric(name, field, true, input -> new Metric.Sum(name, input));
+    }
+
+    public Aggregation min(String name, String field) {
+        return addMetric(name, field, true, input -> new Metric.Extreme(name, input, false));
+    }
+
+    public Aggregation max(String name, String field) {
+        return addMetric(name, field, true, input -> new Metric.Extreme(name, input, true));
+    }
+
+    /**
+     * A {@link QuantileSketch} of the values of the field from which any percentile can be retrieved
+     * with a relative error of at most 1%.
+     */
+    public Aggregation percentiles(String name, String field) {
+        return percentiles(name, field, DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    public Aggregation percentiles(String name, String field, double relativeAccuracy) {
+        return addMetric(name, field, true, input -> new Metric.Quantiles(name, input, relativeAccuracy));
+    }
+
+    /**
+     * A {@link HyperLogLog} of the values of the field (of any type) which estimates the number of distinct values
+     * with a standard error of 0.8% in 16KB per group.
+     */
+    public Aggregation distinct(String name, String field) {
+        return distinct(name, field, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision The sketch uses 2^precision bytes per group and has a standard error of 1.04/sqrt(2^precision).
+     */
+    public Aggregation distinct(String name, String field, int precision) {
+        return addMetric(name, field, false, input -> new Metric.Distinct(name, input, precision));
+    }
+
+    /**
+     * A {@link TopK} of the values of the field (of any type) from which the most frequent values can be retrieved.
+     * @param capacity The number of counters per group (use several times the number of values you need).
+     */
+    public Aggregation topK(String name, String field, int capacity) {
+        return addMetric(name, field, false, input -> new Metric.MostFrequent(name, input, capacity));
+    }
+
+    private Aggregation addMetric(String name, String field, boolean numeric, Function<Metric.Input, Metric> factory) {
+        checkNotStarted();
+        if (metricNames.contains(name)) {
+            throw new IllegalArgumentException("The metric " + name + " was defined more than once");
+        }
+        metricNames.add(name);
+        metricFields.add(field == null ? null : Parser.cleanupFieldValue(field));
+        metricNumeric.add(numeric);
+        metricFactories.add(factory);
+        return this;
+    }
+
+    private void checkNotStarted() {
+        if (record != null) {
+            throw new IllegalStateException("The aggregation has already been started.");
+        }
+    }
+
+    // --------------------------------------------
+
+    // Only done when the first line is added (or the result is requested): until then the definition
+    // and the parser (see getParser) can still be changed.
+    private void initialize() throws MissingDissectorsException, InvalidDissectorException {
+        if (record != null) {
+            return;
+        }
+
+        List<String> fields = new ArrayList<>();
+        for (String field : groupFields) {
+            if (!fields.contains(field)) {
+                fields.add(field);
+            }
+        }
+        for (String field : metricFields) {
+            if (field != null && !fields.contains(field)) {
+                fields.add(field);
+            }
+        }
+
+        // Each field gets a single slot of the 'best' type with everything that has been configured in the parser
+        TypedSlotRecord.Layout layout = TypedSlotRecord.Layout.mostSpecific(parser, fields);
+
+        groupColumns = new GroupColumn[groupFields.size()];
+        for (int column = 0; column < groupColumns.length; column++) {
+            String field = groupFields.get(column);
+            long bucket = groupBuckets.get(column);
+            int slot = layout.getSlot(field);
+            Casts cast = layout.getCast(slot);
+            if (cast == Casts.LONG) {
+                groupColumns[column] = new GroupColumn(field, GroupColumn.LONG, slot, bucket);
+            } else if (bucket != 0) {
+                throw new IllegalArgumentException("The field " + field + " cannot be used for time buckets: " +
+                    "it cannot be retrieved as a LONG");
+            } else if (cast == Casts.DOUBLE) {
+                groupColumns[column] = new GroupColumn(field, GroupColumn.DOUBLE, slot, 0);
+            } else {
+                groupColumns[column] = new GroupColumn(field, GroupColumn.STRING, slot, 0);
+            }
+        }
+
+        metrics = new Metric[metricNames.size()];
+        for (int index = 0; index < metrics.length; index++) {
+            String field = metricFields.get(index);
+            Metric.Input input = null;
+            if (field != null) {
+                int slot = layout.getSlot(field);
+                Casts cast = layout.getCast(slot);
+                if (cast == Casts.LONG) {
+                    input = new Metric.Input(field, Metric.Input.LONG, slot);
+                } else if (cast == Casts.DOUBLE) {
+                    input = new Metric.Input(field, Metric.Input.DOUBLE, slot);
+                } else if (metricNumeric.get(index)) {
+                    throw new IllegalArgumentException("The field " + field + " of metric " + metricNames.get(index) +
+                        " cannot be retrieved as a number");
+                } else {
+                    input = new Metric.Input(field, Metric.Input.STRING, slot);
+                }
+            }
+            metrics[index] = metricFactories.get(index).apply(input);
+        }
+
+        groupIndex = new GroupIndex(groupColumns.length);
+        key = new long[groupColumns.length];
+        layout.addParseTargets(parser, NOT_NULL);
+        record = new AggregationRecord(layout);
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Parse the logline and add it to the aggregates.
+     * @return true if the line was used, false if it was bad or rejected by a filter.
+     */
+    public boolean add(String line) throws MissingDissectorsException, InvalidDissectorException {
+        initialize();
+        counter.read();
+        record.clear();
+        try {
+            if (parser.parse(record, line) == null) {
+                counter.filtered();
+                return false;
+            }
+        } catch (DissectionFailure dissectionFailure) {
+            counter.bad(dissectionFailure.getMessage(), line);
+            return false;
+        }
+
+        for (int column = 0; column < groupColumns.length; column++) {
+            key[column] = groupColumns[column].getKey(record);
+        }
+        int group = getGroup(key);
+        for (Metric metric : metrics) {
+            metric.update(group, record);
+        }
+        return true;
+    }
+
+    private int getGroup(long[] groupKey) {
+        int group = groupIndex.getOrAdd(groupKey);
+        if (group == groupIndex.size() - 1) {
+            for (Metric metric : metrics) {
+                metric.grow(groupIndex.size());
+            }
+        }
+        return group;
+    }
+
+    /**
+     * Add the aggregates of the other aggregation (which must have the same definition) to this one.
+     * Use this to combine the aggregations of several threads or tasks.
+     */
+    public void merge(Aggregation other) throws MissingDissectorsException, InvalidDissectorException {
+        // Everything is checked before anything is changed so a failed merge leaves this aggregation intact.
+        initialize();
+        other.initialize();
+        String definition = getDefinition();
+        String otherDefinition = other.getDefinition();
+        if (!definition.equals(otherDefinition)) {
+            throw new IllegalArgumentException("Unable to merge aggregations with a different definition: " +
+                definition + " and " + otherDefinition);
+        }
+        counter.add(other.counter);
+
+        for (int otherGroup = 0; otherGroup < other.groupIndex.size(); otherGroup++) {
+            for (int column = 0; column < groupColumns.length; column++) {
+                GroupColumn otherColumn = other.groupColumns[column];
+                long otherKey = other.groupIndex.getKey(otherGroup, column);
+                key[column] = groupColumns[column].translateKey(otherColumn, otherKey);
+            }
+            int group = getGroup(key);
+            for (int index = 0; index < metrics.length; index++) {
+                metrics[index].merge(group, other.metrics[index], otherGroup);
+            }
+        }
+    }
+
+    // The group columns and metrics (including their parameters and the type of their inputs) determine
+    // how the state is kept; only aggregations with the same definition can be merged.
+    private String getDefinition() {
+        StringBuilder sb = new StringBuilder(logformat);
+        for (GroupColumn column : groupColumns) {
+            sb.append("|group:").append(column.describe());
+        }
+        for (Metric metric : metrics) {
+            sb.append("|metric:").append(metric.getName()).append('=').append(metric.describe());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The aggregates of all groups in the order in which the groups were first seen.
+     */
+    public AggregationResult getResult() throws MissingDissectorsException, InvalidDissectorException {
+        initialize();
+        List<String> metricNamesCopy = new ArrayList<>(metricNames);
+        List<AggregationResult.Row> rows = new ArrayList<>(groupIndex.size());
+        for (int group = 0; group < groupIndex.size(); group++) {
+            Map<String, Object> groupValues = new LinkedHashMap<>();
+            for (int column = 0; column < groupColumns.length; column++) {
+                groupValues.put(groupFields.get(column), groupColumns[column].getValue(groupIndex.getKey(group, column)));
+            }
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (Metric metric : metrics) {
+                values.put(metric.getName(), metric.getValue(group));
+            }
+            rows.add(new AggregationResult.Row(groupValues, values));
+        }
+        return new AggregationResult(new ArrayList<>(groupFields), metricNamesCopy, rows);
+    }
+
+    /**
+     * @return The parser so additional dissectors, type remappings or filters can be added before the first line.
+     * These are taken into account when the types of the fields are determined (at the first line).
+     */
+    public Parser<AggregationRecord> getParser() {
+        return parser;
+    }
+
+    /**
+     * @return The number of groups so far.
+     */
+    public int getGroupCount() {
+        return groupIndex == null ? 0 : groupIndex.size();
+    }
+
+    public long getLinesRead() {
+        return counter.getLinesRead();
+    }
+
+    public long getLinesBad() {
+        return counter.getLinesBad();
+    }
+
+    public long getLinesFiltered() {
+        return counter.getLinesFiltered();
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Turns the value of a group field into a long (and back).
+     */
+    private static final class GroupColumn {
+        static final int LONG = 0;
+        static final int DOUBLE = 1;
+        static final int STRING = 2;
+
+        // The key of an absent value
+        private static final long NULL_NUMBER = Long.MIN_VALUE;
+        private static final long NULL_STRING = -1;
+
+        private final String field;
+        private final int type;
+        private final int slot;
+        private final long bucket;
+
+        // Only for STRING
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        GroupColumn(String field, int type, int slot, long bucket) {
+            this.field = field;
+            this.type = type;
+            this.slot = slot;
+            this.bucket = bucket;
+        }
+
+        String describe() {
+            switch (type) {
+                case LONG:
+                    return field + " as LONG/" + bucket;
+                case DOUBLE:
+                    return field + " as DOUBLE";
+                default:
+                    return field + " as STRING";
+            }
+        }
+
+        long getKey(AggregationRecord record) {
+            switch (type) {
+                case LONG:
+                    if (!record.hasLong(slot)) {
+                        return NULL_NUMBER;
+                    }
+                    long value = record.getLong(slot);
+                    return bucket == 0 ? value : Math.floorDiv(value, bucket) * bucket;
+                case DOUBLE:
+                    if (!record.hasDouble(slot)) {
+                        return NULL_NUMBER;
+                    }
+                    double number = record.getDouble(slot);
+                    // -0.0 is the same group as 0.0 (and its bits are those of NULL_NUMBER)
+                    return Double.doubleToLongBits(number == 0.0 ? 0.0 : number);
+                default:
+                    return getStringKey(record.getString(slot));
+            }
+        }
+
+        private long getStringKey(String value) {
+            if (value == null) {
+                return NULL_STRING;
+            }
+            Integer id = dictionary.get(value);
+            if (id == null) {
+                id = values.size();
+                dictionary.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        long translateKey(GroupColumn other, long otherKey) {
+            if (type != STRING) {
+                return otherKey;
+            }
+            return getStringKey((String) other.getValue(otherKey));
+        }
+
+        Object getValue(long key) {
+            switch (type) {
+                case LONG:
+                    return key == NULL_NUMBER ? null : key;
+                case DOUBLE:
+                    return key == NULL_NUMBER ? null : Double.longBitsToDouble(key);
+                default:
+                    return key == NULL_STRING ? null : values.get((int) key);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return field;
+        }
+    }
+
+}
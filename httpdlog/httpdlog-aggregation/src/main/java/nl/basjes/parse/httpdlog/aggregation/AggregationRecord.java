@@ -0,0 +1,52 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import nl.basjes.parse.core.TypedSlotRecord;
+
+/**
+ * The 'record' that is filled by the parser: a fixed set of typed slots that is reused for every line.
+ * Each used field has a slot of the type in which it is retrieved (String, long or double).
+ */
+public class AggregationRecord extends TypedSlotRecord {
+
+    AggregationRecord(Layout layout) {
+        super(layout);
+    }
+
+    /** @return The value or null if absent. */
+    String getString(int slot) {
+        return (String) get(slot);
+    }
+
+    boolean hasLong(int slot) {
+        return get(slot) != null;
+    }
+
+    long getLong(int slot) {
+        return (Long) get(slot);
+    }
+
+    boolean hasDouble(int slot) {
+        return get(slot) != null;
+    }
+
+    double getDouble(int slot) {
+        return (Double) get(slot);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The aggregates of all groups.
+ */
+public class AggregationResult {
+
+    private final List<String> groupFields;
+    private final List<String> metricNames;
+    private final List<Row> rows;
+
+    AggregationResult(List<String> groupFields, List<String> metricNames, List<Row> rows) {
+        this.groupFields = Collections.unmodifiableList(groupFields);
+        this.metricNames = Collections.unmodifiableList(metricNames);
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    public List<String> getGroupFields() {
+        return groupFields;
+    }
+
+    public List<String> getMetricNames() {
+        return metricNames;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return The row of the group with these values (in the order of the group fields) or null if absent.
+     */
+    public Row getRow(Object... groupValues) {
+        for (Row row : rows) {
+            if (row.getGroupValues().equals(Arrays.asList(groupValues))) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    // --------------------------------------------
+
+    public static class Row {
+        private final Map<String, Object> groupValues;
+        private final Map<String, Object> values;
+
+        Row(Map<String, Object> groupValues, Map<String, Object> values) {
+            this.groupValues = groupValues;
+            this.values = values;
+        }
+
+        /**
+         * @return The value of the group field: a Long, Double or String (or null if it was absent).
+         */
+        public Object getGroup(String field) {
+            return groupValues.get(field);
+        }
+
+        public List<Object> getGroupValues() {
+            return new ArrayList<>(groupValues.values());
+        }
+
+        /**
+         * @return The value of the metric: a Long or Double (a QuantileSketch for percentiles,
+         *         a HyperLogLog for distinct and a TopK for topK).
+         */
+        public Object getValue(String metric) {
+            return values.get(metric);
+        }
+
+        /**
+         * @param metric The name of a percentiles metric.
+         * @param quantile The quantile (0.99 is the p99).
+         */
+        public double getPercentile(String metric, double quantile) {
+            Object value = values.get(metric);
+            if (!(value instanceof QuantileSketch)) {
+                throw new IllegalArgumentException("The metric " + metric + " is not a percentiles metric");
+            }
+            return ((QuantileSketch) value).getQuantile(quantile);
+        }
+
+        /**
+         * @param metric The name of a distinct metric.
+         * @return The estimated number of distinct values.
+         */
+        public long getDistinct(String metric) {
+            Object value = values.get(metric);
+            if (!(value instanceof HyperLogLog)) {
+                throw new IllegalArgumentException("The metric " + metric + " is not a distinct metric");
+            }
+            return ((HyperLogLog) value).getEstimate();
+        }
+
+        /**
+         * @param metric The name of a topK metric.
+         * @return The (at most) k most frequent values, the highest count first.
+         */
+        public List<TopK.Entry> getTop(String metric, int k) {
+            Object value = values.get(metric);
+            if (!(value instanceof TopK)) {
+                throw new IllegalArgumentException("The metric " + metric + " is not a topK metric");
+            }
+            return ((TopK) value).getTop(k);
+        }
+
+        @Override
+        public String toString() {
+            return groupValues + " => " + values;
+        }
+    }
+
+}
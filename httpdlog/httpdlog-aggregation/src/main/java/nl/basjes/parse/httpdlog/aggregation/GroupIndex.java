@@ -0,0 +1,129 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import java.util.Arrays;
+
+/**
+ * Maps a group key (a fixed number of longs) to a dense group number (0, 1, 2, ...) in the order of appearance.
+ * Open addressing with linear probing over primitive arrays: no objects per group or per lookup.
+ */
+final class GroupIndex {
+
+    private final int width;
+    // The keys of all groups: group g uses [g * width, (g + 1) * width)
+    private long[] keys;
+    // The hash table: group + 1 (0 = empty)
+    private int[] table;
+    private int mask;
+    private int size = 0;
+
+    GroupIndex(int width) {
+        this.width = width;
+        keys = new long[Math.max(1, width) * 16];
+        table = new int[32];
+        mask = table.length - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getKey(int group, int column) {
+        return keys[group * width + column];
+    }
+
+    /**
+     * @return The group of this key (a new group if the key was not seen before).
+     */
+    int getOrAdd(long[] key) {
+        int hash = hash(key);
+        int position = hash & mask;
+        while (true) {
+            int entry = table[position];
+            if (entry == 0) {
+                break;
+            }
+            if (matches(entry - 1, key)) {
+                return entry - 1;
+            }
+            position = (position + 1) & mask;
+        }
+
+        int group = size++;
+        if ((group + 1) * width > keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        System.arraycopy(key, 0, keys, group * width, width);
+        table[position] = group + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return group;
+    }
+
+    private boolean matches(int group, long[] key) {
+        int offset = group * width;
+        for (int column = 0; column < width; column++) {
+            if (keys[offset + column] != key[column]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int hash(long[] key) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int column = 0; column < width; column++) {
+            hash = mix(hash ^ key[column]);
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private int hashOfGroup(int group) {
+        long hash = 0x9E3779B97F4A7C15L;
+        int offset = group * width;
+        for (int column = 0; column < width; column++) {
+            hash = mix(hash ^ keys[offset + column]);
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    // The finalizer of MurmurHash3
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        mask = table.length - 1;
+        for (int group = 0; group < size; group++) {
+            int position = hashOfGroup(group) & mask;
+            while (table[position] != 0) {
+                position = (position + 1) & mask;
+            }
+            table[position] = group + 1;
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_EMPTY;
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * Parses loglines and groups them into sessions per visitor using a {@link Sessionizer}.
+ * The visitor is the first of the configured visitor keys of which all fields have a value, like a session
+ * cookie and (if the cookie is absent) the combination of IP and useragent:
+ * <pre>
+ * LogSessionizer sessionizer = new LogSessionizer("combined", 30 * 60 * 1000, session -&gt; ...)
+ *     .withVisitorKey("HTTP.COOKIE:request.cookies.bui")
+ *     .withVisitorKey("IP:connection.client.host", "HTTP.USERAGENT:request.user-agent");
+ * for (String line : lines) {
+ *     sessionizer.add(line);
+ * }
+ * sessionizer.flush();
+ * </pre>
+ * Without any visitor key the IP and useragent are used.
+ * The time of a line is TIME.EPOCH:request.receive.time.epoch; the files must be (mostly) in time order,
+ * which is the case for the logfile(s) of a single host.
+ */
+public class LogSessionizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogSessionizer.class);
+
+    public static final String TIME_FIELD = "TIME.EPOCH:request.receive.time.epoch";
+
+    private final String logformat;
+    private final List<String[]> visitorKeys = new ArrayList<>();
+    private final Sessionizer<VisitRecord> sessionizer;
+
+    private Parser<VisitRecord> parser = null;
+    private VisitRecord record = null;
+
+    private final LineCounter counter = new LineCounter(LOG);
+
+    /**
+     * @param timeoutMillis The maximum time between two hits in a session.
+     * @param listener Receives every session when it is closed.
+     */
+    public LogSessionizer(String logformat, long timeoutMillis, Consumer<Session> listener) {
+        this.logformat = logformat;
+        sessionizer = new Sessionizer<>(VisitRecord::getVisitor, VisitRecord::getTime, timeoutMillis, listener);
+    }
+
+    /**
+     * Add a visitor key: the combination of the values of these fields.
+     * The keys are tried in the order in which they were added.
+     */
+    public LogSessionizer withVisitorKey(String... fields) {
+        checkNotStarted();
+        String[] key = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            key[i] = Parser.cleanupFieldValue(fields[i]);
+        }
+        visitorKeys.add(key);
+        return this;
+    }
+
+    /**
+     * @see Sessionizer#withMaxSessions(int)
+     */
+    public LogSessionizer withMaxSessions(int newMaxSessions) {
+        sessionizer.withMaxSessions(newMaxSessions);
+        return this;
+    }
+
+    private void checkNotStarted() {
+        if (parser != null) {
+            throw new IllegalStateException("The sessionizer has already been started.");
+        }
+    }
+
+    // --------------------------------------------
+
+    private void initialize() throws MissingDissectorsException, InvalidDissectorException {
+        if (parser != null) {
+            return;
+        }
+        if (visitorKeys.isEmpty()) {
+            withVisitorKey("IP:connection.client.host", "HTTP.USERAGENT:request.user-agent");
+        }
+
+        Map<String, Integer> slots = new HashMap<>();
+        int[][] keySlots = new int[visitorKeys.size()][];
+        for (int key = 0; key < keySlots.length; key++) {
+            String[] fields = visitorKeys.get(key);
+            keySlots[key] = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                Integer slot = slots.get(fields[i]);
+                if (slot == null) {
+                    slot = slots.size();
+                    slots.put(fields[i], slot);
+                }
+                keySlots[key][i] = slot;
+            }
+        }
+
+        Parser<VisitRecord> newParser = new HttpdLoglineParser<>(VisitRecord.class, logformat);
+        try {
+            // An empty value (like a cookie without a value) is not a usable visitor key.
+            newParser.addParseTarget(
+                VisitRecord.class.getMethod("setString", String.class, String.class), NOT_EMPTY, new ArrayList<>(slots.keySet()));
+            newParser.addParseTarget(
+                VisitRecord.class.getMethod("setTime", String.class, Long.class), NOT_NULL, TIME_FIELD);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        record = new VisitRecord(slots, keySlots);
+        parser = newParser;
+    }
+
+    /**
+     * Parse the logline and add it to the session of its visitor.
+     * @return The id of the session or -1 if the line was bad, rejected by a filter or has no visitor or time.
+     */
+    public long add(String line) throws MissingDissectorsException, InvalidDissectorException {
+        initialize();
+        counter.read();
+        record.clear();
+        try {
+            if (parser.parse(record, line) == null) {
+                counter.filtered();
+                return -1;
+            }
+        } catch (DissectionFailure dissectionFailure) {
+            counter.bad(dissectionFailure.getMessage(), line);
+            return -1;
+        }
+        if (!record.hasTime()) {
+            counter.bad("The line has no " + TIME_FIELD, line);
+            return -1;
+        }
+        return sessionizer.add(record);
+    }
+
+    /**
+     * @see Sessionizer#advanceTime(long)
+     */
+    public void advanceTime(long time) {
+        sessionizer.advanceTime(time);
+    }
+
+    /**
+     * Close all open sessions.
+     */
+    public void flush() {
+        sessionizer.flush();
+    }
+
+    /**
+     * @return The parser so additional dissectors, type remappings or filters can be added before the first line.
+     */
+    public Parser<VisitRecord> getParser() throws MissingDissectorsException, InvalidDissectorException {
+        initialize();
+        return parser;
+    }
+
+    public int getOpenSessions() {
+        return sessionizer.getOpenSessions();
+    }
+
+    public long getSessionsClosed() {
+        return sessionizer.getSessionsClosed();
+    }
+
+    public long getLinesRead() {
+        return counter.getLinesRead();
+    }
+
+    public long getLinesBad() {
+        return counter.getLinesBad();
+    }
+
+    public long getLinesFiltered() {
+        return counter.getLinesFiltered();
+    }
+
+    // --------------------------------------------
+
+    /**
+     * The values of the visitor key fields and the time of a line.
+     */
+    public static class VisitRecord {
+        private final Map<String, Integer> slots;
+        private final int[][] keySlots;
+        private final String[] values;
+        private long time;
+        private boolean hasTime;
+
+        VisitRecord(Map<String, Integer> slots, int[][] keySlots) {
+            this.slots = slots;
+            this.keySlots = keySlots;
+            this.values = new String[slots.size()];
+        }
+
+        void clear() {
+            Arrays.fill(values, null);
+            hasTime = false;
+        }
+
+        public void setString(String name, String value) {
+            Integer slot = slots.get(name);
+            if (slot != null) {
+                values[slot] = value;
+            }
+        }
+
+        public void setTime(String name, Long value) {
+            time = value;
+            hasTime = true;
+        }
+
+        boolean hasTime() {
+            return hasTime;
+        }
+
+        long getTime() {
+            return time;
+        }
+
+        /**
+         * @return The values of the first visitor key of which all fields have a value (separated by a tab).
+         */
+        String getVisitor() {
+            for (int[] key : keySlots) {
+                if (key.length == 1) {
+                    if (values[key[0]] != null) {
+                        return values[key[0]];
+                    }
+                    continue;
+                }
+                StringBuilder sb = new StringBuilder(64);
+                boolean complete = true;
+                for (int slot : key) {
+                    if (values[slot] == null) {
+                        complete = false;
+                        break;
+                    }
+                    if (sb.length() > 0) {
+                        sb.append('\t');
+                    }
+                    sb.append(values[slot]);
+                }
+                if (complete) {
+                    return sb.toString();
+                }
+            }
+            return null;
+        }
+    }
+
+}
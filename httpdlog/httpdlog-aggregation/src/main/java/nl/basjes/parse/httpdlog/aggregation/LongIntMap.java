@@ -0,0 +1,131 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+/**
+ * A hash map from a long to a non negative int on primitive arrays (open addressing with linear probing and
+ * backward shift deletion): no objects per entry or per lookup.
+ */
+final class LongIntMap {
+
+    private long[] keys;
+    // value + 1 (0 = empty)
+    private int[] values;
+    private int mask;
+    private int size = 0;
+
+    LongIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity *= 2;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The value or -1 if absent.
+     */
+    int get(long key) {
+        int position = position(key);
+        while (values[position] != 0) {
+            if (keys[position] == key) {
+                return values[position] - 1;
+            }
+            position = (position + 1) & mask;
+        }
+        return -1;
+    }
+
+    void put(long key, int value) {
+        int position = position(key);
+        while (values[position] != 0) {
+            if (keys[position] == key) {
+                values[position] = value + 1;
+                return;
+            }
+            position = (position + 1) & mask;
+        }
+        keys[position] = key;
+        values[position] = value + 1;
+        size++;
+        if (size * 2 > values.length) {
+            rehash();
+        }
+    }
+
+    void remove(long key) {
+        int position = position(key);
+        while (values[position] != 0) {
+            if (keys[position] == key) {
+                shiftBack(position);
+                size--;
+                return;
+            }
+            position = (position + 1) & mask;
+        }
+    }
+
+    // Move the following entries of the same cluster back so no lookup passes an empty position.
+    private void shiftBack(int removed) {
+        int empty = removed;
+        int position = removed;
+        while (true) {
+            position = (position + 1) & mask;
+            if (values[position] == 0) {
+                values[empty] = 0;
+                return;
+            }
+            int home = position(keys[position]);
+            // Can the entry at position be moved to empty (is empty between its home and position)?
+            if (((position - home) & mask) >= ((position - empty) & mask)) {
+                keys[empty] = keys[position];
+                values[empty] = values[position];
+                empty = position;
+            }
+        }
+    }
+
+    private int position(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        mask = values.length - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != 0) {
+                int position = position(oldKeys[i]);
+                while (values[position] != 0) {
+                    position = (position + 1) & mask;
+                }
+                keys[position] = oldKeys[i];
+                values[position] = oldValues[i];
+            }
+        }
+    }
+
+}
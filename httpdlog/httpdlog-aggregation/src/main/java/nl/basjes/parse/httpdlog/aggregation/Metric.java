@@ -0,0 +1,498 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A metric that is computed per group. The state of all groups is kept in primitive arrays indexed by group.
+ */
+abstract class Metric {
+
+    private final String name;
+
+    Metric(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return A description of the definition; only metrics with the same description can be merged.
+     */
+    abstract String describe();
+
+    /**
+     * Make room for the groups 0 .. groups-1.
+     */
+    abstract void grow(int groups);
+
+    abstract void update(int group, AggregationRecord record);
+
+    abstract void merge(int group, Metric other, int otherGroup);
+
+    abstract Object getValue(int group);
+
+    static int newCapacity(int current, int groups) {
+        return Math.max(groups, Math.max(16, current * 2));
+    }
+
+    // --------------------------------------------
+
+    /**
+     * The input field: in a long, a double or a String slot.
+     */
+    static final class Input {
+        static final int LONG = 0;
+        static final int DOUBLE = 1;
+        static final int STRING = 2;
+
+        private final String field;
+        private final int type;
+        private final int slot;
+
+        Input(String field, int type, int slot) {
+            this.field = field;
+            this.type = type;
+            this.slot = slot;
+        }
+
+        String getField() {
+            return field;
+        }
+
+        /**
+         * @return The field and the type in which it is retrieved.
+         */
+        String describe() {
+            switch (type) {
+                case LONG:
+                    return field + " as LONG";
+                case DOUBLE:
+                    return field + " as DOUBLE";
+                default:
+                    return field + " as STRING";
+            }
+        }
+
+        boolean isLong() {
+            return type == LONG;
+        }
+
+        boolean isNumeric() {
+            return type != STRING;
+        }
+
+        boolean has(AggregationRecord record) {
+            switch (type) {
+                case LONG:
+                    return record.hasLong(slot);
+                case DOUBLE:
+                    return record.hasDouble(slot);
+                default:
+                    return record.getString(slot) != null;
+            }
+        }
+
+        long getLong(AggregationRecord record) {
+            return record.getLong(slot);
+        }
+
+        double getDouble(AggregationRecord record) {
+            return type == LONG ? record.getLong(slot) : record.getDouble(slot);
+        }
+
+        /**
+         * @return The value as a String (a number is converted).
+         */
+        String getString(AggregationRecord record) {
+            switch (type) {
+                case LONG:
+                    return Long.toString(record.getLong(slot));
+                case DOUBLE:
+                    return Double.toString(record.getDouble(slot));
+                default:
+                    return record.getString(slot);
+            }
+        }
+
+        /**
+         * @return A 64 bit hash of the value.
+         */
+        long getHash(AggregationRecord record) {
+            switch (type) {
+                case LONG:
+                    return HyperLogLog.hash(record.getLong(slot));
+                case DOUBLE:
+                    return HyperLogLog.hash(Double.doubleToLongBits(record.getDouble(slot)));
+                default:
+                    return HyperLogLog.hash(record.getString(slot));
+            }
+        }
+    }
+
+    // --------------------------------------------
+
+    static final class Count extends Metric {
+        private long[] counts = new long[0];
+
+        Count(String name) {
+            super(name);
+        }
+
+        @Override
+        String describe() {
+            return "count";
+        }
+
+        @Override
+        void grow(int groups) {
+            if (groups > counts.length) {
+                counts = Arrays.copyOf(counts, newCapacity(counts.length, groups));
+            }
+        }
+
+        @Override
+        void update(int group, AggregationRecord record) {
+            counts[group]++;
+        }
+
+        @Override
+        void merge(int group, Metric other, int otherGroup) {
+            counts[group] += ((Count) other).counts[otherGroup];
+        }
+
+        @Override
+        Object getValue(int group) {
+            return counts[group];
+        }
+    }
+
+    static final class Sum extends Metric {
+        private final Input input;
+        private long[] longSums = new long[0];
+        private double[] doubleSums = new double[0];
+
+        Sum(String name, Input input) {
+            super(name);
+            this.input = input;
+        }
+
+        @Override
+        String describe() {
+            return "sum(" + input.describe() + ")";
+        }
+
+        @Override
+        void grow(int groups) {
+            if (input.isLong() && groups > longSums.length) {
+                longSums = Arrays.copyOf(longSums, newCapacity(longSums.length, groups));
+            }
+            if (!input.isLong() && groups > doubleSums.length) {
+                doubleSums = Arrays.copyOf(doubleSums, newCapacity(doubleSums.length, groups));
+            }
+        }
+
+        @Override
+        void update(int group, AggregationRecord record) {
+            if (!input.has(record)) {
+                return;
+            }
+            if (input.isLong()) {
+                longSums[group] += input.getLong(record);
+            } else {
+                doubleSums[group] += input.getDouble(record);
+            }
+        }
+
+        @Override
+        void merge(int group, Metric other, int otherGroup) {
+            Sum otherSum = (Sum) other;
+            if (input.isLong()) {
+                longSums[group] += otherSum.longSums[otherGroup];
+            } else {
+                doubleSums[group] += otherSum.doubleSums[otherGroup];
+            }
+        }
+
+        @Override
+        Object getValue(int group) {
+            if (input.isLong()) {
+                return longSums[group];
+            }
+            return doubleSums[group];
+        }
+    }
+
+    /**
+     * The minimum or maximum (null for a group without values).
+     * A LONG input is kept in a long so values beyond 2^53 do not lose precision.
+     */
+    static final class Extreme extends Metric {
+        private final Input input;
+        private final boolean maximum;
+        private long[] longValues = new long[0];
+        private double[] doubleValues = new double[0];
+        private final BitSet hasValue = new BitSet();
+
+        Extreme(String name, Input input, boolean maximum) {
+            super(name);
+            this.input = input;
+            this.maximum = maximum;
+        }
+
+        @Override
+        String describe() {
+            return (maximum ? "max(" : "min(") + input.describe() + ")";
+        }
+
+        @Override
+        void grow(int groups) {
+            if (input.isLong() && groups > longValues.length) {
+                longValues = Arrays.copyOf(longValues, newCapacity(longValues.length, groups));
+            }
+            if (!input.isLong() && groups > doubleValues.length) {
+                doubleValues = Arrays.copyOf(doubleValues, newCapacity(doubleValues.length, groups));
+            }
+        }
+
+        @Override
+        void update(int group, AggregationRecord record) {
+            if (!input.has(record)) {
+                return;
+            }
+            if (input.isLong()) {
+                addLong(group, input.getLong(record));
+            } else {
+                addDouble(group, input.getDouble(record));
+            }
+        }
+
+        private void addLong(int group, long value) {
+            if (!hasValue.get(group) || (maximum ? value > longValues[group] : value < longValues[group])) {
+                longValues[group] = value;
+                hasValue.set(group);
+            }
+        }
+
+        private void addDouble(int group, double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            if (!hasValue.get(group) || (maximum ? value > doubleValues[group] : value < doubleValues[group])) {
+                doubleValues[group] = value;
+                hasValue.set(group);
+            }
+        }
+
+        @Override
+        void merge(int group, Metric other, int otherGroup) {
+            Extreme otherExtreme = (Extreme) other;
+            if (!otherExtreme.hasValue.get(otherGroup)) {
+                return;
+            }
+            if (input.isLong()) {
+                addLong(group, otherExtreme.longValues[otherGroup]);
+            } else {
+                addDouble(group, otherExtreme.doubleValues[otherGroup]);
+            }
+        }
+
+        @Override
+        Object getValue(int group) {
+            if (!hasValue.get(group)) {
+                return null;
+            }
+            if (input.isLong()) {
+                return longValues[group];
+            }
+            return doubleValues[group];
+        }
+    }
+
+    /**
+     * A {@link QuantileSketch} per group.
+     */
+    static final class Quantiles extends Metric {
+        private final Input input;
+        private final double relativeAccuracy;
+        private QuantileSketch[] sketches = new QuantileSketch[0];
+
+        Quantiles(String name, Input input, double relativeAccuracy) {
+            super(name);
+            this.input = input;
+            this.relativeAccuracy = relativeAccuracy;
+        }
+
+        @Override
+        String describe() {
+            return "quantiles(" + input.describe() + "," + relativeAccuracy + ")";
+        }
+
+        @Override
+        void grow(int groups) {
+            if (groups > sketches.length) {
+                sketches = Arrays.copyOf(sketches, newCapacity(sketches.length, groups));
+            }
+        }
+
+        private QuantileSketch getSketch(int group) {
+            QuantileSketch sketch = sketches[group];
+            if (sketch == null) {
+                sketch = new QuantileSketch(relativeAccuracy);
+                sketches[group] = sketch;
+            }
+            return sketch;
+        }
+
+        @Override
+        void update(int group, AggregationRecord record) {
+            if (input.has(record)) {
+                getSketch(group).add(input.getDouble(record));
+            }
+        }
+
+        @Override
+        void merge(int group, Metric other, int otherGroup) {
+            QuantileSketch otherSketch = ((Quantiles) other).sketches[otherGroup];
+            if (otherSketch != null) {
+                getSketch(group).merge(otherSketch);
+            }
+        }
+
+        @Override
+        Object getValue(int group) {
+            return getSketch(group);
+        }
+    }
+
+    /**
+     * A {@link HyperLogLog} per group: the estimated number of distinct values.
+     */
+    static final class Distinct extends Metric {
+        private final Input input;
+        private final int precision;
+        private HyperLogLog[] sketches = new HyperLogLog[0];
+
+        Distinct(String name, Input input, int precision) {
+            super(name);
+            this.input = input;
+            this.precision = precision;
+        }
+
+        @Override
+        String describe() {
+            return "distinct(" + input.describe() + "," + precision + ")";
+        }
+
+        @Override
+        void grow(int groups) {
+            if (groups > sketches.length) {
+                sketches = Arrays.copyOf(sketches, newCapacity(sketches.length, groups));
+            }
+        }
+
+        private HyperLogLog getSketch(int group) {
+            HyperLogLog sketch = sketches[group];
+            if (sketch == null) {
+                sketch = new HyperLogLog(precision);
+                sketches[group] = sketch;
+            }
+            return sketch;
+        }
+
+        @Override
+        void update(int group, AggregationRecord record) {
+            if (input.has(record)) {
+                getSketch(group).addHash(input.getHash(record));
+            }
+        }
+
+        @Override
+        void merge(int group, Metric other, int otherGroup) {
+            HyperLogLog otherSketch = ((Distinct) other).sketches[otherGroup];
+            if (otherSketch != null) {
+                getSketch(group).merge(otherSketch);
+            }
+        }
+
+        @Override
+        Object getValue(int group) {
+            return getSketch(group);
+        }
+    }
+
+    /**
+     * A {@link TopK} per group: the most frequent values.
+     */
+    static final class MostFrequent extends Metric {
+        private final Input input;
+        private final int capacity;
+        private TopK[] sketches = new TopK[0];
+
+        MostFrequent(String name, Input input, int capacity) {
+            super(name);
+            this.input = input;
+            this.capacity = capacity;
+        }
+
+        @Override
+        String describe() {
+            return "topK(" + input.describe() + "," + capacity + ")";
+        }
+
+        @Override
+        void grow(int groups) {
+            if (groups > sketches.length) {
+                sketches = Arrays.copyOf(sketches, newCapacity(sketches.length, groups));
+            }
+        }
+
+        private TopK getSketch(int group) {
+            TopK sketch = sketches[group];
+            if (sketch == null) {
+                sketch = new TopK(capacity);
+                sketches[group] = sketch;
+            }
+            return sketch;
+        }
+
+        @Override
+        void update(int group, AggregationRecord record) {
+            if (input.has(record)) {
+                getSketch(group).add(input.getString(record));
+            }
+        }
+
+        @Override
+        void merge(int group, Metric other, int otherGroup) {
+            TopK otherSketch = ((MostFrequent) other).sketches[otherGroup];
+            if (otherSketch != null) {
+                getSketch(group).merge(otherSketch);
+            }
+        }
+
+        @Override
+        Object getValue(int group) {
+            return getSketch(group);
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A mergeable sketch of a distribution from which quantiles (like the p99 latency) can be retrieved with a
+ * bounded relative error: each value is counted in a bucket [gamma^(i-1), gamma^i) with
+ * gamma = (1 + accuracy) / (1 - accuracy), so the memory depends on the range of the values, not on their number.
+ * Values smaller than or equal to 0 are counted as 0.
+ */
+public final class QuantileSketch implements Serializable {
+
+    private static final double MIN_INDEXABLE_VALUE = 1e-9;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+
+    // counts[i] is the count of bucket (offset + i)
+    private long[] counts = new long[0];
+    private int offset = 0;
+    private long zeroCount = 0;
+    private long count = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param relativeAccuracy The maximum relative error of the quantiles (like 0.01 for 1%).
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("The relative accuracy must be between 0 and 1 (was " + relativeAccuracy + ")");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    private void add(double value, long valueCount) {
+        count += valueCount;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (value <= MIN_INDEXABLE_VALUE) {
+            zeroCount += valueCount;
+            return;
+        }
+        int bucket = (int) Math.ceil(Math.log(value) / logGamma);
+        ensureBucket(bucket);
+        counts[bucket - offset] += valueCount;
+    }
+
+    private void ensureBucket(int bucket) {
+        if (counts.length == 0) {
+            counts = new long[16];
+            offset = bucket - 8;
+            return;
+        }
+        if (bucket < offset) {
+            int extra = Math.max(offset - bucket, counts.length / 2);
+            long[] newCounts = new long[counts.length + extra];
+            System.arraycopy(counts, 0, newCounts, extra, counts.length);
+            counts = newCounts;
+            offset -= extra;
+        } else if (bucket - offset >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(bucket - offset + 1, counts.length + counts.length / 2));
+        }
+    }
+
+    /**
+     * Add all values of the other sketch (which must have the same relative accuracy).
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Unable to merge sketches with a different relative accuracy");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] != 0) {
+                ensureBucket(other.offset + i);
+                counts[other.offset + i - offset] += other.counts[i];
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * @param quantile The quantile (0.99 is the p99).
+     * @return The (approximate) value at the quantile or NaN if there are no values.
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("The quantile must be between 0 and 1 (was " + quantile + ")");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (count - 1));
+        if (rank < zeroCount) {
+            return Math.max(min, 0);
+        }
+        long seen = zeroCount;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                double value = 2 * Math.pow(gamma, offset + i) / (gamma + 1);
+                return Math.max(min, Math.min(max, value));
+            }
+        }
+        return max;
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import java.io.Serializable;
+
+/**
+ * A closed session: all hits of a visitor without a gap longer than the inactivity timeout.
+ */
+public class Session implements Serializable {
+
+    /**
+     * Why the session was closed.
+     */
+    public enum Reason {
+        /** No hits for longer than the inactivity timeout. */
+        TIMEOUT,
+        /** The oldest open session was closed early to stay within the maximum number of open sessions. */
+        CAPACITY,
+        /** All open sessions were closed at the end of the stream. */
+        FLUSH
+    }
+
+    private final long id;
+    private final String visitor;
+    private final long start;
+    private final long end;
+    private final long hits;
+    private final Reason reason;
+
+    Session(long id, String visitor, long start, long end, long hits, Reason reason) {
+        this.id = id;
+        this.visitor = visitor;
+        this.start = start;
+        this.end = end;
+        this.hits = hits;
+        this.reason = reason;
+    }
+
+    /**
+     * @return The id that was returned when the hits of this session were added.
+     */
+    public long getId() {
+        return id;
+    }
+
+    public String getVisitor() {
+        return visitor;
+    }
+
+    /**
+     * @return The timestamp (epoch milliseconds) of the first hit.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return The timestamp (epoch milliseconds) of the last hit.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getDuration() {
+        return end - start;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "Session{id=" + id + ", visitor='" + visitor + "', start=" + start + ", end=" + end +
+            ", hits=" + hits + ", reason=" + reason + '}';
+    }
+
+}
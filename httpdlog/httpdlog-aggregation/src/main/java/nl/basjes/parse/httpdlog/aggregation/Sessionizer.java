@@ -0,0 +1,300 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Groups a stream of (parsed) records into sessions per visitor: a session ends when the visitor has no hits for
+ * longer than the inactivity timeout. The records themselves are not kept; each record gets the id of its session
+ * and the listener receives every session when it is closed.
+ * <p>
+ * The state is kept in primitive arrays with a slot per open session. The visitor is found through a long
+ * (a 64 bit hash of the visitor key) in a primitive hash table; the open sessions of visitors with the same hash
+ * are chained and told apart by their visitor key. The open sessions are kept in a list ordered
+ * by their last hit, so the sessions that timed out are always at the head of that list and closing them
+ * costs nothing for the sessions that are still active.
+ * The time is driven by the records: the newest timestamp seen so far. Records that are a bit out of order
+ * (less than the timeout) are handled fine: a hit that is not the last one of its session does not move the
+ * session and a new session that starts out of order is inserted at its place in the list (found by walking back
+ * from the tail, so this only costs something for records that are out of order).
+ * <p>
+ * A Sessionizer is not thread safe.
+ */
+public class Sessionizer<RECORD> {
+
+    public static final int DEFAULT_MAX_SESSIONS = 1000000;
+
+    private final Function<RECORD, String> visitorKey;
+    private final ToLongFunction<RECORD> timestamp;
+    private final long timeoutMillis;
+    private final Consumer<Session> listener;
+    private int maxSessions = DEFAULT_MAX_SESSIONS;
+    private ToLongFunction<String> visitorHash = HyperLogLog::hash;
+
+    private final LongIntMap slotOfVisitor = new LongIntMap(1024);
+
+    // The state of the open sessions per slot
+    private long[] visitorHashes = new long[0];
+    private String[] visitors = new String[0];
+    // The next open session with the same visitor hash (or -1)
+    private int[] sameHash = new int[0];
+    private long[] ids = new long[0];
+    private long[] starts = new long[0];
+    private long[] ends = new long[0];
+    private long[] hits = new long[0];
+    // Doubly linked list of the open sessions in the order of their last hit; next is also the free list.
+    private int[] previous = new int[0];
+    private int[] next = new int[0];
+    private int head = -1;
+    private int tail = -1;
+    private int free = -1;
+    private int used = 0;
+
+    private long now = Long.MIN_VALUE;
+    private long nextId = 0;
+    private long sessionsClosed = 0;
+
+    /**
+     * @param visitorKey The visitor of the record (like the value of a cookie or the IP and useragent);
+     *                   a record without a visitor (null) is ignored.
+     * @param timestamp The time (epoch milliseconds) of the record.
+     * @param timeoutMillis The maximum time between two hits in a session.
+     * @param listener Receives every session when it is closed.
+     */
+    public Sessionizer(Function<RECORD, String> visitorKey, ToLongFunction<RECORD> timestamp,
+                       long timeoutMillis, Consumer<Session> listener) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("The timeout must be positive (was " + timeoutMillis + ")");
+        }
+        this.visitorKey = visitorKey;
+        this.timestamp = timestamp;
+        this.timeoutMillis = timeoutMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * The maximum number of open sessions; if a new visitor arrives when this is reached the open session with
+     * the oldest last hit is closed (with reason CAPACITY).
+     */
+    public Sessionizer<RECORD> withMaxSessions(int newMaxSessions) {
+        if (newMaxSessions <= 0) {
+            throw new IllegalArgumentException("The maximum number of sessions must be positive");
+        }
+        this.maxSessions = newMaxSessions;
+        return this;
+    }
+
+    /**
+     * Replace the hash of the visitor key (only to test visitors with the same hash).
+     */
+    Sessionizer<RECORD> withVisitorHash(ToLongFunction<String> newVisitorHash) {
+        this.visitorHash = newVisitorHash;
+        return this;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return The id of the session of this record or -1 if the record has no visitor.
+     */
+    public long add(RECORD record) {
+        long time = timestamp.applyAsLong(record);
+        advanceTime(time);
+
+        String visitor = visitorKey.apply(record);
+        if (visitor == null) {
+            return -1;
+        }
+        long hash = visitorHash.applyAsLong(visitor);
+
+        int slot = find(hash, visitor);
+        if (slot >= 0 && time - ends[slot] > timeoutMillis) {
+            // The gap is too long: only possible if this session has not been expired yet by a record of
+            // another visitor (i.e. the records are out of order).
+            close(slot, Session.Reason.TIMEOUT);
+            slot = -1;
+        }
+
+        if (slot < 0) {
+            if (used >= maxSessions) {
+                close(head, Session.Reason.CAPACITY);
+            }
+            slot = allocate();
+            visitorHashes[slot] = hash;
+            visitors[slot] = visitor;
+            ids[slot] = nextId++;
+            starts[slot] = time;
+            ends[slot] = time;
+            hits[slot] = 1;
+            int first = slotOfVisitor.get(hash);
+            sameHash[slot] = first;
+            slotOfVisitor.put(hash, slot);
+            insert(slot);
+            return ids[slot];
+        }
+
+        hits[slot]++;
+        starts[slot] = Math.min(starts[slot], time);
+        if (time > ends[slot]) {
+            ends[slot] = time;
+            unlink(slot);
+            insert(slot);
+        }
+        return ids[slot];
+    }
+
+    /**
+     * Move the time forward (without a record) and close all sessions that have timed out by then.
+     * Use this on a stream that is idle.
+     */
+    public void advanceTime(long time) {
+        if (time > now) {
+            now = time;
+        }
+        while (head != -1 && now - ends[head] > timeoutMillis) {
+            close(head, Session.Reason.TIMEOUT);
+        }
+    }
+
+    /**
+     * Close all open sessions (in the order of their last hit).
+     */
+    public void flush() {
+        while (head != -1) {
+            close(head, Session.Reason.FLUSH);
+        }
+    }
+
+    /**
+     * @return The number of open sessions.
+     */
+    public int getOpenSessions() {
+        return used;
+    }
+
+    public long getSessionsClosed() {
+        return sessionsClosed;
+    }
+
+    // --------------------------------------------
+
+    private void close(int slot, Session.Reason reason) {
+        listener.accept(new Session(ids[slot], visitors[slot], starts[slot], ends[slot], hits[slot], reason));
+        sessionsClosed++;
+        removeVisitor(slot);
+        visitors[slot] = null;
+        unlink(slot);
+        next[slot] = free;
+        free = slot;
+        used--;
+    }
+
+    /**
+     * @return The slot of the open session of this visitor or -1 if there is none.
+     */
+    private int find(long hash, String visitor) {
+        int slot = slotOfVisitor.get(hash);
+        while (slot >= 0 && !visitors[slot].equals(visitor)) {
+            slot = sameHash[slot];
+        }
+        return slot;
+    }
+
+    private void removeVisitor(int slot) {
+        long hash = visitorHashes[slot];
+        int first = slotOfVisitor.get(hash);
+        if (first == slot) {
+            if (sameHash[slot] < 0) {
+                slotOfVisitor.remove(hash);
+            } else {
+                slotOfVisitor.put(hash, sameHash[slot]);
+            }
+            return;
+        }
+        int before = first;
+        while (sameHash[before] != slot) {
+            before = sameHash[before];
+        }
+        sameHash[before] = sameHash[slot];
+    }
+
+    private int allocate() {
+        used++;
+        if (free != -1) {
+            int slot = free;
+            free = next[slot];
+            return slot;
+        }
+        int slot = used - 1;
+        if (slot >= ids.length) {
+            int capacity = Math.min(maxSessions, Math.max(1024, ids.length * 2));
+            visitorHashes = Arrays.copyOf(visitorHashes, capacity);
+            visitors = Arrays.copyOf(visitors, capacity);
+            sameHash = Arrays.copyOf(sameHash, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            hits = Arrays.copyOf(hits, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        return slot;
+    }
+
+    /**
+     * Put the slot in the list after all sessions with the same or an earlier last hit.
+     */
+    private void insert(int slot) {
+        int before = tail;
+        while (before != -1 && ends[before] > ends[slot]) {
+            before = previous[before];
+        }
+        int after = before == -1 ? head : next[before];
+        previous[slot] = before;
+        next[slot] = after;
+        if (before == -1) {
+            head = slot;
+        } else {
+            next[before] = slot;
+        }
+        if (after == -1) {
+            tail = slot;
+        } else {
+            previous[after] = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        int before = previous[slot];
+        int after = next[slot];
+        if (before == -1) {
+            head = after;
+        } else {
+            next[before] = after;
+        }
+        if (after == -1) {
+            tail = before;
+        } else {
+            previous[after] = before;
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the most frequent values (the heavy hitters like the hottest URLs) in a fixed amount of memory using the
+ * Space-Saving algorithm: a fixed number of counters where a new value replaces the value with the lowest count.
+ * Every value that occurs more than N / capacity times is guaranteed to be present; the count of a value is
+ * overestimated by at most its error (the count of the value it replaced).
+ * Sketches can be merged (as described by Cafaro et al.: "A parallel space saving algorithm").
+ */
+public final class TopK implements Serializable {
+
+    private final int capacity;
+    private final Map<String, Integer> slots;
+    private final String[] items;
+    private final long[] counts;
+    private final long[] errors;
+    // A min heap (on count) of the used slots; position[slot] is the index in the heap.
+    private final int[] heap;
+    private final int[] position;
+    private int size = 0;
+
+    /**
+     * @param capacity The number of counters (use several times the number of values you want to retrieve).
+     */
+    public TopK(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive (was " + capacity + ")");
+        }
+        this.capacity = capacity;
+        slots = new HashMap<>(capacity * 2);
+        items = new String[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        heap = new int[capacity];
+        position = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void add(String item) {
+        add(item, 1);
+    }
+
+    public void add(String item, long count) {
+        if (item == null) {
+            return;
+        }
+        Integer slot = slots.get(item);
+        if (slot != null) {
+            counts[slot] += count;
+            siftDown(position[slot]);
+            return;
+        }
+        if (size < capacity) {
+            int newSlot = size++;
+            items[newSlot] = item;
+            counts[newSlot] = count;
+            errors[newSlot] = 0;
+            slots.put(item, newSlot);
+            heap[newSlot] = newSlot;
+            position[newSlot] = newSlot;
+            siftUp(newSlot);
+            return;
+        }
+        // Replace the item with the lowest count
+        int minSlot = heap[0];
+        slots.remove(items[minSlot]);
+        long minCount = counts[minSlot];
+        items[minSlot] = item;
+        errors[minSlot] = minCount;
+        counts[minSlot] = minCount + count;
+        slots.put(item, minSlot);
+        siftDown(0);
+    }
+
+    private void siftUp(int index) {
+        int current = index;
+        while (current > 0) {
+            int parent = (current - 1) / 2;
+            if (counts[heap[parent]] <= counts[heap[current]]) {
+                return;
+            }
+            swap(current, parent);
+            current = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        int current = index;
+        while (true) {
+            int smallest = current;
+            int left = 2 * current + 1;
+            int right = left + 1;
+            if (left < size && counts[heap[left]] < counts[heap[smallest]]) {
+                smallest = left;
+            }
+            if (right < size && counts[heap[right]] < counts[heap[smallest]]) {
+                smallest = right;
+            }
+            if (smallest == current) {
+                return;
+            }
+            swap(current, smallest);
+            current = smallest;
+        }
+    }
+
+    private void swap(int first, int second) {
+        int slot = heap[first];
+        heap[first] = heap[second];
+        heap[second] = slot;
+        position[heap[first]] = first;
+        position[heap[second]] = second;
+    }
+
+    /**
+     * @return The count below which a value may have been dropped (0 as long as not all counters are used).
+     */
+    private long getMinimumCount() {
+        return size < capacity ? 0 : counts[heap[0]];
+    }
+
+    /**
+     * Add all counts of the other sketch. A value that is absent in one of the two is counted with the lowest
+     * count of that sketch (as it could have been dropped there), which keeps the guarantees of both.
+     */
+    public void merge(TopK other) {
+        long minimum = getMinimumCount();
+        long otherMinimum = other.getMinimumCount();
+
+        Map<String, long[]> merged = new HashMap<>();
+        for (int slot = 0; slot < size; slot++) {
+            merged.put(items[slot], new long[]{counts[slot] + otherMinimum, errors[slot] + otherMinimum});
+        }
+        for (int slot = 0; slot < other.size; slot++) {
+            long[] entry = merged.get(other.items[slot]);
+            if (entry == null) {
+                merged.put(other.items[slot], new long[]{other.counts[slot] + minimum, other.errors[slot] + minimum});
+            } else {
+                entry[0] += other.counts[slot] - otherMinimum;
+                entry[1] += other.errors[slot] - otherMinimum;
+            }
+        }
+
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(merged.entrySet());
+        entries.sort((first, second) -> Long.compare(second.getValue()[0], first.getValue()[0]));
+        slots.clear();
+        Arrays.fill(items, null);
+        size = 0;
+        for (Map.Entry<String, long[]> entry : entries.subList(0, Math.min(capacity, entries.size()))) {
+            int slot = size++;
+            items[slot] = entry.getKey();
+            counts[slot] = entry.getValue()[0];
+            errors[slot] = entry.getValue()[1];
+            slots.put(entry.getKey(), slot);
+            heap[slot] = slot;
+            position[slot] = slot;
+            siftUp(slot);
+        }
+    }
+
+    /**
+     * @return The (at most) k values with the highest counts, the highest first.
+     */
+    public List<Entry> getTop(int k) {
+        List<Entry> entries = new ArrayList<>(size);
+        for (int slot = 0; slot < size; slot++) {
+            entries.add(new Entry(items[slot], counts[slot], errors[slot]));
+        }
+        entries.sort((first, second) -> Long.compare(second.getCount(), first.getCount()));
+        return Collections.unmodifiableList(entries.subList(0, Math.min(k, entries.size())));
+    }
+
+    /**
+     * @return The (over)estimated count of the value; for an absent value the maximum count it could have.
+     */
+    public long getCount(String item) {
+        Integer slot = slots.get(item);
+        return slot == null ? getMinimumCount() : counts[slot];
+    }
+
+    @Override
+    public String toString() {
+        return "TopK" + getTop(10);
+    }
+
+    // --------------------------------------------
+
+    public static class Entry implements Serializable {
+        private final String item;
+        private final long count;
+        private final long error;
+
+        Entry(String item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        /**
+         * @return The estimated count which is at most getError() too high.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * @return The number of occurrences that is certain.
+         */
+        public long getGuaranteedCount() {
+            return count - error;
+        }
+
+        @Override
+        public String toString() {
+            return item + "=" + count;
+        }
+    }
+
+}
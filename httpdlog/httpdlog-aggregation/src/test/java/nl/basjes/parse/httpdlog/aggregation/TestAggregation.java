@@ -0,0 +1,320 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.Parsable;
+import nl.basjes.parse.core.SimpleDissector;
+import nl.basjes.parse.core.Value;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.httpdlog.dissectors.ScreenResolutionDissector;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestAggregation {
+
+    private static final String LOG_FORMAT = "%h %l %u %t \"%r\" %>s %b %D";
+
+    private static final String STATUS = "STRING:request.status.last";
+    private static final String TIME   = "TIME.EPOCH:request.receive.time.epoch";
+    private static final String BYTES  = "BYTES:response.body.bytes";
+    private static final String LATENCY = "MICROSECONDS:response.server.processing.time";
+
+    // 24/Oct/2012:23:00:00 +0200
+    private static final long START = 1351112400000L;
+    private static final long MINUTE = 60000L;
+
+    private static final String LINE =
+        "10.0.0.1 - - [24/Oct/2012:23:00:05 +0200] \"GET /index.html HTTP/1.1\" 200 100 1200";
+
+    private static List<String> accessLog() throws IOException {
+        return Files.readAllLines(new File("src/test/resources/access.log").toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static Aggregation statusPerMinute() {
+        return new Aggregation(LOG_FORMAT)
+            .groupBy(STATUS)
+            .groupByTime(TIME, 60000)
+            .count("requests")
+            .sum("bytes", BYTES)
+            .max("maxLatency", LATENCY)
+            .percentiles("latency", LATENCY);
+    }
+
+    @Test
+    public void testStatusPerMinute() throws Exception {
+        Aggregation aggregation = statusPerMinute();
+        for (String line : accessLog()) {
+            aggregation.add(line);
+        }
+        assertEquals(9, aggregation.getLinesRead());
+        assertEquals(1, aggregation.getLinesBad());
+
+        AggregationResult result = aggregation.getResult();
+        assertEquals(5, result.getRows().size());
+
+        AggregationResult.Row ok = result.getRow("200", START);
+        assertEquals(2L,    ok.getValue("requests"));
+        assertEquals(350L,  ok.getValue("bytes"));
+        assertEquals(2300L, ok.getValue("maxLatency"));
+
+        AggregationResult.Row notFound = result.getRow("404", START);
+        assertEquals(1L,    notFound.getValue("requests"));
+        // The "-" of %b counts as 0 bytes.
+        assertEquals(0L,    notFound.getValue("bytes"));
+        assertEquals(350L,  notFound.getValue("maxLatency"));
+
+        assertEquals(2L,    result.getRow("200", START + MINUTE).getValue("requests"));
+        assertEquals(500L,  result.getRow("200", START + MINUTE).getValue("bytes"));
+        assertEquals(410L,  result.getRow("404", START + MINUTE).getValue("maxLatency"));
+        assertEquals(400L,  result.getRow("200", START + 2 * MINUTE).getValue("bytes"));
+        assertEquals(3100L, result.getRow("200", START + 2 * MINUTE).getValue("maxLatency"));
+        assertNull(result.getRow("404", START + 2 * MINUTE));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        Aggregation aggregation = new Aggregation(LOG_FORMAT)
+            .count("requests")
+            .min("min", LATENCY)
+            .max("max", LATENCY)
+            .percentiles("latency", LATENCY);
+        for (int number = 1; number <= 10000; number++) {
+            aggregation.add("10.0.0.1 - - [24/Oct/2012:23:00:00 +0200] \"GET / HTTP/1.1\" 200 100 " + number);
+        }
+        AggregationResult result = aggregation.getResult();
+        assertEquals(1, result.getRows().size());
+        AggregationResult.Row row = result.getRows().get(0);
+        assertEquals(10000L, row.getValue("requests"));
+        assertEquals(1L, row.getValue("min"));
+        assertEquals(10000L, row.getValue("max"));
+        assertEquals(9900, row.getPercentile("latency", 0.99), 9900 * 0.01);
+        assertEquals(5000, row.getPercentile("latency", 0.50), 5000 * 0.01);
+        assertEquals(1, row.getPercentile("latency", 0.0), 0.01);
+        assertEquals(10000, row.getPercentile("latency", 1.0), 10000 * 0.01);
+    }
+
+    @Test
+    public void testExtremeOfLargeLongs() throws Exception {
+        Aggregation aggregation = new Aggregation(LOG_FORMAT)
+            .min("min", LATENCY)
+            .max("max", LATENCY);
+        // Beyond 2^53 these cannot be represented exactly in a double.
+        for (long latency : new long[]{9007199254740995L, 9007199254740993L, 9007199254740997L}) {
+            aggregation.add("10.0.0.1 - - [24/Oct/2012:23:00:00 +0200] \"GET / HTTP/1.1\" 200 100 " + latency);
+        }
+        AggregationResult.Row row = aggregation.getResult().getRows().get(0);
+        assertEquals(9007199254740993L, row.getValue("min"));
+        assertEquals(9007199254740997L, row.getValue("max"));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        Aggregation all = statusPerMinute();
+        Aggregation first = statusPerMinute();
+        Aggregation second = statusPerMinute();
+        List<String> lines = accessLog();
+        for (int index = 0; index < lines.size(); index++) {
+            all.add(lines.get(index));
+            // The second one sees the groups in a different order
+            (index < lines.size() / 2 ? first : second).add(lines.get(lines.size() - 1 - index));
+        }
+        first.merge(second);
+        assertEquals(all.getLinesRead(), first.getLinesRead());
+        assertEquals(all.getLinesBad(), first.getLinesBad());
+
+        AggregationResult expected = all.getResult();
+        AggregationResult actual = first.getResult();
+        assertEquals(expected.getRows().size(), actual.getRows().size());
+        for (AggregationResult.Row row : expected.getRows()) {
+            AggregationResult.Row merged = actual.getRow(row.getGroupValues().toArray());
+            assertEquals(row.getValue("requests"), merged.getValue("requests"));
+            assertEquals(row.getValue("bytes"), merged.getValue("bytes"));
+            assertEquals(row.getValue("maxLatency"), merged.getValue("maxLatency"));
+            assertEquals(row.getPercentile("latency", 0.99), merged.getPercentile("latency", 0.99), 0.0001);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentDefinition() throws Exception {
+        statusPerMinute().merge(new Aggregation(LOG_FORMAT).count("requests"));
+    }
+
+    private static void assertMergeFails(Aggregation first, Aggregation second) throws Exception {
+        first.add(LINE);
+        second.add(LINE);
+        try {
+            first.merge(second);
+            fail("Merging different definitions must fail");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        // Nothing was merged
+        assertEquals(1, first.getLinesRead());
+        assertEquals(1, first.getResult().getRows().size());
+    }
+
+    @Test
+    public void testMergeDifferentMetricKind() throws Exception {
+        assertMergeFails(
+            new Aggregation(LOG_FORMAT).groupBy(STATUS).sum("bytes", BYTES),
+            new Aggregation(LOG_FORMAT).groupBy(STATUS).max("bytes", BYTES));
+    }
+
+    @Test
+    public void testMergeDifferentPrecision() throws Exception {
+        assertMergeFails(
+            new Aggregation(LOG_FORMAT).distinct("clients", "IP:connection.client.host", 10),
+            new Aggregation(LOG_FORMAT).distinct("clients", "IP:connection.client.host", 12));
+        assertMergeFails(
+            new Aggregation(LOG_FORMAT).topK("urls", "HTTP.URI:request.firstline.uri", 10),
+            new Aggregation(LOG_FORMAT).topK("urls", "HTTP.URI:request.firstline.uri", 20));
+        assertMergeFails(
+            new Aggregation(LOG_FORMAT).percentiles("latency", LATENCY, 0.01),
+            new Aggregation(LOG_FORMAT).percentiles("latency", LATENCY, 0.02));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSumOfString() throws Exception {
+        new Aggregation(LOG_FORMAT).sum("method", "HTTP.METHOD:request.firstline.method").add(LINE);
+    }
+
+    @Test
+    public void testConfigureParserBeforeFirstLine() throws Exception {
+        Aggregation aggregation = new Aggregation(LOG_FORMAT)
+            .groupBy(STATUS)
+            .sum("width", "SCREENWIDTH:request.firstline.uri.query.res.width");
+        // Only the parser of the aggregation knows how to get a (numerical) width.
+        aggregation.getParser()
+            .addDissector(new ScreenResolutionDissector())
+            .addTypeRemapping("request.firstline.uri.query.res", ScreenResolutionDissector.SCREENRESOLUTION);
+
+        assertTrue(aggregation.add(
+            "10.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html?res=1280x1024 HTTP/1.1\" 200 100 1234"));
+        assertTrue(aggregation.add(
+            "10.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"GET /index.html?res=800x600 HTTP/1.1\" 200 100 1234"));
+        assertTrue(aggregation.add(
+            "10.0.0.3 - - [24/Oct/2012:23:00:46 +0200] \"GET /index.html?res=640x480 HTTP/1.1\" 404 100 1234"));
+        AggregationResult result = aggregation.getResult();
+        assertEquals(2, result.getRows().size());
+        assertEquals(2080L, result.getRow("200").getValue("width"));
+        assertEquals(640L,  result.getRow("404").getValue("width"));
+    }
+
+    @Test
+    public void testNullGroup() throws Exception {
+        Aggregation aggregation = new Aggregation(LOG_FORMAT)
+            .groupBy("STRING:connection.client.user")
+            .count("requests");
+        aggregation.add(LINE);
+        aggregation.add("10.0.0.2 - niels [24/Oct/2012:23:00:17 +0200] \"GET /missing.html HTTP/1.1\" 404 - 350");
+        AggregationResult result = aggregation.getResult();
+        assertEquals(2, result.getRows().size());
+        assertNull(result.getRows().get(0).getGroup("STRING:connection.client.user"));
+        assertEquals("niels", result.getRows().get(1).getGroup("STRING:connection.client.user"));
+    }
+
+    public static class TemperatureDissector extends SimpleDissector {
+        private static final Map<String, EnumSet<Casts>> OUTPUTS = new HashMap<>();
+        static {
+            OUTPUTS.put("CELSIUS:celsius", Casts.DOUBLE_ONLY);
+        }
+
+        public TemperatureDissector() {
+            super("TEMPERATURE", OUTPUTS);
+        }
+
+        @Override
+        public void dissect(Parsable<?> parsable, String inputname, Value value) throws DissectionFailure {
+            parsable.addDissection(inputname, "CELSIUS", "celsius", Double.parseDouble(value.getString()));
+        }
+    }
+
+    @Test
+    public void testNegativeZeroGroup() throws Exception {
+        String celsius = "CELSIUS:request.firstline.uri.query.temp.celsius";
+        Aggregation aggregation = new Aggregation(LOG_FORMAT)
+            .groupBy(celsius)
+            .count("requests");
+        aggregation.getParser()
+            .addDissector(new TemperatureDissector())
+            .addTypeRemapping("request.firstline.uri.query.temp", "TEMPERATURE");
+        aggregation.add("10.0.0.1 - - [24/Oct/2012:23:00:00 +0200] \"GET /?temp=-0.0 HTTP/1.1\" 200 100 1");
+        aggregation.add("10.0.0.1 - - [24/Oct/2012:23:00:00 +0200] \"GET /?temp=0.0 HTTP/1.1\" 200 100 1");
+        aggregation.add("10.0.0.1 - - [24/Oct/2012:23:00:00 +0200] \"GET / HTTP/1.1\" 200 100 1");
+        AggregationResult result = aggregation.getResult();
+        assertEquals(2, result.getRows().size());
+        assertEquals(2L, result.getRow(0.0).getValue("requests"));
+        assertEquals(1L, result.getRow((Object) null).getValue("requests"));
+    }
+
+    @Test
+    public void testDistinctAndTopK() throws Exception {
+        Aggregation first = new Aggregation(LOG_FORMAT)
+            .distinct("clients", "IP:connection.client.host")
+            .topK("urls", "HTTP.URI:request.firstline.uri", 20);
+        Aggregation second = new Aggregation(LOG_FORMAT)
+            .distinct("clients", "IP:connection.client.host")
+            .topK("urls", "HTTP.URI:request.firstline.uri", 20);
+        for (int number = 0; number < 5000; number++) {
+            String line = "10.0." + (number / 250) + "." + (number % 250) +
+                " - - [24/Oct/2012:23:00:00 +0200] \"GET /page" + (number % 10 == 0 ? 1 : number % 7) + " HTTP/1.1\" 200 100 1";
+            (number % 2 == 0 ? first : second).add(line);
+        }
+        first.merge(second);
+        AggregationResult.Row row = first.getResult().getRows().get(0);
+        assertEquals(5000, row.getDistinct("clients"), 5000 * 0.03);
+        List<TopK.Entry> top = row.getTop("urls", 3);
+        assertEquals("/page1", top.get(0).getItem());
+        assertEquals(3, top.size());
+    }
+
+    @Test
+    public void testQuantileSketch() {
+        Random random = new Random(42);
+        QuantileSketch first = new QuantileSketch(0.01);
+        QuantileSketch second = new QuantileSketch(0.01);
+        double[] values = new double[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(random.nextGaussian() * 3);
+            (i % 2 == 0 ? first : second).add(values[i]);
+        }
+        first.merge(second);
+        Arrays.sort(values);
+        assertEquals(values.length, first.getCount());
+        for (double quantile : new double[]{0.01, 0.25, 0.5, 0.9, 0.99, 0.999}) {
+            double exact = values[(int) (quantile * (values.length - 1))];
+            assertEquals(exact, first.getQuantile(quantile), exact * 0.0101);
+        }
+    }
+
+}
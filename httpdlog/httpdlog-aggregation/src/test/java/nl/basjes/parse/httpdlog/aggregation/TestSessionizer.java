@@ -0,0 +1,253 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TestSessionizer {
+
+    private static final long MINUTE = 60000;
+
+    private static final class Hit {
+        private final String visitor;
+        private final long time;
+
+        Hit(String visitor, long time) {
+            this.visitor = visitor;
+            this.time = time;
+        }
+    }
+
+    private static Sessionizer<Hit> sessionizer(List<Session> sessions) {
+        return new Sessionizer<Hit>(hit -> hit.visitor, hit -> hit.time, 30 * MINUTE, sessions::add);
+    }
+
+    @Test
+    public void testTimeout() {
+        List<Session> sessions = new ArrayList<>();
+        Sessionizer<Hit> sessionizer = sessionizer(sessions);
+
+        long first = sessionizer.add(new Hit("alice", 0));
+        assertEquals(first, sessionizer.add(new Hit("alice", 10 * MINUTE)));
+        long other = sessionizer.add(new Hit("bob", 15 * MINUTE));
+        assertNotEquals(first, other);
+        assertEquals(first, sessionizer.add(new Hit("alice", 39 * MINUTE)));
+        assertEquals(0, sessions.size());
+
+        // Bob has been inactive for more than 30 minutes
+        sessionizer.add(new Hit("carol", 46 * MINUTE));
+        assertEquals(1, sessions.size());
+        assertEquals("bob", sessions.get(0).getVisitor());
+        assertEquals(Session.Reason.TIMEOUT, sessions.get(0).getReason());
+
+        // Alice returns after more than 30 minutes: a new session
+        long second = sessionizer.add(new Hit("alice", 70 * MINUTE));
+        assertNotEquals(first, second);
+        assertEquals(2, sessions.size());
+        Session alice = sessions.get(1);
+        assertEquals(first, alice.getId());
+        assertEquals(3, alice.getHits());
+        assertEquals(0, alice.getStart());
+        assertEquals(39 * MINUTE, alice.getEnd());
+
+        assertEquals(2, sessionizer.getOpenSessions());
+        sessionizer.flush();
+        assertEquals(4, sessions.size());
+        assertEquals("carol", sessions.get(2).getVisitor());
+        assertEquals(Session.Reason.FLUSH, sessions.get(3).getReason());
+        assertEquals(0, sessionizer.getOpenSessions());
+    }
+
+    @Test
+    public void testAdvanceTime() {
+        List<Session> sessions = new ArrayList<>();
+        Sessionizer<Hit> sessionizer = sessionizer(sessions);
+        sessionizer.add(new Hit("alice", 0));
+        sessionizer.advanceTime(30 * MINUTE);
+        assertEquals(0, sessions.size());
+        sessionizer.advanceTime(31 * MINUTE);
+        assertEquals(1, sessions.size());
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        List<Session> sessions = new ArrayList<>();
+        Sessionizer<Hit> sessionizer = sessionizer(sessions);
+        long id = sessionizer.add(new Hit("alice", 10 * MINUTE));
+        assertEquals(id, sessionizer.add(new Hit("alice", 9 * MINUTE)));
+        sessionizer.flush();
+        assertEquals(9 * MINUTE, sessions.get(0).getStart());
+        assertEquals(10 * MINUTE, sessions.get(0).getEnd());
+    }
+
+    @Test
+    public void testOutOfOrderTimeout() {
+        List<Session> sessions = new ArrayList<>();
+        Sessionizer<Hit> sessionizer = sessionizer(sessions);
+        sessionizer.add(new Hit("alice", 10 * MINUTE));
+        sessionizer.add(new Hit("bob", 12 * MINUTE));
+        // An older hit of alice does not make her last hit later than the one of bob
+        sessionizer.add(new Hit("alice", 9 * MINUTE));
+        // A new session that starts before the last hit of bob
+        sessionizer.add(new Hit("carol", 11 * MINUTE));
+
+        sessionizer.advanceTime(41 * MINUTE + 1);
+        assertEquals(2, sessions.size());
+        assertEquals("alice", sessions.get(0).getVisitor());
+        assertEquals(10 * MINUTE, sessions.get(0).getEnd());
+        assertEquals("carol", sessions.get(1).getVisitor());
+
+        sessionizer.advanceTime(42 * MINUTE + 1);
+        assertEquals(3, sessions.size());
+        assertEquals("bob", sessions.get(2).getVisitor());
+    }
+
+    @Test
+    public void testMaxSessions() {
+        List<Session> sessions = new ArrayList<>();
+        Sessionizer<Hit> sessionizer = sessionizer(sessions).withMaxSessions(100);
+        for (int visitor = 0; visitor < 1000; visitor++) {
+            sessionizer.add(new Hit("visitor" + visitor, visitor));
+        }
+        assertEquals(100, sessionizer.getOpenSessions());
+        assertEquals(900, sessions.size());
+        assertEquals("visitor0", sessions.get(0).getVisitor());
+        assertEquals(Session.Reason.CAPACITY, sessions.get(0).getReason());
+    }
+
+    @Test
+    public void testManyVisitors() {
+        List<Session> sessions = new ArrayList<>();
+        Sessionizer<Hit> sessionizer = sessionizer(sessions);
+        Random random = new Random(42);
+        Map<String, Long> lastHit = new HashMap<>();
+        long expectedSessions = 0;
+        for (long time = 0; time < 100000 * 1000L; time += 1000) {
+            String visitor = "visitor" + random.nextInt(2000);
+            Long last = lastHit.put(visitor, time);
+            if (last == null || time - last > 30 * MINUTE) {
+                expectedSessions++;
+            }
+            sessionizer.add(new Hit(visitor, time));
+        }
+        sessionizer.flush();
+        assertEquals(expectedSessions, sessions.size());
+        long hits = 0;
+        for (Session session : sessions) {
+            hits += session.getHits();
+        }
+        assertEquals(100000, hits);
+    }
+
+    @Test
+    public void testSameVisitorHash() {
+        List<Session> sessions = new ArrayList<>();
+        Sessionizer<Hit> sessionizer = sessionizer(sessions).withVisitorHash(visitor -> 42L);
+
+        long alice = sessionizer.add(new Hit("alice", 0));
+        long bob = sessionizer.add(new Hit("bob", MINUTE));
+        long carol = sessionizer.add(new Hit("carol", 2 * MINUTE));
+        assertNotEquals(alice, bob);
+        assertNotEquals(bob, carol);
+        assertEquals(alice, sessionizer.add(new Hit("alice", 3 * MINUTE)));
+        assertEquals(bob, sessionizer.add(new Hit("bob", 4 * MINUTE)));
+        assertEquals(3, sessionizer.getOpenSessions());
+
+        // Carol (in the middle of the chain) times out, the others continue
+        assertEquals(alice, sessionizer.add(new Hit("alice", 33 * MINUTE)));
+        assertEquals(1, sessions.size());
+        assertEquals("carol", sessions.get(0).getVisitor());
+        assertEquals(bob, sessionizer.add(new Hit("bob", 34 * MINUTE)));
+
+        // Alice (the most recent in the chain) is flushed with 3 hits
+        sessionizer.flush();
+        assertEquals(3, sessions.size());
+        assertEquals("alice", sessions.get(1).getVisitor());
+        assertEquals(3, sessions.get(1).getHits());
+        assertEquals("bob", sessions.get(2).getVisitor());
+        assertEquals(3, sessions.get(2).getHits());
+        assertEquals(0, sessionizer.getOpenSessions());
+    }
+
+    @Test
+    public void testLongIntMap() {
+        LongIntMap map = new LongIntMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(5000) * 1024L;
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000 * 1024L; key += 1024) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? -1 : value, map.get(key));
+        }
+    }
+
+    private static final String LOG_FORMAT = "%h %l %u %t \"%r\" %>s %b \"%{User-Agent}i\" \"%{Cookie}i\"";
+
+    private static String line(String ip, String time, String agent, String cookie) {
+        return ip + " - - [24/Oct/2012:" + time + " +0200] \"GET / HTTP/1.1\" 200 100 \"" + agent + "\" \"" + cookie + "\"";
+    }
+
+    @Test
+    public void testLogSessionizer() throws Exception {
+        List<Session> sessions = new ArrayList<>();
+        LogSessionizer sessionizer = new LogSessionizer(LOG_FORMAT, 30 * MINUTE, sessions::add)
+            .withVisitorKey("HTTP.COOKIE:request.cookies.bui")
+            .withVisitorKey("IP:connection.client.host", "HTTP.USERAGENT:request.user-agent");
+
+        // The same cookie from different IPs is one visitor
+        long withCookie = sessionizer.add(line("10.0.0.1", "10:00:00", "Agent", "bui=one"));
+        assertEquals(withCookie, sessionizer.add(line("10.0.0.2", "10:05:00", "Agent", "bui=one; other=x")));
+        // Without the cookie the IP and useragent are used
+        long withoutCookie = sessionizer.add(line("10.0.0.1", "10:06:00", "Agent", "other=x"));
+        assertNotEquals(withCookie, withoutCookie);
+        assertEquals(withoutCookie, sessionizer.add(line("10.0.0.1", "10:07:00", "Agent", "-")));
+        assertNotEquals(withoutCookie, sessionizer.add(line("10.0.0.1", "10:08:00", "Other agent", "-")));
+        assertEquals(-1, sessionizer.add("Not a logline"));
+
+        sessionizer.add(line("10.0.0.9", "11:00:00", "Agent", "bui=two"));
+        assertEquals(3, sessions.size());
+        assertEquals("one", sessions.get(0).getVisitor());
+        assertEquals(2, sessions.get(0).getHits());
+        assertEquals(5 * MINUTE, sessions.get(0).getDuration());
+        assertEquals("10.0.0.1\tAgent", sessions.get(1).getVisitor());
+
+        sessionizer.flush();
+        assertEquals(4, sessions.size());
+        assertEquals(7, sessionizer.getLinesRead());
+        assertEquals(1, sessionizer.getLinesBad());
+    }
+
+}
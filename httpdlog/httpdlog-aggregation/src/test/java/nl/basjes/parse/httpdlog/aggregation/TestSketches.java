@@ -0,0 +1,115 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregation;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSketches {
+
+    @Test
+    public void testHyperLogLog() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 1000000; i++) {
+            String ip = "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255);
+            // Overlapping halves
+            if (i < 600000) {
+                first.add(ip);
+            }
+            if (i >= 400000) {
+                second.add(ip);
+            }
+        }
+        assertEquals(600000, first.getEstimate(), 600000 * 0.03);
+        first.merge(second);
+        assertEquals(1000000, first.getEstimate(), 1000000 * 0.03);
+    }
+
+    @Test
+    public void testHyperLogLogSmall() {
+        HyperLogLog sketch = new HyperLogLog();
+        assertEquals(0, sketch.getEstimate());
+        for (int round = 0; round < 10; round++) {
+            for (long value = 0; value < 100; value++) {
+                sketch.add(value);
+            }
+        }
+        assertEquals(100, sketch.getEstimate(), 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHyperLogLogDifferentPrecision() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+
+    // A Zipf like distribution: value i occurs about 1/i as often as value 1.
+    private static String zipf(Random random) {
+        return "/page/" + (int) Math.floor(Math.exp(random.nextDouble() * Math.log(100000)));
+    }
+
+    @Test
+    public void testTopK() {
+        Random random = new Random(42);
+        TopK first = new TopK(100);
+        TopK second = new TopK(100);
+        TopK all = new TopK(100);
+        long[] exact = new long[100000];
+        for (int i = 0; i < 200000; i++) {
+            String url = zipf(random);
+            exact[Integer.parseInt(url.substring(6))]++;
+            all.add(url);
+            (i % 2 == 0 ? first : second).add(url);
+        }
+        first.merge(second);
+
+        for (TopK sketch : new TopK[]{all, first}) {
+            List<TopK.Entry> top = sketch.getTop(5);
+            assertEquals(5, top.size());
+            for (int rank = 0; rank < 5; rank++) {
+                TopK.Entry entry = top.get(rank);
+                assertEquals("/page/" + (rank + 1), entry.getItem());
+                long count = exact[rank + 1];
+                assertTrue(entry.getGuaranteedCount() <= count);
+                assertTrue(entry.getCount() >= count);
+            }
+        }
+    }
+
+    @Test
+    public void testTopKExactWhenNotFull() {
+        TopK sketch = new TopK(10);
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j <= i; j++) {
+                sketch.add("item" + i);
+            }
+        }
+        List<TopK.Entry> top = sketch.getTop(10);
+        assertEquals(5, top.size());
+        assertEquals("item4", top.get(0).getItem());
+        assertEquals(5, top.get(0).getCount());
+        assertEquals(0, top.get(0).getError());
+        assertEquals(1, sketch.getCount("item0"));
+        assertEquals(0, sketch.getCount("absent"));
+    }
+
+}
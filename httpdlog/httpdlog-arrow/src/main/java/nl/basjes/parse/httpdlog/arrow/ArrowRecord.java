@@ -0,0 +1,205 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.arrow;
+
+import nl.basjes.parse.core.TypedSlotRecord;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The 'record' that is filled by the parser.
+ * Instead of storing the values in an object per line all values are written directly
+ * into the (column) vectors at the current row: the column of each slot of the layout.
+ */
+public class ArrowRecord extends TypedSlotRecord {
+
+    abstract static class Column {
+        abstract FieldVector getVector();
+
+        abstract void setNull(int row);
+
+        abstract void set(int row, Object value);
+    }
+
+    static final class LongColumn extends Column {
+        private final BigIntVector vector;
+
+        LongColumn(BigIntVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        FieldVector getVector() {
+            return vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void set(int row, Object value) {
+            vector.setSafe(row, (Long) value);
+        }
+    }
+
+    static final class DoubleColumn extends Column {
+        private final Float8Vector vector;
+
+        DoubleColumn(Float8Vector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        FieldVector getVector() {
+            return vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void set(int row, Object value) {
+            vector.setSafe(row, (Double) value);
+        }
+    }
+
+    static class StringColumn extends Column {
+        private final VarCharVector vector;
+
+        StringColumn(VarCharVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        FieldVector getVector() {
+            return vector;
+        }
+
+        @Override
+        void setNull(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void set(int row, Object value) {
+            vector.setSafe(row, ((String) value).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * A column with a low cardinality: the vector only contains the index of the value in the dictionary.
+     * The dictionary is retained over batches so the indexes remain valid.
+     */
+    static final class DictionaryColumn extends StringColumn {
+        private final IntVector           indexVector;
+        private final VarCharVector       dictionaryVector;
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<byte[]>        values  = new ArrayList<>();
+
+        DictionaryColumn(IntVector indexVector, VarCharVector dictionaryVector) {
+            super(null);
+            this.indexVector = indexVector;
+            this.dictionaryVector = dictionaryVector;
+        }
+
+        @Override
+        FieldVector getVector() {
+            return indexVector;
+        }
+
+        @Override
+        void setNull(int row) {
+            indexVector.setNull(row);
+        }
+
+        VarCharVector getDictionaryVector() {
+            return dictionaryVector;
+        }
+
+        @Override
+        void set(int row, Object value) {
+            String text = (String) value;
+            Integer index = indexes.get(text);
+            if (index == null) {
+                index = values.size();
+                indexes.put(text, index);
+                values.add(text.getBytes(StandardCharsets.UTF_8));
+            }
+            indexVector.setSafe(row, index);
+        }
+
+        void fillDictionary() {
+            dictionaryVector.clear();
+            dictionaryVector.allocateNew();
+            for (int i = 0; i < values.size(); i++) {
+                dictionaryVector.setSafe(i, values.get(i));
+            }
+            dictionaryVector.setValueCount(values.size());
+        }
+    }
+
+    // --------------------------------------------
+
+    private final List<Column> columns;
+    private int row = 0;
+
+    /**
+     * @param columns The column of each slot of the layout.
+     */
+    ArrowRecord(Layout layout, List<Column> columns) {
+        super(layout);
+        this.columns = columns;
+    }
+
+    int getRow() {
+        return row;
+    }
+
+    void setRow(int newRow) {
+        row = newRow;
+    }
+
+    /**
+     * Undo all values written into the current row.
+     */
+    @Override
+    public void clear() {
+        for (Column column : columns) {
+            column.setNull(row);
+        }
+    }
+
+    // The parser never passes null values (the targets are NOT_NULL).
+    @Override
+    protected void set(int slot, Object value) {
+        columns.get(slot).set(row, value);
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.arrow;
+
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.TypedSlotRecord;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * Parses loglines directly into the column vectors of an Apache Arrow {@link VectorSchemaRoot}.
+ * The schema is derived from the requested fields and the types they can be cast to:
+ * LONG if possible, else DOUBLE, else a (UTF-8) STRING.
+ * Strings with a low cardinality (like the method, protocol and status) are dictionary encoded.
+ */
+public class HttpdLogArrowWriter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpdLogArrowWriter.class);
+
+    /** All fields of these types are dictionary encoded by default. */
+    public static final Set<String> DEFAULT_DICTIONARY_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "HTTP.METHOD",
+        "HTTP.PROTOCOL",
+        "HTTP.PROTOCOL_VERSION",
+        "HTTP.CONNECTSTATUS")));
+
+    /** These fields are dictionary encoded by default. */
+    public static final Set<String> DEFAULT_DICTIONARY_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "STRING:request.status.last",
+        "STRING:request.status.original")));
+
+    private final BufferAllocator allocator;
+    private final List<String> fields = new ArrayList<>();
+    private final Set<String> dictionaryFields = new HashSet<>();
+
+    private Parser<ArrowRecord> parser = null;
+    private ArrowRecord record = null;
+    private VectorSchemaRoot root = null;
+    private final DictionaryProvider.MapDictionaryProvider dictionaryProvider = new DictionaryProvider.MapDictionaryProvider();
+    private final List<ArrowRecord.DictionaryColumn> dictionaryColumns = new ArrayList<>();
+
+    private final String logformat;
+
+    private final LineCounter counter = new LineCounter(LOG);
+
+    public HttpdLogArrowWriter(String logformat, List<String> requestedFields, BufferAllocator allocator) {
+        this.logformat = logformat;
+        this.allocator = allocator;
+        for (String field : requestedFields) {
+            if (field.endsWith(".*")) {
+                throw new IllegalArgumentException("Wildcard fields are not supported: " + field);
+            }
+            String cleanField = Parser.cleanupFieldValue(field);
+            if (fields.contains(cleanField)) {
+                continue;
+            }
+            fields.add(cleanField);
+            String type = cleanField.substring(0, cleanField.indexOf(':'));
+            if (DEFAULT_DICTIONARY_TYPES.contains(type) || DEFAULT_DICTIONARY_FIELDS.contains(cleanField)) {
+                dictionaryFields.add(cleanField);
+            }
+        }
+    }
+
+    /**
+     * Dictionary encode the specified (string) field. Must be called before the first line is added.
+     */
+    public HttpdLogArrowWriter withDictionaryEncoding(String field) {
+        checkNotStarted();
+        dictionaryFields.add(Parser.cleanupFieldValue(field));
+        return this;
+    }
+
+    /**
+     * Do NOT dictionary encode the specified field. Must be called before the first line is added.
+     */
+    public HttpdLogArrowWriter withoutDictionaryEncoding(String field) {
+        checkNotStarted();
+        dictionaryFields.remove(Parser.cleanupFieldValue(field));
+        return this;
+    }
+
+    private void checkNotStarted() {
+        if (root != null) {
+            throw new IllegalStateException("The schema has already been created.");
+        }
+    }
+
+    // --------------------------------------------
+
+    private void initialize() throws MissingDissectorsException, InvalidDissectorException {
+        if (root != null) {
+            return;
+        }
+
+        // First we determine the casts of all fields, then the parser gets exactly one setter per field
+        parser = new HttpdLoglineParser<>(ArrowRecord.class, logformat);
+        TypedSlotRecord.Layout layout = TypedSlotRecord.Layout.mostSpecific(parser, fields);
+        layout.addParseTargets(parser, NOT_NULL);
+
+        List<Field> schemaFields = new ArrayList<>(fields.size());
+        long dictionaryId = 0;
+        for (int slot = 0; slot < layout.size(); slot++) {
+            String field = layout.getField(slot);
+            switch (layout.getCast(slot)) {
+                case LONG:
+                    schemaFields.add(Field.nullable(field, new ArrowType.Int(64, true)));
+                    break;
+                case DOUBLE:
+                    schemaFields.add(Field.nullable(field, new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)));
+                    break;
+                default:
+                    if (dictionaryFields.contains(field)) {
+                        DictionaryEncoding encoding = new DictionaryEncoding(dictionaryId++, false, new ArrowType.Int(32, true));
+                        schemaFields.add(new Field(field, new FieldType(true, encoding.getIndexType(), encoding), null));
+                    } else {
+                        schemaFields.add(Field.nullable(field, ArrowType.Utf8.INSTANCE));
+                    }
+                    break;
+            }
+        }
+
+        root = VectorSchemaRoot.create(new Schema(schemaFields), allocator);
+
+        // The fields of the schema are in the same order as the slots
+        List<ArrowRecord.Column> columns = new ArrayList<>(layout.size());
+        for (Field field : root.getSchema().getFields()) {
+            FieldVector vector = root.getVector(field.getName());
+            vector.allocateNew();
+            DictionaryEncoding encoding = field.getDictionary();
+            if (encoding != null) {
+                VarCharVector dictionaryVector = new VarCharVector(field.getName(), allocator);
+                ArrowRecord.DictionaryColumn column = new ArrowRecord.DictionaryColumn((IntVector) vector, dictionaryVector);
+                dictionaryColumns.add(column);
+                dictionaryProvider.put(new Dictionary(dictionaryVector, encoding));
+                columns.add(column);
+                continue;
+            }
+            if (vector instanceof BigIntVector) {
+                columns.add(new ArrowRecord.LongColumn((BigIntVector) vector));
+            } else if (vector instanceof Float8Vector) {
+                columns.add(new ArrowRecord.DoubleColumn((Float8Vector) vector));
+            } else {
+                columns.add(new ArrowRecord.StringColumn((VarCharVector) vector));
+            }
+        }
+        record = new ArrowRecord(layout, columns);
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Parse the logline and write the values into the next row of the current batch.
+     * @return true if the line was parsed, false if it was bad (the row is then reused for the next line).
+     */
+    public boolean add(String line) throws MissingDissectorsException, InvalidDissectorException {
+        initialize();
+        counter.read();
+        try {
+            parser.parse(record, line);
+        } catch (DissectionFailure dissectionFailure) {
+            counter.bad(dissectionFailure.getMessage(), line);
+            record.clear();
+            return false;
+        }
+        record.setRow(record.getRow() + 1);
+        return true;
+    }
+
+    /**
+     * @return The number of rows in the current batch.
+     */
+    public int getRowCount() {
+        return record == null ? 0 : record.getRow();
+    }
+
+    public long getLinesRead() {
+        return counter.getLinesRead();
+    }
+
+    public long getLinesBad() {
+        return counter.getLinesBad();
+    }
+
+    /**
+     * Finalize the current batch: sets the row count and fills the dictionaries.
+     * The returned root (and the dictionaries) remain valid until {@link #reset()} is called.
+     */
+    public VectorSchemaRoot finishBatch() throws MissingDissectorsException, InvalidDissectorException {
+        initialize();
+        root.setRowCount(record.getRow());
+        for (ArrowRecord.DictionaryColumn column : dictionaryColumns) {
+            column.fillDictionary();
+        }
+        return root;
+    }
+
+    /**
+     * Start a new (empty) batch. The dictionaries are retained so all batches share the same dictionaries.
+     */
+    public void reset() {
+        if (root == null) {
+            return;
+        }
+        for (FieldVector vector : root.getFieldVectors()) {
+            vector.clear();
+            vector.allocateNew();
+        }
+        root.setRowCount(0);
+        record.setRow(0);
+    }
+
+    /**
+     * @return The schema that is derived from the requested fields.
+     */
+    public Schema getSchema() throws MissingDissectorsException, InvalidDissectorException {
+        initialize();
+        return root.getSchema();
+    }
+
+    /**
+     * @return The provider of the dictionaries that belong to the dictionary encoded fields.
+     */
+    public DictionaryProvider getDictionaryProvider() {
+        return dictionaryProvider;
+    }
+
+    @Override
+    public void close() {
+        if (root == null) {
+            return;
+        }
+        root.close();
+        for (ArrowRecord.DictionaryColumn column : dictionaryColumns) {
+            column.getDictionaryVector().close();
+        }
+    }
+
+}
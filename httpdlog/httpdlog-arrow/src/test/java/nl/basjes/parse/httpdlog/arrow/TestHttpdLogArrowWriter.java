@@ -0,0 +1,121 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.arrow;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestHttpdLogArrowWriter {
+
+    private static final String LOG_FORMAT = "common";
+
+    private static final String METHOD = "HTTP.METHOD:request.firstline.method";
+    private static final String URI    = "HTTP.URI:request.firstline.uri";
+    private static final String STATUS = "STRING:request.status.last";
+    private static final String BYTES  = "BYTES:response.body.bytes";
+    private static final String USER   = "STRING:connection.client.user";
+
+    private static final String[] LINES = {
+        "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html HTTP/1.1\" 200 1234",
+        "127.0.0.1 - - [24/Oct/2012:23:00:45 +0200] \"POST /form HTTP/1.1\" 302 -",
+        "This is not a logline",
+        "127.0.0.1 - - [24/Oct/2012:23:00:46 +0200] \"GET /other.html HTTP/1.1\" 200 42",
+    };
+
+    @Test
+    public void testColumns() throws Exception {
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+             HttpdLogArrowWriter writer = new HttpdLogArrowWriter(LOG_FORMAT,
+                 Arrays.asList(METHOD, URI, STATUS, BYTES, USER), allocator)) {
+
+            Schema schema = writer.getSchema();
+            Field method = schema.findField(METHOD);
+            assertNotNull(method.getDictionary());
+            assertNotNull(schema.findField(STATUS).getDictionary());
+            assertEquals(ArrowType.Utf8.INSTANCE, schema.findField(URI).getType());
+            assertNull(schema.findField(URI).getDictionary());
+            assertEquals(new ArrowType.Int(64, true), schema.findField(BYTES).getType());
+
+            for (String line : LINES) {
+                writer.add(line);
+            }
+            assertEquals(3, writer.getRowCount());
+            assertEquals(4, writer.getLinesRead());
+            assertEquals(1, writer.getLinesBad());
+
+            VectorSchemaRoot root = writer.finishBatch();
+            assertEquals(3, root.getRowCount());
+
+            VarCharVector uris = (VarCharVector) root.getVector(URI);
+            assertEquals("/index.html", uris.getObject(0).toString());
+            assertEquals("/form",       uris.getObject(1).toString());
+            assertEquals("/other.html", uris.getObject(2).toString());
+
+            BigIntVector bytes = (BigIntVector) root.getVector(BYTES);
+            assertEquals(1234L, bytes.get(0));
+            assertEquals(0L,    bytes.get(1)); // "-" means 0 bytes
+            assertEquals(42L, bytes.get(2));
+
+            VarCharVector users = (VarCharVector) root.getVector(USER);
+            assertTrue(users.isNull(0)); // "-" means null
+
+            IntVector methods = (IntVector) root.getVector(METHOD);
+            assertEquals(methods.get(0), methods.get(2));
+            assertFalse(methods.get(0) == methods.get(1));
+
+            Dictionary dictionary = writer.getDictionaryProvider().lookup(method.getDictionary().getId());
+            VarCharVector methodNames = (VarCharVector) dictionary.getVector();
+            assertEquals(2, methodNames.getValueCount());
+            assertEquals("GET",  methodNames.getObject(methods.get(0)).toString());
+            assertEquals("POST", methodNames.getObject(methods.get(1)).toString());
+
+            // The next batch retains the dictionary
+            int postIndex = methods.get(1);
+            writer.reset();
+            assertEquals(0, writer.getRowCount());
+            writer.add(LINES[1]);
+            root = writer.finishBatch();
+            assertEquals(1, root.getRowCount());
+            assertEquals("/form", ((VarCharVector) root.getVector(URI)).getObject(0).toString());
+            assertEquals(postIndex, ((IntVector) root.getVector(METHOD)).get(0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWildcardsAreRejected() {
+        new HttpdLogArrowWriter(LOG_FORMAT,
+            Arrays.asList("STRING:request.firstline.uri.query.*"), new RootAllocator(Long.MAX_VALUE));
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.avro;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.FieldCasts;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.TypedSlotRecord;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import nl.basjes.parse.httpdlog.avro.ParsedAvroRecord.Target;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.specific.SpecificData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * Which field of the logline goes into which field of an Avro schema.
+ * The mapping is taken from the property {@value #FIELD_PROPERTY} of the Avro fields (also in nested records)
+ * and/or from an explicit mapping (like a properties file) from the path of the Avro field
+ * (the names of the fields separated by a '.', like "visitor.ip") to the field of the logline ("TYPE:name").
+ * <pre>
+ * AvroFieldMapping mapping = AvroFieldMapping.fromSchema(Click.getClassSchema(), mappingProperties);
+ * Parser&lt;ParsedAvroRecord&gt; parser = new HttpdLoglineParser&lt;&gt;(ParsedAvroRecord.class, logformat);
+ * // Optionally add dissectors, type remappings and filters to the parser
+ * TypedSlotRecord.Layout layout = mapping.addParseTargets(parser);
+ * ParsedAvroRecord record = mapping.createRecord(layout);
+ * parser.parse(record, line);
+ * Click click = (Click) record.getRecord();
+ * </pre>
+ * The positions of all fields are determined once so filling a record does not need any lookups by name.
+ * The supported types of the (optionally nullable) Avro fields are string, long, int, double and float.
+ */
+public final class AvroFieldMapping {
+
+    public static final String FIELD_PROPERTY = "httpdlog.field";
+
+    private final Schema schema;
+    // Key = path of the Avro field, Value = "TYPE:name"
+    private final Map<String, String> fields = new LinkedHashMap<>();
+
+    // Key = "TYPE:name", Value = where the value must be put
+    private final Map<String, List<Target>> targets = new LinkedHashMap<>();
+
+    private AvroFieldMapping(Schema schema, Map<String, String> explicitMapping) {
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new IllegalArgumentException("The schema must be a record (was " + schema.getType() + ")");
+        }
+        this.schema = schema;
+        Set<String> unused = new HashSet<>(explicitMapping.keySet());
+        walk(schema, "", new ArrayList<>(), new ArrayList<>(), explicitMapping, unused);
+        if (!unused.isEmpty()) {
+            throw new IllegalArgumentException("The mapping contains unknown Avro fields: " + unused);
+        }
+    }
+
+    public static AvroFieldMapping fromSchema(Schema schema) {
+        return new AvroFieldMapping(schema, Collections.emptyMap());
+    }
+
+    /**
+     * @param mapping Key = the path of the Avro field, Value = the field ("TYPE:name").
+     *                These take precedence over the properties in the schema.
+     */
+    public static AvroFieldMapping fromSchema(Schema schema, Map<String, String> mapping) {
+        return new AvroFieldMapping(schema, mapping);
+    }
+
+    /**
+     * @param mapping Key = the path of the Avro field, Value = the field ("TYPE:name").
+     *                These take precedence over the properties in the schema.
+     */
+    public static AvroFieldMapping fromSchema(Schema schema, Properties mapping) {
+        Map<String, String> map = new HashMap<>();
+        for (String name : mapping.stringPropertyNames()) {
+            map.put(name, mapping.getProperty(name));
+        }
+        return new AvroFieldMapping(schema, map);
+    }
+
+    private void walk(Schema recordSchema, String prefix, List<Integer> path, List<Schema> recordSchemas,
+                      Map<String, String> explicitMapping, Set<String> unused) {
+        recordSchemas.add(recordSchema);
+        for (Schema.Field avroField : recordSchema.getFields()) {
+            String avroPath = prefix + avroField.name();
+            String field = explicitMapping.get(avroPath);
+            unused.remove(avroPath);
+            if (field == null) {
+                field = avroField.getProp(FIELD_PROPERTY);
+            }
+            Schema fieldSchema = withoutNull(avroField.schema());
+            path.add(avroField.pos());
+
+            if (fieldSchema.getType() == Schema.Type.RECORD) {
+                if (field != null) {
+                    throw new IllegalArgumentException("The Avro field " + avroPath + " is a record");
+                }
+                walk(fieldSchema, avroPath + '.', path, recordSchemas, explicitMapping, unused);
+            } else if (field != null) {
+                addTarget(avroPath, fieldSchema.getType(), field,
+                    path.stream().mapToInt(Integer::intValue).toArray(),
+                    recordSchemas.toArray(new Schema[0]));
+            }
+
+            path.remove(path.size() - 1);
+        }
+        recordSchemas.remove(recordSchemas.size() - 1);
+    }
+
+    private static Schema withoutNull(Schema fieldSchema) {
+        if (fieldSchema.getType() != Schema.Type.UNION) {
+            return fieldSchema;
+        }
+        Schema result = null;
+        for (Schema member : fieldSchema.getTypes()) {
+            if (member.getType() == Schema.Type.NULL) {
+                continue;
+            }
+            if (result != null) {
+                return fieldSchema; // A real union
+            }
+            result = member;
+        }
+        return result == null ? fieldSchema : result;
+    }
+
+    private void addTarget(String avroPath, Schema.Type type, String field, int[] path, Schema[] recordSchemas) {
+        if (field.endsWith(".*")) {
+            throw new IllegalArgumentException("The Avro field " + avroPath + ": Wildcard fields are not supported: " + field);
+        }
+        switch (type) {
+            case STRING:
+            case LONG:
+            case INT:
+            case DOUBLE:
+            case FLOAT:
+                break;
+            default:
+                throw new IllegalArgumentException("The Avro field " + avroPath + " has the unsupported type " + type);
+        }
+        String cleanField = Parser.cleanupFieldValue(field);
+        targets.computeIfAbsent(cleanField, f -> new ArrayList<>()).add(new Target(path, recordSchemas, type));
+        fields.put(avroPath, cleanField);
+    }
+
+    // --------------------------------------------
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return Key = path of the Avro field, Value = the field ("TYPE:name") that is put in it.
+     */
+    public Map<String, String> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+
+    /**
+     * Make the parser fill the mapped fields.
+     * Each field is retrieved as the most specific type that both the field (with everything that has been
+     * configured in the parser, like type remappings) and its Avro field(s) allow.
+     * So add the dissectors, type remappings and filters to the parser before calling this.
+     * @return The layout of the records that this parser must fill (see {@link #createRecord(TypedSlotRecord.Layout)}).
+     */
+    public TypedSlotRecord.Layout addParseTargets(Parser<ParsedAvroRecord> parser)
+        throws MissingDissectorsException, InvalidDissectorException {
+        TypedSlotRecord.Layout layout = createLayout(TypedSlotRecord.resolveCasts(parser, targets.keySet()));
+        layout.addParseTargets(parser, NOT_NULL);
+        return layout;
+    }
+
+    /**
+     * @return A slot for every Avro field (in the order of the targets) with the cast of its logline field.
+     */
+    private TypedSlotRecord.Layout createLayout(Map<String, EnumSet<Casts>> fieldCasts) {
+        List<String> slotFields = new ArrayList<>();
+        List<Casts>  slotCasts  = new ArrayList<>();
+        for (Map.Entry<String, List<Target>> fieldTargets : targets.entrySet()) {
+            String field = fieldTargets.getKey();
+            EnumSet<Casts> casts = fieldCasts.get(field);
+            boolean wantsLong   = false;
+            boolean wantsDouble = false;
+            for (Target target : fieldTargets.getValue()) {
+                wantsLong   |= target.getType() == Schema.Type.LONG   || target.getType() == Schema.Type.INT;
+                wantsDouble |= target.getType() == Schema.Type.DOUBLE || target.getType() == Schema.Type.FLOAT;
+            }
+            Casts cast = Casts.STRING;
+            if (casts != null && wantsLong && casts.contains(Casts.LONG)) {
+                cast = Casts.LONG;
+            } else if (casts != null && wantsDouble && casts.contains(Casts.DOUBLE)) {
+                cast = Casts.DOUBLE;
+            }
+            for (int i = 0; i < fieldTargets.getValue().size(); i++) {
+                slotFields.add(field);
+                slotCasts.add(cast);
+            }
+        }
+        return new TypedSlotRecord.Layout(slotFields, slotCasts);
+    }
+
+    /**
+     * @param layout The layout returned by {@link #addParseTargets(Parser)} for the parser that fills the record.
+     * @return A new record: an instance of the generated (specific) class of the schema if that is available,
+     * else a generic record.
+     */
+    public ParsedAvroRecord createRecord(TypedSlotRecord.Layout layout) {
+        if (SpecificData.get().getClass(schema) != null) {
+            return createRecord(layout, SpecificData.get());
+        }
+        return createRecord(layout, GenericData.get());
+    }
+
+    /**
+     * @param layout The layout returned by {@link #addParseTargets(Parser)} for the parser that fills the record.
+     * @param model The data model that is used to create the (nested) records.
+     */
+    public ParsedAvroRecord createRecord(TypedSlotRecord.Layout layout, GenericData model) {
+        List<Target> slotTargets = new ArrayList<>();
+        for (List<Target> fieldTargets : targets.values()) {
+            slotTargets.addAll(fieldTargets);
+        }
+        if (layout.size() != slotTargets.size()) {
+            throw new IllegalArgumentException("The layout has " + layout.size() + " slots but there are " +
+                slotTargets.size() + " mapped Avro fields");
+        }
+        return new ParsedAvroRecord(layout, model, schema, slotTargets.toArray(new Target[0]));
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Derive a (flat) Avro schema from the requested fields and the types they can be cast to:
+     * LONG if possible, else DOUBLE, else a STRING (all of them nullable).
+     * The name of an Avro field is the name of the requested field with all invalid characters replaced
+     * by an '_'; if two fields result in the same name the type is prepended to make it unique.
+     * Each Avro field has the property {@value #FIELD_PROPERTY} with the requested field.
+     */
+    public static Schema createSchema(String logFormat, String recordName, List<String> requestedFields)
+        throws MissingDissectorsException, InvalidDissectorException {
+        List<String> cleanFields = new ArrayList<>(requestedFields.size());
+        for (String field : requestedFields) {
+            if (field.endsWith(".*")) {
+                throw new IllegalArgumentException("Wildcard fields are not supported: " + field);
+            }
+            cleanFields.add(Parser.cleanupFieldValue(field));
+        }
+        Map<String, EnumSet<Casts>> fieldCasts = TypedSlotRecord.resolveCasts(
+            new HttpdLoglineParser<>(TypedSlotRecord.class, logFormat), cleanFields);
+
+        Set<String> usedNames = new HashSet<>();
+        List<Schema.Field> avroFields = new ArrayList<>(cleanFields.size());
+        for (String field : cleanFields) {
+            Schema valueSchema;
+            switch (FieldCasts.mostSpecific(fieldCasts.get(field))) {
+                case LONG:
+                    valueSchema = Schema.create(Schema.Type.LONG);
+                    break;
+                case DOUBLE:
+                    valueSchema = Schema.create(Schema.Type.DOUBLE);
+                    break;
+                default:
+                    valueSchema = Schema.create(Schema.Type.STRING);
+                    GenericData.setStringType(valueSchema, GenericData.StringType.String);
+                    break;
+            }
+
+            String name = toAvroName(field.substring(field.indexOf(':') + 1));
+            if (!usedNames.add(name)) {
+                name = toAvroName(field);
+                if (!usedNames.add(name)) {
+                    throw new IllegalArgumentException("The field " + field + " was requested more than once");
+                }
+            }
+            Schema.Field avroField = new Schema.Field(name,
+                Schema.createUnion(Arrays.asList(Schema.create(Schema.Type.NULL), valueSchema)),
+                null, Schema.Field.NULL_VALUE);
+            avroField.addProp(FIELD_PROPERTY, field);
+            avroFields.add(avroField);
+        }
+        return Schema.createRecord(recordName, "Parsed loglines", null, false, avroFields);
+    }
+
+    private static String toAvroName(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 1);
+        if (name.isEmpty() || !Character.isLetter(name.charAt(0))) {
+            sb.append('_');
+        }
+        for (char c : name.toCharArray()) {
+            sb.append((c < 128 && Character.isLetterOrDigit(c)) ? c : '_');
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.avro;
+
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.IndexedRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Parses loglines directly into an Avro container file.
+ * A single record is reused for all lines: its mapped values are cleared before each line.
+ * <pre>
+ * try (HttpdLogAvroWriter writer = new HttpdLogAvroWriter(logformat, AvroFieldMapping.fromSchema(schema), out)) {
+ *     for (String line : lines) {
+ *         writer.add(line);
+ *     }
+ * }
+ * </pre>
+ */
+public class HttpdLogAvroWriter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpdLogAvroWriter.class);
+
+    private final AvroFieldMapping mapping;
+    private final Parser<ParsedAvroRecord> parser;
+    private ParsedAvroRecord record = null;
+    private final DataFileWriter<IndexedRecord> writer;
+
+    private final LineCounter counter = new LineCounter(LOG);
+
+    public HttpdLogAvroWriter(String logformat, AvroFieldMapping mapping, OutputStream out)
+        throws IOException, MissingDissectorsException, InvalidDissectorException {
+        this(logformat, mapping, out, CodecFactory.nullCodec());
+    }
+
+    public HttpdLogAvroWriter(String logformat, AvroFieldMapping mapping, OutputStream out, CodecFactory codec)
+        throws IOException, MissingDissectorsException, InvalidDissectorException {
+        this.mapping = mapping;
+        parser = new HttpdLoglineParser<>(ParsedAvroRecord.class, logformat);
+        writer = new DataFileWriter<>(GenericData.get().<IndexedRecord>createDatumWriter(mapping.getSchema()));
+        writer.setCodec(codec);
+        writer.create(mapping.getSchema(), out);
+    }
+
+    /**
+     * @return The parser so additional dissectors, type remappings or filters can be added before the first line.
+     * These are taken into account when the types of the fields are determined (at the first line).
+     */
+    public Parser<ParsedAvroRecord> getParser() {
+        return parser;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Parse the logline and append it to the file.
+     * @return true if the line was written, false if it was bad or rejected by a filter.
+     */
+    public boolean add(String line) throws IOException, MissingDissectorsException, InvalidDissectorException {
+        if (record == null) {
+            record = mapping.createRecord(mapping.addParseTargets(parser));
+        }
+        counter.read();
+        record.clear();
+        try {
+            if (parser.parse(record, line) == null) {
+                counter.filtered();
+                return false;
+            }
+        } catch (DissectionFailure dissectionFailure) {
+            counter.bad(dissectionFailure.getMessage(), line);
+            return false;
+        }
+        writer.append(record.getRecord());
+        return true;
+    }
+
+    public long getLinesRead() {
+        return counter.getLinesRead();
+    }
+
+    public long getLinesBad() {
+        return counter.getLinesBad();
+    }
+
+    public long getLinesFiltered() {
+        return counter.getLinesFiltered();
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+}
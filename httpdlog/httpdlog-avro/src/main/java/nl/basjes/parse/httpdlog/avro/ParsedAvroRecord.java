@@ -0,0 +1,143 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.avro;
+
+import nl.basjes.parse.core.TypedSlotRecord;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.IndexedRecord;
+
+/**
+ * The 'record' that is filled by the parser: the values are put directly (by position) into an
+ * Avro {@link IndexedRecord} (a GenericRecord or a SpecificRecord).
+ * Nested records are created when a value is put in one of their fields.
+ * Each slot of the layout is one mapped Avro field.
+ * Create instances using {@link AvroFieldMapping#createRecord(TypedSlotRecord.Layout)}.
+ */
+public class ParsedAvroRecord extends TypedSlotRecord {
+
+    /**
+     * Where a value must be put: the positions of the fields from the top level record to the value,
+     * the schemas of the records along that path and the type of the value.
+     */
+    static final class Target {
+        private final int[] path;
+        private final Schema[] recordSchemas;
+        private final Schema.Type type;
+
+        Target(int[] path, Schema[] recordSchemas, Schema.Type type) {
+            this.path = path;
+            this.recordSchemas = recordSchemas;
+            this.type = type;
+        }
+
+        Schema.Type getType() {
+            return type;
+        }
+    }
+
+    private final GenericData model;
+    private final Schema schema;
+    // Per slot: the place where that value must be put
+    private final Target[] targets;
+    private IndexedRecord record;
+
+    ParsedAvroRecord(Layout layout, GenericData model, Schema schema, Target[] targets) {
+        super(layout);
+        this.model = model;
+        this.schema = schema;
+        this.targets = targets;
+        newRecord();
+    }
+
+    /**
+     * @return The record with the values of the last parsed line.
+     */
+    public IndexedRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * Start a new (empty) record; the previous one is not modified anymore so it can be safely handed out.
+     */
+    public void newRecord() {
+        record = (IndexedRecord) model.newRecord(null, schema);
+    }
+
+    /**
+     * Clear all mapped values of the current record so it can be reused for the next line.
+     * Nested records are retained (only their mapped values are cleared).
+     */
+    @Override
+    public void clear() {
+        for (Target target : targets) {
+            IndexedRecord parent = getParent(target, false);
+            if (parent != null) {
+                parent.put(target.path[target.path.length - 1], null);
+            }
+        }
+    }
+
+    private IndexedRecord getParent(Target target, boolean create) {
+        IndexedRecord current = record;
+        for (int depth = 0; depth < target.path.length - 1; depth++) {
+            IndexedRecord child = (IndexedRecord) current.get(target.path[depth]);
+            if (child == null) {
+                if (!create) {
+                    return null;
+                }
+                child = (IndexedRecord) model.newRecord(null, target.recordSchemas[depth + 1]);
+                current.put(target.path[depth], child);
+            }
+            current = child;
+        }
+        return current;
+    }
+
+    @Override
+    protected void set(int slot, Object value) {
+        Target target = targets[slot];
+        getParent(target, true).put(target.path[target.path.length - 1], convert(value, target.type));
+    }
+
+    // The parser uses the setter that matches the casts of the field so the conversion is normally trivial.
+    // Only if the field cannot be cast (like a STRING status in an int field) the String value is parsed.
+    private static Object convert(Object value, Schema.Type type) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            switch (type) {
+                case STRING:
+                    return value.toString();
+                case LONG:
+                    return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(value.toString());
+                case INT:
+                    return value instanceof Number ? ((Number) value).intValue() : Integer.valueOf(value.toString());
+                case DOUBLE:
+                    return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf(value.toString());
+                case FLOAT:
+                    return value instanceof Number ? ((Number) value).floatValue() : Float.valueOf(value.toString());
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
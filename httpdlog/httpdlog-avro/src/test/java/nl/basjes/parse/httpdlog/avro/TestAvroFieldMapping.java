@@ -0,0 +1,238 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.avro;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import nl.basjes.parse.httpdlog.dissectors.ScreenResolutionDissector;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.SeekableByteArrayInput;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static nl.basjes.parse.core.FieldFilters.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestAvroFieldMapping {
+
+    private static final String LOG_FORMAT = "common";
+    private static final String LINE =
+        "10.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html?s=1 HTTP/1.1\" 200 1234";
+
+    private static final String SCHEMA_JSON =
+        "{ \"type\": \"record\", \"name\": \"Click\", \"namespace\": \"nl.basjes.test\", \"fields\": [" +
+        "  { \"name\": \"ip\",     \"type\": [\"null\", \"string\"], \"default\": null, " +
+        "    \"httpdlog.field\": \"IP:connection.client.host\" }," +
+        "  { \"name\": \"status\", \"type\": [\"null\", \"int\"],    \"default\": null, " +
+        "    \"httpdlog.field\": \"STRING:request.status.last\" }," +
+        "  { \"name\": \"bytes\",  \"type\": \"long\", \"default\": 0, " +
+        "    \"httpdlog.field\": \"BYTES:response.body.bytes\" }," +
+        "  { \"name\": \"unmapped\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+        "  { \"name\": \"request\", \"type\": [\"null\", {" +
+        "      \"type\": \"record\", \"name\": \"Request\", \"fields\": [" +
+        "        { \"name\": \"method\", \"type\": [\"null\", \"string\"], \"default\": null, " +
+        "          \"httpdlog.field\": \"HTTP.METHOD:request.firstline.method\" }," +
+        "        { \"name\": \"path\",   \"type\": [\"null\", \"string\"], \"default\": null }" +
+        "      ] }], \"default\": null }" +
+        "] }";
+
+    private static Schema schema() {
+        return new Schema.Parser().parse(SCHEMA_JSON);
+    }
+
+    private static ParsedAvroRecord parse(AvroFieldMapping mapping, String line) throws Exception {
+        Parser<ParsedAvroRecord> parser = new HttpdLoglineParser<>(ParsedAvroRecord.class, LOG_FORMAT);
+        return parser.parse(mapping.createRecord(mapping.addParseTargets(parser)), line);
+    }
+
+    @Test
+    public void testSchemaProperties() throws Exception {
+        AvroFieldMapping mapping = AvroFieldMapping.fromSchema(schema());
+        assertEquals("IP:connection.client.host",            mapping.getFields().get("ip"));
+        assertEquals("STRING:request.status.last",           mapping.getFields().get("status"));
+        assertEquals("BYTES:response.body.bytes",            mapping.getFields().get("bytes"));
+        assertEquals("HTTP.METHOD:request.firstline.method", mapping.getFields().get("request.method"));
+        assertEquals(4, mapping.getFields().size());
+
+        ParsedAvroRecord record = parse(mapping, LINE);
+
+        GenericRecord click = (GenericRecord) record.getRecord();
+        assertEquals("10.0.0.1", click.get("ip"));
+        assertEquals(200,        click.get("status"));
+        assertEquals(1234L,      click.get("bytes"));
+        assertNull(click.get("unmapped"));
+        assertEquals("GET", ((GenericRecord) click.get("request")).get("method"));
+        assertNull(((GenericRecord) click.get("request")).get("path"));
+    }
+
+    @Test
+    public void testMappingFile() throws Exception {
+        Properties mappingFile = new Properties();
+        mappingFile.setProperty("unmapped",     "HTTP.URI:request.firstline.uri");
+        mappingFile.setProperty("request.path", "HTTP.PATH:request.firstline.uri.path");
+        // Overrules the property in the schema
+        mappingFile.setProperty("ip",           "STRING:connection.client.user");
+
+        AvroFieldMapping mapping = AvroFieldMapping.fromSchema(schema(), mappingFile);
+        ParsedAvroRecord record = parse(mapping, LINE);
+
+        GenericRecord click = (GenericRecord) record.getRecord();
+        assertNull(click.get("ip")); // The user is "-"
+        assertEquals("/index.html?s=1", click.get("unmapped"));
+        assertEquals("/index.html", ((GenericRecord) click.get("request")).get("path"));
+        assertEquals("GET",         ((GenericRecord) click.get("request")).get("method"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownAvroField() {
+        AvroFieldMapping.fromSchema(schema(), Collections.singletonMap("nosuchfield", "IP:connection.client.host"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedType() {
+        Schema schema = SchemaBuilder.record("Bad").fields()
+            .name("flag").prop(AvroFieldMapping.FIELD_PROPERTY, "STRING:request.status.last").type().booleanType().noDefault()
+            .endRecord();
+        AvroFieldMapping.fromSchema(schema);
+    }
+
+    @Test
+    public void testClearAndReuse() throws Exception {
+        AvroFieldMapping mapping = AvroFieldMapping.fromSchema(schema());
+        Parser<ParsedAvroRecord> parser = new HttpdLoglineParser<>(ParsedAvroRecord.class, LOG_FORMAT);
+        ParsedAvroRecord record = mapping.createRecord(mapping.addParseTargets(parser));
+
+        parser.parse(record, LINE);
+        IndexedRecord first = record.getRecord();
+        IndexedRecord firstRequest = (IndexedRecord) ((GenericRecord) first).get("request");
+
+        record.clear();
+        assertSame(first, record.getRecord());
+        assertNull(((GenericRecord) first).get("ip"));
+        // The nested record is retained, only its values are cleared.
+        assertSame(firstRequest, ((GenericRecord) first).get("request"));
+        assertNull(((GenericRecord) firstRequest).get("method"));
+
+        record.newRecord();
+        assertFalse(first == record.getRecord());
+        assertNull(((GenericRecord) record.getRecord()).get("request"));
+    }
+
+    @Test
+    public void testDerivedSchema() throws Exception {
+        Schema schema = AvroFieldMapping.createSchema(LOG_FORMAT, "Line", Arrays.asList(
+            "IP:connection.client.host",
+            "BYTES:response.body.bytes",
+            "STRING:request.status.last",
+            "HTTP.URI:request.firstline.uri"));
+        assertEquals(Schema.Type.LONG,   schema.getField("response_body_bytes").schema().getTypes().get(1).getType());
+        assertEquals(Schema.Type.STRING, schema.getField("request_status_last").schema().getTypes().get(1).getType());
+        assertEquals(Schema.Type.STRING, schema.getField("connection_client_host").schema().getTypes().get(1).getType());
+        assertEquals("HTTP.URI:request.firstline.uri",
+            schema.getField("request_firstline_uri").getProp(AvroFieldMapping.FIELD_PROPERTY));
+
+        AvroFieldMapping mapping = AvroFieldMapping.fromSchema(schema);
+        GenericRecord record = (GenericRecord) parse(mapping, LINE).getRecord();
+        assertEquals("10.0.0.1", record.get("connection_client_host"));
+        assertEquals(1234L,      record.get("response_body_bytes"));
+    }
+
+    @Test
+    public void testWriteContainerFile() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AvroFieldMapping mapping = AvroFieldMapping.fromSchema(schema());
+        try (HttpdLogAvroWriter writer = new HttpdLogAvroWriter(LOG_FORMAT, mapping, out)) {
+            assertTrue(writer.add(LINE));
+            assertFalse(writer.add("This is not a valid logline"));
+            assertTrue(writer.add(LINE.replace("GET", "POST").replace("10.0.0.1", "10.0.0.2")));
+            assertEquals(3, writer.getLinesRead());
+            assertEquals(1, writer.getLinesBad());
+        }
+
+        List<GenericRecord> records = new ArrayList<>();
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(
+                new SeekableByteArrayInput(out.toByteArray()), new GenericDatumReader<>())) {
+            for (GenericRecord record : reader) {
+                records.add(record);
+            }
+        }
+        assertEquals(2, records.size());
+        assertEquals(new Utf8("10.0.0.1"), records.get(0).get("ip"));
+        assertEquals(new Utf8("10.0.0.2"), records.get(1).get("ip"));
+        assertEquals(new Utf8("GET"),  ((GenericRecord) records.get(0).get("request")).get("method"));
+        assertEquals(new Utf8("POST"), ((GenericRecord) records.get(1).get("request")).get("method"));
+        assertEquals(1234L, records.get(1).get("bytes"));
+    }
+
+    @Test
+    public void testConfigureParserBeforeFirstLine() throws Exception {
+        Schema remapped = SchemaBuilder.record("Status").fields()
+            .name("width").prop(AvroFieldMapping.FIELD_PROPERTY, "SCREENWIDTH:request.firstline.uri.query.res.width")
+                .type().optional().longType()
+            .endRecord();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (HttpdLogAvroWriter writer = new HttpdLogAvroWriter(LOG_FORMAT, AvroFieldMapping.fromSchema(remapped), out)) {
+            // Only the parser of the writer knows how to get the width.
+            writer.getParser()
+                .addDissector(new ScreenResolutionDissector())
+                .addTypeRemapping("request.firstline.uri.query.res", ScreenResolutionDissector.SCREENRESOLUTION);
+            assertTrue(writer.add(
+                "10.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html?res=1280x1024 HTTP/1.1\" 200 1234"));
+        }
+
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(
+                new SeekableByteArrayInput(out.toByteArray()), new GenericDatumReader<>())) {
+            assertEquals(1280L, reader.next().get("width"));
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void testFilteredLinesAreNotWritten() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AvroFieldMapping mapping = AvroFieldMapping.fromSchema(schema());
+        try (HttpdLogAvroWriter writer = new HttpdLogAvroWriter(LOG_FORMAT, mapping, out)) {
+            writer.getParser().addFilter("HTTP.METHOD:request.firstline.method", equalTo("POST"));
+            assertFalse(writer.add(LINE));
+            assertEquals(1, writer.getLinesRead());
+            assertEquals(0, writer.getLinesBad());
+            assertEquals(1, writer.getLinesFiltered());
+        }
+
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(
+                new SeekableByteArrayInput(out.toByteArray()), new GenericDatumReader<>())) {
+            assertFalse(reader.hasNext());
+        }
+    }
+
+}
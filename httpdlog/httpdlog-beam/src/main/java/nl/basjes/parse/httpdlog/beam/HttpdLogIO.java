@@ -0,0 +1,181 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.beam;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.avro.AvroFieldMapping;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.coders.AvroCoder;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PBegin;
+import org.apache.beam.sdk.values.PCollection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reading and parsing Apache HTTPD and NGINX access logfiles in Apache Beam.
+ * <pre>
+ * PCollection&lt;GenericRecord&gt; records = pipeline.apply(
+ *     HttpdLogIO.read()
+ *         .from("/var/log/httpd/access_log*")
+ *         .withLogFormat("combined")
+ *         .withFields("IP:connection.client.host", "BYTES:response.body.bytes"));
+ * </pre>
+ * The files are read using a splittable DoFn over newline aligned byte ranges (of {@link Read#withSplitSize(long)}
+ * bytes) so the parsing scales with the size of the files instead of the number of files.
+ * The output is an Avro {@link GenericRecord} with the schema from {@link Read#getSchema()}.
+ */
+public final class HttpdLogIO {
+
+    public static final long DEFAULT_SPLIT_SIZE = 64L * 1024 * 1024;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final String DEFAULT_RECORD_NAME = "HttpdLogRecord";
+
+    private HttpdLogIO() {
+    }
+
+    public static Read read() {
+        return new Read(null, null, Collections.emptyList(), DEFAULT_RECORD_NAME, DEFAULT_SPLIT_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * The transform that reads and parses the files (use {@link HttpdLogIO#read()} to create it).
+     */
+    public static final class Read extends PTransform<PBegin, PCollection<GenericRecord>> {
+
+        private final String filepattern;
+        private final String logFormat;
+        private final List<String> fields;
+        private final String recordName;
+        private final long splitSize;
+        private final int batchSize;
+
+        private Read(String filepattern, String logFormat, List<String> fields, String recordName,
+                     long splitSize, int batchSize) {
+            this.filepattern = filepattern;
+            this.logFormat = logFormat;
+            this.fields = fields;
+            this.recordName = recordName;
+            this.splitSize = splitSize;
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * The files to read (a filepattern as supported by the Beam FileSystems).
+         */
+        public Read from(String newFilepattern) {
+            return new Read(newFilepattern, logFormat, fields, recordName, splitSize, batchSize);
+        }
+
+        public Read withLogFormat(String newLogFormat) {
+            return new Read(filepattern, newLogFormat, fields, recordName, splitSize, batchSize);
+        }
+
+        /**
+         * The fields ("TYPE:name") that are put in the output records (wildcards are not supported).
+         */
+        public Read withFields(String... newFields) {
+            return withFields(Arrays.asList(newFields));
+        }
+
+        public Read withFields(List<String> newFields) {
+            return new Read(filepattern, logFormat, new ArrayList<>(newFields), recordName, splitSize, batchSize);
+        }
+
+        /**
+         * The name of the Avro record.
+         */
+        public Read withRecordName(String newRecordName) {
+            return new Read(filepattern, logFormat, fields, newRecordName, splitSize, batchSize);
+        }
+
+        /**
+         * The (maximum) number of bytes of a file that is handled as a single unit of work.
+         */
+        public Read withSplitSize(long newSplitSize) {
+            if (newSplitSize < 1) {
+                throw new IllegalArgumentException("The split size must be at least 1 (was " + newSplitSize + ")");
+            }
+            return new Read(filepattern, logFormat, fields, recordName, newSplitSize, batchSize);
+        }
+
+        /**
+         * The number of lines that are given to the parser in a single call.
+         */
+        public Read withBatchSize(int newBatchSize) {
+            if (newBatchSize < 1) {
+                throw new IllegalArgumentException("The batch size must be at least 1 (was " + newBatchSize + ")");
+            }
+            return new Read(filepattern, logFormat, fields, recordName, splitSize, newBatchSize);
+        }
+
+        /**
+         * @return The Avro schema of the produced records.
+         */
+        public Schema getSchema() {
+            if (logFormat == null) {
+                throw new IllegalStateException("The logformat has not been set");
+            }
+            if (fields.isEmpty()) {
+                throw new IllegalStateException("No fields have been requested");
+            }
+            try {
+                return AvroFieldMapping.createSchema(logFormat, recordName, fields);
+            } catch (MissingDissectorsException | InvalidDissectorException e) {
+                throw new IllegalArgumentException("Unable to create the parser: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public PCollection<GenericRecord> expand(PBegin input) {
+            if (filepattern == null) {
+                throw new IllegalStateException("No files to read (use from(...))");
+            }
+            Schema schema = getSchema();
+            return input
+                .apply("Filepattern", Create.of(filepattern))
+                .apply("Match files", ParDo.of(new MatchFilesFn()))
+                .apply("Read and parse", ParDo.of(new ReadLogFileFn(logFormat, schema.toString(), splitSize, batchSize)))
+                .setCoder(AvroCoder.of(GenericRecord.class, schema));
+        }
+    }
+
+    /**
+     * Outputs the name and size of all files that match the filepattern.
+     */
+    static class MatchFilesFn extends DoFn<String, KV<String, Long>> {
+        @ProcessElement
+        public void processElement(ProcessContext c) throws IOException {
+            for (MatchResult.Metadata metadata : FileSystems.match(c.element()).metadata()) {
+                c.output(KV.of(metadata.resourceId().toString(), metadata.sizeBytes()));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.beam;
+
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.TypedSlotRecord;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.core.exceptions.RejectedByFilter;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import nl.basjes.parse.httpdlog.avro.AvroFieldMapping;
+import nl.basjes.parse.httpdlog.avro.ParsedAvroRecord;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.splittabledofn.OffsetRange;
+import org.apache.beam.sdk.transforms.splittabledofn.OffsetRangeTracker;
+import org.apache.beam.sdk.values.KV;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads and parses a logfile (KV of the filename and the size of the file) as a splittable DoFn.
+ * The file is split into byte ranges; a line belongs to the range in which it starts
+ * so every range starts reading at the first line that starts at (or after) the beginning of the range.
+ * Gzipped files (.gz) cannot be split and are always read completely.
+ * The lines are parsed in batches (one parser per instance of this DoFn).
+ */
+@DoFn.BoundedPerElement
+class ReadLogFileFn extends DoFn<KV<String, Long>, GenericRecord> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadLogFileFn.class);
+
+    private final String logFormat;
+    private final String schemaJson;
+    private final long splitSize;
+    private final int batchSize;
+
+    private final Counter linesGood     = Metrics.counter(ReadLogFileFn.class, "linesGood");
+    private final Counter linesBad      = Metrics.counter(ReadLogFileFn.class, "linesBad");
+    private final Counter linesFiltered = Metrics.counter(ReadLogFileFn.class, "linesFiltered");
+
+    private transient Parser<ParsedAvroRecord> parser;
+    private transient List<ParsedAvroRecord> records;
+    private transient LineCounter badLinesLogger;
+
+    ReadLogFileFn(String logFormat, String schemaJson, long splitSize, int batchSize) {
+        this.logFormat = logFormat;
+        this.schemaJson = schemaJson;
+        this.splitSize = splitSize;
+        this.batchSize = batchSize;
+    }
+
+    @Setup
+    public void setup() throws MissingDissectorsException, InvalidDissectorException {
+        AvroFieldMapping mapping = AvroFieldMapping.fromSchema(new Schema.Parser().parse(schemaJson));
+        parser = new HttpdLoglineParser<>(ParsedAvroRecord.class, logFormat);
+        TypedSlotRecord.Layout layout = mapping.addParseTargets(parser);
+        records = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            records.add(mapping.createRecord(layout, GenericData.get()));
+        }
+        badLinesLogger = new LineCounter(LOG);
+    }
+
+    static boolean isCompressed(String filename) {
+        return filename.toLowerCase().endsWith(".gz");
+    }
+
+    @GetInitialRestriction
+    public OffsetRange getInitialRestriction(KV<String, Long> file) {
+        return new OffsetRange(0, file.getValue());
+    }
+
+    @SplitRestriction
+    public void splitRestriction(KV<String, Long> file, OffsetRange range, OutputReceiver<OffsetRange> receiver) {
+        if (isCompressed(file.getKey())) {
+            receiver.output(range);
+            return;
+        }
+        for (long from = range.getFrom(); from < range.getTo(); from += splitSize) {
+            receiver.output(new OffsetRange(from, Math.min(from + splitSize, range.getTo())));
+        }
+    }
+
+    @NewTracker
+    public OffsetRangeTracker newTracker(OffsetRange range) {
+        return new OffsetRangeTracker(range);
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c, OffsetRangeTracker tracker)
+        throws IOException, InvalidDissectorException, MissingDissectorsException {
+        String filename = c.element().getKey();
+        long start = tracker.currentRestriction().getFrom();
+
+        try (ReadableByteChannel channel = FileSystems.open(FileSystems.matchNewResource(filename, false))) {
+            LineReader reader;
+            if (isCompressed(filename)) {
+                // The entire file is handled by the claim of the first byte:
+                // a remainder of the range (after a checkpoint) has nothing left to do.
+                if (start != 0 || !tracker.tryClaim(start)) {
+                    tracker.markDone();
+                    return;
+                }
+                reader = new LineReader(new GZIPInputStream(Channels.newInputStream(channel)), 0);
+                List<String> batch = new ArrayList<>(batchSize);
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    batch.add(line);
+                    if (batch.size() == batchSize) {
+                        parseBatch(c, batch);
+                    }
+                }
+                parseBatch(c, batch);
+                tracker.markDone();
+                return;
+            }
+
+            if (start == 0) {
+                reader = new LineReader(Channels.newInputStream(channel), 0);
+            } else {
+                // The line that contains the byte before the start belongs to the previous range.
+                ((SeekableByteChannel) channel).position(start - 1);
+                reader = new LineReader(Channels.newInputStream(channel), start - 1);
+                reader.readLine();
+            }
+
+            List<String> batch = new ArrayList<>(batchSize);
+            while (true) {
+                long lineStart = reader.getPosition();
+                String line = reader.readLine();
+                if (line == null) {
+                    tracker.markDone();
+                    break;
+                }
+                if (!tracker.tryClaim(lineStart)) {
+                    break;
+                }
+                batch.add(line);
+                if (batch.size() == batchSize) {
+                    parseBatch(c, batch);
+                }
+            }
+            parseBatch(c, batch);
+        }
+    }
+
+    private void parseBatch(ProcessContext c, List<String> batch)
+        throws InvalidDissectorException, MissingDissectorsException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<ParsedAvroRecord> batchRecords = batch.size() == records.size() ? records : records.subList(0, batch.size());
+        for (ParsedAvroRecord record : batchRecords) {
+            record.newRecord();
+        }
+        List<DissectionFailure> failures = parser.parseBatch(batchRecords, batch);
+        for (int i = 0; i < batch.size(); i++) {
+            DissectionFailure failure = failures.get(i);
+            if (failure == null) {
+                linesGood.inc();
+                c.output((GenericRecord) batchRecords.get(i).getRecord());
+            } else if (failure instanceof RejectedByFilter) {
+                linesFiltered.inc();
+            } else {
+                linesBad.inc();
+                badLinesLogger.bad(failure.getMessage(), batch.get(i));
+            }
+        }
+        batch.clear();
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Reads lines (separated by a '\n', a trailing '\r' is removed) and keeps track of the byte position.
+     */
+    static final class LineReader {
+        private final InputStream input;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        private long position;
+
+        LineReader(InputStream input, long position) {
+            this.input = new BufferedInputStream(input, 65536);
+            this.position = position;
+        }
+
+        /**
+         * @return The position of the first byte that has not been read yet.
+         */
+        long getPosition() {
+            return position;
+        }
+
+        /**
+         * @return The next line or null at the end of the input.
+         */
+        String readLine() throws IOException {
+            buffer.reset();
+            int b = input.read();
+            if (b == -1) {
+                return null;
+            }
+            while (b != -1) {
+                position++;
+                if (b == '\n') {
+                    break;
+                }
+                buffer.write(b);
+                b = input.read();
+            }
+            byte[] bytes = buffer.toByteArray();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.beam;
+
+import nl.basjes.parse.httpdlog.avro.AvroFieldMapping;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.MapElements;
+import org.apache.beam.sdk.transforms.SimpleFunction;
+import org.apache.beam.sdk.values.PCollection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestHttpdLogIO implements Serializable {
+
+    private static final String LOG_FORMAT = "common";
+    private static final String IP    = "IP:connection.client.host";
+    private static final String BYTES = "BYTES:response.body.bytes";
+    private static final String URI   = "HTTP.URI:request.firstline.uri";
+
+    private static final File ACCESS_LOG = new File("src/test/resources/access.log");
+
+    @Rule
+    public final transient TestPipeline pipeline = TestPipeline.create();
+
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    // The records in src/test/resources/access.log (without the bad line).
+    private static final List<String> EXPECTED = Arrays.asList(
+        "10.0.0.1 /index.html 3525",
+        "10.0.0.2 /css/style.css 1204",
+        "10.0.0.3 /js/main.js 8911",
+        "10.0.0.1 /img/logo.png 20480",
+        "10.0.0.4 /about.html 2210",
+        "10.0.0.2 /contact 0",
+        "10.0.0.5 /missing.html 209",
+        "10.0.0.6 /index.html?lang=nl 3611",
+        "10.0.0.3 /favicon.ico 1150",
+        "10.0.0.7 /downloads/logparser.jar 912384",
+        "10.0.0.4 /about.html 0");
+
+    private File writeLogfile(String name, boolean compressed) throws IOException {
+        File file = folder.newFile(name);
+        List<String> lines = Files.readAllLines(ACCESS_LOG.toPath(), StandardCharsets.UTF_8);
+        try (OutputStream out = compressed ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)) {
+            for (int index = 0; index < lines.size(); index++) {
+                // Mix the line endings
+                out.write((lines.get(index) + (index % 2 == 0 ? "\n" : "\r\n")).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return file;
+    }
+
+    private static class ToText extends SimpleFunction<GenericRecord, String> {
+        @Override
+        public String apply(GenericRecord record) {
+            return record.get("connection_client_host") + " " +
+                   record.get("request_firstline_uri") + " " +
+                   record.get("response_body_bytes");
+        }
+    }
+
+    private void runPipeline(String filepattern) {
+        PCollection<String> output = pipeline
+            .apply(HttpdLogIO.read()
+                .from(filepattern)
+                .withLogFormat(LOG_FORMAT)
+                .withFields(IP, URI, BYTES)
+                // Force many splits that are not aligned with the lines
+                .withSplitSize(333)
+                .withBatchSize(3))
+            .apply(MapElements.via(new ToText()));
+
+        PAssert.that(output).containsInAnyOrder(EXPECTED);
+        pipeline.run().waitUntilFinish();
+    }
+
+    @Test
+    public void testReadSplitFile() throws IOException {
+        runPipeline(writeLogfile("access.log", false).getAbsolutePath());
+    }
+
+    @Test
+    public void testReadCompressedFile() throws IOException {
+        runPipeline(writeLogfile("access.log.gz", true).getAbsolutePath());
+    }
+
+    @Test
+    public void testSchema() {
+        Schema schema = HttpdLogIO.read().withLogFormat(LOG_FORMAT).withFields(IP, BYTES, "STRING:request.status.last")
+            .getSchema();
+        assertEquals(3, schema.getFields().size());
+        assertEquals(IP, schema.getField("connection_client_host").getProp(AvroFieldMapping.FIELD_PROPERTY));
+        assertEquals("[\"null\",{\"type\":\"string\",\"avro.java.string\":\"String\"}]",
+            schema.getField("connection_client_host").schema().toString());
+        assertEquals("[\"null\",\"long\"]", schema.getField("response_body_bytes").schema().toString());
+        assertEquals(HttpdLogIO.DEFAULT_RECORD_NAME, schema.getName());
+    }
+
+    @Test
+    public void testSchemaNameCollision() {
+        Schema schema = HttpdLogIO.read().withLogFormat(LOG_FORMAT)
+            .withFields(BYTES, "BYTESCLF:response.body.bytes")
+            .getSchema();
+        assertEquals("response_body_bytes", schema.getFields().get(0).name());
+        assertEquals("BYTESCLF_response_body_bytes", schema.getFields().get(1).name());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoWildcards() {
+        HttpdLogIO.read().withLogFormat(LOG_FORMAT).withFields("HTTP.QUERYSTRING:request.firstline.uri.query.*").getSchema();
+    }
+
+    @Test
+    public void testLineReader() throws IOException {
+        byte[] input = "one\r\ntwo\n\nthree".getBytes(StandardCharsets.UTF_8);
+        ReadLogFileFn.LineReader reader = new ReadLogFileFn.LineReader(new ByteArrayInputStream(input), 10);
+        assertEquals("one",   reader.readLine());
+        assertEquals(15,      reader.getPosition());
+        assertEquals("two",   reader.readLine());
+        assertEquals(19,      reader.getPosition());
+        assertEquals("",      reader.readLine());
+        assertEquals(20,      reader.getPosition());
+        assertEquals("three", reader.readLine());
+        assertEquals(25,      reader.getPosition());
+        assertNull(reader.readLine());
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.core.exceptions.RejectedByFilter;
+import org.apache.flink.api.common.functions.MapPartitionFunction;
+import org.apache.flink.api.common.functions.RichFlatMapFunction;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.MeterView;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.metrics.SimpleCounter;
+import org.apache.flink.util.Collector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The common part of the Flink functions that parse loglines.
+ * <ul>
+ * <li>As a {@link org.apache.flink.api.common.functions.FlatMapFunction} every line is parsed when it arrives
+ * (bad lines and lines that are rejected by a filter produce no output).</li>
+ * <li>As a {@link MapPartitionFunction} the lines are parsed in batches of {@link #withBatchSize(int)} lines
+ * using {@link Parser#parseBatch(List, List)}.</li>
+ * </ul>
+ * If the records can be cleared (see {@link #clearRecord(Object)}) the same instances are reused for all lines.
+ * This is safe in Flink: a record is either serialized or copied (unless object reuse is enabled)
+ * when it is handed to the next operator.
+ * <br>
+ * When running as a rich function the counters are also registered as metrics (in the group "httpdlog"):
+ * linesRead, linesGood, linesBad, linesFiltered and linesPerSecond (see {@link #registerMetrics(MetricGroup)}).
+ * @param <RECORD> The class that the parser fills.
+ * @param <OUT> The class that is emitted.
+ */
+public abstract class AbstractHttpdLoglineFunction<RECORD, OUT>
+    extends RichFlatMapFunction<String, OUT>
+    implements MapPartitionFunction<String, OUT>, ResultTypeQueryable<OUT> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractHttpdLoglineFunction.class);
+
+    public static final String METRIC_GROUP = "httpdlog";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int METER_TIME_SPAN_SECONDS = 60;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private transient Parser<RECORD> parser;
+    private transient RECORD reusedRecord;
+    private transient List<RECORD> reusedRecords;
+
+    private transient Counter linesRead;
+    private transient Counter linesGood;
+    private transient Counter linesBad;
+    private transient Counter linesFiltered;
+    private transient LineCounter badLinesLogger;
+
+    /**
+     * @return A new parser that fills the records (called once per instance of this function).
+     */
+    protected abstract Parser<RECORD> createParser();
+
+    /**
+     * @return A new (empty) record.
+     */
+    protected abstract RECORD createRecord();
+
+    /**
+     * Make the record empty again so it can be filled with the values of the next line.
+     * @return false if the record cannot be cleared (a new record is then created for every line).
+     */
+    protected abstract boolean clearRecord(RECORD record);
+
+    /**
+     * @return The output for a filled record.
+     */
+    protected abstract OUT getOutput(RECORD record);
+
+    // --------------------------------------------
+
+    /**
+     * Set the number of lines that are parsed in a single call to the parser when running as a MapPartitionFunction.
+     */
+    public AbstractHttpdLoglineFunction<RECORD, OUT> withBatchSize(int newBatchSize) {
+        if (newBatchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1 (was " + newBatchSize + ")");
+        }
+        this.batchSize = newBatchSize;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private void initialize() {
+        if (parser != null) {
+            return;
+        }
+        parser = createParser();
+        linesRead     = new SimpleCounter();
+        linesGood     = new SimpleCounter();
+        linesBad      = new SimpleCounter();
+        linesFiltered = new SimpleCounter();
+        badLinesLogger = new LineCounter(LOG);
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        registerMetrics(getRuntimeContext().getMetricGroup());
+    }
+
+    /**
+     * Register the counters as metrics in the subgroup "httpdlog" of the metric group.
+     * This is done by {@link #open(Configuration)}; call it when the function is used without being opened.
+     */
+    public void registerMetrics(MetricGroup metricGroup) {
+        initialize();
+        MetricGroup metrics = metricGroup.addGroup(METRIC_GROUP);
+        metrics.counter("linesRead",     linesRead);
+        metrics.counter("linesGood",     linesGood);
+        metrics.counter("linesBad",      linesBad);
+        metrics.counter("linesFiltered", linesFiltered);
+        metrics.meter("linesPerSecond", new MeterView(linesRead, METER_TIME_SPAN_SECONDS));
+    }
+
+    // --------------------------------------------
+
+    private RECORD nextRecord(RECORD previous) {
+        if (previous != null && clearRecord(previous)) {
+            return previous;
+        }
+        return createRecord();
+    }
+
+    @Override
+    public void flatMap(String line, Collector<OUT> out) throws Exception {
+        reusedRecord = nextRecord(reusedRecord);
+        OUT output = parse(reusedRecord, line);
+        if (output != null) {
+            out.collect(output);
+        }
+    }
+
+    /**
+     * Parse a single line into a new record.
+     * @return The output or null if the line was bad or rejected by a filter.
+     */
+    public OUT parseLine(String line) throws InvalidDissectorException, MissingDissectorsException {
+        return parse(createRecord(), line);
+    }
+
+    private OUT parse(RECORD record, String line) throws InvalidDissectorException, MissingDissectorsException {
+        initialize();
+        linesRead.inc();
+        try {
+            if (parser.parse(record, line) == null) {
+                linesFiltered.inc();
+                return null;
+            }
+        } catch (DissectionFailure dissectionFailure) {
+            badLine(line, dissectionFailure);
+            return null;
+        }
+        linesGood.inc();
+        return getOutput(record);
+    }
+
+    @Override
+    public void mapPartition(Iterable<String> lines, Collector<OUT> out) throws Exception {
+        initialize();
+        if (reusedRecords == null) {
+            reusedRecords = new ArrayList<>(batchSize);
+        }
+        List<String> batch = new ArrayList<>(batchSize);
+        for (String line : lines) {
+            batch.add(line);
+            if (batch.size() == batchSize) {
+                parseBatch(batch, out);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            parseBatch(batch, out);
+        }
+    }
+
+    private void parseBatch(List<String> batch, Collector<OUT> out)
+        throws InvalidDissectorException, MissingDissectorsException {
+        List<RECORD> records = reusedRecords;
+        for (int i = 0; i < batch.size(); i++) {
+            if (i < records.size()) {
+                records.set(i, nextRecord(records.get(i)));
+            } else {
+                records.add(createRecord());
+            }
+        }
+        List<RECORD> batchRecords = records.size() == batch.size() ? records : records.subList(0, batch.size());
+
+        List<DissectionFailure> failures = parser.parseBatch(batchRecords, batch);
+        linesRead.inc(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            DissectionFailure failure = failures.get(i);
+            if (failure == null) {
+                linesGood.inc();
+                out.collect(getOutput(batchRecords.get(i)));
+            } else if (failure instanceof RejectedByFilter) {
+                linesFiltered.inc();
+            } else {
+                badLine(batch.get(i), failure);
+            }
+        }
+    }
+
+    private void badLine(String line, DissectionFailure dissectionFailure) {
+        linesBad.inc();
+        badLinesLogger.bad(dissectionFailure.getMessage(), line);
+    }
+
+    // --------------------------------------------
+
+    public long getLinesRead() {
+        return linesRead == null ? 0 : linesRead.getCount();
+    }
+
+    public long getLinesGood() {
+        return linesGood == null ? 0 : linesGood.getCount();
+    }
+
+    public long getLinesBad() {
+        return linesBad == null ? 0 : linesBad.getCount();
+    }
+
+    public long getLinesFiltered() {
+        return linesFiltered == null ? 0 : linesFiltered.getCount();
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.TypedSlotRecord;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.RowTypeInfo;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * The definition of a table of parsed loglines: each column is a field (STRING, LONG or DOUBLE) from the logline.
+ * <pre>
+ * HttpdLogRowSchema schema = new HttpdLogRowSchema("combined")
+ *     .addColumn("ip",     Types.STRING, "IP:connection.client.host")
+ *     .addColumn("status", Types.STRING, "STRING:request.status.last")
+ *     .addColumn("bytes",  Types.LONG,   "BYTES:response.body.bytes");
+ * </pre>
+ * A table source only needs to parse the columns that are used by the query:
+ * {@link #project(int...)} follows the semantics of {@code ProjectableTableSource.projectFields(int[])}.
+ */
+public class HttpdLogRowSchema implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String logFormat;
+    private final List<String> columnNames = new ArrayList<>();
+    private final List<TypeInformation<?>> columnTypes = new ArrayList<>();
+    private final List<String> columnFields = new ArrayList<>();
+    private final Map<String, String> typeRemappings = new HashMap<>();
+    private final List<Dissector> dissectors = new ArrayList<>();
+
+    // A slot per column with the type of that column
+    private transient TypedSlotRecord.Layout layout;
+
+    public HttpdLogRowSchema(String logFormat) {
+        this.logFormat = logFormat;
+    }
+
+    /**
+     * Add a column to the table.
+     * @param name The name of the column.
+     * @param type The type of the column (only String, Long and Double are supported).
+     * @param field The field ("TYPE:name") that is put in the column (wildcards are not supported).
+     */
+    public HttpdLogRowSchema addColumn(String name, TypeInformation<?> type, String field) {
+        if (!(BasicTypeInfo.STRING_TYPE_INFO.equals(type) ||
+              BasicTypeInfo.LONG_TYPE_INFO.equals(type) ||
+              BasicTypeInfo.DOUBLE_TYPE_INFO.equals(type))) {
+            throw new IllegalArgumentException("Column " + name + ": Unsupported type " + type +
+                " (only String, Long and Double are supported)");
+        }
+        if (field.endsWith(".*")) {
+            throw new IllegalArgumentException("Column " + name + ": Wildcard fields are not supported: " + field);
+        }
+        if (columnNames.contains(name)) {
+            throw new IllegalArgumentException("Column " + name + " has already been defined");
+        }
+        columnNames.add(name);
+        columnTypes.add(type);
+        columnFields.add(Parser.cleanupFieldValue(field));
+        layout = null;
+        return this;
+    }
+
+    public HttpdLogRowSchema addTypeRemapping(String input, String newType) {
+        typeRemappings.put(input, newType);
+        return this;
+    }
+
+    public HttpdLogRowSchema addDissector(Dissector dissector) {
+        dissectors.add(dissector);
+        return this;
+    }
+
+    /**
+     * @param columns The indexes of the columns that must be retained (in the order they must appear).
+     * @return A new schema that only has the specified columns.
+     */
+    public HttpdLogRowSchema project(int... columns) {
+        HttpdLogRowSchema projected = new HttpdLogRowSchema(logFormat);
+        projected.typeRemappings.putAll(typeRemappings);
+        projected.dissectors.addAll(dissectors);
+        for (int column : columns) {
+            projected.addColumn(columnNames.get(column), columnTypes.get(column), columnFields.get(column));
+        }
+        return projected;
+    }
+
+    // --------------------------------------------
+
+    public String getLogFormat() {
+        return logFormat;
+    }
+
+    public String[] getFieldNames() {
+        return columnNames.toArray(new String[0]);
+    }
+
+    public TypeInformation<?>[] getFieldTypes() {
+        return columnTypes.toArray(new TypeInformation<?>[0]);
+    }
+
+    public RowTypeInfo getRowTypeInfo() {
+        return new RowTypeInfo(getFieldTypes(), getFieldNames());
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return A new parser that only produces the fields of the columns of this schema.
+     */
+    public Parser<ParsedRow> createParser() {
+        Parser<ParsedRow> parser = new HttpdLoglineParser<>(ParsedRow.class, logFormat);
+        parser.addDissectors(dissectors);
+        for (Map.Entry<String, String> typeRemapping : typeRemappings.entrySet()) {
+            parser.addTypeRemapping(typeRemapping.getKey(), typeRemapping.getValue());
+        }
+        getLayout().addParseTargets(parser, NOT_NULL);
+        return parser;
+    }
+
+    /**
+     * @return A new (empty) record for a parser created with {@link #createParser()}.
+     */
+    public ParsedRow createRecord() {
+        return new ParsedRow(getLayout());
+    }
+
+    private TypedSlotRecord.Layout getLayout() {
+        if (layout == null) {
+            List<Casts> casts = new ArrayList<>(columnTypes.size());
+            for (TypeInformation<?> type : columnTypes) {
+                if (BasicTypeInfo.LONG_TYPE_INFO.equals(type)) {
+                    casts.add(Casts.LONG);
+                } else if (BasicTypeInfo.DOUBLE_TYPE_INFO.equals(type)) {
+                    casts.add(Casts.DOUBLE);
+                } else {
+                    casts.add(Casts.STRING);
+                }
+            }
+            layout = new TypedSlotRecord.Layout(columnFields, casts);
+        }
+        return layout;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("HttpdLogRowSchema{logFormat='").append(logFormat).append("', columns=[");
+        for (int column = 0; column < columnNames.size(); column++) {
+            if (column > 0) {
+                sb.append(", ");
+            }
+            sb.append(columnNames.get(column)).append(' ')
+              .append(columnTypes.get(column)).append(" = ")
+              .append(columnFields.get(column));
+        }
+        return sb.append("]}").toString();
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.streaming.util.serialization.DeserializationSchema;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the (UTF-8) messages from a source (like Kafka) directly as loglines.
+ * A bad line (or a line that is rejected by a filter) is deserialized into null which makes
+ * the source skip it; the counters of the function still count these lines.
+ * <p>
+ * Flink does not open a DeserializationSchema, so its counters are only registered as metrics
+ * when the source calls {@link #registerMetrics(MetricGroup)} from its own open:
+ * <pre>
+ * FlinkKafkaConsumer010&lt;Row&gt; source = new FlinkKafkaConsumer010&lt;Row&gt;(topic, schema, properties) {
+ *     &#64;Override
+ *     public void open(Configuration configuration) throws Exception {
+ *         super.open(configuration);
+ *         schema.registerMetrics(getRuntimeContext().getMetricGroup());
+ *     }
+ * };
+ * </pre>
+ * @param <OUT> The class that is produced.
+ */
+public class HttpdLoglineDeserializationSchema<OUT> implements DeserializationSchema<OUT> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AbstractHttpdLoglineFunction<?, OUT> function;
+
+    /**
+     * @param function The function that does the actual parsing (every message is parsed into a new record).
+     */
+    public HttpdLoglineDeserializationSchema(AbstractHttpdLoglineFunction<?, OUT> function) {
+        this.function = function;
+    }
+
+    public AbstractHttpdLoglineFunction<?, OUT> getFunction() {
+        return function;
+    }
+
+    /**
+     * Register the counters of the function as metrics (in the group "httpdlog") of the source.
+     * @param sourceMetricGroup The metric group of the runtime context of the source that uses this schema.
+     */
+    public void registerMetrics(MetricGroup sourceMetricGroup) {
+        function.registerMetrics(sourceMetricGroup);
+    }
+
+    @Override
+    public OUT deserialize(byte[] message) throws IOException {
+        try {
+            return function.parseLine(new String(message, StandardCharsets.UTF_8));
+        } catch (InvalidDissectorException | MissingDissectorsException e) {
+            throw new IOException("Unable to parse the logline", e);
+        }
+    }
+
+    @Override
+    public boolean isEndOfStream(OUT nextElement) {
+        return false;
+    }
+
+    @Override
+    public TypeInformation<OUT> getProducedType() {
+        return function.getProducedType();
+    }
+
+}
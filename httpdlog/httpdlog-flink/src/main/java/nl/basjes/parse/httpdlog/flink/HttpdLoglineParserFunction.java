@@ -0,0 +1,82 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.Parser;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.TypeExtractor;
+
+/**
+ * Parses loglines into instances of a user provided class (that has the setters called by the parser).
+ * <pre>
+ * Parser&lt;MyRecord&gt; parser = new HttpdLoglineParser&lt;&gt;(MyRecord.class, logformat);
+ * parser.addParseTarget("setIp", "IP:connection.client.host");
+ * DataStream&lt;MyRecord&gt; records = lines.flatMap(new HttpdLoglineParserFunction&lt;&gt;(parser));
+ * </pre>
+ * A new record is created for every line because the parser does not call a setter for a field that
+ * is absent in a line (so reusing the record would leak values from the previous line).
+ * Override {@link #clearRecord(Object)} to reuse the records if the class can be cleared.
+ * @param <RECORD> The class of the records.
+ */
+public class HttpdLoglineParserFunction<RECORD> extends AbstractHttpdLoglineFunction<RECORD, RECORD> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Parser<RECORD> parserTemplate;
+    private final Class<RECORD> recordClass;
+    private final TypeInformation<RECORD> producedType;
+
+    /**
+     * @param parser The (fully configured) parser; it is serialized with this function so every parallel instance has its own.
+     * @param recordClass The class of the records (must have a public no argument constructor).
+     */
+    public HttpdLoglineParserFunction(Parser<RECORD> parser, Class<RECORD> recordClass) {
+        this.parserTemplate = parser;
+        this.recordClass = recordClass;
+        this.producedType = TypeExtractor.getForClass(recordClass);
+    }
+
+    @Override
+    protected Parser<RECORD> createParser() {
+        return parserTemplate;
+    }
+
+    @Override
+    protected RECORD createRecord() {
+        try {
+            return recordClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Unable to create an instance of " + recordClass.getName(), e);
+        }
+    }
+
+    @Override
+    protected boolean clearRecord(RECORD record) {
+        return false;
+    }
+
+    @Override
+    protected RECORD getOutput(RECORD record) {
+        return record;
+    }
+
+    @Override
+    public TypeInformation<RECORD> getProducedType() {
+        return producedType;
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.Parser;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.types.Row;
+
+/**
+ * Parses loglines into a {@link Row} with the columns defined in a {@link HttpdLogRowSchema}.
+ * Only the fields of these columns are parsed and the same Row instances are reused for all lines.
+ */
+public class HttpdLoglineRowFunction extends AbstractHttpdLoglineFunction<ParsedRow, Row> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final HttpdLogRowSchema schema;
+
+    public HttpdLoglineRowFunction(HttpdLogRowSchema schema) {
+        this.schema = schema;
+    }
+
+    public HttpdLogRowSchema getSchema() {
+        return schema;
+    }
+
+    @Override
+    protected Parser<ParsedRow> createParser() {
+        return schema.createParser();
+    }
+
+    @Override
+    protected ParsedRow createRecord() {
+        return schema.createRecord();
+    }
+
+    @Override
+    protected boolean clearRecord(ParsedRow record) {
+        record.clear();
+        return true;
+    }
+
+    @Override
+    protected Row getOutput(ParsedRow record) {
+        return record.getRow();
+    }
+
+    @Override
+    public TypeInformation<Row> getProducedType() {
+        return schema.getRowTypeInfo();
+    }
+
+}
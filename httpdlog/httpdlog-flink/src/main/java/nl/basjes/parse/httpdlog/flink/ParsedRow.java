@@ -0,0 +1,51 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.TypedSlotRecord;
+import org.apache.flink.types.Row;
+
+/**
+ * The 'record' that is filled by the parser: the values are written directly into the fields of a {@link Row}.
+ * The slots are the columns of the row; the same field can be put in several columns (also with different types).
+ */
+public class ParsedRow extends TypedSlotRecord {
+
+    private final Row row;
+
+    ParsedRow(Layout layout) {
+        super(layout);
+        this.row = new Row(layout.size());
+    }
+
+    public Row getRow() {
+        return row;
+    }
+
+    @Override
+    public void clear() {
+        for (int position = 0; position < row.getArity(); position++) {
+            row.setField(position, null);
+        }
+    }
+
+    @Override
+    protected void set(int slot, Object value) {
+        row.setField(slot, value);
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.Field;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.TaskInfo;
+import org.apache.flink.api.common.functions.util.ListCollector;
+import org.apache.flink.api.common.functions.util.RuntimeUDFContext;
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.java.ExecutionEnvironment;
+import org.apache.flink.api.java.typeutils.RowTypeInfo;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.Meter;
+import org.apache.flink.metrics.Metric;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.metrics.groups.UnregisteredMetricsGroup;
+import org.apache.flink.types.Row;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestHttpdLoglineFunctions implements Serializable {
+
+    private static final String LOG_FORMAT = "common";
+
+    private static final String[] LINES = {
+        "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html HTTP/1.1\" 200 1234",
+        "127.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"POST /form HTTP/1.1\" 302 -",
+        "This is not a logline",
+        "127.0.0.3 - - [24/Oct/2012:23:00:46 +0200] \"GET /other.html HTTP/1.1\" 200 42",
+    };
+
+    public static class MyRecord implements Serializable {
+        private String ip = null;
+        private Long   bytes = null;
+
+        @Field("IP:connection.client.host")
+        public void setIp(String value) {
+            ip = value;
+        }
+
+        @Field("BYTES:response.body.bytes")
+        public void setBytes(Long value) {
+            bytes = value;
+        }
+
+        @Override
+        public String toString() {
+            return ip + ":" + bytes;
+        }
+    }
+
+    private static HttpdLoglineParserFunction<MyRecord> createPojoFunction() {
+        return new HttpdLoglineParserFunction<>(new HttpdLoglineParser<>(MyRecord.class, LOG_FORMAT), MyRecord.class);
+    }
+
+    private static HttpdLogRowSchema createSchema() {
+        return new HttpdLogRowSchema(LOG_FORMAT)
+            .addColumn("ip",     BasicTypeInfo.STRING_TYPE_INFO, "IP:connection.client.host")
+            .addColumn("method", BasicTypeInfo.STRING_TYPE_INFO, "HTTP.METHOD:request.firstline.method")
+            .addColumn("bytes",  BasicTypeInfo.LONG_TYPE_INFO,   "BYTES:response.body.bytes")
+            .addColumn("status", BasicTypeInfo.STRING_TYPE_INFO, "STRING:request.status.last");
+    }
+
+    private static void open(AbstractHttpdLoglineFunction<?, ?> function) throws Exception {
+        function.setRuntimeContext(new RuntimeUDFContext(
+            new TaskInfo("Test", 1, 0, 1, 0),
+            TestHttpdLoglineFunctions.class.getClassLoader(),
+            new ExecutionConfig(),
+            new HashMap<>(),
+            new HashMap<>(),
+            new UnregisteredMetricsGroup()));
+        function.open(new Configuration());
+    }
+
+    private static void assertCounters(AbstractHttpdLoglineFunction<?, ?> function,
+                                       long read, long good, long bad, long filtered) {
+        assertEquals("Read",     read,     function.getLinesRead());
+        assertEquals("Good",     good,     function.getLinesGood());
+        assertEquals("Bad",      bad,      function.getLinesBad());
+        assertEquals("Filtered", filtered, function.getLinesFiltered());
+    }
+
+    // --------------------------------------------
+
+    @Test
+    public void testFlatMapPojo() throws Exception {
+        HttpdLoglineParserFunction<MyRecord> function = createPojoFunction();
+        open(function);
+
+        List<MyRecord> output = new ArrayList<>();
+        ListCollector<MyRecord> collector = new ListCollector<>(output);
+        for (String line : LINES) {
+            function.flatMap(line, collector);
+        }
+
+        assertEquals(3, output.size());
+        assertEquals("127.0.0.1:1234", output.get(0).toString());
+        assertEquals("127.0.0.2:0", output.get(1).toString());
+        assertEquals("127.0.0.3:42",   output.get(2).toString());
+        assertCounters(function, 4, 3, 1, 0);
+    }
+
+    @Test
+    public void testMapPartitionInBatches() throws Exception {
+        HttpdLoglineParserFunction<MyRecord> function = createPojoFunction();
+        function.withBatchSize(3);
+        open(function);
+
+        List<MyRecord> output = new ArrayList<>();
+        function.mapPartition(Arrays.asList(LINES), new ListCollector<>(output));
+
+        assertEquals(3, output.size());
+        assertEquals("127.0.0.1:1234", output.get(0).toString());
+        assertEquals("127.0.0.2:0", output.get(1).toString());
+        assertEquals("127.0.0.3:42",   output.get(2).toString());
+        assertCounters(function, 4, 3, 1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        createPojoFunction().withBatchSize(0);
+    }
+
+    @Test
+    public void testRowsAreReused() throws Exception {
+        HttpdLoglineRowFunction function = new HttpdLoglineRowFunction(createSchema());
+        open(function);
+
+        List<Row> output = new ArrayList<>();
+        ListCollector<Row> collector = new ListCollector<>(output);
+        for (String line : LINES) {
+            function.flatMap(line, collector);
+        }
+        assertEquals(3, output.size());
+        assertSame(output.get(0), output.get(1));
+        assertSame(output.get(0), output.get(2));
+        assertEquals(Row.of("127.0.0.3", "GET", 42L, "200"), output.get(2));
+        assertCounters(function, 4, 3, 1, 0);
+
+        // The reused row is cleared: the user of the first line must not remain.
+        HttpdLoglineRowFunction userFunction = new HttpdLoglineRowFunction(
+            new HttpdLogRowSchema(LOG_FORMAT)
+                .addColumn("user", BasicTypeInfo.STRING_TYPE_INFO, "STRING:connection.client.user"));
+        open(userFunction);
+        output.clear();
+        userFunction.flatMap("127.0.0.1 - niels [24/Oct/2012:23:00:44 +0200] \"GET / HTTP/1.1\" 200 1", collector);
+        assertEquals(Row.of("niels"), output.get(0));
+        userFunction.flatMap(LINES[0], collector);
+        assertEquals(Row.of((Object) null), output.get(1));
+
+        // The rows of a single batch are different instances
+        output.clear();
+        function.withBatchSize(10).mapPartition(Arrays.asList(LINES), collector);
+        assertEquals(3, output.size());
+        assertEquals(Row.of("127.0.0.1", "GET",  1234L, "200"), output.get(0));
+        assertEquals(Row.of("127.0.0.2", "POST", 0L,    "302"), output.get(1));
+        assertEquals(Row.of("127.0.0.3", "GET",  42L,   "200"), output.get(2));
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        HttpdLogRowSchema schema = createSchema().project(3, 0);
+
+        RowTypeInfo rowTypeInfo = schema.getRowTypeInfo();
+        assertArrayEquals(new String[]{"status", "ip"}, rowTypeInfo.getFieldNames());
+        assertEquals(BasicTypeInfo.STRING_TYPE_INFO, rowTypeInfo.getTypeAt(0));
+
+        Parser<ParsedRow> parser = schema.createParser();
+        assertEquals(2, parser.getNeeded().size());
+
+        HttpdLoglineRowFunction function = new HttpdLoglineRowFunction(schema);
+        assertEquals(rowTypeInfo, function.getProducedType());
+        assertEquals(Row.of("302", "127.0.0.2"), function.parseLine(LINES[1]));
+    }
+
+    @Test
+    public void testSameFieldInSeveralColumns() throws InvalidDissectorException, MissingDissectorsException {
+        HttpdLogRowSchema schema = new HttpdLogRowSchema(LOG_FORMAT)
+            .addColumn("bytes",       BasicTypeInfo.LONG_TYPE_INFO,   "BYTES:response.body.bytes")
+            .addColumn("bytesString", BasicTypeInfo.STRING_TYPE_INFO, "BYTES:response.body.bytes")
+            .addColumn("bytesAgain",  BasicTypeInfo.LONG_TYPE_INFO,   "BYTES:response.body.bytes");
+        HttpdLoglineRowFunction function = new HttpdLoglineRowFunction(schema);
+        assertEquals(Row.of(1234L, "1234", 1234L), function.parseLine(LINES[0]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedType() {
+        new HttpdLogRowSchema(LOG_FORMAT).addColumn("bytes", BasicTypeInfo.INT_TYPE_INFO, "BYTES:response.body.bytes");
+    }
+
+    @Test
+    public void testDeserializationSchema() throws Exception {
+        HttpdLoglineDeserializationSchema<Row> deserializationSchema =
+            new HttpdLoglineDeserializationSchema<>(new HttpdLoglineRowFunction(createSchema()));
+        assertEquals(createSchema().getRowTypeInfo(), deserializationSchema.getProducedType());
+
+        Row first = deserializationSchema.deserialize(LINES[0].getBytes(StandardCharsets.UTF_8));
+        assertNull(deserializationSchema.deserialize(LINES[2].getBytes(StandardCharsets.UTF_8)));
+        Row second = deserializationSchema.deserialize(LINES[3].getBytes(StandardCharsets.UTF_8));
+
+        assertNotNull(first);
+        assertEquals(Row.of("127.0.0.1", "GET", 1234L, "200"), first);
+        assertEquals(Row.of("127.0.0.3", "GET", 42L,   "200"), second);
+        assertCounters(deserializationSchema.getFunction(), 3, 2, 1, 0);
+    }
+
+    // Keeps the metrics that are registered (by their name including the subgroups).
+    private static class RecordingMetricGroup extends UnregisteredMetricsGroup {
+        private final String prefix;
+        private final Map<String, Metric> metrics;
+
+        RecordingMetricGroup(String prefix, Map<String, Metric> metrics) {
+            this.prefix = prefix;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public MetricGroup addGroup(String name) {
+            return new RecordingMetricGroup(prefix + name + ".", metrics);
+        }
+
+        @Override
+        public <C extends Counter> C counter(String name, C counter) {
+            metrics.put(prefix + name, counter);
+            return counter;
+        }
+
+        @Override
+        public <M extends Meter> M meter(String name, M meter) {
+            metrics.put(prefix + name, meter);
+            return meter;
+        }
+    }
+
+    @Test
+    public void testDeserializationSchemaMetrics() throws Exception {
+        HttpdLoglineDeserializationSchema<Row> deserializationSchema =
+            new HttpdLoglineDeserializationSchema<>(new HttpdLoglineRowFunction(createSchema()));
+        Map<String, Metric> metrics = new TreeMap<>();
+        deserializationSchema.registerMetrics(new RecordingMetricGroup("", metrics));
+        assertEquals(
+            Arrays.asList("httpdlog.linesBad", "httpdlog.linesFiltered", "httpdlog.linesGood",
+                          "httpdlog.linesPerSecond", "httpdlog.linesRead"),
+            new ArrayList<>(metrics.keySet()));
+
+        for (String line : LINES) {
+            deserializationSchema.deserialize(line.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(4, ((Counter) metrics.get("httpdlog.linesRead")).getCount());
+        assertEquals(3, ((Counter) metrics.get("httpdlog.linesGood")).getCount());
+        assertEquals(1, ((Counter) metrics.get("httpdlog.linesBad")).getCount());
+        assertEquals(0, ((Counter) metrics.get("httpdlog.linesFiltered")).getCount());
+    }
+
+    @Test
+    public void testDataSet() throws Exception {
+        ExecutionEnvironment env = ExecutionEnvironment.getExecutionEnvironment();
+        env.setParallelism(1);
+
+        List<Row> rows = env
+            .fromElements(LINES)
+            .mapPartition(new HttpdLoglineRowFunction(createSchema().project(0, 2)).withBatchSize(2))
+            .collect();
+
+        assertEquals(3, rows.size());
+        assertEquals(Row.of("127.0.0.1", 1234L), rows.get(0));
+        assertEquals(Row.of("127.0.0.2", 0L),    rows.get(1));
+        assertEquals(Row.of("127.0.0.3", 42L),   rows.get(2));
+    }
+
+}
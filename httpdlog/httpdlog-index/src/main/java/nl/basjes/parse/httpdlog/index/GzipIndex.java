@@ -0,0 +1,363 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A checkpoint index of a gzip file that makes it possible to start decompressing at many points in the file
+ * instead of only at the start. This makes gzipped logfiles splittable (like in the ApacheHttpdLogfileInputFormat)
+ * and lets several threads decompress and parse different parts of the same file.
+ * <p>
+ * The file is decompressed once to build the index. Every 'span' bytes of uncompressed data (default 64 MB) the
+ * position of the next deflate block is recorded as a checkpoint: its offset in bits in the compressed file, the
+ * uncompressed offset and the last 32 KB of uncompressed data before it (which later blocks may refer back to).
+ * These windows are stored compressed, so the index is usually a few KB per checkpoint.
+ * No changes are needed to how the files are written: any gzip file (also concatenated gzip members) can be indexed.
+ * <p>
+ * The index is stored in a sidecar file next to the gzip file (access.log.gz gives access.log.gz.gzidx).
+ */
+public final class GzipIndex {
+
+    public static final String EXTENSION = ".gzidx";
+    public static final long DEFAULT_SPAN = 64L * 1024 * 1024;
+
+    private static final int MAGIC = 0x475a4958; // GZIX
+    private static final int VERSION = 1;
+
+    private final long span;
+    private final long compressedLength;
+    private final long uncompressedLength;
+    private final List<Checkpoint> checkpoints;
+
+    private GzipIndex(long span, long compressedLength, long uncompressedLength, List<Checkpoint> checkpoints) {
+        this.span = span;
+        this.compressedLength = compressedLength;
+        this.uncompressedLength = uncompressedLength;
+        this.checkpoints = Collections.unmodifiableList(checkpoints);
+    }
+
+    /**
+     * @return The sidecar file of the index of this gzip file.
+     */
+    public static Path getIndexFile(Path gzipFile) {
+        return gzipFile.resolveSibling(gzipFile.getFileName() + EXTENSION);
+    }
+
+    // --------------------------------------------
+
+    public static GzipIndex build(Path gzipFile, long span) throws IOException {
+        try (InputStream in = Files.newInputStream(gzipFile)) {
+            return build(in, span);
+        }
+    }
+
+    /**
+     * Decompress all data and create a checkpoint every span bytes of uncompressed data.
+     * @param gzipData The complete gzip file.
+     */
+    public static GzipIndex build(InputStream gzipData, long span) throws IOException {
+        if (span <= 0) {
+            throw new IllegalArgumentException("The span must be positive (was " + span + ")");
+        }
+        CountingInputStream in = new CountingInputStream(gzipData);
+        Inflate inflate = new Inflate(in);
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        inflate.setBlockListener((bitOffset, uncompressedOffset) -> {
+            if (checkpoints.isEmpty() ||
+                uncompressedOffset - checkpoints.get(checkpoints.size() - 1).uncompressedOffset >= span) {
+                checkpoints.add(new Checkpoint(bitOffset, uncompressedOffset, compress(inflate.getWindow())));
+            }
+        });
+
+        byte[] buffer = new byte[64 * 1024];
+        // Only the checkpoints are needed
+        int read = 0;
+        while (read >= 0) {
+            read = inflate.read(buffer, 0, buffer.length);
+        }
+        // Anything after the last gzip member still counts for the length of the file.
+        read = 0;
+        while (read >= 0) {
+            read = in.read(buffer);
+        }
+        return new GzipIndex(span, in.count, inflate.getPosition(), checkpoints);
+    }
+
+    private static byte[] compress(byte[] window) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(window);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(window.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static final class CountingInputStream extends InputStream {
+        private final InputStream in;
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if (value >= 0) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    // --------------------------------------------
+
+    public void write(Path indexFile) throws IOException {
+        try (OutputStream out = Files.newOutputStream(indexFile)) {
+            write(out);
+        }
+    }
+
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(span);
+        out.writeLong(compressedLength);
+        out.writeLong(uncompressedLength);
+        out.writeInt(checkpoints.size());
+        for (Checkpoint checkpoint : checkpoints) {
+            out.writeLong(checkpoint.bitOffset);
+            out.writeLong(checkpoint.uncompressedOffset);
+            out.writeInt(checkpoint.compressedWindow.length);
+            out.write(checkpoint.compressedWindow);
+        }
+        out.flush();
+    }
+
+    public static GzipIndex read(Path indexFile) throws IOException {
+        try (InputStream in = Files.newInputStream(indexFile)) {
+            return read(in);
+        }
+    }
+
+    public static GzipIndex read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("This is not a gzip index");
+        }
+        long span = in.readLong();
+        long compressedLength = in.readLong();
+        long uncompressedLength = in.readLong();
+        int size = in.readInt();
+        List<Checkpoint> checkpoints = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long bitOffset = in.readLong();
+            long uncompressedOffset = in.readLong();
+            byte[] compressedWindow = new byte[in.readInt()];
+            in.readFully(compressedWindow);
+            checkpoints.add(new Checkpoint(bitOffset, uncompressedOffset, compressedWindow));
+        }
+        return new GzipIndex(span, compressedLength, uncompressedLength, checkpoints);
+    }
+
+    /**
+     * @return The index in the sidecar file of the gzip file or null if there is none or if it was made for a file
+     *         with a different size.
+     */
+    public static GzipIndex load(Path gzipFile) throws IOException {
+        Path indexFile = getIndexFile(gzipFile);
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        GzipIndex index = read(indexFile);
+        if (index.compressedLength != Files.size(gzipFile)) {
+            return null;
+        }
+        return index;
+    }
+
+    // --------------------------------------------
+
+    public long getSpan() {
+        return span;
+    }
+
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+
+    public long getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    public List<Checkpoint> getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * @return The number of the last checkpoint at or before the uncompressed offset.
+     */
+    public int findCheckpoint(long uncompressedOffset) {
+        int low = 0;
+        int high = checkpoints.size() - 1;
+        int found = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (checkpoints.get(middle).uncompressedOffset <= uncompressedOffset) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * A point in the gzip file where decompressing can start.
+     */
+    public static final class Checkpoint {
+        private final long bitOffset;
+        private final long uncompressedOffset;
+        private final byte[] compressedWindow;
+
+        public Checkpoint(long bitOffset, long uncompressedOffset, byte[] compressedWindow) {
+            this.bitOffset = bitOffset;
+            this.uncompressedOffset = uncompressedOffset;
+            this.compressedWindow = compressedWindow;
+        }
+
+        /**
+         * @return The offset (in bits) of the deflate block in the compressed file.
+         */
+        public long getBitOffset() {
+            return bitOffset;
+        }
+
+        /**
+         * @return The offset of the byte in the compressed file where reading must start.
+         */
+        public long getCompressedOffset() {
+            return bitOffset >>> 3;
+        }
+
+        public long getUncompressedOffset() {
+            return uncompressedOffset;
+        }
+
+        /**
+         * @return The (deflate compressed) uncompressed data before the checkpoint.
+         */
+        public byte[] getCompressedWindow() {
+            return compressedWindow;
+        }
+
+        byte[] getWindow() throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressedWindow);
+                byte[] window = new byte[Inflate.WINDOW_SIZE];
+                int length = 0;
+                while (!inflater.finished() && length < window.length) {
+                    int count = inflater.inflate(window, length, window.length - length);
+                    if (count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Corrupt window in the gzip index");
+                    }
+                    length += count;
+                }
+                byte[] result = new byte[length];
+                System.arraycopy(window, 0, result, 0, length);
+                return result;
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt window in the gzip index", e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        /**
+         * @param compressed The compressed file positioned at {@link #getCompressedOffset()}.
+         * @return The uncompressed data from the uncompressed offset of this checkpoint until the end of the file.
+         */
+        public InputStream open(InputStream compressed) throws IOException {
+            return new CheckpointInputStream(new Inflate(compressed, bitOffset, uncompressedOffset, getWindow()), compressed);
+        }
+    }
+
+    private static final class CheckpointInputStream extends InputStream {
+        private final Inflate inflate;
+        private final InputStream compressed;
+        private final byte[] single = new byte[1];
+
+        CheckpointInputStream(Inflate inflate, InputStream compressed) {
+            this.inflate = inflate;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return inflate.read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            compressed.close();
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads parts of a gzip file using its {@link GzipIndex} so several threads can each decompress and parse
+ * a different part of the same file:
+ * <pre>
+ * IndexedGzipFile file = IndexedGzipFile.open(Paths.get("access.log.gz"));
+ * for (IndexedGzipFile.Range range : file.getRanges(threads)) {
+ *     executor.submit(() -&gt; {
+ *         try (IndexedGzipFile.LineReader lines = file.openLines(range)) {
+ *             String line;
+ *             while ((line = lines.readLine()) != null) {
+ *                 ...
+ *             }
+ *         }
+ *     });
+ * }
+ * </pre>
+ * The lines are assigned to the ranges in the same way as the Hadoop LineRecordReader does: a range skips its first
+ * (partial) line unless it starts at 0 and reads the line that continues after its end.
+ */
+public class IndexedGzipFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedGzipFile.class);
+
+    private final Path file;
+    private final GzipIndex index;
+
+    public IndexedGzipFile(Path file, GzipIndex index) {
+        this.file = file;
+        this.index = index;
+    }
+
+    /**
+     * Use the index in the sidecar file; if there is no (valid) index it is built and (if possible) written.
+     */
+    public static IndexedGzipFile open(Path file) throws IOException {
+        GzipIndex index = GzipIndex.load(file);
+        if (index == null) {
+            index = GzipIndex.build(file, GzipIndex.DEFAULT_SPAN);
+            try {
+                index.write(GzipIndex.getIndexFile(file));
+            } catch (IOException e) {
+                LOG.warn("Unable to write the index of {}: {}", file, e.getMessage());
+            }
+        }
+        return new IndexedGzipFile(file, index);
+    }
+
+    public GzipIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return At most count ranges (starting at checkpoints) of about the same uncompressed size that together
+     *         cover the whole file.
+     */
+    public List<Range> getRanges(int count) {
+        List<GzipIndex.Checkpoint> checkpoints = index.getCheckpoints();
+        List<Range> ranges = new ArrayList<>();
+        if (checkpoints.isEmpty()) {
+            return ranges;
+        }
+        // Each range ends at the checkpoint that is closest to where it should end.
+        long length = index.getUncompressedLength();
+        int start = 0;
+        for (int part = 1; part < count; part++) {
+            long target = length * part / count;
+            int end = index.findCheckpoint(target);
+            if (end + 1 < checkpoints.size() &&
+                checkpoints.get(end + 1).getUncompressedOffset() - target < target - checkpoints.get(end).getUncompressedOffset()) {
+                end++;
+            }
+            if (end > start) {
+                ranges.add(new Range(start, checkpoints.get(start).getUncompressedOffset(), checkpoints.get(end).getUncompressedOffset()));
+                start = end;
+            }
+        }
+        ranges.add(new Range(start, checkpoints.get(start).getUncompressedOffset(), length));
+        return ranges;
+    }
+
+    /**
+     * @return The uncompressed data starting at the checkpoint of the range (until the end of the file).
+     */
+    public InputStream open(Range range) throws IOException {
+        GzipIndex.Checkpoint checkpoint = index.getCheckpoints().get(range.checkpoint);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            channel.position(checkpoint.getCompressedOffset());
+            return checkpoint.open(Channels.newInputStream(channel));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public LineReader openLines(Range range) throws IOException {
+        return new LineReader(open(range), range.start, range.end);
+    }
+
+    // --------------------------------------------
+
+    /**
+     * A part [start, end) of the uncompressed data that starts at a checkpoint.
+     */
+    public static final class Range {
+        private final int checkpoint;
+        private final long start;
+        private final long end;
+
+        Range(int checkpoint, long start, long end) {
+            this.checkpoint = checkpoint;
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return "Range{" + start + " - " + end + '}';
+        }
+    }
+
+    /**
+     * The lines of a range.
+     */
+    public static final class LineReader implements Closeable {
+        private final InputStream in;
+        private final long end;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int bufferPosition = 0;
+        private int bufferLimit = 0;
+        private byte[] line = new byte[1024];
+        private long position;
+        private long linePosition = -1;
+        private boolean done = false;
+
+        LineReader(InputStream in, long start, long end) throws IOException {
+            this.in = in;
+            this.position = start;
+            this.end = end;
+            if (start != 0) {
+                // The line that started before this range belongs to the previous range.
+                readLineBytes();
+            }
+        }
+
+        /**
+         * @return The next line without the line terminator or null at the end of the range.
+         */
+        public String readLine() throws IOException {
+            if (done || position > end) {
+                return null;
+            }
+            linePosition = position;
+            int length = readLineBytes();
+            if (length < 0) {
+                done = true;
+                return null;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return The uncompressed offset of the line that was returned last.
+         */
+        public long getLinePosition() {
+            return linePosition;
+        }
+
+        // Reads up to and including the next newline; returns the length without the newline (-1 at the end).
+        private int readLineBytes() throws IOException {
+            int length = 0;
+            boolean any = false;
+            while (true) {
+                if (bufferPosition == bufferLimit) {
+                    bufferLimit = in.read(buffer, 0, buffer.length);
+                    bufferPosition = 0;
+                    if (bufferLimit <= 0) {
+                        bufferLimit = 0;
+                        return any ? length : -1;
+                    }
+                }
+                any = true;
+                int newline = -1;
+                for (int i = bufferPosition; i < bufferLimit; i++) {
+                    if (buffer[i] == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                int chunkEnd = newline == -1 ? bufferLimit : newline;
+                int chunk = chunkEnd - bufferPosition;
+                if (length + chunk > line.length) {
+                    line = Arrays.copyOf(line, Math.max(line.length * 2, length + chunk));
+                }
+                System.arraycopy(buffer, bufferPosition, line, length, chunk);
+                length += chunk;
+                position += chunk;
+                bufferPosition = chunkEnd;
+                if (newline != -1) {
+                    bufferPosition++;
+                    position++;
+                    return length;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,608 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A decoder of gzip (deflate) data that, unlike java.util.zip.Inflater, knows where the deflate blocks start.
+ * This makes it possible to create checkpoints (the bit offset of a block and the last 32 KB of output before it)
+ * while decompressing and to start decompressing at such a checkpoint later on.
+ * Concatenated gzip members (as created by appending gzipped files) are decompressed as one stream.
+ * The CRC of the members is not verified; the length of a member is verified if it was decompressed completely.
+ */
+final class Inflate {
+
+    /**
+     * Receives the position of every deflate block before it is decoded.
+     */
+    interface BlockListener {
+        void atBlock(long bitOffset, long uncompressedOffset) throws IOException;
+    }
+
+    static final int WINDOW_SIZE = 32 * 1024;
+    private static final int MAX_MATCH = 258;
+
+    private static final int STATE_MEMBER_HEADER = 0;
+    private static final int STATE_BLOCK_HEADER  = 1;
+    private static final int STATE_STORED        = 2;
+    private static final int STATE_HUFFMAN       = 3;
+    private static final int STATE_TRAILER       = 4;
+    private static final int STATE_DONE          = 5;
+
+    // Input
+    private final InputStream in;
+    private final byte[] input = new byte[64 * 1024];
+    private int inputPosition = 0;
+    private int inputLimit = 0;
+    private long inputBase;       // The offset in the compressed data of input[0]
+    private long bitBuffer = 0;
+    private int bitCount = 0;
+    private int overrunBits = 0;  // Zero bits added after the end of the input
+
+    // Output: a circular buffer with the unread output and (at least) the last 32 KB before it.
+    private final byte[] output = new byte[1 << 17];
+    private final int outputMask = output.length - 1;
+    private static final int MAX_UNREAD = (1 << 17) - WINDOW_SIZE - MAX_MATCH - 1;
+    private long written;           // The total uncompressed offset of the output
+    private long readPosition;      // The total uncompressed offset of the next byte to read
+    private long memberWritten;     // The bytes available for back references in this member
+    private boolean memberComplete; // The member was decompressed from its start
+    private boolean afterMember = false;
+
+    // Decoder state
+    private int state;
+    private boolean lastBlock = false;
+    private int storedRemaining = 0;
+    private int[] literalTable;
+    private int literalBits;
+    private int[] distanceTable;
+    private int distanceBits;
+
+    // The tables of the dynamic blocks are reused (sized for the longest possible code: 15 bits).
+    private static final int MAX_CODE_BITS = 15;
+    private final int[] dynamicLiteralTable = new int[1 << MAX_CODE_BITS];
+    private final int[] dynamicDistanceTable = new int[1 << MAX_CODE_BITS];
+    private final int[] codeLengthTable = new int[1 << 7];
+    private final int[] codeLengthLengths = new int[19];
+    private final int[] codeLengths = new int[286 + 30];
+
+    private BlockListener blockListener = null;
+
+    /**
+     * Decompress the gzip data from the start.
+     */
+    Inflate(InputStream in) {
+        this.in = in;
+        this.inputBase = 0;
+        this.written = 0;
+        this.readPosition = 0;
+        this.state = STATE_MEMBER_HEADER;
+    }
+
+    /**
+     * Decompress from a checkpoint.
+     * @param in The compressed data starting at the byte that contains the bit offset.
+     * @param bitOffset The bit offset of the block in the compressed data.
+     * @param uncompressedOffset The uncompressed offset at the start of the block.
+     * @param window The (at most 32 KB of) uncompressed data right before the block.
+     */
+    Inflate(InputStream in, long bitOffset, long uncompressedOffset, byte[] window) throws IOException {
+        this.in = in;
+        this.inputBase = bitOffset >>> 3;
+        this.written = uncompressedOffset;
+        this.readPosition = uncompressedOffset;
+        for (int i = 0; i < window.length; i++) {
+            output[(int) (uncompressedOffset - window.length + i) & outputMask] = window[i];
+        }
+        this.memberWritten = window.length;
+        this.memberComplete = false;
+        this.state = STATE_BLOCK_HEADER;
+        dropBits((int) (bitOffset & 7));
+    }
+
+    void setBlockListener(BlockListener newBlockListener) {
+        this.blockListener = newBlockListener;
+    }
+
+    /**
+     * @return The uncompressed offset of the next byte that will be read.
+     */
+    long getPosition() {
+        return readPosition;
+    }
+
+    /**
+     * @return The (at most 32 KB of) uncompressed data before the current output position of the decoder.
+     */
+    byte[] getWindow() {
+        int length = (int) Math.min(WINDOW_SIZE, memberWritten);
+        byte[] window = new byte[length];
+        for (int i = 0; i < length; i++) {
+            window[i] = output[(int) (written - length + i) & outputMask];
+        }
+        return window;
+    }
+
+    // --------------------------------------------
+
+    int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (readPosition == written) {
+            if (state == STATE_DONE) {
+                return -1;
+            }
+            decode();
+        }
+        int count = (int) Math.min(length, written - readPosition);
+        int start = (int) readPosition & outputMask;
+        int first = Math.min(count, output.length - start);
+        System.arraycopy(output, start, buffer, offset, first);
+        System.arraycopy(output, 0, buffer, offset + first, count - first);
+        readPosition += count;
+        return count;
+    }
+
+    /**
+     * Decode until there is a reasonable amount of unread output or the end of the data.
+     */
+    private void decode() throws IOException {
+        while (written - readPosition < MAX_UNREAD) {
+            switch (state) {
+                case STATE_MEMBER_HEADER:
+                    if (!readMemberHeader()) {
+                        state = STATE_DONE;
+                        return;
+                    }
+                    memberWritten = 0;
+                    memberComplete = true;
+                    state = STATE_BLOCK_HEADER;
+                    break;
+                case STATE_BLOCK_HEADER:
+                    if (blockListener != null) {
+                        blockListener.atBlock(getBitOffset(), written);
+                    }
+                    readBlockHeader();
+                    break;
+                case STATE_STORED:
+                    decodeStored();
+                    break;
+                case STATE_HUFFMAN:
+                    decodeHuffman();
+                    break;
+                case STATE_TRAILER:
+                    readTrailer();
+                    afterMember = true;
+                    state = STATE_MEMBER_HEADER;
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void endOfBlock() {
+        state = lastBlock ? STATE_TRAILER : STATE_BLOCK_HEADER;
+    }
+
+    // --------------------------------------------
+    // Reading bits and bytes
+
+    /**
+     * @return The offset (in bits) in the compressed data of the next bit that will be decoded.
+     */
+    private long getBitOffset() {
+        return (inputBase + inputPosition) * 8 - bitCount + overrunBits;
+    }
+
+    private int nextInputByte() throws IOException {
+        if (inputPosition == inputLimit && !fillInput()) {
+            return -1;
+        }
+        return input[inputPosition++] & 0xFF;
+    }
+
+    /**
+     * Read the next part of the compressed data into the (completely used) input buffer.
+     * @return false at the end of the data.
+     */
+    private boolean fillInput() throws IOException {
+        inputBase += inputLimit;
+        inputPosition = 0;
+        inputLimit = 0;
+        int count = in.read(input, 0, input.length);
+        if (count <= 0) {
+            return false;
+        }
+        inputLimit = count;
+        return true;
+    }
+
+    // Make sure there are at least count (max 32) bits in the bit buffer; zeros are added after the end of the data.
+    private void needBits(int count) throws IOException {
+        while (bitCount < count) {
+            int value = overrunBits > 0 ? -1 : nextInputByte();
+            if (value < 0) {
+                overrunBits += 8;
+                value = 0;
+            }
+            bitBuffer |= ((long) value) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    private void dropBits(int count) throws IOException {
+        needBits(count);
+        bitBuffer >>>= count;
+        bitCount -= count;
+        if (bitCount < overrunBits) {
+            throw new EOFException("Unexpected end of the gzip data");
+        }
+    }
+
+    private int getBits(int count) throws IOException {
+        needBits(count);
+        int value = (int) (bitBuffer & ((1L << count) - 1));
+        dropBits(count);
+        return value;
+    }
+
+    private void alignToByte() throws IOException {
+        dropBits(bitCount & 7);
+    }
+
+    /**
+     * @return The next byte (the bits must be byte aligned) or -1 at the end of the data.
+     */
+    private int readAlignedByte() throws IOException {
+        if (bitCount - overrunBits >= 8) {
+            return getBits(8);
+        }
+        if (bitCount > 0) {
+            // Only padding left
+            bitBuffer = 0;
+            bitCount = 0;
+            overrunBits = 0;
+            return -1;
+        }
+        return nextInputByte();
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        int value = readRequiredByte();
+        while (value != 0) {
+            value = readRequiredByte();
+        }
+    }
+
+    private int readRequiredByte() throws IOException {
+        int value = readAlignedByte();
+        if (value < 0) {
+            throw new EOFException("Unexpected end of the gzip data");
+        }
+        return value;
+    }
+
+    // --------------------------------------------
+    // The gzip container
+
+    private boolean readMemberHeader() throws IOException {
+        int id1 = readAlignedByte();
+        if (id1 < 0) {
+            return false;
+        }
+        if (id1 != 0x1f || readAlignedByte() != 0x8b) {
+            if (afterMember) {
+                // Like java.util.zip.GZIPInputStream we ignore trailing garbage (like padding) after a member.
+                return false;
+            }
+            throw new IOException("Not in gzip format");
+        }
+        if (readRequiredByte() != 8) {
+            throw new IOException("Unsupported gzip compression method");
+        }
+        int flags = readRequiredByte();
+        for (int i = 0; i < 6; i++) { // MTIME, XFL and OS
+            readRequiredByte();
+        }
+        if ((flags & 4) != 0) { // FEXTRA
+            int length = readRequiredByte() | readRequiredByte() << 8;
+            for (int i = 0; i < length; i++) {
+                readRequiredByte();
+            }
+        }
+        if ((flags & 8) != 0) { // FNAME
+            skipZeroTerminated();
+        }
+        if ((flags & 16) != 0) { // FCOMMENT
+            skipZeroTerminated();
+        }
+        if ((flags & 2) != 0) { // FHCRC
+            readRequiredByte();
+            readRequiredByte();
+        }
+        return true;
+    }
+
+    private void readTrailer() throws IOException {
+        alignToByte();
+        long[] values = new long[8];
+        for (int i = 0; i < 8; i++) {
+            values[i] = readRequiredByte();
+        }
+        long size = values[4] | values[5] << 8 | values[6] << 16 | values[7] << 24;
+        if (memberComplete && size != (memberWritten & 0xFFFFFFFFL)) {
+            throw new IOException("Corrupt gzip data: the length of the member does not match");
+        }
+    }
+
+    // --------------------------------------------
+    // The deflate blocks
+
+    private void readBlockHeader() throws IOException {
+        lastBlock = getBits(1) == 1;
+        int type = getBits(2);
+        switch (type) {
+            case 0:
+                alignToByte();
+                int length = readRequiredByte() | readRequiredByte() << 8;
+                int complement = readRequiredByte() | readRequiredByte() << 8;
+                if ((length ^ 0xFFFF) != complement) {
+                    throw new IOException("Corrupt gzip data: invalid stored block length");
+                }
+                storedRemaining = length;
+                state = STATE_STORED;
+                break;
+            case 1:
+                literalTable = FIXED_LITERAL_TABLE;
+                literalBits = FIXED_LITERAL_BITS;
+                distanceTable = FIXED_DISTANCE_TABLE;
+                distanceBits = FIXED_DISTANCE_BITS;
+                state = STATE_HUFFMAN;
+                break;
+            case 2:
+                readDynamicTables();
+                state = STATE_HUFFMAN;
+                break;
+            default:
+                throw new IOException("Corrupt gzip data: invalid block type");
+        }
+    }
+
+    private void decodeStored() throws IOException {
+        // First the (whole) bytes that are still in the bit buffer
+        while (storedRemaining > 0 && bitCount > 0 && written - readPosition < MAX_UNREAD) {
+            writeByte(readRequiredByte());
+            storedRemaining--;
+        }
+        // The rest is copied directly from the input buffer
+        while (storedRemaining > 0 && written - readPosition < MAX_UNREAD) {
+            if (inputPosition == inputLimit && !fillInput()) {
+                throw new EOFException("Unexpected end of the gzip data");
+            }
+            int outputIndex = (int) written & outputMask;
+            int count = Math.min(storedRemaining, inputLimit - inputPosition);
+            count = Math.min(count, output.length - outputIndex);
+            count = (int) Math.min(count, MAX_UNREAD - (written - readPosition));
+            System.arraycopy(input, inputPosition, output, outputIndex, count);
+            inputPosition += count;
+            written += count;
+            memberWritten += count;
+            storedRemaining -= count;
+        }
+        if (storedRemaining == 0) {
+            endOfBlock();
+        }
+    }
+
+    private void writeByte(int value) {
+        output[(int) written & outputMask] = (byte) value;
+        written++;
+        memberWritten++;
+    }
+
+    private static final int[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+
+    private int decodeSymbol(int[] table, int bits) throws IOException {
+        needBits(bits);
+        int entry = table[(int) (bitBuffer & ((1L << bits) - 1))];
+        int length = entry & 15;
+        if (length == 0) {
+            throw new IOException("Corrupt gzip data: invalid code");
+        }
+        dropBits(length);
+        return entry >>> 4;
+    }
+
+    private void decodeHuffman() throws IOException {
+        while (written - readPosition < MAX_UNREAD) {
+            int symbol = decodeSymbol(literalTable, literalBits);
+            if (symbol < 256) {
+                writeByte(symbol);
+                continue;
+            }
+            if (symbol == 256) {
+                endOfBlock();
+                return;
+            }
+            symbol -= 257;
+            if (symbol >= 29) {
+                throw new IOException("Corrupt gzip data: invalid length code");
+            }
+            int length = LENGTH_BASE[symbol] + getBits(LENGTH_EXTRA[symbol]);
+            int distanceSymbol = decodeSymbol(distanceTable, distanceBits);
+            if (distanceSymbol >= 30) {
+                throw new IOException("Corrupt gzip data: invalid distance code");
+            }
+            int distance = DISTANCE_BASE[distanceSymbol] + getBits(DISTANCE_EXTRA[distanceSymbol]);
+            if (distance > memberWritten || distance > WINDOW_SIZE) {
+                throw new IOException("Corrupt gzip data: distance too far back");
+            }
+            int to = (int) written & outputMask;
+            int from = (int) (written - distance) & outputMask;
+            if (distance >= length && to + length <= output.length && from + length <= output.length) {
+                // Not overlapping and not wrapping around the end of the buffer
+                System.arraycopy(output, from, output, to, length);
+                written += length;
+            } else {
+                for (int i = 0; i < length; i++) {
+                    output[(int) written & outputMask] = output[(int) (written - distance) & outputMask];
+                    written++;
+                }
+            }
+            memberWritten += length;
+        }
+    }
+
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private void readDynamicTables() throws IOException {
+        int literals = getBits(5) + 257;
+        int distances = getBits(5) + 1;
+        int codeLengthCodes = getBits(4) + 4;
+        if (literals > 286 || distances > 30) {
+            throw new IOException("Corrupt gzip data: too many codes");
+        }
+
+        Arrays.fill(codeLengthLengths, 0);
+        for (int i = 0; i < codeLengthCodes; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = getBits(3);
+        }
+        int codeLengthBits = maxLength(codeLengthLengths, 0, 19);
+        buildTable(codeLengthLengths, 0, 19, codeLengthBits, codeLengthTable);
+
+        int[] lengths = codeLengths;
+        int totalLengths = literals + distances;
+        int index = 0;
+        while (index < totalLengths) {
+            int symbol = decodeSymbol(codeLengthTable, codeLengthBits);
+            if (symbol < 16) {
+                lengths[index++] = symbol;
+                continue;
+            }
+            int value = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (index == 0) {
+                    throw new IOException("Corrupt gzip data: repeat without a previous length");
+                }
+                value = lengths[index - 1];
+                repeat = 3 + getBits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + getBits(3);
+            } else {
+                repeat = 11 + getBits(7);
+            }
+            if (index + repeat > totalLengths) {
+                throw new IOException("Corrupt gzip data: too many code lengths");
+            }
+            Arrays.fill(lengths, index, index + repeat, value);
+            index += repeat;
+        }
+        if (lengths[256] == 0) {
+            throw new IOException("Corrupt gzip data: no end of block code");
+        }
+
+        literalBits = maxLength(lengths, 0, literals);
+        literalTable = buildTable(lengths, 0, literals, literalBits, dynamicLiteralTable);
+        distanceBits = maxLength(lengths, literals, distances);
+        distanceTable = buildTable(lengths, literals, distances, distanceBits, dynamicDistanceTable);
+    }
+
+    private static int maxLength(int[] lengths, int offset, int count) {
+        int max = 0;
+        for (int i = offset; i < offset + count; i++) {
+            max = Math.max(max, lengths[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Fill a lookup table indexed by the next 'bits' bits of the input; each entry is (symbol &lt;&lt; 4 | code length)
+     * or 0 for an invalid code. Only the first 2^bits entries of the table are used.
+     * @return The table.
+     */
+    private static int[] buildTable(int[] lengths, int offset, int count, int bits, int[] table) throws IOException {
+        int[] lengthCount = new int[16];
+        for (int i = offset; i < offset + count; i++) {
+            lengthCount[lengths[i]]++;
+        }
+        lengthCount[0] = 0;
+        int[] nextCode = new int[16];
+        int code = 0;
+        for (int length = 1; length < 16; length++) {
+            code = (code + lengthCount[length - 1]) << 1;
+            nextCode[length] = code;
+            if (code + lengthCount[length] > (1 << length)) {
+                throw new IOException("Corrupt gzip data: over subscribed code");
+            }
+        }
+
+        int size = 1 << bits;
+        Arrays.fill(table, 0, size, 0);
+        for (int symbol = 0; symbol < count; symbol++) {
+            int length = lengths[offset + symbol];
+            if (length == 0) {
+                continue;
+            }
+            // The codes are stored starting with the most significant bit; the bits are read starting with the least.
+            int reversed = Integer.reverse(nextCode[length]++) >>> (32 - length);
+            int entry = symbol << 4 | length;
+            for (int index = reversed; index < size; index += 1 << length) {
+                table[index] = entry;
+            }
+        }
+        return table;
+    }
+
+    private static final int[] FIXED_LITERAL_TABLE;
+    private static final int FIXED_LITERAL_BITS = 9;
+    private static final int[] FIXED_DISTANCE_TABLE;
+    private static final int FIXED_DISTANCE_BITS = 5;
+
+    static {
+        int[] lengths = new int[288];
+        Arrays.fill(lengths, 0, 144, 8);
+        Arrays.fill(lengths, 144, 256, 9);
+        Arrays.fill(lengths, 256, 280, 7);
+        Arrays.fill(lengths, 280, 288, 8);
+        int[] distanceLengths = new int[30];
+        Arrays.fill(distanceLengths, 5);
+        try {
+            FIXED_LITERAL_TABLE = buildTable(lengths, 0, 288, FIXED_LITERAL_BITS, new int[1 << FIXED_LITERAL_BITS]);
+            FIXED_DISTANCE_TABLE =
+                buildTable(distanceLengths, 0, 30, FIXED_DISTANCE_BITS, new int[1 << FIXED_DISTANCE_BITS]);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
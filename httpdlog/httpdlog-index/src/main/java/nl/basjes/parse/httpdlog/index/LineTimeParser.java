@@ -0,0 +1,67 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.index;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * Retrieves only the time (epoch milliseconds) of a logline.
+ */
+final class LineTimeParser {
+
+    static final String TIME_FIELD = "TIME.EPOCH:request.receive.time.epoch";
+
+    private final Parser<TimeRecord> parser;
+    private final TimeRecord record = new TimeRecord();
+
+    LineTimeParser(String logformat) throws MissingDissectorsException, InvalidDissectorException {
+        parser = new HttpdLoglineParser<>(TimeRecord.class, logformat);
+        try {
+            parser.addParseTarget(TimeRecord.class.getMethod("setTime", String.class, Long.class), NOT_NULL, TIME_FIELD);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The time of the line or null if the line cannot be parsed or has no time.
+     */
+    Long getTime(String line) throws MissingDissectorsException, InvalidDissectorException {
+        record.time = null;
+        try {
+            parser.parse(record, line);
+        } catch (DissectionFailure dissectionFailure) {
+            return null;
+        }
+        return record.time;
+    }
+
+    public static class TimeRecord {
+        private Long time;
+
+        public void setTime(String name, Long value) {
+            time = value;
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opening a logfile (plain or gzip) at an offset in its (uncompressed) content.
+ */
+final class LogfileInput {
+
+    private static final int HEAD_LENGTH = 64 * 1024;
+
+    private LogfileInput() {
+    }
+
+    /**
+     * @return true if the file starts with the gzip magic bytes (regardless of its name).
+     */
+    static boolean isGzip(Path logfile) throws IOException {
+        try (FileChannel channel = FileChannel.open(logfile, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(2);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // Until both bytes are read or the file ends
+                continue;
+            }
+            return magic.position() == 2 && (magic.get(0) & 0xFF) == 0x1f && (magic.get(1) & 0xFF) == 0x8b;
+        }
+    }
+
+    /**
+     * @param offset The offset in the uncompressed content.
+     * @return The uncompressed content of the logfile starting at the offset.
+     *         A gzip file is decompressed from the nearest checkpoint of its {@link GzipIndex} (if it has one)
+     *         else from the start.
+     */
+    static InputStream open(Path logfile, long offset) throws IOException {
+        boolean gzip = isGzip(logfile);
+        FileChannel channel = FileChannel.open(logfile, StandardOpenOption.READ);
+        try {
+            if (!gzip) {
+                channel.position(offset);
+                return Channels.newInputStream(channel);
+            }
+            GzipIndex gzipIndex = offset == 0 ? null : GzipIndex.load(logfile);
+            InputStream in;
+            long position;
+            if (gzipIndex == null || gzipIndex.getCheckpoints().isEmpty()) {
+                in = new GZIPInputStream(Channels.newInputStream(channel), 64 * 1024);
+                position = 0;
+            } else {
+                GzipIndex.Checkpoint checkpoint = gzipIndex.getCheckpoints().get(gzipIndex.findCheckpoint(offset));
+                channel.position(checkpoint.getCompressedOffset());
+                in = checkpoint.open(Channels.newInputStream(channel));
+                position = checkpoint.getUncompressedOffset();
+            }
+            skipFully(in, offset - position);
+            return in;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void skipFully(InputStream in, long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    return; // The file is shorter than the offset
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * @return The length of the head of the file that is used for the checksum.
+     */
+    static long getHeadLength(long fileLength) {
+        return Math.min(fileLength, HEAD_LENGTH);
+    }
+
+    /**
+     * @return A checksum of the first length (raw) bytes of the file to recognize a replaced (rotated) file.
+     */
+    static long headChecksum(Path logfile, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(logfile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Until the head is read or the file ends
+                continue;
+            }
+            crc.update(buffer.array(), 0, buffer.position());
+        }
+        return crc.getValue();
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.index;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A sparse index of a logfile that maps the time of the lines (TIME.EPOCH:request.receive.time.epoch) to the byte
+ * offset at which those lines start. Only a single line every N bytes is parsed (and stored) so building the index
+ * costs little more than reading the file, and the index of a 100 GB file sampled every 256 KB is about 6 MB.
+ * <p>
+ * The lines in an access log are not exactly in time order (a line is written when the request is done, the time is
+ * when it was received); the time stored with a sample is therefore the highest time seen up to that sample.
+ * The {@link TimeWindowReader} uses the index to start reading just before a time window instead of at the start
+ * of the file.
+ * <p>
+ * A gzip compressed logfile is indexed on its uncompressed content (the offsets are uncompressed offsets).
+ * <p>
+ * The index is stored in a sidecar file next to the logfile (access.log gives access.log.tidx). It records the size
+ * and a checksum of the head of the logfile so an index of a rotated (replaced) file is not used.
+ */
+public final class TimeIndex {
+
+    public static final String EXTENSION = ".tidx";
+    public static final int DEFAULT_INTERVAL = 256 * 1024;
+
+    private static final int MAGIC = 0x54494458; // TIDX
+    private static final int VERSION = 2;
+    private static final int MAX_SAMPLED_LINE_LENGTH = 64 * 1024;
+
+    private final long interval;
+    private final long fileLength;
+    private final long headChecksum;
+    private final long indexedLength;
+    private final long[] times;
+    private final long[] offsets;
+
+    private TimeIndex(long interval, long fileLength, long headChecksum, long indexedLength, long[] times, long[] offsets) {
+        this.interval = interval;
+        this.fileLength = fileLength;
+        this.headChecksum = headChecksum;
+        this.indexedLength = indexedLength;
+        this.times = times;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return The sidecar file of the index of this logfile.
+     */
+    public static Path getIndexFile(Path logfile) {
+        return logfile.resolveSibling(logfile.getFileName() + EXTENSION);
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Read the logfile and sample the time of a line every interval bytes.
+     */
+    public static TimeIndex build(String logformat, Path logfile, int interval)
+        throws IOException, MissingDissectorsException, InvalidDissectorException {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The interval must be positive (was " + interval + ")");
+        }
+        LineTimeParser timeParser = new LineTimeParser(logformat);
+        // The file may still be growing; only this part is recorded to recognize the file.
+        long fileLength = Files.size(logfile);
+        long headChecksum = LogfileInput.headChecksum(logfile, LogfileInput.getHeadLength(fileLength));
+
+        long[] times = new long[1024];
+        long[] offsets = new long[1024];
+        int size = 0;
+        long highestTime = Long.MIN_VALUE;
+
+        byte[] line = new byte[1024];
+        int lineLength = 0;
+        boolean sampling = true;
+        long nextSample = 0;
+        long lineStart = 0;
+        long position = 0;
+
+        byte[] bytes = new byte[1024 * 1024];
+        try (InputStream in = LogfileInput.open(logfile, 0)) {
+            while (true) {
+                int read = in.read(bytes);
+                if (read < 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++, position++) {
+                    byte b = bytes[i];
+                    if (b != '\n') {
+                        if (sampling && lineLength < MAX_SAMPLED_LINE_LENGTH) {
+                            if (lineLength == line.length) {
+                                line = Arrays.copyOf(line, line.length * 2);
+                            }
+                            line[lineLength++] = b;
+                        }
+                        continue;
+                    }
+
+                    if (sampling) {
+                        Long time = timeParser.getTime(toString(line, lineLength));
+                        if (time != null) {
+                            highestTime = Math.max(highestTime, time);
+                            if (size == times.length) {
+                                times = Arrays.copyOf(times, size * 2);
+                                offsets = Arrays.copyOf(offsets, size * 2);
+                            }
+                            times[size] = highestTime;
+                            offsets[size] = lineStart;
+                            size++;
+                            nextSample = lineStart + interval;
+                        }
+                        lineLength = 0;
+                    }
+                    lineStart = position + 1;
+                    sampling = lineStart >= nextSample;
+                }
+            }
+        }
+        // Only complete lines are indexed (the file may still be growing).
+        return new TimeIndex(interval, fileLength, headChecksum, lineStart,
+            Arrays.copyOf(times, size), Arrays.copyOf(offsets, size));
+    }
+
+    private static String toString(byte[] line, int length) {
+        int end = length;
+        if (end > 0 && line[end - 1] == '\r') {
+            end--;
+        }
+        return new String(line, 0, end, StandardCharsets.UTF_8);
+    }
+
+    // --------------------------------------------
+
+    public void write(Path indexFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(interval);
+            out.writeLong(fileLength);
+            out.writeLong(headChecksum);
+            out.writeLong(indexedLength);
+            out.writeInt(times.length);
+            for (int i = 0; i < times.length; i++) {
+                out.writeLong(times[i]);
+                out.writeLong(offsets[i]);
+            }
+        }
+    }
+
+    public static TimeIndex read(Path indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("The file " + indexFile + " is not a time index");
+            }
+            long interval = in.readLong();
+            long fileLength = in.readLong();
+            long headChecksum = in.readLong();
+            long indexedLength = in.readLong();
+            int size = in.readInt();
+            long[] times = new long[size];
+            long[] offsets = new long[size];
+            for (int i = 0; i < size; i++) {
+                times[i] = in.readLong();
+                offsets[i] = in.readLong();
+            }
+            return new TimeIndex(interval, fileLength, headChecksum, indexedLength, times, offsets);
+        }
+    }
+
+    /**
+     * @return The index in the sidecar file of the logfile or null if there is none or if it does not belong to
+     *         the current logfile: the logfile is smaller than when it was indexed or it starts differently.
+     *         A logfile that only grew since it was indexed keeps its index.
+     */
+    public static TimeIndex load(Path logfile) throws IOException {
+        Path indexFile = getIndexFile(logfile);
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        TimeIndex index;
+        try {
+            index = read(indexFile);
+        } catch (IOException e) {
+            return null; // An index of an older version (or a damaged one) is simply rebuilt.
+        }
+        if (index.fileLength > Files.size(logfile) ||
+            index.headChecksum != LogfileInput.headChecksum(logfile, LogfileInput.getHeadLength(index.fileLength))) {
+            return null;
+        }
+        return index;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return The offset of a line start before which all lines have a time before the requested time
+     *         (as far as the samples show): the offset of the last sample with a time before it.
+     */
+    public long getOffsetBefore(long time) {
+        // The times are ascending (the highest time seen so far).
+        int low = 0;
+        int high = times.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found == -1 ? 0 : offsets[found];
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return The number of (uncompressed) bytes of the logfile that were indexed.
+     */
+    public long getIndexedLength() {
+        return indexedLength;
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * @return The (highest) time up to the sample.
+     */
+    public long getSampleTime(int sample) {
+        return times[sample];
+    }
+
+    public long getSampleOffset(int sample) {
+        return offsets[sample];
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.index;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Reads the lines of a logfile of which the time is in a window [from, until) (epoch milliseconds).
+ * With a {@link TimeIndex} reading starts at the sample before the window instead of at the start of the file,
+ * and reading stops as soon as a line is found after the window.
+ * <p>
+ * As the lines are not exactly in time order the reader starts before and stops after the window with a margin of
+ * the maximum disorder (default 1 minute): the longest time between receiving a request and writing its line.
+ * Only the time of each line is parsed; the returned lines can then be parsed by any parser.
+ * <p>
+ * A gzip compressed logfile is decompressed from the start, or from the nearest checkpoint if it has a
+ * {@link GzipIndex}; the lines before the start offset are skipped without being parsed.
+ */
+public class TimeWindowReader implements Closeable {
+
+    public static final long DEFAULT_MAX_DISORDER = 60 * 1000;
+
+    private final String logformat;
+    private final Path logfile;
+    private final TimeIndex index;
+    private final long from;
+    private final long until;
+    private long maxDisorder = DEFAULT_MAX_DISORDER;
+
+    private LineTimeParser timeParser = null;
+    private BufferedReader reader = null;
+    private boolean done = false;
+
+    private long startOffset = 0;
+    private long linesRead = 0;
+    private long linesBad = 0;
+
+    /**
+     * @param index The index of the logfile; null to read from the start.
+     */
+    public TimeWindowReader(String logformat, Path logfile, TimeIndex index, long from, long until) {
+        this.logformat = logformat;
+        this.logfile = logfile;
+        this.index = index;
+        this.from = from;
+        this.until = until;
+    }
+
+    /**
+     * Use the index in the sidecar file of the logfile (if present and valid).
+     */
+    public TimeWindowReader(String logformat, Path logfile, long from, long until) throws IOException {
+        this(logformat, logfile, TimeIndex.load(logfile), from, until);
+    }
+
+    public TimeWindowReader withMaxDisorder(long newMaxDisorder) {
+        if (timeParser != null) {
+            throw new IllegalStateException("The reader has already been started.");
+        }
+        this.maxDisorder = newMaxDisorder;
+        return this;
+    }
+
+    private void initialize() throws IOException, MissingDissectorsException, InvalidDissectorException {
+        if (timeParser != null) {
+            return;
+        }
+        timeParser = new LineTimeParser(logformat);
+        if (index != null) {
+            startOffset = index.getOffsetBefore(from - maxDisorder);
+        }
+        reader = new BufferedReader(new InputStreamReader(LogfileInput.open(logfile, startOffset), StandardCharsets.UTF_8),
+            1024 * 1024);
+    }
+
+    /**
+     * @return The next line in the time window or null if there are no more.
+     */
+    public String readLine() throws IOException, MissingDissectorsException, InvalidDissectorException {
+        initialize();
+        while (!done) {
+            String line = reader.readLine();
+            if (line == null) {
+                done = true;
+                break;
+            }
+            linesRead++;
+            Long time = timeParser.getTime(line);
+            if (time == null) {
+                linesBad++;
+                continue;
+            }
+            if (time >= until + maxDisorder) {
+                done = true;
+                break;
+            }
+            if (time >= from && time < until) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The offset at which reading started.
+     */
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * @return The number of lines that were read (inside and outside the window).
+     */
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    public long getLinesBad() {
+        return linesBad;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+}
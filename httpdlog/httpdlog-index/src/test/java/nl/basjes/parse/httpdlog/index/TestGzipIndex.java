@@ -0,0 +1,215 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestGzipIndex {
+
+    private static final int LINES = 50000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+        LevelGzipOutputStream(OutputStream out, int level, int strategy) throws IOException {
+            super(out);
+            def.setLevel(level);
+            def.setStrategy(strategy);
+        }
+    }
+
+    private static List<String> createLines() {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>(LINES);
+        for (int number = 0; number < LINES; number++) {
+            lines.add("10.0." + random.nextInt(4) + "." + random.nextInt(250) + " - - [24/Oct/2012:23:00:44 +0200] " +
+                "\"GET /page" + random.nextInt(1000) + ".html?id=" + Long.toHexString(random.nextLong()) +
+                " HTTP/1.1\" 200 " + random.nextInt(100000));
+        }
+        return lines;
+    }
+
+    private static byte[] toBytes(List<String> lines) {
+        return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data, int level, int strategy) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new LevelGzipOutputStream(out, level, strategy)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[10000];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static void checkAllCheckpoints(byte[] data, byte[] compressed, long span) throws IOException {
+        GzipIndex index = GzipIndex.build(new ByteArrayInputStream(compressed), span);
+        assertEquals(compressed.length, index.getCompressedLength());
+        assertEquals(data.length, index.getUncompressedLength());
+        assertTrue(index.getCheckpoints().size() > 1);
+        for (GzipIndex.Checkpoint checkpoint : index.getCheckpoints()) {
+            InputStream in = new ByteArrayInputStream(compressed);
+            assertEquals(checkpoint.getCompressedOffset(), in.skip(checkpoint.getCompressedOffset()));
+            byte[] decompressed = readAll(checkpoint.open(in));
+            int offset = (int) checkpoint.getUncompressedOffset();
+            assertArrayEquals(Arrays.copyOfRange(data, offset, data.length), decompressed);
+        }
+    }
+
+    @Test
+    public void testDefaultCompression() throws IOException {
+        byte[] data = toBytes(createLines());
+        checkAllCheckpoints(data, gzip(data, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY), 512 * 1024);
+    }
+
+    @Test
+    public void testOtherBlockTypes() throws IOException {
+        byte[] data = Arrays.copyOf(toBytes(createLines()), 1024 * 1024);
+        // Stored blocks
+        checkAllCheckpoints(data, gzip(data, Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY), 128 * 1024);
+        // Only Huffman codes (no back references)
+        checkAllCheckpoints(data, gzip(data, Deflater.BEST_SPEED, Deflater.HUFFMAN_ONLY), 128 * 1024);
+        checkAllCheckpoints(data, gzip(data, Deflater.BEST_COMPRESSION, Deflater.FILTERED), 128 * 1024);
+    }
+
+    @Test
+    public void testConcatenatedMembers() throws IOException {
+        byte[] data = toBytes(createLines());
+        int half = data.length / 2;
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressed.write(gzip(Arrays.copyOfRange(data, 0, half), Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY));
+        compressed.write(gzip(Arrays.copyOfRange(data, half, data.length), Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY));
+        checkAllCheckpoints(data, compressed.toByteArray(), 256 * 1024);
+    }
+
+    @Test
+    public void testCorruptData() {
+        byte[] data = toBytes(createLines());
+        byte[] compressed = gzipUnchecked(data);
+        // Truncated
+        try {
+            GzipIndex.build(new ByteArrayInputStream(Arrays.copyOf(compressed, compressed.length / 2)), 1024 * 1024);
+            fail("Truncated data must fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        // Not gzip at all
+        try {
+            GzipIndex.build(new ByteArrayInputStream(data), 1024 * 1024);
+            fail("Plain data must fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] gzipUnchecked(byte[] data) {
+        try {
+            return gzip(data, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testParallelRanges() throws Exception {
+        List<String> lines = createLines();
+        Path file = folder.getRoot().toPath().resolve("access.log.gz");
+        Files.write(file, gzip(toBytes(lines), Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY));
+
+        GzipIndex.build(file, 256 * 1024).write(GzipIndex.getIndexFile(file));
+        IndexedGzipFile indexedFile = IndexedGzipFile.open(file);
+        GzipIndex loaded = GzipIndex.load(file);
+        assertNotNull(loaded);
+        assertEquals(loaded.getCheckpoints().size(), indexedFile.getIndex().getCheckpoints().size());
+
+        List<IndexedGzipFile.Range> ranges = indexedFile.getRanges(4);
+        assertEquals(4, ranges.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (IndexedGzipFile.Range range : ranges) {
+                results.add(executor.submit(() -> {
+                    List<String> rangeLines = new ArrayList<>();
+                    try (IndexedGzipFile.LineReader reader = indexedFile.openLines(range)) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            rangeLines.add(line);
+                        }
+                    }
+                    return rangeLines;
+                }));
+            }
+            List<String> all = new ArrayList<>();
+            for (Future<List<String>> result : results) {
+                List<String> rangeLines = result.get();
+                assertTrue(rangeLines.size() > LINES / 8);
+                all.addAll(rangeLines);
+            }
+            assertEquals(lines, all);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStaleIndex() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("access.log.gz");
+        Files.write(file, gzip(toBytes(createLines()), Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY));
+        GzipIndex.build(file, 256 * 1024).write(GzipIndex.getIndexFile(file));
+        Files.write(file, gzip("Other".getBytes(StandardCharsets.UTF_8), Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY));
+        assertNull(GzipIndex.load(file));
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestTimeIndex {
+
+    private static final String LOG_FORMAT = "%h %l %u %t \"%r\" %>s %b";
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+
+    // 2012-10-24T00:00:00Z
+    private static final long START = 1351036800000L;
+    private static final int LINES = 20000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static long timeOf(int number) {
+        // One line per second with some lines up to 5 seconds late.
+        return START + (number - (number % 7 == 0 ? 5 : 0)) * 1000L;
+    }
+
+    private Path createLogfile() throws Exception {
+        Path logfile = folder.newFile("access.log").toPath();
+        try (BufferedWriter writer = Files.newBufferedWriter(logfile, StandardCharsets.UTF_8)) {
+            for (int number = 0; number < LINES; number++) {
+                if (number % 1000 == 500) {
+                    writer.write("This is not a valid logline\n");
+                }
+                writer.write("10.0.0." + (number % 250) + " - - [" + TIME_FORMAT.format(Instant.ofEpochMilli(timeOf(number))) +
+                    "] \"GET /page" + number + " HTTP/1.1\" 200 " + number + "\n");
+            }
+        }
+        return logfile;
+    }
+
+    private static int countInWindow(long from, long until) {
+        int count = 0;
+        for (int number = 0; number < LINES; number++) {
+            if (timeOf(number) >= from && timeOf(number) < until) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<String> readWindow(TimeWindowReader reader) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (TimeWindowReader windowReader = reader) {
+            String line;
+            while ((line = windowReader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void testBuildAndSeek() throws Exception {
+        Path logfile = createLogfile();
+        TimeIndex index = TimeIndex.build(LOG_FORMAT, logfile, 16 * 1024);
+        assertEquals(Files.size(logfile), index.getIndexedLength());
+        assertTrue(index.size() > 40);
+        for (int sample = 1; sample < index.size(); sample++) {
+            assertTrue(index.getSampleTime(sample) >= index.getSampleTime(sample - 1));
+            assertTrue(index.getSampleOffset(sample) - index.getSampleOffset(sample - 1) >= 16 * 1024);
+        }
+
+        index.write(TimeIndex.getIndexFile(logfile));
+        TimeIndex loaded = TimeIndex.load(logfile);
+        assertNotNull(loaded);
+        assertEquals(index.size(), loaded.size());
+        assertEquals(index.getSampleOffset(10), loaded.getSampleOffset(10));
+
+        // A 10 minute window in the middle
+        long from = START + 10000 * 1000L;
+        long until = from + 600 * 1000L;
+
+        List<String> expected = readWindow(new TimeWindowReader(LOG_FORMAT, logfile, null, from, until));
+        assertEquals(countInWindow(from, until), expected.size());
+
+        TimeWindowReader reader = new TimeWindowReader(LOG_FORMAT, logfile, from, until);
+        List<String> actual = readWindow(reader);
+        assertEquals(expected, actual);
+        assertTrue(reader.getStartOffset() > 0);
+        // Only the window, the disorder margin and at most a sample interval before it are read.
+        assertTrue(reader.getLinesRead() < 600 + 2 * 60 + 2 * 16 * 1024 / 40);
+    }
+
+    @Test
+    public void testWindowAtTheEdges() throws Exception {
+        Path logfile = createLogfile();
+        TimeIndex index = TimeIndex.build(LOG_FORMAT, logfile, 4096);
+        assertEquals(countInWindow(START - 1000000, START + 10000),
+            readWindow(new TimeWindowReader(LOG_FORMAT, logfile, index, START - 1000000, START + 10000)).size());
+        assertEquals(countInWindow(START + (LINES - 5) * 1000L, START + LINES * 1000L),
+            readWindow(new TimeWindowReader(LOG_FORMAT, logfile, index,
+                START + (LINES - 5) * 1000L, START + LINES * 1000L)).size());
+        assertEquals(0, readWindow(new TimeWindowReader(LOG_FORMAT, logfile, index,
+            START + 2 * LINES * 1000L, START + 3 * LINES * 1000L)).size());
+    }
+
+    @Test
+    public void testStaleIndex() throws Exception {
+        Path logfile = createLogfile();
+        TimeIndex.build(LOG_FORMAT, logfile, 4096).write(TimeIndex.getIndexFile(logfile));
+        Files.write(logfile, "Truncated\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(TimeIndex.load(logfile));
+    }
+
+    @Test
+    public void testRotatedFile() throws Exception {
+        Path logfile = createLogfile();
+        TimeIndex.build(LOG_FORMAT, logfile, 4096).write(TimeIndex.getIndexFile(logfile));
+
+        // A file that only grew keeps its index
+        Files.write(logfile, "This is not a valid logline\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertNotNull(TimeIndex.load(logfile));
+
+        // A different file of the same size does not
+        byte[] content = Files.readAllBytes(logfile);
+        content[0] = '9';
+        Files.write(logfile, content);
+        assertNull(TimeIndex.load(logfile));
+    }
+
+    @Test
+    public void testGzipLogfile() throws Exception {
+        Path logfile = createLogfile();
+        Path gzipLogfile = folder.getRoot().toPath().resolve("access.log.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipLogfile))) {
+            Files.copy(logfile, out);
+        }
+
+        long from = START + 10000 * 1000L;
+        long until = from + 600 * 1000L;
+        List<String> expected = readWindow(new TimeWindowReader(LOG_FORMAT, logfile, null, from, until));
+
+        // The offsets of a gzip file are in the uncompressed content.
+        TimeIndex index = TimeIndex.build(LOG_FORMAT, gzipLogfile, 16 * 1024);
+        assertEquals(Files.size(logfile), index.getIndexedLength());
+        index.write(TimeIndex.getIndexFile(gzipLogfile));
+
+        TimeWindowReader reader = new TimeWindowReader(LOG_FORMAT, gzipLogfile, from, until);
+        assertEquals(expected, readWindow(reader));
+        assertTrue(reader.getStartOffset() > 0);
+
+        // With a gzip index decompressing starts at a checkpoint before the window.
+        GzipIndex.build(gzipLogfile, 32 * 1024).write(GzipIndex.getIndexFile(gzipLogfile));
+        assertEquals(expected, readWindow(new TimeWindowReader(LOG_FORMAT, gzipLogfile, from, until)));
+    }
+
+}
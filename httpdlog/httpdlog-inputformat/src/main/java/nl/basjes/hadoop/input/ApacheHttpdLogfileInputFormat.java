@@ -18,18 +18,32 @@ package nl.basjes.hadoop.input;
 
 import nl.basjes.parse.core.Dissector;
 import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import nl.basjes.parse.httpdlog.index.GzipIndex;
+import nl.basjes.parse.httpdlog.index.GzipIndex.Checkpoint;
+import nl.basjes.parse.httpdlog.index.TimeIndex;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.GzipCodec;
 import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -39,6 +53,8 @@ import java.util.Set;
 public class ApacheHttpdLogfileInputFormat extends
         FileInputFormat<LongWritable, ParsedRecord> {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ApacheHttpdLogfileInputFormat.class);
+
     private String logFormat = null;
     private final Set<String> requestedFields = new HashSet<>();
     private Map<String, Set<String>> typeRemappings;
@@ -120,6 +136,118 @@ public class ApacheHttpdLogfileInputFormat extends
         return (null == codec) || codec instanceof SplittableCompressionCodec;
     }
 
+    // --------------------------------------------
+
+    /**
+     * The sidecar index files (of the gzip and time indexes) next to the logfiles are not logfiles themselves.
+     */
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        List<FileStatus> result = new ArrayList<>();
+        for (FileStatus file : super.listStatus(job)) {
+            String name = file.getPath().getName();
+            if (!name.endsWith(GzipIndex.EXTENSION) && !name.endsWith(TimeIndex.EXTENSION)) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A gzip file is normally read as a single split. If it has an (up to date) gzip index next to it
+     * (see {@link #createGzipIndex(Configuration, Path, long)}) it is split at the checkpoints of that index.
+     */
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        long maxSize = getMaxSplitSize(job);
+
+        List<InputSplit> splits = new ArrayList<>();
+        for (InputSplit split : super.getSplits(job)) {
+            FileSplit fileSplit = (FileSplit) split;
+            Path file = fileSplit.getPath();
+            if (fileSplit.getStart() != 0 || !(codecs.getCodec(file) instanceof GzipCodec)) {
+                splits.add(split);
+                continue;
+            }
+            FileSystem fs = file.getFileSystem(conf);
+            FileStatus status = fs.getFileStatus(file);
+            GzipIndex index = readGzipIndex(fs, status);
+            if (index == null) {
+                splits.add(split);
+                continue;
+            }
+            long splitSize = computeSplitSize(status.getBlockSize(), minSize, maxSize);
+            splits.addAll(getIndexedGzipSplits(fs, status, index, splitSize));
+        }
+        return splits;
+    }
+
+    private List<InputSplit> getIndexedGzipSplits(FileSystem fs, FileStatus status, GzipIndex index, long splitSize)
+        throws IOException {
+        BlockLocation[] blocks = fs.getFileBlockLocations(status, 0, status.getLen());
+        List<Checkpoint> checkpoints = index.getCheckpoints();
+        List<InputSplit> splits = new ArrayList<>();
+        int first = 0;
+        while (first < checkpoints.size()) {
+            Checkpoint checkpoint = checkpoints.get(first);
+            long start = checkpoint.getCompressedOffset();
+            int next = first + 1;
+            while (next < checkpoints.size() && checkpoints.get(next).getCompressedOffset() - start < splitSize) {
+                next++;
+            }
+            long end = next < checkpoints.size() ? checkpoints.get(next).getCompressedOffset() : status.getLen();
+            long uncompressedEnd = next < checkpoints.size() ?
+                checkpoints.get(next).getUncompressedOffset() : index.getUncompressedLength();
+            String[] hosts = blocks.length == 0 ? new String[0] : blocks[getBlockIndex(blocks, start)].getHosts();
+            splits.add(new IndexedGzipSplit(status.getPath(), start, end - start, hosts, checkpoint, uncompressedEnd));
+            first = next;
+        }
+        LOG.info("Using the gzip index of {}: {} splits", status.getPath(), splits.size());
+        return splits;
+    }
+
+    private static Path getGzipIndexFile(Path file) {
+        return new Path(file.getParent(), file.getName() + GzipIndex.EXTENSION);
+    }
+
+    private static GzipIndex readGzipIndex(FileSystem fs, FileStatus status) throws IOException {
+        Path indexFile = getGzipIndexFile(status.getPath());
+        if (!fs.exists(indexFile)) {
+            return null;
+        }
+        GzipIndex index;
+        try (FSDataInputStream in = fs.open(indexFile)) {
+            index = GzipIndex.read(in);
+        }
+        if (index.getCompressedLength() != status.getLen() || index.getCheckpoints().isEmpty()) {
+            LOG.warn("Ignoring the gzip index {} because it does not match the file.", indexFile);
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * Create (or replace) the gzip index next to the gzip file so it can be read in multiple splits.
+     * @param conf The configuration used to find the filesystem
+     * @param file The gzip file
+     * @param span The (approximate) number of uncompressed bytes between two checkpoints
+     * @return The created index
+     */
+    public static GzipIndex createGzipIndex(Configuration conf, Path file, long span) throws IOException {
+        FileSystem fs = file.getFileSystem(conf);
+        GzipIndex index;
+        try (FSDataInputStream in = fs.open(file)) {
+            index = GzipIndex.build(in, span);
+        }
+        try (FSDataOutputStream out = fs.create(getGzipIndexFile(file), true)) {
+            index.write(out);
+        }
+        return index;
+    }
+
     public void setTypeRemappings(Map<String, Set<String>> newTypeRemappings) {
         this.typeRemappings = newTypeRemappings;
     }
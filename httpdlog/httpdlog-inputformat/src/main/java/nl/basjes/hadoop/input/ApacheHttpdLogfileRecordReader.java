@@ -18,6 +18,9 @@ package nl.basjes.hadoop.input;
 
 import nl.basjes.parse.core.Casts;
 import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.FieldFilter;
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.LinePrefilter;
 import nl.basjes.parse.core.Parser;
 import nl.basjes.parse.core.exceptions.DissectionFailure;
 import nl.basjes.parse.core.exceptions.InvalidDissectorException;
@@ -25,6 +28,7 @@ import nl.basjes.parse.core.exceptions.MissingDissectorsException;
 import nl.basjes.parse.httpdlog.HttpdLoglineParser;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
@@ -42,6 +46,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 @SuppressWarnings({ "PMD.OnlyOneReturn", "PMD.BeanMembersShouldSerialize" })
 public class ApacheHttpdLogfileRecordReader extends
@@ -51,19 +56,32 @@ public class ApacheHttpdLogfileRecordReader extends
 
     private static final String HTTPD_LOGFILE_INPUT_FORMAT = "HTTPD Access Logfile InputFormat";
     public static final String FIELDS = "fields";
+    public static final String PREFILTER = "nl.basjes.parse.apachehttpdlogline.prefilter";
+    public static final String PARSER_THREADS = "nl.basjes.parse.apachehttpdlogline.parser.threads";
+    public static final String PARSER_BATCH_SIZE = "nl.basjes.parse.apachehttpdlogline.parser.batchsize";
+    private static final int DEFAULT_PARSER_BATCH_SIZE = 1000;
 
     // --------------------------------------------
 
-    private final LineRecordReader                 lineReader      = new LineRecordReader();
+    private LineRecordReader                       lineReader      = new LineRecordReader();
     private Parser<ParsedRecord>                   parser;
     private List<String> fieldList = null;
 
-    private final ParsedRecord                     currentValue    = new ParsedRecord();
+    private ParsedRecord                           currentValue    = new ParsedRecord();
 
     private String                                 logformat       = null;
     private final Set<String>                      requestedFields = new HashSet<>();
     private Map<String, Set<String>>               typeRemappings  = new HashMap<>(16);
     private List<Dissector>                        additionalDissectors;
+    private final Map<String, List<FieldFilter>>   filters         = new TreeMap<>();
+    private LinePrefilter                          linePrefilter   = null;
+
+    // If parserThreads > 0 the lines are parsed by that many separate threads.
+    private int                                    parserThreads   = -1;
+    private int                                    parserBatchSize = DEFAULT_PARSER_BATCH_SIZE;
+    private PipelinedLineParser                    pipeline        = null;
+    private ParsedRecordSchema                     recordSchema    = null;
+    private ParsedRecordSchema                     recordLayout    = null;
 
     // --------------------------------------------
 
@@ -94,6 +112,47 @@ public class ApacheHttpdLogfileRecordReader extends
         }
     }
 
+    /**
+     * Only lines where the value of the field is accepted by the filter are returned.
+     * Lines that are rejected are skipped as early as possible (see {@link Parser#addFilter(String, FieldFilter)}).
+     * @param field The field that must be tested
+     * @param filter The filter that must accept the value
+     */
+    public void addFilter(String field, FieldFilter filter) {
+        filters.computeIfAbsent(Parser.cleanupFieldValue(field), f -> new ArrayList<>()).add(filter);
+        parser = null; // The parser must be recreated with this filter.
+    }
+
+    public Map<String, List<FieldFilter>> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Only lines that pass this test on the raw bytes are parsed, the other lines are skipped
+     * without even converting them into a String.
+     * If not set the needles can also be specified (comma separated) in the configuration as {@value #PREFILTER}.
+     * @param newLinePrefilter The prefilter (null to parse all lines)
+     */
+    public void setLinePrefilter(LinePrefilter newLinePrefilter) {
+        linePrefilter = newLinePrefilter;
+    }
+
+    public LinePrefilter getLinePrefilter() {
+        return linePrefilter;
+    }
+
+    /**
+     * Parse the lines using a separate reader thread and a pool of parser threads (each with its own parser).
+     * The lines are still returned in the same order as they are in the file.
+     * If not set this is taken from the configuration ({@value #PARSER_THREADS} and {@value #PARSER_BATCH_SIZE}).
+     * @param threads The number of parser threads (0 means parse in the calling thread)
+     * @param batchSize The number of lines that are handed to a parser thread in one go.
+     */
+    public void setParserThreads(int threads, int batchSize) {
+        parserThreads = threads;
+        parserBatchSize = batchSize;
+    }
+
     private void setLogFormat(String newLogformat) {
         if (newLogformat == null) {
             return;
@@ -108,16 +167,28 @@ public class ApacheHttpdLogfileRecordReader extends
     private Counter counterLinesRead;
     private Counter counterGoodLines;
     private Counter counterBadLines;
+    private Counter counterFilteredLines;
 
     @Override
     public void initialize(final InputSplit split,
             final TaskAttemptContext context) throws IOException {
+        // A split of an indexed gzip file starts decompressing at a checkpoint of the index.
+        lineReader = split instanceof IndexedGzipSplit ? new IndexedGzipLineRecordReader() : new LineRecordReader();
         lineReader.initialize(split, context);
         final Configuration conf = context.getConfiguration();
 
         counterLinesRead = context.getCounter(HTTPD_LOGFILE_INPUT_FORMAT, "1:Lines read");
         counterGoodLines = context.getCounter(HTTPD_LOGFILE_INPUT_FORMAT, "2:Good lines");
         counterBadLines  = context.getCounter(HTTPD_LOGFILE_INPUT_FORMAT, "3:Bad lines");
+        counterFilteredLines = context.getCounter(HTTPD_LOGFILE_INPUT_FORMAT, "4:Filtered lines");
+
+        if (linePrefilter == null) {
+            String[] needles = conf.getStrings(PREFILTER);
+            if (needles != null && needles.length > 0) {
+                linePrefilter = LinePrefilter.containsAny(needles);
+                LOG.info("Using {}", linePrefilter);
+            }
+        }
 
         if (logformat == null || requestedFields.isEmpty()) {
             if (logformat == null) {
@@ -135,13 +206,17 @@ public class ApacheHttpdLogfileRecordReader extends
             }
         }
 
+        // If the job has a schema for the records they are serialized in the compact form.
+        recordSchema = ParsedRecordSchema.fromConfiguration(conf);
+
         if (fieldList != null) {
             if (logformat != null && parser == null) {
                 parser = createParser();
             }
-            for (String field : fieldList) {
-                currentValue.declareRequestedFieldname(field);
-            }
+            recordLayout = new ParsedRecordSchema(fieldList);
+            currentValue = createRecord();
+        } else {
+            currentValue.setSchema(recordSchema);
         }
 
         try {
@@ -149,6 +224,26 @@ public class ApacheHttpdLogfileRecordReader extends
         } catch (NoSuchMethodException | MissingDissectorsException | InvalidDissectorException e) {
             throw new IOException("RecordReader initialization failed", e);
         }
+
+        if (parserThreads < 0) {
+            parserThreads = conf.getInt(PARSER_THREADS, 0);
+            parserBatchSize = conf.getInt(PARSER_BATCH_SIZE, DEFAULT_PARSER_BATCH_SIZE);
+        }
+        if (parserThreads > 0 && !outputAllPossibleFields && getParser() != null) {
+            LOG.info("Parsing with {} threads in batches of {} lines", parserThreads, parserBatchSize);
+            // Each parser thread gets its own parser from the ParserCache.
+            // The key is built only once: it contains the serialized additional dissectors.
+            ParserCache.Key parserKey = createParserKey();
+            pipeline = new PipelinedLineParser(lineReader, () -> ParserCache.getParser(parserKey, this::buildParser),
+                this::createRecord, linePrefilter, parserThreads, Math.max(1, parserBatchSize));
+        }
+    }
+
+    // The requested fields get a fixed slot in the record.
+    private ParsedRecord createRecord() {
+        ParsedRecord record = new ParsedRecord(recordLayout);
+        record.setSchema(recordSchema);
+        return record;
     }
 
     protected Parser<ParsedRecord> instantiateParser(String logFormat)  {
@@ -198,6 +293,19 @@ public class ApacheHttpdLogfileRecordReader extends
             return null;
         }
 
+        // With JVM reuse the same configuration is seen for many splits so we reuse the assembled parser.
+        return ParserCache.getParser(createParserKey(), this::buildParser);
+    }
+
+    private ParserCache.Key createParserKey() throws IOException {
+        return new ParserCache.Key(getClass(), logformat)
+            .withTargets(fieldList)
+            .withTypeRemappings(typeRemappings)
+            .withAdditionalDissectors(additionalDissectors)
+            .withFilters(filters);
+    }
+
+    private Parser<ParsedRecord> buildParser() throws IOException {
         Parser<ParsedRecord> newParser;
         try {
             newParser = instantiateParser(logformat);
@@ -216,6 +324,12 @@ public class ApacheHttpdLogfileRecordReader extends
                 }
             }
 
+            for (Map.Entry<String, List<FieldFilter>> fieldFilters : filters.entrySet()) {
+                for (FieldFilter filter : fieldFilters.getValue()) {
+                    newParser.addFilter(fieldFilters.getKey(), filter);
+                }
+            }
+
         } catch (NoSuchMethodException
                 |SecurityException e) {
             throw new IOException(e.toString());
@@ -225,8 +339,8 @@ public class ApacheHttpdLogfileRecordReader extends
 
     // --------------------------------------------
 
-    private int errorLinesLogged = 0;
-    private static final int MAX_ERROR_LINES_LOGGED = 10;
+    // Only used to log the first bad lines
+    private final LineCounter badLines = new LineCounter(LOG);
 
     @Override
     public boolean nextKeyValue() throws IOException {
@@ -242,6 +356,8 @@ public class ApacheHttpdLogfileRecordReader extends
             allPossiblePaths.remove(0);
             currentValue.set(allPossiblePathsFieldName, value);
             return true;
+        } else if (pipeline != null) {
+            return nextPipelinedKeyValue();
         } else {
             boolean haveValue = false;
             while (!haveValue) {
@@ -251,21 +367,24 @@ public class ApacheHttpdLogfileRecordReader extends
 
                 counterLinesRead.increment(1L);
 
+                Text line = lineReader.getCurrentValue();
+                if (linePrefilter != null && !linePrefilter.matches(line.getBytes(), 0, line.getLength())) {
+                    counterFilteredLines.increment(1L);
+                    continue; // Rejected by the prefilter
+                }
+
                 currentValue.clear();
-                String inputLine = lineReader.getCurrentValue().toString();
+                String inputLine = line.toString();
                 try {
-                    getParser().parse(currentValue, lineReader.getCurrentValue().toString());
+                    if (getParser().parse(currentValue, inputLine) == null) {
+                        counterFilteredLines.increment(1L);
+                        continue; // Rejected by a filter
+                    }
                     counterGoodLines.increment(1L);
                     haveValue = true;
                 } catch (DissectionFailure e) {
                     counterBadLines.increment(1L);
-                    if (errorLinesLogged < MAX_ERROR_LINES_LOGGED) {
-                        LOG.error("Parse error >>>{}<<< in line: >>>{}<<<", e.getMessage(), inputLine);
-                        errorLinesLogged++;
-                        if (errorLinesLogged == MAX_ERROR_LINES_LOGGED) {
-                            LOG.error(">>>>>>>>>>> We now stop logging parse errors! <<<<<<<<<<<");
-                        }
-                    }
+                    badLines.bad(e.getMessage(), inputLine);
                     // Ignore bad lines and simply continue
                 } catch (InvalidDissectorException e) {
                     LOG.error("InvalidDissectorException >>>{}<<<", e.getMessage());
@@ -279,8 +398,34 @@ public class ApacheHttpdLogfileRecordReader extends
         return true;
     }
 
+    // The counters are only updated here (in the calling thread) so they are the same as in the single threaded mode.
+    private boolean nextPipelinedKeyValue() throws IOException {
+        while (pipeline.next()) {
+            counterLinesRead.increment(1L);
+            switch (pipeline.getStatus()) {
+                case GOOD:
+                    counterGoodLines.increment(1L);
+                    return true;
+                case FILTERED:
+                    counterFilteredLines.increment(1L);
+                    break;
+                case BAD:
+                    counterBadLines.increment(1L);
+                    badLines.bad(pipeline.getError(), pipeline.getLine().toString());
+                    break; // Ignore bad lines and simply continue
+                default:
+                    LOG.error("{}", pipeline.getError());
+                    return false;
+            }
+        }
+        return false;
+    }
+
     @Override
     public LongWritable getCurrentKey() {
+        if (pipeline != null) {
+            return pipeline.getKey();
+        }
         // The key we return is the same byte offset as the TextInputFormat
         // would give.
         return lineReader.getCurrentKey();
@@ -288,11 +433,17 @@ public class ApacheHttpdLogfileRecordReader extends
 
     @Override
     public ParsedRecord getCurrentValue() {
+        if (pipeline != null) {
+            return pipeline.getRecord();
+        }
         return currentValue;
     }
 
     @Override
     public float getProgress() throws IOException {
+        if (pipeline != null) {
+            return pipeline.getProgress();
+        }
         return lineReader.getProgress();
     }
 
@@ -300,6 +451,10 @@ public class ApacheHttpdLogfileRecordReader extends
 
     @Override
     public void close() throws IOException {
+        if (pipeline != null) {
+            pipeline.close();
+            pipeline = null;
+        }
         lineReader.close();
     }
 
@@ -0,0 +1,139 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.httpdlog.index.GzipIndex.Checkpoint;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.util.LineReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the lines of an {@link IndexedGzipSplit} the same way as the LineRecordReader reads a split of
+ * an uncompressed file: the first (partial) line is skipped unless the split starts at the beginning of the file
+ * and the line that starts at the end of the split is still read.
+ * The key is the offset of the line in the uncompressed data.
+ */
+public class IndexedGzipLineRecordReader extends LineRecordReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedGzipLineRecordReader.class);
+
+    private long         start;
+    private long         pos;
+    private long         end;
+    private int          maxLineLength;
+    private LineReader   in;
+    private LongWritable key;
+    private Text         value;
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+        IndexedGzipSplit split = (IndexedGzipSplit) genericSplit;
+        Configuration job = context.getConfiguration();
+        maxLineLength = job.getInt(MAX_LINE_LENGTH, Integer.MAX_VALUE);
+        start = split.getUncompressedStart();
+        end = split.getUncompressedEnd();
+
+        Checkpoint checkpoint = split.getCheckpoint();
+        FileSystem fs = split.getPath().getFileSystem(job);
+        FSDataInputStream fileIn = fs.open(split.getPath());
+        InputStream data;
+        try {
+            fileIn.seek(checkpoint.getCompressedOffset());
+            data = checkpoint.open(fileIn);
+            IOUtils.skipFully(data, start - checkpoint.getUncompressedOffset());
+        } catch (IOException e) {
+            fileIn.close();
+            throw e;
+        }
+        in = new LineReader(data, job);
+
+        pos = start;
+        if (start != 0) {
+            // The first line belongs to the previous split.
+            pos += in.readLine(new Text(), maxLineLength, Integer.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        if (key == null) {
+            key = new LongWritable();
+        }
+        if (value == null) {
+            value = new Text();
+        }
+        key.set(pos);
+        int newSize = 0;
+        while (pos <= end) {
+            newSize = in.readLine(value, maxLineLength, Integer.MAX_VALUE);
+            if (newSize == 0) {
+                break;
+            }
+            pos += newSize;
+            if (newSize <= maxLineLength) {
+                break;
+            }
+            LOG.info("Skipped line of size {} at pos {}", newSize, pos - newSize);
+            key.set(pos);
+        }
+        if (newSize == 0) {
+            key = null;
+            value = null;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+        return key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+        return value;
+    }
+
+    @Override
+    public float getProgress() {
+        if (start == end) {
+            return 0.0f;
+        }
+        return Math.min(1.0f, (pos - start) / (float) (end - start));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+}
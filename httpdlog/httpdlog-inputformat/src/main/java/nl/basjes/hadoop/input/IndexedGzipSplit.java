@@ -0,0 +1,97 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.httpdlog.index.GzipIndex.Checkpoint;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A part of a gzip file that can be decompressed on its own because it starts at a checkpoint of the gzip index.
+ * The start and length of the FileSplit are the compressed bytes (used for the locality);
+ * the lines are selected using the uncompressed offsets.
+ */
+public class IndexedGzipSplit extends FileSplit {
+
+    private long       uncompressedEnd;
+    private Checkpoint checkpoint;
+
+    // --------------------------------------------
+
+    @SuppressWarnings("unused") // Used by the Hadoop framework
+    public IndexedGzipSplit() {
+        super();
+    }
+
+    public IndexedGzipSplit(Path file, long start, long length, String[] hosts, Checkpoint checkpoint, long uncompressedEnd) {
+        super(file, start, length, hosts);
+        this.checkpoint = checkpoint;
+        this.uncompressedEnd = uncompressedEnd;
+    }
+
+    public Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @return The uncompressed offset where this split starts (a line starting here belongs to the previous split).
+     */
+    public long getUncompressedStart() {
+        return checkpoint.getUncompressedOffset();
+    }
+
+    /**
+     * @return The uncompressed offset where this split ends (a line starting here still belongs to this split).
+     */
+    public long getUncompressedEnd() {
+        return uncompressedEnd;
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        out.writeLong(uncompressedEnd);
+        out.writeLong(checkpoint.getBitOffset());
+        out.writeLong(checkpoint.getUncompressedOffset());
+        byte[] window = checkpoint.getCompressedWindow();
+        out.writeInt(window.length);
+        out.write(window);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        super.readFields(in);
+        uncompressedEnd = in.readLong();
+        long bitOffset = in.readLong();
+        long uncompressedOffset = in.readLong();
+        byte[] window = new byte[in.readInt()];
+        in.readFully(window);
+        checkpoint = new Checkpoint(bitOffset, uncompressedOffset, window);
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " (uncompressed " + getUncompressedStart() + "-" + uncompressedEnd + ")";
+    }
+
+}
@@ -16,15 +16,32 @@
  */
 package nl.basjes.hadoop.input;
 
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
 
-public class ParsedRecord implements Writable {
+/**
+ * The record with all the requested values of a single line.
+ * If a {@link ParsedRecordSchema} is set (directly or through the configuration) the record is serialized
+ * in a compact form: the fields in the schema are written by their id (with a bitmap of which values are present),
+ * numbers as variable length integers and strings as length prefixed UTF-8.
+ * The reading side MUST have the same schema.
+ * If the record is created with a layout (normally the list of requested fields) the values of those fields
+ * are stored in fixed slots (which can also be retrieved by their id) and clearing the record does not allocate.
+ */
+public class ParsedRecord implements Writable, Configurable {
 
     private final Map<String, String> stringValues = new HashMap<>();
     private final Map<String, Long> longValues = new HashMap<>();
@@ -32,6 +49,21 @@ public class ParsedRecord implements Writable {
     private final Map<String, Map<String, String>> stringSetValues = new HashMap<>();
     private final Map<String, String> stringSetPrefixes = new HashMap<>();
 
+    // The values of the fields in the layout are stored in these slots (the index is the id in the layout).
+    private final ParsedRecordSchema layout;
+    private final String[]  slotStrings;
+    private final long[]    slotLongs;
+    private final BitSet    slotHasLong;
+    private final double[]  slotDoubles;
+    private final BitSet    slotHasDouble;
+
+    // The original format starts with an int (the number of strings) so the first byte is always 0.
+    private static final int COMPACT_FORMAT = 0x81;
+
+    private Configuration      conf   = null;
+    private ParsedRecordSchema schema = null;
+    private byte[]             bitmap = new byte[0];
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -45,38 +77,77 @@ public class ParsedRecord implements Writable {
         ParsedRecord that = (ParsedRecord) o;
 
         return
-            stringValues.equals(that.stringValues)              &&
-            longValues.equals(that.longValues)                  &&
-            doubleValues.equals(that.doubleValues)              &&
+            allStrings().equals(that.allStrings())              &&
+            allLongs().equals(that.allLongs())                  &&
+            allDoubles().equals(that.allDoubles())              &&
             stringSetPrefixes.equals(that.stringSetPrefixes)    &&
             stringSetValues.equals(that.stringSetValues);
     }
 
     @Override
     public int hashCode() {
-        int result = stringValues.hashCode();
-        result = 31 * result + longValues.hashCode();
-        result = 31 * result + doubleValues.hashCode();
+        int result = allStrings().hashCode();
+        result = 31 * result + allLongs().hashCode();
+        result = 31 * result + allDoubles().hashCode();
         result = 31 * result + stringSetValues.hashCode();
         return result;
     }
 
+    @Override
+    public void setConf(Configuration newConf) {
+        conf = newConf;
+        ParsedRecordSchema newSchema = ParsedRecordSchema.fromConfiguration(newConf);
+        if (newSchema != null) {
+            setSchema(newSchema);
+        }
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * Use the compact serialization based on this schema.
+     * @param newSchema The schema (null to use the original serialization with all field names).
+     */
+    public void setSchema(ParsedRecordSchema newSchema) {
+        schema = newSchema;
+        if (schema != null) {
+            for (String name : schema.getNames()) {
+                declareRequestedFieldname(name);
+            }
+            bitmap = new byte[(schema.size() + 7) / 8];
+        }
+    }
+
+    public ParsedRecordSchema getSchema() {
+        return schema;
+    }
+
     @Override
     public void write(DataOutput out) throws IOException {
-        out.writeInt(stringValues.size());
-        for (Map.Entry<String, String> e : stringValues.entrySet()) {
+        if (schema != null) {
+            writeCompact(out);
+            return;
+        }
+        Map<String, String> strings = allStrings();
+        out.writeInt(strings.size());
+        for (Map.Entry<String, String> e : strings.entrySet()) {
             out.writeUTF(e.getKey());
             out.writeUTF(e.getValue());
         }
 
-        out.writeInt(longValues.size());
-        for (Map.Entry<String, Long> e : longValues.entrySet()) {
+        Map<String, Long> longs = allLongs();
+        out.writeInt(longs.size());
+        for (Map.Entry<String, Long> e : longs.entrySet()) {
             out.writeUTF(e.getKey());
             out.writeLong(e.getValue());
         }
 
-        out.writeInt(doubleValues.size());
-        for (Map.Entry<String, Double> e : doubleValues.entrySet()) {
+        Map<String, Double> doubles = allDoubles();
+        out.writeInt(doubles.size());
+        for (Map.Entry<String, Double> e : doubles.entrySet()) {
             out.writeUTF(e.getKey());
             out.writeDouble(e.getValue());
         }
@@ -100,22 +171,30 @@ public class ParsedRecord implements Writable {
 
     @Override
     public void readFields(DataInput in) throws IOException {
-        // String
-        int nrOfValues = in.readInt();
+        int firstByte = in.readUnsignedByte();
+        if (firstByte == COMPACT_FORMAT) {
+            readCompact(in);
+            return;
+        }
+        if (firstByte != 0) {
+            throw new IOException("Unsupported serialized form of a ParsedRecord (" + firstByte + ")");
+        }
+        // String (the first byte of the count has already been read)
+        int nrOfValues = (in.readUnsignedShort() << 8) | in.readUnsignedByte();
         for (int count = 0; count < nrOfValues; count++) {
-            stringValues.put(in.readUTF(), in.readUTF());
+            set(in.readUTF(), in.readUTF());
         }
 
         // Long
         nrOfValues = in.readInt();
         for (int count = 0; count < nrOfValues; count++) {
-            longValues.put(in.readUTF(), in.readLong());
+            set(in.readUTF(), (Long) in.readLong());
         }
 
         // Double
         nrOfValues = in.readInt();
         for (int count = 0; count < nrOfValues; count++) {
-            doubleValues.put(in.readUTF(), in.readDouble());
+            set(in.readUTF(), (Double) in.readDouble());
         }
 
         // String Prefixes
@@ -139,10 +218,252 @@ public class ParsedRecord implements Writable {
         }
     }
 
+    // --------------------------------------------
+
+    private void writeCompact(DataOutput out) throws IOException {
+        out.writeByte(COMPACT_FORMAT);
+        int fields = schema.size();
+        WritableUtils.writeVInt(out, fields);
+
+        writeBitmap(out, id -> getString(schema.getName(id)) != null);
+        writeBitmap(out, id -> getLong(schema.getName(id)) != null);
+        writeBitmap(out, id -> getDouble(schema.getName(id)) != null);
+        for (int id = 0; id < fields; id++) {
+            String value = getString(schema.getName(id));
+            if (value != null) {
+                Text.writeString(out, value);
+            }
+        }
+        for (int id = 0; id < fields; id++) {
+            Long value = getLong(schema.getName(id));
+            if (value != null) {
+                WritableUtils.writeVLong(out, value);
+            }
+        }
+        for (int id = 0; id < fields; id++) {
+            Double value = getDouble(schema.getName(id));
+            if (value != null) {
+                out.writeDouble(value);
+            }
+        }
+        for (int id = 0; id < fields; id++) {
+            String name = schema.getName(id);
+            if (isMultiValueName(name)) {
+                writeStringMap(out, stringSetValues.get(name));
+            }
+        }
+
+        // The values that are not in the schema are written with their name.
+        // If the layout is the schema then those are exactly the values that are not in a slot.
+        boolean layoutIsSchema = schema.equals(layout);
+        writeExtraStrings(out, layoutIsSchema ? stringValues : allStrings());
+        Map<String, Long> longs = layoutIsSchema ? longValues : allLongs();
+        WritableUtils.writeVInt(out, countExtras(longs));
+        for (Map.Entry<String, Long> e : longs.entrySet()) {
+            if (schema.getId(e.getKey()) == -1) {
+                Text.writeString(out, e.getKey());
+                WritableUtils.writeVLong(out, e.getValue());
+            }
+        }
+        Map<String, Double> doubles = layoutIsSchema ? doubleValues : allDoubles();
+        WritableUtils.writeVInt(out, countExtras(doubles));
+        for (Map.Entry<String, Double> e : doubles.entrySet()) {
+            if (schema.getId(e.getKey()) == -1) {
+                Text.writeString(out, e.getKey());
+                out.writeDouble(e.getValue());
+            }
+        }
+        WritableUtils.writeVInt(out, countExtras(stringSetValues));
+        for (Map.Entry<String, Map<String, String>> e : stringSetValues.entrySet()) {
+            if (schema.getId(e.getKey()) == -1) {
+                Text.writeString(out, e.getKey());
+                writeStringMap(out, e.getValue());
+            }
+        }
+    }
+
+    private void readCompact(DataInput in) throws IOException {
+        int fields = WritableUtils.readVInt(in);
+        if (schema == null || schema.size() != fields) {
+            throw new IOException("A ParsedRecord with a schema of " + fields + " fields can only be read " +
+                "with the same schema (set " + ParsedRecordSchema.SCHEMA + " in the job configuration).");
+        }
+        clear();
+
+        byte[] hasString = readBitmap(in);
+        byte[] hasLong   = readBitmap(in);
+        byte[] hasDouble = readBitmap(in);
+        for (int id = 0; id < fields; id++) {
+            if (isSet(hasString, id)) {
+                set(schema.getName(id), Text.readString(in));
+            }
+        }
+        for (int id = 0; id < fields; id++) {
+            if (isSet(hasLong, id)) {
+                set(schema.getName(id), (Long) WritableUtils.readVLong(in));
+            }
+        }
+        for (int id = 0; id < fields; id++) {
+            if (isSet(hasDouble, id)) {
+                set(schema.getName(id), (Double) in.readDouble());
+            }
+        }
+        for (int id = 0; id < fields; id++) {
+            String name = schema.getName(id);
+            if (isMultiValueName(name)) {
+                readStringMap(in, stringSetValues.computeIfAbsent(name, n -> new HashMap<>()));
+            }
+        }
+
+        int extras = WritableUtils.readVInt(in);
+        for (int count = 0; count < extras; count++) {
+            set(Text.readString(in), Text.readString(in));
+        }
+        extras = WritableUtils.readVInt(in);
+        for (int count = 0; count < extras; count++) {
+            set(Text.readString(in), (Long) WritableUtils.readVLong(in));
+        }
+        extras = WritableUtils.readVInt(in);
+        for (int count = 0; count < extras; count++) {
+            set(Text.readString(in), (Double) in.readDouble());
+        }
+        extras = WritableUtils.readVInt(in);
+        for (int count = 0; count < extras; count++) {
+            String name = Text.readString(in);
+            declareRequestedFieldname(name);
+            readStringMap(in, stringSetValues.computeIfAbsent(name, n -> new HashMap<>()));
+        }
+    }
+
+    private static boolean isMultiValueName(String name) {
+        return name.endsWith(".*");
+    }
+
+    private void writeBitmap(DataOutput out, IntPredicate hasValue) throws IOException {
+        Arrays.fill(bitmap, (byte) 0);
+        for (int id = 0; id < schema.size(); id++) {
+            if (hasValue.test(id)) {
+                bitmap[id >> 3] |= 1 << (id & 7);
+            }
+        }
+        out.write(bitmap);
+    }
+
+    private byte[] readBitmap(DataInput in) throws IOException {
+        byte[] result = new byte[bitmap.length];
+        in.readFully(result);
+        return result;
+    }
+
+    private static boolean isSet(byte[] bits, int id) {
+        return (bits[id >> 3] & (1 << (id & 7))) != 0;
+    }
+
+    private int countExtras(Map<String, ?> values) {
+        int count = 0;
+        for (String name : values.keySet()) {
+            if (schema.getId(name) == -1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void writeExtraStrings(DataOutput out, Map<String, String> values) throws IOException {
+        WritableUtils.writeVInt(out, countExtras(values));
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            if (schema.getId(e.getKey()) == -1) {
+                Text.writeString(out, e.getKey());
+                Text.writeString(out, e.getValue());
+            }
+        }
+    }
+
+    private static void writeStringMap(DataOutput out, Map<String, String> values) throws IOException {
+        if (values == null) {
+            WritableUtils.writeVInt(out, 0);
+            return;
+        }
+        WritableUtils.writeVInt(out, values.size());
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            Text.writeString(out, e.getKey());
+            Text.writeString(out, e.getValue());
+        }
+    }
+
+    private static void readStringMap(DataInput in, Map<String, String> values) throws IOException {
+        int nrOfValues = WritableUtils.readVInt(in);
+        for (int count = 0; count < nrOfValues; count++) {
+            values.put(Text.readString(in), Text.readString(in));
+        }
+    }
+
+    // --------------------------------------------
+
     public ParsedRecord() {
+        this(null);
+    }
+
+    /**
+     * @param newLayout The fields that get a fixed slot in this record (null for none).
+     */
+    public ParsedRecord(ParsedRecordSchema newLayout) {
+        layout = newLayout;
+        int slots = layout == null ? 0 : layout.size();
+        slotStrings   = new String[slots];
+        slotLongs     = new long[slots];
+        slotHasLong   = new BitSet(slots);
+        slotDoubles   = new double[slots];
+        slotHasDouble = new BitSet(slots);
+        if (layout != null) {
+            for (String name : layout.getNames()) {
+                declareRequestedFieldname(name);
+            }
+        }
+    }
+
+    public ParsedRecordSchema getLayout() {
+        return layout;
+    }
+
+    /**
+     * @param name The name of the field
+     * @return The id of the slot of this field (for the indexed getters) or -1 if this field does not have a slot.
+     */
+    public int getFieldId(String name) {
+        return layout == null ? -1 : layout.getId(name);
+    }
+
+    private <T> Map<String, T> merged(Map<String, T> values, IntFunction<T> slotValue) {
+        if (layout == null) {
+            return values;
+        }
+        Map<String, T> result = new HashMap<>(values);
+        for (int id = 0; id < layout.size(); id++) {
+            T value = slotValue.apply(id);
+            if (value != null) {
+                result.put(layout.getName(id), value);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, String> allStrings() {
+        return merged(stringValues, this::getString);
+    }
+
+    private Map<String, Long> allLongs() {
+        return merged(longValues, this::getLong);
+    }
+
+    private Map<String, Double> allDoubles() {
+        return merged(doubleValues, this::getDouble);
     }
 
     public void clear() {
+        Arrays.fill(slotStrings, null);
+        slotHasLong.clear();
+        slotHasDouble.clear();
         stringValues.clear();
         longValues.clear();
         doubleValues.clear();
@@ -153,19 +474,36 @@ public class ParsedRecord implements Writable {
 
     public void set(String name, String value) {
         if (value != null) {
-            stringValues.put(name, value);
+            int id = getFieldId(name);
+            if (id == -1) {
+                stringValues.put(name, value);
+            } else {
+                slotStrings[id] = value;
+            }
         }
     }
 
     public void set(String name, Long value) {
         if (value != null) {
-            longValues.put(name, value);
+            int id = getFieldId(name);
+            if (id == -1) {
+                longValues.put(name, value);
+            } else {
+                slotLongs[id] = value;
+                slotHasLong.set(id);
+            }
         }
     }
 
     public void set(String name, Double value) {
         if (value != null) {
-            doubleValues.put(name, value);
+            int id = getFieldId(name);
+            if (id == -1) {
+                doubleValues.put(name, value);
+            } else {
+                slotDoubles[id] = value;
+                slotHasDouble.set(id);
+            }
         }
     }
 
@@ -177,7 +515,7 @@ public class ParsedRecord implements Writable {
      */
     public void declareRequestedFieldname(String name) {
         if (name.endsWith(".*")) {
-            stringSetValues.put(name, new HashMap<>());
+            stringSetValues.computeIfAbsent(name, n -> new HashMap<>());
             stringSetPrefixes.put(name.substring(0, name.length() - 1), name);
         }
     }
@@ -196,15 +534,57 @@ public class ParsedRecord implements Writable {
     }
 
     public String getString(String name) {
-        return stringValues.get(name);
+        int id = getFieldId(name);
+        return id == -1 ? stringValues.get(name) : getString(id);
     }
 
     public Long getLong(String name) {
-        return longValues.get(name);
+        int id = getFieldId(name);
+        return id == -1 ? longValues.get(name) : getLong(id);
     }
 
     public Double getDouble(String name) {
-        return doubleValues.get(name);
+        int id = getFieldId(name);
+        return id == -1 ? doubleValues.get(name) : getDouble(id);
+    }
+
+    // --------------------------------------------
+    // The getters by the id of the field in the layout (see getFieldId).
+
+    public String getString(int id) {
+        return slotStrings[id];
+    }
+
+    public Long getLong(int id) {
+        return slotHasLong.get(id) ? slotLongs[id] : null;
+    }
+
+    public Double getDouble(int id) {
+        return slotHasDouble.get(id) ? slotDoubles[id] : null;
+    }
+
+    public boolean hasLong(int id) {
+        return slotHasLong.get(id);
+    }
+
+    /**
+     * @param id The id of the field
+     * @return The value (only valid if hasLong(id) is true)
+     */
+    public long getLongValue(int id) {
+        return slotLongs[id];
+    }
+
+    public boolean hasDouble(int id) {
+        return slotHasDouble.get(id);
+    }
+
+    /**
+     * @param id The id of the field
+     * @return The value (only valid if hasDouble(id) is true)
+     */
+    public double getDoubleValue(int id) {
+        return slotDoubles[id];
     }
 
     public Map<String, String> getStringSet(String name) {
@@ -0,0 +1,116 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fixed list of field names of a {@link ParsedRecord} where each field has a numerical id (the position in the list).
+ * When the writing and the reading side of a job agree on the schema (through the job configuration)
+ * the records are serialized using these ids instead of the field names.
+ */
+public final class ParsedRecordSchema {
+
+    public static final String SCHEMA = "nl.basjes.parse.apachehttpdlogline.record.schema";
+
+    private final List<String>         names;
+    private final Map<String, Integer> ids;
+
+    public ParsedRecordSchema(Collection<String> fieldNames) {
+        names = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(fieldNames)));
+        ids = new HashMap<>(names.size() * 2);
+        for (int id = 0; id < names.size(); id++) {
+            ids.put(names.get(id), id);
+        }
+    }
+
+    /**
+     * Store the schema in the configuration so all tasks of the job use the same schema.
+     * @param conf The job configuration
+     * @param fieldNames The names of the fields (the order determines the ids).
+     */
+    public static void setSchema(Configuration conf, Collection<String> fieldNames) {
+        conf.setStrings(SCHEMA, new ParsedRecordSchema(fieldNames).names.toArray(new String[0]));
+    }
+
+    /**
+     * @param conf The job configuration
+     * @return The schema from the configuration or null if the configuration does not have a schema.
+     */
+    public static ParsedRecordSchema fromConfiguration(Configuration conf) {
+        if (conf == null) {
+            return null;
+        }
+        String[] fieldNames = conf.getStrings(SCHEMA);
+        if (fieldNames == null || fieldNames.length == 0) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>(fieldNames.length);
+        Collections.addAll(fields, fieldNames);
+        return new ParsedRecordSchema(fields);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @param name The name of the field
+     * @return The id of the field or -1 if the field is not part of this schema.
+     */
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ParsedRecordSchema)) {
+            return false;
+        }
+        return names.equals(((ParsedRecordSchema) o).names);
+    }
+
+    @Override
+    public int hashCode() {
+        return names.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ParsedRecordSchema" + names;
+    }
+}
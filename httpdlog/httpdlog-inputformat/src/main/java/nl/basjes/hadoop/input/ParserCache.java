@@ -0,0 +1,243 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.FieldFilter;
+import nl.basjes.parse.core.Parser;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A JVM wide cache of parsers.
+ * When a JVM is reused (Hadoop JVM reuse, Hive LLAP daemons, Pig local mode) the same
+ * configuration is seen for many splits. Building and assembling a parser (which may
+ * include loading things like a GeoIP database) for each of those splits is wasted effort.
+ * This cache hands out one parser per thread for each distinct configuration so the
+ * assembled parser is retained and reused for as long as the thread lives.
+ */
+public final class ParserCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParserCache.class);
+
+    // If we ever see more distinct configurations than this we simply start over.
+    private static final int MAX_CACHED_CONFIGURATIONS = 64;
+
+    private static final Map<Key, ThreadLocal<Parser<?>>> CACHE = new ConcurrentHashMap<>();
+
+    private ParserCache() {
+    }
+
+    /**
+     * Creates a new parser instance for the configuration described in the key.
+     * @param <RECORD> The type of the record.
+     */
+    @FunctionalInterface
+    public interface ParserFactory<RECORD> {
+        Parser<RECORD> createParser() throws IOException;
+    }
+
+    /**
+     * Returns the parser for this configuration that belongs to the current thread.
+     * If there is none yet the factory is used to create it.
+     * @param key The description of the configuration of the parser
+     * @param factory Creates a new parser if none is available for this thread
+     * @param <RECORD> The type of the record.
+     * @return The parser for this configuration (may be null if the factory returned null).
+     */
+    @SuppressWarnings("unchecked")
+    public static <RECORD> Parser<RECORD> getParser(Key key, ParserFactory<RECORD> factory) throws IOException {
+        if (CACHE.size() > MAX_CACHED_CONFIGURATIONS && !CACHE.containsKey(key)) {
+            LOG.info("Too many distinct parser configurations: Clearing the parser cache.");
+            CACHE.clear();
+        }
+
+        ThreadLocal<Parser<?>> threadParsers = CACHE.computeIfAbsent(key, k -> new ThreadLocal<>());
+
+        Parser<RECORD> parser = (Parser<RECORD>) threadParsers.get();
+        if (parser == null) {
+            parser = factory.createParser();
+            if (parser == null) {
+                return null; // Do not cache a failure
+            }
+            LOG.debug("Created new parser for thread {}", Thread.currentThread().getName());
+            threadParsers.set(parser);
+        }
+        return parser;
+    }
+
+    /**
+     * Drop all cached parsers.
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    // --------------------------------------------
+
+    /**
+     * The full description of a parser configuration.
+     * Two keys are equal if they would result in parsers that behave in exactly the same way.
+     */
+    public static final class Key {
+        private final String                    owner;
+        private final String                    logformat;
+        private final Set<String>               targets        = new TreeSet<>();
+        private final Map<String, Set<String>>  typeRemappings = new TreeMap<>();
+        private final List<String>              dissectors     = new ArrayList<>();
+        private final List<byte[]>              dissectorSettings = new ArrayList<>();
+        private final Map<String, List<String>> filters        = new TreeMap<>();
+
+        /**
+         * @param owner The class that creates the parser (different owners may setup the parser differently).
+         * @param logformat The logformat of the parser.
+         */
+        public Key(Class<?> owner, String logformat) {
+            this.owner = owner.getCanonicalName();
+            this.logformat = logformat;
+        }
+
+        /**
+         * @param newTargets The requested fields (including any information on how they are stored).
+         * @return this
+         */
+        public Key withTargets(Collection<String> newTargets) {
+            if (newTargets != null) {
+                targets.addAll(newTargets);
+            }
+            return this;
+        }
+
+        public Key withTypeRemappings(Map<String, Set<String>> newTypeRemappings) {
+            if (newTypeRemappings != null) {
+                for (Map.Entry<String, Set<String>> entry : newTypeRemappings.entrySet()) {
+                    typeRemappings
+                        .computeIfAbsent(entry.getKey(), k -> new TreeSet<>())
+                        .addAll(entry.getValue());
+                }
+            }
+            return this;
+        }
+
+        /**
+         * The additional dissectors are identified by their class and their serialized form (i.e. their settings).
+         * @param newDissectors The additional dissectors
+         * @return this
+         */
+        public Key withAdditionalDissectors(List<Dissector> newDissectors) {
+            if (newDissectors != null) {
+                for (Dissector dissector : newDissectors) {
+                    dissectors.add(dissector.getClass().getCanonicalName());
+                    byte[] settings;
+                    try {
+                        settings = SerializationUtils.serialize(dissector);
+                    } catch (SerializationException e) {
+                        // We cannot see the settings so this dissector instance is only equal to itself.
+                        settings = Integer.toString(System.identityHashCode(dissector)).getBytes(StandardCharsets.UTF_8);
+                    }
+                    dissectorSettings.add(settings);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * The filters are identified by their description (i.e. their toString()).
+         * @param newFilters The filters per field
+         * @return this
+         */
+        public Key withFilters(Map<String, List<FieldFilter>> newFilters) {
+            if (newFilters != null) {
+                for (Map.Entry<String, List<FieldFilter>> entry : newFilters.entrySet()) {
+                    List<String> descriptions = filters.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+                    for (FieldFilter filter : entry.getValue()) {
+                        descriptions.add(filter.toString());
+                    }
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+
+            if (dissectorSettings.size() != key.dissectorSettings.size()) {
+                return false;
+            }
+            for (int i = 0; i < dissectorSettings.size(); i++) {
+                if (!Arrays.equals(dissectorSettings.get(i), key.dissectorSettings.get(i))) {
+                    return false;
+                }
+            }
+
+            return
+                owner.equals(key.owner) &&
+                (logformat == null ? key.logformat == null : logformat.equals(key.logformat)) &&
+                targets.equals(key.targets) &&
+                typeRemappings.equals(key.typeRemappings) &&
+                dissectors.equals(key.dissectors) &&
+                filters.equals(key.filters);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = owner.hashCode();
+            result = 31 * result + (logformat == null ? 0 : logformat.hashCode());
+            result = 31 * result + targets.hashCode();
+            result = 31 * result + typeRemappings.hashCode();
+            result = 31 * result + dissectors.hashCode();
+            result = 31 * result + filters.hashCode();
+            for (byte[] settings : dissectorSettings) {
+                result = 31 * result + Arrays.hashCode(settings);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "ParserCache.Key{" +
+                "owner='" + owner + '\'' +
+                ", logformat='" + logformat + '\'' +
+                ", targets=" + targets +
+                ", typeRemappings=" + typeRemappings +
+                ", dissectors=" + dissectors +
+                ", filters=" + filters +
+                '}';
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.LinePrefilter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Parses the lines of a LineRecordReader using multiple threads.
+ * A single reader thread fills batches of raw lines, a pool of parser threads (each using its own parser instance)
+ * parses those batches and the results are handed out in the same order as the lines were read.
+ * The parser threads are shared by all instances in the JVM so the parsers that the {@link ParserCache} holds for
+ * these threads are reused by the next split (with a new pool for every split each thread had to build its parser).
+ * The number of batches is fixed so the memory usage is bounded: the reader waits if all batches are in use.
+ * This class does not touch any counters; the caller gets the status of each line and can count those itself.
+ */
+final class PipelinedLineParser implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedLineParser.class);
+
+    // Grows to the largest number of threads that was requested; the threads live as long as the JVM.
+    private static final ThreadPoolExecutor PARSER_THREADS;
+    static {
+        AtomicInteger threadNumber = new AtomicInteger();
+        PARSER_THREADS = new ThreadPoolExecutor(1, Integer.MAX_VALUE, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "httpdlog-parser-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * @return The number of shared parser threads that currently exist.
+     */
+    static int getSharedParserThreads() {
+        return PARSER_THREADS.getPoolSize();
+    }
+
+    private static synchronized ExecutorService getParserThreads(int threads) {
+        if (PARSER_THREADS.getCorePoolSize() < threads) {
+            PARSER_THREADS.setCorePoolSize(threads);
+        }
+        return PARSER_THREADS;
+    }
+
+    enum Status {
+        GOOD,
+        BAD,
+        FILTERED,
+        FATAL
+    }
+
+    private static final class Batch {
+        private final LongWritable[] keys;
+        private final Text[]         lines;
+        private final ParsedRecord[] records;
+        private final Status[]       status;
+        private final String[]       errors;
+        private int                  size     = 0;
+        private float                progress = 0;
+        private boolean              last     = false;
+        private IOException          failure  = null;
+
+        Batch(int batchSize, Supplier<ParsedRecord> recordSupplier) {
+            keys    = new LongWritable[batchSize];
+            lines   = new Text[batchSize];
+            records = new ParsedRecord[batchSize];
+            status  = new Status[batchSize];
+            errors  = new String[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                keys[i]    = new LongWritable();
+                lines[i]   = new Text();
+                records[i] = recordSupplier.get();
+            }
+        }
+    }
+
+    private final LineRecordReader                  lineReader;
+    private final ParserCache.ParserFactory<ParsedRecord> parserFactory;
+    private final LinePrefilter                     linePrefilter;
+    private final int                               batchSize;
+
+    private final BlockingQueue<Batch>              freeBatches;
+    private final BlockingQueue<Future<Batch>>      parsedBatches;
+    private final ExecutorService                   parsers;
+    private final Thread                            reader;
+    private volatile boolean                        stopped = false;
+
+    private Batch   current = null;
+    private int     index   = 0;
+
+    /**
+     * @param lineReader     The source of the lines (only used by the reader thread from now on).
+     * @param parserFactory  Returns the parser of the calling thread (i.e. from the ParserCache).
+     * @param recordSupplier Creates a new (empty) record.
+     * @param linePrefilter  The (optional) prefilter for the raw lines.
+     * @param threads        The minimal number of (shared) parser threads.
+     * @param batchSize      The number of lines per batch.
+     */
+    PipelinedLineParser(LineRecordReader lineReader,
+                        ParserCache.ParserFactory<ParsedRecord> parserFactory,
+                        Supplier<ParsedRecord> recordSupplier,
+                        LinePrefilter linePrefilter,
+                        int threads,
+                        int batchSize) {
+        this.lineReader    = lineReader;
+        this.parserFactory = parserFactory;
+        this.linePrefilter = linePrefilter;
+        this.batchSize     = batchSize;
+
+        // One batch for each one that is in the queue, one being filled and one being consumed.
+        int queueSize = 2 * threads;
+        parsedBatches = new ArrayBlockingQueue<>(queueSize);
+        freeBatches   = new ArrayBlockingQueue<>(queueSize + 2);
+        for (int i = 0; i < queueSize + 2; i++) {
+            freeBatches.add(new Batch(batchSize, recordSupplier));
+        }
+
+        parsers = getParserThreads(threads);
+
+        reader = new Thread(this::readLines, "httpdlog-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // --------------------------------------------
+
+    private void readLines() {
+        try {
+            boolean last = false;
+            while (!last && !stopped) {
+                Batch batch = freeBatches.take();
+                batch.size = 0;
+                try {
+                    while (batch.size < batchSize && lineReader.nextKeyValue()) {
+                        batch.keys[batch.size].set(lineReader.getCurrentKey().get());
+                        batch.lines[batch.size].set(lineReader.getCurrentValue());
+                        batch.size++;
+                    }
+                    batch.progress = lineReader.getProgress();
+                    last = batch.size < batchSize;
+                } catch (IOException e) {
+                    batch.failure = e;
+                    last = true;
+                }
+                batch.last = last;
+                if (batch.size == 0 || batch.failure != null) {
+                    parsedBatches.put(CompletableFuture.completedFuture(batch));
+                } else {
+                    parsedBatches.put(parsers.submit(() -> parseBatch(batch)));
+                }
+            }
+        } catch (InterruptedException e) {
+            // We are being closed
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Batch parseBatch(Batch batch) throws IOException {
+        Parser<ParsedRecord> parser = parserFactory.createParser();
+        for (int i = 0; i < batch.size; i++) {
+            Text line = batch.lines[i];
+            batch.errors[i] = null;
+            if (linePrefilter != null && !linePrefilter.matches(line.getBytes(), 0, line.getLength())) {
+                batch.status[i] = Status.FILTERED;
+                continue;
+            }
+            ParsedRecord record = batch.records[i];
+            record.clear();
+            try {
+                if (parser.parse(record, line.toString()) == null) {
+                    batch.status[i] = Status.FILTERED;
+                } else {
+                    batch.status[i] = Status.GOOD;
+                }
+            } catch (DissectionFailure e) {
+                batch.status[i] = Status.BAD;
+                batch.errors[i] = e.getMessage();
+            } catch (InvalidDissectorException | MissingDissectorsException e) {
+                batch.status[i] = Status.FATAL;
+                batch.errors[i] = e.getClass().getSimpleName() + ": " + e.getMessage();
+            }
+        }
+        return batch;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Move to the next line (in the same order as they were read).
+     * @return false if there are no more lines.
+     */
+    boolean next() throws IOException {
+        while (true) {
+            if (current != null) {
+                if (++index < current.size) {
+                    return true;
+                }
+                if (current.last) {
+                    return false;
+                }
+                freeBatches.add(current);
+                current = null;
+            }
+            try {
+                current = parsedBatches.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the parsed lines");
+            } catch (ExecutionException e) {
+                throw new IOException("Parsing the lines failed", e.getCause());
+            }
+            if (current.failure != null) {
+                throw current.failure;
+            }
+            index = -1;
+        }
+    }
+
+    Status getStatus() {
+        return current.status[index];
+    }
+
+    LongWritable getKey() {
+        return current.keys[index];
+    }
+
+    ParsedRecord getRecord() {
+        return current.records[index];
+    }
+
+    Text getLine() {
+        return current.lines[index];
+    }
+
+    String getError() {
+        return current.errors[index];
+    }
+
+    float getProgress() {
+        return current == null ? 0 : current.progress;
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for the reader thread to stop");
+            Thread.currentThread().interrupt();
+        }
+        // The parser threads are shared: only stop the work of this instance.
+        Future<Batch> parsing = parsedBatches.poll();
+        while (parsing != null) {
+            parsing.cancel(true);
+            parsing = parsedBatches.poll();
+        }
+    }
+}
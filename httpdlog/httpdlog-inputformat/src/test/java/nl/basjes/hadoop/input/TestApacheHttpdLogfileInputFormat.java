@@ -39,7 +39,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static nl.basjes.parse.core.FieldFilters.equalTo;
+import static nl.basjes.parse.core.FieldFilters.notEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -153,4 +156,68 @@ public class TestApacheHttpdLogfileInputFormat {
             fail("Wrong return class type");
         }
     }
+
+    private ApacheHttpdLogfileRecordReader createFilteredReader(String method) throws IOException {
+        Configuration conf = new Configuration(false);
+        conf.set("fs.default.name", "file:///");
+
+        File testFile = new File("src/test/resources/access.log");
+        Path path = new Path(testFile.getAbsoluteFile().toURI());
+        FileSplit split = new FileSplit(path, 0, testFile.length(), null);
+
+        ApacheHttpdLogfileInputFormat inputFormat = new ApacheHttpdLogfileInputFormat(
+            logformat,
+            Arrays.asList("TIME.EPOCH:request.receive.time.epoch", "HTTP.PATH:request.firstline.uri.path"),
+            new HashMap<>(),
+            new ArrayList<>());
+        ApacheHttpdLogfileRecordReader reader = inputFormat.getRecordReader();
+        // The status is not requested: it is only needed for the filters.
+        reader.addFilter("STRING:request.status.last", notEqualTo("404"));
+        reader.addFilter("HTTP.METHOD:request.firstline.method", equalTo(method));
+
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        reader.initialize(split, context);
+        return reader;
+    }
+
+    @Test
+    public void checkFilters() throws IOException {
+        ApacheHttpdLogfileRecordReader reader = createFilteredReader("GET");
+        assertTrue(reader.nextKeyValue());
+        assertEquals("1483272081000", reader.getCurrentValue().getString("TIME.EPOCH:request.receive.time.epoch"));
+        assertFalse(reader.nextKeyValue());
+
+        reader = createFilteredReader("POST");
+        assertFalse(reader.nextKeyValue());
+    }
+
+    private RecordReader createPrefilteredReader(String needles) throws IOException, InterruptedException {
+        Configuration conf = new Configuration(false);
+        conf.set("fs.default.name", "file:///");
+        conf.set("nl.basjes.parse.apachehttpdlogline.format", logformat);
+        conf.set("nl.basjes.parse.apachehttpdlogline.fields", "TIME.EPOCH:request.receive.time.epoch");
+        // A ',' separated list of texts of which at least one must be present in the line
+        conf.set(ApacheHttpdLogfileRecordReader.PREFILTER, needles);
+
+        File testFile = new File("src/test/resources/access.log");
+        Path path = new Path(testFile.getAbsoluteFile().toURI());
+        FileSplit split = new FileSplit(path, 0, testFile.length(), null);
+
+        InputFormat inputFormat = ReflectionUtils.newInstance(ApacheHttpdLogfileInputFormat.class, conf);
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        RecordReader reader = inputFormat.createRecordReader(split, context);
+        reader.initialize(split, context);
+        return reader;
+    }
+
+    @Test
+    public void checkPrefilter() throws IOException, InterruptedException {
+        RecordReader reader = createPrefilteredReader("\"POST ,\"GET ");
+        assertTrue(reader.nextKeyValue());
+        assertEquals("1483272081000", ((ParsedRecord) reader.getCurrentValue()).getString("TIME.EPOCH:request.receive.time.epoch"));
+        assertFalse(reader.nextKeyValue());
+
+        reader = createPrefilteredReader(" 503 ,/api/checkout");
+        assertFalse(reader.nextKeyValue());
+    }
 }
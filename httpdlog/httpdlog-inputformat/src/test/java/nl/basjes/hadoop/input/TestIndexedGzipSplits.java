@@ -0,0 +1,158 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestIndexedGzipSplits {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String EPOCH = "TIME.EPOCH:request.receive.time.epoch";
+    private static final String PATH  = "HTTP.PATH:request.firstline.uri.path";
+    private static final int    LINES = 50000;
+
+    private File createLogfile() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "access.log.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file.toPath())),
+            StandardCharsets.UTF_8)) {
+            for (int i = 0; i < LINES; i++) {
+                if (i % 997 == 0) {
+                    writer.write("This is a bad line " + i + '\n');
+                } else {
+                    writer.write("127.0.0.1 - - [01/Jan/2017:13:" + String.format("%02d:%02d", (i / 60) % 60, i % 60) +
+                        " +0100] \"GET /page" + (i * 7919L % 100003) + " HTTP/1.1\" 200 " + i + '\n');
+                }
+            }
+        }
+        return file;
+    }
+
+    private Configuration createConfiguration() {
+        Configuration conf = new Configuration(false);
+        conf.set("fs.default.name", "file:///");
+        conf.set("io.compression.codecs", "org.apache.hadoop.io.compress.GzipCodec");
+        conf.set("nl.basjes.parse.apachehttpdlogline.format", "common");
+        conf.set("nl.basjes.parse.apachehttpdlogline.fields", EPOCH + ',' + PATH);
+        return conf;
+    }
+
+    private List<String> read(Configuration conf, FileSplit split) throws IOException {
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        ApacheHttpdLogfileRecordReader reader = new ApacheHttpdLogfileRecordReader();
+        reader.initialize(split, context);
+
+        List<String> result = new ArrayList<>();
+        while (reader.nextKeyValue()) {
+            ParsedRecord record = reader.getCurrentValue();
+            result.add(reader.getCurrentKey().get() + " " + record.getString(EPOCH) + " " + record.getString(PATH));
+        }
+        reader.close();
+        return result;
+    }
+
+    // The splits are sent to the tasks in serialized form.
+    private FileSplit serializeAndBack(InputSplit split) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        ((FileSplit) split).write(out);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        FileSplit result = split instanceof IndexedGzipSplit ? new IndexedGzipSplit() : new FileSplit();
+        result.readFields(in);
+        return result;
+    }
+
+    private List<InputSplit> getSplits(Configuration conf, File directory) throws IOException {
+        Job job = Job.getInstance(conf);
+        FileInputFormat.addInputPath(job, new Path(directory.getAbsoluteFile().toURI()));
+        FileInputFormat.setMaxInputSplitSize(job, 64 * 1024);
+        return new ApacheHttpdLogfileInputFormat().getSplits(job);
+    }
+
+    @Test
+    public void testSameResultAsSingleSplit() throws IOException {
+        File file = createLogfile();
+        Configuration conf = createConfiguration();
+        Path path = new Path(file.getAbsoluteFile().toURI());
+
+        // Without an index a gzip file is a single split
+        List<InputSplit> splits = getSplits(conf, temporaryFolder.getRoot());
+        assertEquals(1, splits.size());
+        List<String> expected = read(conf, serializeAndBack(splits.get(0)));
+        assertEquals(LINES - (LINES / 997 + 1), expected.size());
+
+        ApacheHttpdLogfileInputFormat.createGzipIndex(conf, path, 128 * 1024);
+
+        // The index file itself is not an input
+        splits = getSplits(conf, temporaryFolder.getRoot());
+        assertTrue("Only " + splits.size() + " splits", splits.size() > 4);
+
+        List<String> actual = new ArrayList<>();
+        long expectedStart = 0;
+        for (InputSplit split : splits) {
+            assertTrue(split instanceof IndexedGzipSplit);
+            IndexedGzipSplit indexedSplit = (IndexedGzipSplit) serializeAndBack(split);
+            assertEquals(path, indexedSplit.getPath());
+            assertEquals(expectedStart, indexedSplit.getUncompressedStart());
+            expectedStart = indexedSplit.getUncompressedEnd();
+            actual.addAll(read(conf, indexedSplit));
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testStaleIndexIsIgnored() throws IOException {
+        File file = createLogfile();
+        Configuration conf = createConfiguration();
+        ApacheHttpdLogfileInputFormat.createGzipIndex(conf, new Path(file.getAbsoluteFile().toURI()), 128 * 1024);
+
+        // The file is replaced after the index was made.
+        Files.write(file.toPath(), new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 3, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+
+        List<InputSplit> splits = getSplits(conf, temporaryFolder.getRoot());
+        assertEquals(1, splits.size());
+        assertTrue(read(conf, (FileSplit) splits.get(0)).isEmpty());
+    }
+
+}
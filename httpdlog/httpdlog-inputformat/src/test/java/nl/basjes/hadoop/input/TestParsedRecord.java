@@ -17,7 +17,9 @@
 package nl.basjes.hadoop.input;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
@@ -25,10 +27,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestParsedRecord {
 
@@ -82,6 +87,131 @@ public class TestParsedRecord {
         record.clear();
     }
 
+    private static final List<String> SCHEMA = Arrays.asList(
+        "String A", "String B", "String C", "Long A", "Long B", "Double A", "Multi_A.*", "Multi_B.*", "Unused", "Unused.*");
+
+    private static ParsedRecord deserialize(byte[] bytes, Configuration conf) throws IOException {
+        // This is how Hadoop creates the instances when reading (i.e. in the reducer)
+        ParsedRecord result = ReflectionUtils.newInstance(ParsedRecord.class, conf);
+        try (DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            result.readFields(dataIn);
+        }
+        return result;
+    }
+
+    @Test
+    public void testCompactSerialization() throws IOException {
+        Configuration conf = new Configuration(false);
+        ParsedRecordSchema.setSchema(conf, SCHEMA);
+
+        ParsedRecord record = ReflectionUtils.newInstance(ParsedRecord.class, conf);
+        setAllValues(record);
+        // Negative, large and more than 64KB
+        record.set("Long B", -1234567890123L);
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            longString.append((char) ('a' + i % 26));
+        }
+        record.set("String C", longString.toString());
+
+        byte[] compact = serialize(record);
+        ParsedRecord deserialized = deserialize(compact, conf);
+
+        assertEquals(longString.toString(), deserialized.getString("String C"));
+        assertEquals(-1234567890123L, deserialized.getLong("Long B").longValue());
+        record.set("String C", "42");
+        record.set("Long B", 42L);
+        deserialized.set("String C", "42");
+        deserialized.set("Long B", 42L);
+        checkAllValues(deserialized);
+        assertEquals(record, deserialized);
+
+        // Reusing the instance does not retain old values
+        ParsedRecord other = ReflectionUtils.newInstance(ParsedRecord.class, conf);
+        other.set("String A", "Other");
+        try (DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(serialize(other)))) {
+            deserialized.readFields(dataIn);
+        }
+        assertEquals("Other", deserialized.getString("String A"));
+        assertEquals(null, deserialized.getString("String B"));
+        assertEquals(null, deserialized.getLong("Long A"));
+        assertTrue(deserialized.getStringSet("Multi_A.*").isEmpty());
+        assertTrue(deserialized.getStringSet("Multi_C.*").isEmpty());
+    }
+
+    @Test
+    public void testCompactIsSmaller() throws IOException {
+        Configuration conf = new Configuration(false);
+        ParsedRecordSchema.setSchema(conf, SCHEMA);
+
+        ParsedRecord original = new ParsedRecord();
+        ParsedRecord compact = ReflectionUtils.newInstance(ParsedRecord.class, conf);
+        for (ParsedRecord record : Arrays.asList(original, compact)) {
+            setAllValues(record);
+        }
+        int originalSize = serialize(original).length;
+        int compactSize = serialize(compact).length;
+        assertTrue("Compact: " + compactSize + " Original: " + originalSize, compactSize * 2 < originalSize);
+
+        // A reader with a schema can still read the original form.
+        checkAllValues(deserialize(serialize(original), conf));
+    }
+
+    @Test
+    public void testCompactNeedsSchema() throws IOException {
+        Configuration conf = new Configuration(false);
+        ParsedRecordSchema.setSchema(conf, SCHEMA);
+        ParsedRecord record = ReflectionUtils.newInstance(ParsedRecord.class, conf);
+        setAllValues(record);
+        try {
+            deserialize(serialize(record), new Configuration(false));
+            fail("Reading without the schema must fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(ParsedRecordSchema.SCHEMA));
+        }
+    }
+
+    @Test
+    public void testLayout() throws IOException, InstantiationException, IllegalAccessException {
+        // Only some of the fields have a slot
+        ParsedRecord record = new ParsedRecord(new ParsedRecordSchema(SCHEMA));
+        setAllValues(record);
+        checkAllValues(record);
+
+        int stringA = record.getFieldId("String A");
+        int longB   = record.getFieldId("Long B");
+        int doubleA = record.getFieldId("Double A");
+        assertEquals(-1, record.getFieldId("String D"));
+        assertEquals("42", record.getString(stringA));
+        assertTrue(record.hasLong(longB));
+        assertEquals(42L, record.getLongValue(longB));
+        assertEquals((Long) 42L, record.getLong(longB));
+        assertTrue(record.hasDouble(doubleA));
+        assertEquals(42D, record.getDoubleValue(doubleA), 0.0001);
+        assertEquals(null, record.getLong(stringA));
+
+        // The same values without a layout
+        ParsedRecord plain = new ParsedRecord();
+        setAllValues(plain);
+        plain.declareRequestedFieldname("Unused.*");
+        assertEquals(plain, record);
+        assertEquals(plain.hashCode(), record.hashCode());
+
+        // Both serialized forms
+        checkAllValues(asWritable(serialize(record), ParsedRecord.class));
+        record.setSchema(new ParsedRecordSchema(SCHEMA));
+        Configuration conf = new Configuration(false);
+        ParsedRecordSchema.setSchema(conf, SCHEMA);
+        checkAllValues(deserialize(serialize(record), conf));
+
+        record.clear();
+        assertEquals(null, record.getString(stringA));
+        assertFalse(record.hasLong(longB));
+        assertEquals(null, record.getLong(longB));
+        assertEquals(null, record.getDouble(doubleA));
+        assertEquals(null, record.getString("String D"));
+    }
+
     private void setAllValues(ParsedRecord record) {
         record.set("String A", "42");
         record.set("String B", "42");
@@ -0,0 +1,109 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.test.NormalValuesDissector;
+import nl.basjes.parse.httpdlog.HttpdLogFormatDissector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestParserCache {
+
+    private static final String LOGFORMAT = "combined";
+
+    private ApacheHttpdLogfileRecordReader createReader(List<String> fields,
+                                                        Map<String, Set<String>> typeRemappings,
+                                                        List<Dissector> dissectors) throws Exception {
+        return new ApacheHttpdLogfileRecordReader(LOGFORMAT, new HashSet<>(fields), typeRemappings, dissectors);
+    }
+
+    @Test
+    public void testSameConfigurationSameParser() throws Exception {
+        List<String> fields = Arrays.asList("IP:connection.client.host", "HTTP.URI:request.firstline.uri");
+        Parser<ParsedRecord> parser1 = createReader(fields, new HashMap<>(), new ArrayList<>()).getParser();
+        Parser<ParsedRecord> parser2 = createReader(fields, new HashMap<>(), new ArrayList<>()).getParser();
+        assertSame(parser1, parser2);
+
+        ParsedRecord record = new ParsedRecord();
+        parser2.parse(record, "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html HTTP/1.1\" 200 10 \"-\" \"-\"");
+        assertEquals("127.0.0.1", record.getString("IP:connection.client.host"));
+        assertEquals("/index.html", record.getString("HTTP.URI:request.firstline.uri"));
+    }
+
+    @Test
+    public void testDifferentConfigurationDifferentParser() throws Exception {
+        List<String> fields = Collections.singletonList("IP:connection.client.host");
+        Parser<ParsedRecord> parser = createReader(fields, new HashMap<>(), new ArrayList<>()).getParser();
+
+        // Different fields
+        assertNotSame(parser, createReader(
+            Collections.singletonList("HTTP.URI:request.firstline.uri"),
+            new HashMap<>(), new ArrayList<>()).getParser());
+
+        // Different type remappings
+        Map<String, Set<String>> typeRemappings = new HashMap<>();
+        typeRemappings.put("request.firstline.uri.query.foo", Collections.singleton("HTTP.URI"));
+        assertNotSame(parser, createReader(fields, typeRemappings, new ArrayList<>()).getParser());
+
+        // Additional dissectors with different settings
+        List<Dissector> dissectorsA = Collections.singletonList(new NormalValuesDissector(HttpdLogFormatDissector.INPUT_TYPE));
+        List<Dissector> dissectorsB = Collections.singletonList(new NormalValuesDissector("SOMETHING"));
+        List<Dissector> dissectorsC = Collections.singletonList(new NormalValuesDissector(HttpdLogFormatDissector.INPUT_TYPE));
+        Parser<ParsedRecord> parserA = createReader(fields, new HashMap<>(), dissectorsA).getParser();
+        Parser<ParsedRecord> parserB = createReader(fields, new HashMap<>(), dissectorsB).getParser();
+        Parser<ParsedRecord> parserC = createReader(fields, new HashMap<>(), dissectorsC).getParser();
+        assertNotSame(parser, parserA);
+        assertNotSame(parserA, parserB);
+        assertSame(parserA, parserC);
+    }
+
+    @Test
+    public void testParserPerThread() throws Exception {
+        List<String> fields = Collections.singletonList("IP:connection.client.host");
+        Parser<ParsedRecord> parser = createReader(fields, new HashMap<>(), new ArrayList<>()).getParser();
+
+        AtomicReference<Parser<ParsedRecord>> otherParser = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                otherParser.set(createReader(fields, new HashMap<>(), new ArrayList<>()).getParser());
+            } catch (Exception e) {
+                // Leaves the otherParser null
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertNotSame(parser, otherParser.get());
+        assertEquals(parser.getClass(), otherParser.get().getClass());
+    }
+
+}
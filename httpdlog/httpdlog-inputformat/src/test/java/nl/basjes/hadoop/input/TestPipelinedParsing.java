@@ -0,0 +1,173 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.Parser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPipelinedParsing {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String EPOCH = "TIME.EPOCH:request.receive.time.epoch";
+    private static final String PATH  = "HTTP.PATH:request.firstline.uri.path";
+
+    private static class CountingReporter extends StatusReporter {
+        private final Counters counters = new Counters();
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+            // Ignore
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+            // Ignore
+        }
+
+        long get(String name) {
+            return counters.findCounter("HTTPD Access Logfile InputFormat", name).getValue();
+        }
+    }
+
+    private File createLogfile() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            if (i % 97 == 0) {
+                lines.add("This is a bad line " + i);
+            } else {
+                lines.add("127.0.0.1 - - [01/Jan/2017:13:01:21 +0100] \"GET /" + (i % 10 == 0 ? "skip" : "page") + i +
+                    " HTTP/1.1\" 200 " + i);
+            }
+        }
+        File file = temporaryFolder.newFile("access.log");
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static final AtomicInteger PARSERS_CREATED = new AtomicInteger();
+
+    public static class CountingRecordReader extends ApacheHttpdLogfileRecordReader {
+        @Override
+        protected Parser<ParsedRecord> instantiateParser(String logFormat) {
+            PARSERS_CREATED.incrementAndGet();
+            return super.instantiateParser(logFormat);
+        }
+    }
+
+    private List<String> read(File file, int threads, int batchSize, CountingReporter reporter) throws IOException {
+        return read(file, threads, batchSize, reporter, new ApacheHttpdLogfileRecordReader());
+    }
+
+    private List<String> read(File file, int threads, int batchSize, CountingReporter reporter,
+                              ApacheHttpdLogfileRecordReader reader) throws IOException {
+        Configuration conf = new Configuration(false);
+        conf.set("fs.default.name", "file:///");
+        conf.set("nl.basjes.parse.apachehttpdlogline.format", "common");
+        conf.set("nl.basjes.parse.apachehttpdlogline.fields", EPOCH + ',' + PATH);
+        conf.set(ApacheHttpdLogfileRecordReader.PREFILTER, "/page");
+        conf.setInt(ApacheHttpdLogfileRecordReader.PARSER_THREADS, threads);
+        conf.setInt(ApacheHttpdLogfileRecordReader.PARSER_BATCH_SIZE, batchSize);
+
+        FileSplit split = new FileSplit(new Path(file.getAbsoluteFile().toURI()), 0, file.length(), null);
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID(), reporter);
+
+        reader.initialize(split, context);
+
+        List<String> result = new ArrayList<>();
+        while (reader.nextKeyValue()) {
+            ParsedRecord record = reader.getCurrentValue();
+            result.add(reader.getCurrentKey().get() + " " + record.getString(EPOCH) + " " + record.getString(PATH));
+        }
+        reader.close();
+        return result;
+    }
+
+    @Test
+    public void testSameResultAsSingleThreaded() throws IOException {
+        File file = createLogfile();
+
+        CountingReporter expectedCounters = new CountingReporter();
+        List<String> expected = read(file, 0, 0, expectedCounters);
+        assertEquals(5000, expectedCounters.get("1:Lines read"));
+        assertEquals(4454, expectedCounters.get("2:Good lines"));
+        assertEquals(4454, expected.size());
+
+        for (int threads : new int[]{1, 4}) {
+            for (int batchSize : new int[]{1, 7, 1000, 10000}) {
+                CountingReporter counters = new CountingReporter();
+                assertEquals(expected, read(file, threads, batchSize, counters));
+                for (String counter : new String[]{"1:Lines read", "2:Good lines", "3:Bad lines", "4:Filtered lines"}) {
+                    assertEquals(counter, expectedCounters.get(counter), counters.get(counter));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParsersAreReusedBySplits() throws IOException {
+        File file = createLogfile();
+        List<String> expected = read(file, 0, 0, new CountingReporter());
+
+        PARSERS_CREATED.set(0);
+        for (int split = 0; split < 5; split++) {
+            assertEquals(expected, read(file, 2, 100, new CountingReporter(), new CountingRecordReader()));
+        }
+        // One parser for this thread and at most one for each of the shared parser threads
+        // (instead of a new one for every parser thread of every split).
+        assertTrue(PARSERS_CREATED.get() <= 1 + PipelinedLineParser.getSharedParserThreads());
+    }
+
+}
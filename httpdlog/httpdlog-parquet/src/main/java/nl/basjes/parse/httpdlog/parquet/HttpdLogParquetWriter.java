@@ -0,0 +1,310 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.parquet;
+
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.Parser.SetterPolicy;
+import nl.basjes.parse.core.TypedSlotRecord;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Types;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * Parses loglines directly into a Parquet file.
+ * The schema is derived from the requested fields and the types they can be cast to:
+ * LONG if possible (INT64), else DOUBLE, else a STRING (UTF8 BINARY); all columns are optional.
+ * The names of the columns are the same as those of the derived Avro schema (like connection_client_host).
+ * <p>
+ * Each line is parsed into a single reused record with a slot per column that is written straight into the
+ * column writers, which buffer the row group in column form. Dictionary encoding is enabled so repeated strings
+ * (methods, status, hosts, user agents) are stored once per column chunk; Parquet falls back to plain encoding
+ * for a column whose dictionary grows beyond the dictionary page size.
+ */
+public class HttpdLogParquetWriter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpdLogParquetWriter.class);
+
+    private final String logformat;
+    private final List<String> fields = new ArrayList<>();
+    private final Path file;
+
+    private Configuration configuration = new Configuration();
+    private CompressionCodecName compression = CompressionCodecName.SNAPPY;
+    private int rowGroupSize = ParquetWriter.DEFAULT_BLOCK_SIZE;
+    private int pageSize = ParquetWriter.DEFAULT_PAGE_SIZE;
+    private int dictionaryPageSize = ParquetWriter.DEFAULT_PAGE_SIZE;
+    private SetterPolicy setterPolicy = NOT_NULL;
+
+    private final Parser<TypedSlotRecord> parser;
+    private TypedSlotRecord record = null;
+    private MessageType schema = null;
+    private ParquetWriter<TypedSlotRecord> writer = null;
+
+    private final LineCounter counter = new LineCounter(LOG);
+
+    public HttpdLogParquetWriter(String logformat, List<String> requestedFields, Path file) {
+        this.logformat = logformat;
+        this.file = file;
+        Set<String> uniqueFields = new HashSet<>();
+        for (String field : requestedFields) {
+            if (field.endsWith(".*")) {
+                throw new IllegalArgumentException("Wildcard fields are not supported: " + field);
+            }
+            String cleanField = Parser.cleanupFieldValue(field);
+            if (!uniqueFields.add(cleanField)) {
+                throw new IllegalArgumentException("The field " + cleanField + " was requested more than once");
+            }
+            fields.add(cleanField);
+        }
+        parser = new HttpdLoglineParser<>(TypedSlotRecord.class, logformat);
+    }
+
+    public HttpdLogParquetWriter withConfiguration(Configuration newConfiguration) {
+        checkNotStarted();
+        this.configuration = newConfiguration;
+        return this;
+    }
+
+    public HttpdLogParquetWriter withCompression(CompressionCodecName newCompression) {
+        checkNotStarted();
+        this.compression = newCompression;
+        return this;
+    }
+
+    /**
+     * The size (in bytes) of the row groups that are buffered in memory before they are written.
+     */
+    public HttpdLogParquetWriter withRowGroupSize(int newRowGroupSize) {
+        checkNotStarted();
+        this.rowGroupSize = newRowGroupSize;
+        return this;
+    }
+
+    public HttpdLogParquetWriter withPageSize(int newPageSize) {
+        checkNotStarted();
+        this.pageSize = newPageSize;
+        return this;
+    }
+
+    /**
+     * The maximum size of the dictionary of a column chunk (beyond this it falls back to plain encoding).
+     */
+    public HttpdLogParquetWriter withDictionaryPageSize(int newDictionaryPageSize) {
+        checkNotStarted();
+        this.dictionaryPageSize = newDictionaryPageSize;
+        return this;
+    }
+
+    /**
+     * Which values are stored: with NOT_NULL (the default) an empty string is stored as an empty string,
+     * with NOT_EMPTY it is stored as null. A null value is always stored as null.
+     */
+    public HttpdLogParquetWriter withSetterPolicy(SetterPolicy newSetterPolicy) {
+        checkNotStarted();
+        this.setterPolicy = newSetterPolicy;
+        return this;
+    }
+
+    private void checkNotStarted() {
+        if (writer != null) {
+            throw new IllegalStateException("The file has already been created.");
+        }
+    }
+
+    // --------------------------------------------
+
+    // Only done when the first line is added: until then the parser can still be changed (see getParser)
+    // and no file is created.
+    private void initialize() throws IOException, MissingDissectorsException, InvalidDissectorException {
+        if (writer != null) {
+            return;
+        }
+
+        TypedSlotRecord.Layout layout = createLayout();
+        layout.addParseTargets(parser, setterPolicy);
+        schema = createSchema(layout);
+        record = new TypedSlotRecord(layout);
+
+        Map<String, String> extraMetaData = new HashMap<>();
+        extraMetaData.put("httpdlog.logformat", logformat);
+        extraMetaData.put("httpdlog.fields", String.join(" ", fields));
+
+        writer = new Builder(file, new TypedSlotRecordWriteSupport(schema, extraMetaData))
+            .withConf(configuration)
+            .withCompressionCodec(compression)
+            .withRowGroupSize(rowGroupSize)
+            .withPageSize(pageSize)
+            .withDictionaryPageSize(dictionaryPageSize)
+            .withDictionaryEncoding(true)
+            .build();
+    }
+
+    /**
+     * @return One column per field in the most specific type of that field with the current configuration
+     * of the parser.
+     */
+    private TypedSlotRecord.Layout createLayout() throws MissingDissectorsException, InvalidDissectorException {
+        return TypedSlotRecord.Layout.mostSpecific(parser, fields);
+    }
+
+    private static MessageType createSchema(TypedSlotRecord.Layout layout) {
+        Types.MessageTypeBuilder schemaBuilder = Types.buildMessage();
+        Set<String> usedNames = new HashSet<>();
+        for (int column = 0; column < layout.size(); column++) {
+            String field = layout.getField(column);
+            String name = toColumnName(field.substring(field.indexOf(':') + 1));
+            if (!usedNames.add(name)) {
+                name = toColumnName(field);
+                usedNames.add(name);
+            }
+            switch (layout.getCast(column)) {
+                case LONG:
+                    schemaBuilder.optional(PrimitiveTypeName.INT64).named(name);
+                    break;
+                case DOUBLE:
+                    schemaBuilder.optional(PrimitiveTypeName.DOUBLE).named(name);
+                    break;
+                default:
+                    schemaBuilder.optional(PrimitiveTypeName.BINARY).as(OriginalType.UTF8).named(name);
+                    break;
+            }
+        }
+        return schemaBuilder.named("LogLine");
+    }
+
+    private static final class Builder extends ParquetWriter.Builder<TypedSlotRecord, Builder> {
+        private final WriteSupport<TypedSlotRecord> writeSupport;
+
+        Builder(Path file, WriteSupport<TypedSlotRecord> writeSupport) {
+            super(file);
+            this.writeSupport = writeSupport;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<TypedSlotRecord> getWriteSupport(Configuration conf) {
+            return writeSupport;
+        }
+    }
+
+    /**
+     * @return The name with all characters that are not valid in a column name replaced by an '_'.
+     */
+    static String toColumnName(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 1);
+        if (name.isEmpty() || !Character.isLetter(name.charAt(0))) {
+            sb.append('_');
+        }
+        for (char c : name.toCharArray()) {
+            sb.append((c < 128 && Character.isLetterOrDigit(c)) ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Parse the logline and write it to the file.
+     * @return true if the line was written, false if it was bad or rejected by a filter.
+     */
+    public boolean add(String line) throws IOException, MissingDissectorsException, InvalidDissectorException {
+        initialize();
+        counter.read();
+        record.clear();
+        try {
+            if (parser.parse(record, line) == null) {
+                counter.filtered();
+                return false;
+            }
+        } catch (DissectionFailure dissectionFailure) {
+            counter.bad(dissectionFailure.getMessage(), line);
+            return false;
+        }
+        writer.write(record);
+        return true;
+    }
+
+    /**
+     * @return The schema that is derived from the requested fields. Before the first line this reflects the
+     * current configuration of the parser (no file is created); after that it is the schema of the file.
+     */
+    public MessageType getSchema() throws MissingDissectorsException, InvalidDissectorException {
+        if (schema != null) {
+            return schema;
+        }
+        return createSchema(createLayout());
+    }
+
+    /**
+     * @return The parser so additional dissectors, type remappings or filters can be added before the first line.
+     * These are taken into account when the types of the columns are determined (at the first line).
+     */
+    public Parser<TypedSlotRecord> getParser() {
+        return parser;
+    }
+
+    public long getLinesRead() {
+        return counter.getLinesRead();
+    }
+
+    public long getLinesBad() {
+        return counter.getLinesBad();
+    }
+
+    public long getLinesFiltered() {
+        return counter.getLinesFiltered();
+    }
+
+    /**
+     * Write the last row group and the footer. A writer that never received a line does not create a file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.parquet;
+
+import nl.basjes.parse.core.TypedSlotRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the slots of a {@link TypedSlotRecord} straight into the column writers (no intermediate objects).
+ * Absent values are simply not written, which makes them null in the (optional) column.
+ */
+final class TypedSlotRecordWriteSupport extends WriteSupport<TypedSlotRecord> {
+
+    /** The maximum number of distinct values per string column of which the encoded Binary is retained. */
+    static final int MAX_CACHED_BINARIES = 1024;
+
+    private final MessageType schema;
+    private final Map<String, String> extraMetaData;
+    private final String[] names;
+    private final PrimitiveType.PrimitiveTypeName[] types;
+    // Per string column: value -> encoded value. Repeated values (methods, status, hosts, user agents)
+    // are then UTF-8 encoded only once and hit the dictionary of the column with an identical Binary.
+    private final List<Map<String, Binary>> binaries;
+    private RecordConsumer consumer;
+
+    TypedSlotRecordWriteSupport(MessageType schema, Map<String, String> extraMetaData) {
+        this.schema = schema;
+        this.extraMetaData = extraMetaData;
+        List<Type> fields = schema.getFields();
+        names = new String[fields.size()];
+        types = new PrimitiveType.PrimitiveTypeName[fields.size()];
+        binaries = new ArrayList<>(fields.size());
+        for (int column = 0; column < fields.size(); column++) {
+            names[column] = fields.get(column).getName();
+            types[column] = fields.get(column).asPrimitiveType().getPrimitiveTypeName();
+            binaries.add(new HashMap<>());
+        }
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        return new WriteContext(schema, Collections.unmodifiableMap(extraMetaData));
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+        this.consumer = recordConsumer;
+    }
+
+    @Override
+    public void write(TypedSlotRecord record) {
+        consumer.startMessage();
+        for (int column = 0; column < names.length; column++) {
+            Object value = record.get(column);
+            if (value == null) {
+                continue;
+            }
+            consumer.startField(names[column], column);
+            switch (types[column]) {
+                case INT64:
+                    consumer.addLong((Long) value);
+                    break;
+                case DOUBLE:
+                    consumer.addDouble((Double) value);
+                    break;
+                default:
+                    consumer.addBinary(toBinary(column, (String) value));
+                    break;
+            }
+            consumer.endField(names[column], column);
+        }
+        consumer.endMessage();
+    }
+
+    private Binary toBinary(int column, String value) {
+        Map<String, Binary> cache = binaries.get(column);
+        Binary binary = cache.get(value);
+        if (binary == null) {
+            binary = Binary.fromString(value);
+            if (cache.size() < MAX_CACHED_BINARIES) {
+                cache.put(value, binary);
+            }
+        }
+        return binary;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.parquet;
+
+import nl.basjes.parse.httpdlog.dissectors.ScreenResolutionDissector;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_EMPTY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestHttpdLogParquetWriter {
+
+    private static final String LOG_FORMAT = "%h %l %u %t \"%r\" %>s %b \"%{Referer}i\"";
+
+    private static final List<String> FIELDS = Arrays.asList(
+        "IP:connection.client.host",
+        "STRING:connection.client.user",
+        "HTTP.METHOD:request.firstline.method",
+        "STRING:request.status.last",
+        "BYTES:response.body.bytes",
+        "HTTP.URI:request.referer");
+
+    private static final File ACCESS_LOG = new File("src/test/resources/access.log");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private void write(HttpdLogParquetWriter writer) throws Exception {
+        try (HttpdLogParquetWriter w = writer) {
+            for (String line : Files.readAllLines(ACCESS_LOG.toPath(), StandardCharsets.UTF_8)) {
+                w.add(line);
+            }
+            assertEquals(6, w.getLinesRead());
+            assertEquals(1, w.getLinesBad());
+        }
+    }
+
+    private static List<Group> read(Path path) throws Exception {
+        List<Group> groups = new ArrayList<>();
+        try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), path).build()) {
+            for (Group group = reader.read(); group != null; group = reader.read()) {
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Path path = new Path(new File(folder.getRoot(), "access.parquet").toURI());
+        HttpdLogParquetWriter writer = new HttpdLogParquetWriter(LOG_FORMAT, FIELDS, path);
+
+        MessageType schema = writer.getSchema();
+        assertEquals(PrimitiveTypeName.BINARY, schema.getType("connection_client_host").asPrimitiveType().getPrimitiveTypeName());
+        assertEquals(PrimitiveTypeName.INT64,  schema.getType("response_body_bytes").asPrimitiveType().getPrimitiveTypeName());
+        write(writer);
+
+        List<Group> groups = read(path);
+        assertEquals(5, groups.size());
+        Group first = groups.get(0);
+        assertEquals("10.0.0.1", first.getString("connection_client_host", 0));
+        assertEquals(0, first.getFieldRepetitionCount("connection_client_user")); // "-" is null
+        assertEquals("POST",     first.getString("request_firstline_method", 0));
+        assertEquals("404",      first.getString("request_status_last", 0));
+        assertEquals(0L,         first.getLong("response_body_bytes", 0));
+        assertEquals("",         first.getString("request_referer", 0)); // Empty is retained with NOT_NULL
+        Group second = groups.get(1);
+        assertEquals("niels",    second.getString("connection_client_user", 0));
+        assertEquals("GET",      second.getString("request_firstline_method", 0));
+        assertEquals(3525L,      second.getLong("response_body_bytes", 0));
+        assertEquals("http://example.nl/", second.getString("request_referer", 0));
+        Group last = groups.get(4);
+        assertEquals("10.0.0.4", last.getString("connection_client_host", 0));
+        assertEquals("200",      last.getString("request_status_last", 0));
+        assertEquals(2210L,      last.getLong("response_body_bytes", 0));
+        assertEquals(0, last.getFieldRepetitionCount("request_referer")); // "-" is null
+
+        // The repeated strings are dictionary encoded
+        ParquetMetadata footer = ParquetFileReader.readFooter(new Configuration(), path);
+        for (ColumnChunkMetaData column : footer.getBlocks().get(0).getColumns()) {
+            if (column.getPath().toDotString().equals("request_firstline_method")) {
+                assertTrue(column.getEncodings().contains(Encoding.PLAIN_DICTIONARY));
+            }
+        }
+        assertEquals(LOG_FORMAT, footer.getFileMetaData().getKeyValueMetaData().get("httpdlog.logformat"));
+    }
+
+    @Test
+    public void testNotEmptySetterPolicy() throws Exception {
+        Path path = new Path(new File(folder.getRoot(), "access.parquet").toURI());
+        write(new HttpdLogParquetWriter(LOG_FORMAT, FIELDS, path)
+            .withSetterPolicy(NOT_EMPTY)
+            .withCompression(CompressionCodecName.GZIP));
+
+        List<Group> groups = read(path);
+        assertEquals(0, groups.get(0).getFieldRepetitionCount("request_referer"));
+        assertEquals("http://example.nl/", groups.get(1).getString("request_referer", 0));
+        assertEquals("http://example.nl/index.html", groups.get(2).getString("request_referer", 0));
+    }
+
+    @Test
+    public void testConfigureParserBeforeFirstLine() throws Exception {
+        File file = new File(folder.getRoot(), "access.parquet");
+        Path path = new Path(file.toURI());
+        HttpdLogParquetWriter writer = new HttpdLogParquetWriter(LOG_FORMAT,
+            Arrays.asList("IP:connection.client.host", "SCREENWIDTH:request.firstline.uri.query.res.width"), path);
+        writer.getParser()
+            .addDissector(new ScreenResolutionDissector())
+            .addTypeRemapping("request.firstline.uri.query.res", ScreenResolutionDissector.SCREENRESOLUTION);
+
+        // Neither the schema nor the parser fix the columns or create the file.
+        assertEquals(PrimitiveTypeName.INT64, writer.getSchema().getType("request_firstline_uri_query_res_width")
+            .asPrimitiveType().getPrimitiveTypeName());
+        assertFalse(file.exists());
+
+        try (HttpdLogParquetWriter w = writer) {
+            assertTrue(w.add("10.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html?res=1280x1024 HTTP/1.1\" 404 1234 \"-\""));
+        }
+        List<Group> groups = read(path);
+        assertEquals(1, groups.size());
+        assertEquals("10.0.0.1", groups.get(0).getString("connection_client_host", 0));
+        assertEquals(1280L,      groups.get(0).getLong("request_firstline_uri_query_res_width", 0));
+    }
+
+    @Test
+    public void testNoLinesNoFile() throws Exception {
+        File file = new File(folder.getRoot(), "access.parquet");
+        try (HttpdLogParquetWriter writer = new HttpdLogParquetWriter(LOG_FORMAT, FIELDS, new Path(file.toURI()))) {
+            writer.getParser();
+            writer.getSchema();
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWildcard() {
+        new HttpdLogParquetWriter(LOG_FORMAT, Arrays.asList("HTTP.QUERYSTRING:request.firstline.uri.query.*"),
+            new Path(new File(folder.getRoot(), "x.parquet").toURI()));
+    }
+
+    @Test
+    public void testColumnNames() {
+        assertEquals("connection_client_host", HttpdLogParquetWriter.toColumnName("connection.client.host"));
+        assertEquals("_1st", HttpdLogParquetWriter.toColumnName("1st"));
+        assertFalse(HttpdLogParquetWriter.toColumnName("a:b").contains(":"));
+    }
+
+}
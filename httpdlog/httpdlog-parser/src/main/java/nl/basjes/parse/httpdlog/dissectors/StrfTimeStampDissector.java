@@ -65,6 +65,11 @@ public class StrfTimeStampDissector extends Dissector {
         timeStampDissector.dissect(field, parsable, inputname);
     }
 
+    @Override
+    public void dissectBatch(List<? extends Parsable<?>> parsables, String inputname) {
+        timeStampDissector.dissectBatch(inputType, parsables, inputname);
+    }
+
     @Override
     public String getInputType() {
         return inputType;
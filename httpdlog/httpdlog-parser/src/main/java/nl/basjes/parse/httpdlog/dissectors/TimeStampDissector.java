@@ -409,16 +409,50 @@ public class TimeStampDissector extends Dissector {
             return; // Nothing to do here
         }
 
-        ZonedDateTime dateTime;
+        addDissections(parsable, inputname, parseDateTime(fieldValue));
+    }
+
+    @Override
+    public void dissectBatch(final List<? extends Parsable<?>> parsables, final String inputname) {
+        dissectBatch(getInputType(), parsables, inputname);
+    }
+
+    // In a batch of loglines the consecutive lines very often have exactly the same timestamp
+    // so we only parse the value if it differs from the previous one.
+    void dissectBatch(final String fieldInputType, final List<? extends Parsable<?>> parsables, final String inputname) {
+        String        previousValue    = null;
+        ZonedDateTime previousDateTime = null;
+        for (Parsable<?> parsable : parsables) {
+            try {
+                final ParsedField field = parsable.getParsableField(fieldInputType, inputname);
+                String fieldValue = field.getValue().getString();
+                if (fieldValue == null || fieldValue.isEmpty()) {
+                    continue; // Nothing to do here
+                }
+                if (!fieldValue.equals(previousValue)) {
+                    previousDateTime = parseDateTime(fieldValue);
+                    previousValue = fieldValue;
+                }
+                addDissections(parsable, inputname, previousDateTime);
+            } catch (DissectionFailure dissectionFailure) {
+                parsable.setDissectionFailure(dissectionFailure);
+            }
+        }
+    }
+
+    private ZonedDateTime parseDateTime(final String fieldValue) throws DissectionFailure {
         try {
-            dateTime = getFormatter().parse(fieldValue, ZonedDateTime::from);
+            return getFormatter().parse(fieldValue, ZonedDateTime::from);
         } catch (DateTimeParseException dtpe) {
             throw new DissectionFailure(dtpe.getMessage()+
                 "\n          10        20        30        40        50        60        70        80        90        100       110       120" +
                 "\n_123456789_123456789_123456789_123456789_123456789_123456789_123456789_123456789_123456789_123456789_123456789_123456789_" +
                 "\n"+fieldValue+"\n\n"+formatter.toString(), dtpe);
         }
+    }
 
+    private void addDissections(final Parsable<?> parsable, final String inputname, final ZonedDateTime dateTime)
+        throws DissectionFailure {
         if (wantAnyTZIndependent) {
             // Timezone independent
             if (wantTimezone) {
@@ -17,8 +17,11 @@
 
 package nl.basjes.parse.httpdlog.dissectors;
 
+import nl.basjes.parse.core.Field;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
 import nl.basjes.parse.core.test.DissectorTester;
 import nl.basjes.parse.httpdlog.HttpdLogFormatDissector;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
 import org.junit.Test;
 
 import java.time.DateTimeException;
@@ -27,9 +30,13 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.WeekFields;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 // CHECKSTYLE.OFF: LineLength
@@ -609,4 +616,43 @@ public class TestTimeStampDissector {
             .checkExpectations();
     }
 
+    public static class EpochRecord {
+        private Long epoch = null;
+
+        @Field("TIME.EPOCH:request.receive.time.epoch")
+        public void setEpoch(Long value) {
+            epoch = value;
+        }
+    }
+
+    @Test
+    public void testBatchWithRepeatedTimeStamps() throws Exception {
+        HttpdLoglineParser<EpochRecord> parser = new HttpdLoglineParser<>(EpochRecord.class, "%h %t %r");
+
+        List<String> lines = Arrays.asList(
+            "1.2.3.4 [31/Dec/2012:23:00:44 -0700] GET / HTTP/1.1",
+            "1.2.3.4 [31/Dec/2012:23:00:44 -0700] GET / HTTP/1.1",
+            "1.2.3.4 [31/Foo/2012:23:00:44 -0700] GET / HTTP/1.1",
+            "1.2.3.4 [31/Dec/2012:23:00:45 -0700] GET / HTTP/1.1",
+            "1.2.3.4 [31/Dec/2012:23:00:45 -0700] GET / HTTP/1.1");
+
+        List<EpochRecord> records = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            records.add(new EpochRecord());
+        }
+
+        List<DissectionFailure> failures = parser.parseBatch(records, lines);
+
+        long[] expected = {1357020044000L, 1357020044000L, 0, 1357020045000L, 1357020045000L};
+        for (int i = 0; i < lines.size(); i++) {
+            if (i == 2) {
+                assertNotNull(failures.get(i));
+                assertNull(records.get(i).epoch);
+                continue;
+            }
+            assertNull(failures.get(i));
+            assertEquals(expected[i], records.get(i).epoch.longValue());
+        }
+    }
+
 }
@@ -22,6 +22,7 @@ import nl.basjes.hadoop.input.ApacheHttpdLogfileRecordReader;
 import nl.basjes.hadoop.input.ParsedRecord;
 import nl.basjes.parse.core.Casts;
 import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.FieldFilter;
 import nl.basjes.parse.core.Parser;
 import nl.basjes.parse.core.exceptions.InvalidDissectorException;
 import nl.basjes.parse.core.exceptions.MissingDissectorsException;
@@ -32,6 +33,7 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.pig.Expression;
 import org.apache.pig.LoadFunc;
 import org.apache.pig.LoadMetadata;
+import org.apache.pig.LoadPredicatePushdown;
 import org.apache.pig.LoadPushDown;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.ResourceSchema.ResourceFieldSchema;
@@ -40,7 +42,9 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.impl.util.UDFContext;
+import org.apache.pig.impl.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,7 +65,8 @@ import java.util.Set;
 public class Loader
         extends LoadFunc
         implements LoadMetadata,
-                   LoadPushDown {
+                   LoadPushDown,
+                   LoadPredicatePushdown {
 
     private static final Logger LOG = LoggerFactory.getLogger(Loader.class);
 
@@ -80,10 +85,20 @@ public class Loader
     private final TupleFactory              tupleFactory;
     private ApacheHttpdLogfileInputFormat   theInputFormat;
 
+    // The fields and Pig types of the output columns; determined once per reader.
+    private String[]                        columnFields            = null;
+    private byte[]                          columnTypes             = null;
+    // The id of the slot of each column in the ParsedRecord (-1 if there is no slot)
+    private int[]                           columnIds               = null;
+
     // These are purely retained to make it possible to create a working example
     private final ArrayList<String>         specialParameters    = new ArrayList<>();
 
     private static final String             PRUNE_PROJECTION_INFO = "prune.projection.info";
+    static final String                     PUSHDOWN_PREDICATE    = "pushdown.predicate";
+    private boolean                         filtersApplied        = false;
+    // The field of each alias in the 'AS' schema of the script
+    private final Map<String, String>       fieldsOfAliases       = new HashMap<>();
 
     // ------------------------------------------
 
@@ -219,33 +234,39 @@ public class Loader
             ParsedRecord value = reader.getCurrentValue();
 
             if (value != null) {
-                List<Object> values = new ArrayList<>();
                 if (onlyWantListOfFields) {
-                    values.add(value.getString(ApacheHttpdLogfileRecordReader.FIELDS));
-                } else {
-                    for (String fieldName : requestedFields) {
-                        if (fieldName.endsWith(".*")) {
-                            values.add(value.getStringSet(fieldName));
-                            continue;
-                        } else {
-                            EnumSet<Casts> casts = reader.getParser().getCasts(fieldName);
-
-                            if (casts != null) {
-                                if (casts.contains(Casts.LONG)) {
-                                    values.add(value.getLong(fieldName));
-                                    continue;
-                                }
-
-                                if (casts.contains(Casts.DOUBLE)) {
-                                    values.add(value.getDouble(fieldName));
-                                    continue;
-                                }
-                            }
-                        }
-                        values.add(value.getString(fieldName));
+                    return tupleFactory.newTuple(value.getString(ApacheHttpdLogfileRecordReader.FIELDS));
+                }
+
+                if (columnTypes == null) {
+                    columnTypes = createColumnTypes();
+                    columnIds = new int[columnFields.length];
+                    for (int column = 0; column < columnFields.length; column++) {
+                        columnIds[column] = value.getFieldId(columnFields[column]);
+                    }
+                }
+
+                // The tuple is created at the final size so the values go in directly
+                // without an intermediate list that needs to be copied.
+                tuple = tupleFactory.newTuple(columnFields.length);
+                for (int column = 0; column < columnFields.length; column++) {
+                    String fieldName = columnFields[column];
+                    int id = columnIds[column];
+                    switch (columnTypes[column]) {
+                        case DataType.MAP:
+                            tuple.set(column, value.getStringSet(fieldName));
+                            break;
+                        case DataType.LONG:
+                            tuple.set(column, id == -1 ? value.getLong(fieldName) : value.getLong(id));
+                            break;
+                        case DataType.DOUBLE:
+                            tuple.set(column, id == -1 ? value.getDouble(fieldName) : value.getDouble(id));
+                            break;
+                        default:
+                            tuple.set(column, id == -1 ? value.getString(fieldName) : value.getString(id));
+                            break;
                     }
                 }
-                tuple = tupleFactory.newTuple(values);
             }
         } catch (InvalidDissectorException | MissingDissectorsException e) {
             throw new IOException("Fatal error in the parser", e);
@@ -255,6 +276,35 @@ public class Loader
 
     // ------------------------------------------
 
+    /**
+     * Determine once (for the current set of requested fields) which getter
+     * must be used for each column of the output tuple.
+     * This avoids looking up the casts of every field for every line.
+     */
+    private byte[] createColumnTypes() throws IOException, InvalidDissectorException, MissingDissectorsException {
+        columnFields = requestedFields.toArray(new String[requestedFields.size()]);
+        byte[] types = new byte[columnFields.length];
+        for (int column = 0; column < columnFields.length; column++) {
+            String fieldName = columnFields[column];
+            if (fieldName.endsWith(".*")) {
+                types[column] = DataType.MAP;
+                continue;
+            }
+            types[column] = DataType.CHARARRAY;
+            EnumSet<Casts> casts = reader.getParser().getCasts(fieldName);
+            if (casts != null) {
+                if (casts.contains(Casts.LONG)) {
+                    types[column] = DataType.LONG;
+                } else if (casts.contains(Casts.DOUBLE)) {
+                    types[column] = DataType.DOUBLE;
+                }
+            }
+        }
+        return types;
+    }
+
+    // ------------------------------------------
+
     private static final String MULTI_COMMENT = "  -- If you only want a single field replace * with name and change type to chararray";
 
     private String createPigExample() throws IOException {
@@ -338,6 +388,7 @@ public class Loader
         // Note that for this Loader, we don't care about the PigSplit.
         if (newReader instanceof ApacheHttpdLogfileRecordReader) {
             this.reader = (ApacheHttpdLogfileRecordReader) newReader;
+            this.columnTypes = null; // Force determining the column types again for this reader.
         } else {
             throw new IncorrectRecordReaderException();
         }
@@ -371,6 +422,19 @@ public class Loader
             }
             originalRequestedFields = requestedFields;
             requestedFields = prunedRequestedFields;
+            columnTypes = null;
+        }
+
+        // If we received a pushed down predicate the lines that do not match are rejected by the parser.
+        @SuppressWarnings("unchecked")
+        Map<String, List<FieldFilter>> filters = (Map<String, List<FieldFilter>>) getFromUDFContext(PUSHDOWN_PREDICATE);
+        if (filters != null && !filtersApplied) { // Avoid adding the filters twice !!
+            for (Map.Entry<String, List<FieldFilter>> fieldFilters : filters.entrySet()) {
+                for (FieldFilter filter : fieldFilters.getValue()) {
+                    theInputFormat.getRecordReader().addFilter(fieldFilters.getKey(), filter);
+                }
+            }
+            filtersApplied = true;
         }
     }
 
@@ -451,6 +515,57 @@ public class Loader
         return new RequiredFieldResponse(true);
     }
 
+    // ------------------------------------------
+
+    @Override
+    public List<String> getPredicateFields(String location, Job job) {
+        List<String> predicateFields = new ArrayList<>();
+        if (onlyWantListOfFields || isBuildingExample) {
+            return predicateFields;
+        }
+        List<String> fields = originalRequestedFields == null ? requestedFields : originalRequestedFields;
+        for (String fieldName : fields) {
+            if (!fieldName.endsWith(".*")) {
+                predicateFields.add(fieldName);
+            }
+        }
+
+        // The columns in the FILTER are the aliases from the 'AS' in the script (which are in the same order).
+        // Pig returns these as the fields of our schema but the predicate may still contain the aliases.
+        fieldsOfAliases.clear();
+        try {
+            Schema scriptSchema = Utils.getScriptSchema(theUDFContextSignature, job.getConfiguration());
+            if (scriptSchema != null) {
+                for (int i = 0; i < Math.min(scriptSchema.size(), fields.size()); i++) {
+                    String alias = scriptSchema.getField(i).alias;
+                    if (alias != null && predicateFields.contains(fields.get(i))) {
+                        fieldsOfAliases.put(alias, fields.get(i));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to determine the aliases of the fields: {}", e.getMessage());
+        }
+        return predicateFields;
+    }
+
+    @Override
+    public List<Expression.OpType> getSupportedExpressionTypes() {
+        return PushdownPredicates.SUPPORTED_EXPRESSION_TYPES;
+    }
+
+    @Override
+    public void setPushdownPredicate(Expression predicate) {
+        // Pig still applies the full predicate itself so only the easy parts need to be converted.
+        Map<String, List<FieldFilter>> filters = PushdownPredicates.toFilters(predicate, fieldsOfAliases);
+        LOG.info("Pushed down predicate {} results in the filters {}", predicate, filters);
+        if (!filters.isEmpty()) {
+            storeInUDFContext(PUSHDOWN_PREDICATE, filters);
+        }
+    }
+
+    // ------------------------------------------
+
     private String theUDFContextSignature;
     @Override
     public void setUDFContextSignature(String signature) {
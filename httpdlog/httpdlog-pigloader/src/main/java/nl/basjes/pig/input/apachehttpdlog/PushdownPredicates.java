@@ -0,0 +1,245 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.pig.input.apachehttpdlog;
+
+import nl.basjes.parse.core.FieldFilter;
+import nl.basjes.parse.core.FieldFilters;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.pig.Expression;
+import org.apache.pig.Expression.BetweenExpression;
+import org.apache.pig.Expression.BinaryExpression;
+import org.apache.pig.Expression.Column;
+import org.apache.pig.Expression.Const;
+import org.apache.pig.Expression.InExpression;
+import org.apache.pig.Expression.OpType;
+import org.apache.pig.Expression.UnaryExpression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Converts the predicate that Pig pushes down into the filters of the parser.
+ * Only the parts of the predicate that are a test on a single field are converted.
+ * Pig still applies the full predicate so the filters only need to reject lines that are
+ * guaranteed not to pass that predicate.
+ */
+final class PushdownPredicates {
+
+    static final List<OpType> SUPPORTED_EXPRESSION_TYPES = Arrays.asList(
+        OpType.OP_EQ,
+        OpType.OP_NE,
+        OpType.OP_GT,
+        OpType.OP_GE,
+        OpType.OP_LT,
+        OpType.OP_LE,
+        OpType.OP_IN,
+        OpType.OP_BETWEEN,
+        OpType.OP_NULL,
+        OpType.OP_NOT,
+        OpType.OP_AND,
+        OpType.OP_OR);
+
+    private PushdownPredicates() {
+    }
+
+    /**
+     * @param expression The predicate as pushed down by Pig.
+     * @return The filters per field (the fields are the column names in the expression).
+     */
+    static Map<String, List<FieldFilter>> toFilters(Expression expression) {
+        return toFilters(expression, Collections.emptyMap());
+    }
+
+    /**
+     * @param expression The predicate as pushed down by Pig.
+     * @param fieldsOfAliases The field of each column name in the expression that is an alias.
+     * @return The filters per field.
+     */
+    static Map<String, List<FieldFilter>> toFilters(Expression expression, Map<String, String> fieldsOfAliases) {
+        renameColumns(expression, fieldsOfAliases);
+        Map<String, List<FieldFilter>> filters = new TreeMap<>();
+        addConjuncts(expression, filters);
+        return filters;
+    }
+
+    private static void renameColumns(Expression expression, Map<String, String> fieldsOfAliases) {
+        if (expression instanceof Column) {
+            Column column = (Column) expression;
+            String field = fieldsOfAliases.get(column.getName());
+            if (field != null) {
+                column.setName(field);
+            }
+        } else if (expression instanceof BinaryExpression) {
+            renameColumns(((BinaryExpression) expression).getLhs(), fieldsOfAliases);
+            renameColumns(((BinaryExpression) expression).getRhs(), fieldsOfAliases);
+        } else if (expression instanceof UnaryExpression) {
+            renameColumns(((UnaryExpression) expression).getExpression(), fieldsOfAliases);
+        }
+    }
+
+    private static void addConjuncts(Expression expression, Map<String, List<FieldFilter>> filters) {
+        if (expression == null) {
+            return;
+        }
+        if (expression.getOpType() == OpType.OP_AND && expression instanceof BinaryExpression) {
+            // Each side of an AND can be used separately (even if they are about different fields).
+            addConjuncts(((BinaryExpression) expression).getLhs(), filters);
+            addConjuncts(((BinaryExpression) expression).getRhs(), filters);
+            return;
+        }
+        Pair<String, FieldFilter> filter = toFilter(expression);
+        if (filter != null) {
+            filters.computeIfAbsent(filter.getLeft(), f -> new ArrayList<>()).add(filter.getRight());
+        }
+    }
+
+    /**
+     * @return The field and the filter or null if this is not (supported) test on a single field.
+     */
+    private static Pair<String, FieldFilter> toFilter(Expression expression) {
+        switch (expression.getOpType()) {
+            case OP_NOT:
+                if (expression instanceof UnaryExpression) {
+                    Pair<String, FieldFilter> inner = toFilter(((UnaryExpression) expression).getExpression());
+                    if (inner != null) {
+                        return Pair.of(inner.getLeft(), FieldFilters.not(inner.getRight()));
+                    }
+                }
+                return null;
+
+            case OP_NULL:
+                if (expression instanceof UnaryExpression &&
+                    ((UnaryExpression) expression).getExpression() instanceof Column) {
+                    return Pair.of(((Column) ((UnaryExpression) expression).getExpression()).getName(),
+                        FieldFilters.isNull());
+                }
+                return null;
+
+            case OP_AND:
+            case OP_OR:
+                return combine(expression);
+
+            case OP_EQ:
+            case OP_NE:
+            case OP_GT:
+            case OP_GE:
+            case OP_LT:
+            case OP_LE:
+            case OP_IN:
+            case OP_BETWEEN:
+                return compare(expression);
+
+            default:
+                return null;
+        }
+    }
+
+    private static Pair<String, FieldFilter> combine(Expression expression) {
+        if (!(expression instanceof BinaryExpression)) {
+            return null;
+        }
+        Pair<String, FieldFilter> lhs = toFilter(((BinaryExpression) expression).getLhs());
+        Pair<String, FieldFilter> rhs = toFilter(((BinaryExpression) expression).getRhs());
+        if (lhs == null || rhs == null || !lhs.getLeft().equals(rhs.getLeft())) {
+            return null; // Only combinations on the same field can be a single filter.
+        }
+        List<FieldFilter> both = Arrays.asList(lhs.getRight(), rhs.getRight());
+        return Pair.of(lhs.getLeft(),
+            expression.getOpType() == OpType.OP_AND ? FieldFilters.and(both) : FieldFilters.or(both));
+    }
+
+    private static Pair<String, FieldFilter> compare(Expression expression) {
+        if (!(expression instanceof BinaryExpression)) {
+            return null;
+        }
+        Expression lhs = ((BinaryExpression) expression).getLhs();
+        Expression rhs = ((BinaryExpression) expression).getRhs();
+        OpType opType = expression.getOpType();
+
+        if (lhs instanceof Const && rhs instanceof Column) {
+            // Normalize "constant op column" into "column op constant"
+            Expression swap = lhs;
+            lhs = rhs;
+            rhs = swap;
+            opType = mirror(opType);
+        }
+        if (!(lhs instanceof Column)) {
+            return null;
+        }
+        String field = ((Column) lhs).getName();
+
+        if (opType == OpType.OP_IN) {
+            if (!(rhs instanceof InExpression)) {
+                return null;
+            }
+            Collection<Object> values = ((InExpression) rhs).getValues();
+            for (Object value : values) {
+                if (!FieldFilters.isSupportedConstant(value)) {
+                    return null;
+                }
+            }
+            return Pair.of(field, FieldFilters.in(values));
+        }
+
+        if (opType == OpType.OP_BETWEEN) {
+            if (!(rhs instanceof BetweenExpression)) {
+                return null;
+            }
+            Object lower = ((BetweenExpression) rhs).getLower();
+            Object upper = ((BetweenExpression) rhs).getUpper();
+            if (!FieldFilters.isSupportedConstant(lower) || !FieldFilters.isSupportedConstant(upper)) {
+                return null;
+            }
+            return Pair.of(field, FieldFilters.between(lower, upper));
+        }
+
+        if (!(rhs instanceof Const)) {
+            return null;
+        }
+        Object constant = ((Const) rhs).getValue();
+        if (!FieldFilters.isSupportedConstant(constant)) {
+            return null;
+        }
+
+        switch (opType) {
+            case OP_EQ: return Pair.of(field, FieldFilters.equalTo(constant));
+            case OP_NE: return Pair.of(field, FieldFilters.notEqualTo(constant));
+            case OP_GT: return Pair.of(field, FieldFilters.greaterThan(constant));
+            case OP_GE: return Pair.of(field, FieldFilters.greaterOrEqual(constant));
+            case OP_LT: return Pair.of(field, FieldFilters.lessThan(constant));
+            case OP_LE: return Pair.of(field, FieldFilters.lessOrEqual(constant));
+            default:    return null;
+        }
+    }
+
+    private static OpType mirror(OpType opType) {
+        switch (opType) {
+            case OP_GT: return OpType.OP_LT;
+            case OP_GE: return OpType.OP_LE;
+            case OP_LT: return OpType.OP_GT;
+            case OP_LE: return OpType.OP_GE;
+            default:    return opType;
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.pig.input.apachehttpdlog;
+
+import nl.basjes.parse.core.FieldFilter;
+import nl.basjes.parse.core.Value;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.ExecType;
+import org.apache.pig.Expression;
+import org.apache.pig.Expression.BinaryExpression;
+import org.apache.pig.Expression.Column;
+import org.apache.pig.Expression.Const;
+import org.apache.pig.Expression.OpType;
+import org.apache.pig.Expression.UnaryExpression;
+import org.apache.pig.PigServer;
+import org.apache.pig.builtin.mock.Storage;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.util.ObjectSerializer;
+import org.apache.pig.impl.util.UDFContext;
+import org.apache.pig.impl.util.Utils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.pig.builtin.mock.Storage.resetData;
+import static org.apache.pig.builtin.mock.Storage.tuple;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestPredicatePushdown {
+
+    private static final String PATH   = "HTTP.PATH:request.firstline.uri.path";
+    private static final String STATUS = "STRING:request.status.last";
+    private static final String BYTES  = "BYTES:response.body.bytesclf";
+
+    @Test
+    public void testFilteredLoad() throws Exception {
+        PigServer pigServer = new PigServer(ExecType.LOCAL);
+        Storage.Data data = resetData(pigServer);
+        pigServer.registerQuery(
+            "Clicks = " +
+            "    LOAD '" + getClass().getResource("/access.log").toString() + "' " +
+            "    USING nl.basjes.pig.input.apachehttpdlog.Loader(" +
+            "            '%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"'," +
+            "            '" + PATH + "'," +
+            "            '" + STATUS + "'" +
+            "            )" +
+            "         AS (" +
+            "            path:chararray," +
+            "            status:chararray" +
+            "            );"
+        );
+        pigServer.registerQuery("Filtered = FILTER Clicks BY status == '200' AND path == '/1-500e-KWh';");
+        pigServer.registerQuery("STORE Filtered INTO 'Filtered' USING mock.Storage();");
+
+        List<Tuple> out = data.get("Filtered");
+        assertEquals(1, out.size());
+        assertEquals(tuple("/1-500e-KWh", "200"), out.get(0));
+    }
+
+    @Test
+    public void testAliasedPredicate() throws Exception {
+        String signature = "testAliasedPredicate";
+        Configuration conf = new Configuration();
+        conf.set(Utils.getScriptSchemaKey(signature),
+            ObjectSerializer.serialize(Utils.getSchemaFromString("path:chararray, status:chararray")));
+
+        Loader loader = new Loader("common", PATH, STATUS);
+        loader.setUDFContextSignature(signature);
+        assertEquals(Arrays.asList(PATH, STATUS), loader.getPredicateFields("access.log", Job.getInstance(conf)));
+
+        // FILTER Clicks BY status == '200' AND NOT (path IS NULL)
+        loader.setPushdownPredicate(
+            new BinaryExpression(
+                new BinaryExpression(new Column("status"), new Const("200"), OpType.OP_EQ),
+                new UnaryExpression(new UnaryExpression(new Column("path"), OpType.OP_NULL), OpType.OP_NOT),
+                OpType.OP_AND));
+
+        @SuppressWarnings("unchecked")
+        Map<String, List<FieldFilter>> filters = (Map<String, List<FieldFilter>>) UDFContext.getUDFContext()
+            .getUDFProperties(Loader.class, new String[]{signature}).get(Loader.PUSHDOWN_PREDICATE);
+        assertEquals(2, filters.size());
+        assertTrue(accepts(filters, STATUS, new Value("200")));
+        assertFalse(accepts(filters, STATUS, new Value("404")));
+        assertTrue(accepts(filters, PATH, new Value("/index.html")));
+        assertFalse(accepts(filters, PATH, new Value((String) null)));
+    }
+
+    private boolean accepts(Map<String, List<FieldFilter>> filters, String field, Value value) {
+        for (FieldFilter filter : filters.get(field)) {
+            if (!filter.accept(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void testConversion() {
+        // status == '500' AND (bytes > 1000 OR bytes IS NULL) AND (path == '/foo' OR status == '404')
+        Expression expression =
+            new BinaryExpression(
+                new BinaryExpression(
+                    new BinaryExpression(new Column(STATUS), new Const("500"), OpType.OP_EQ),
+                    new BinaryExpression(
+                        new BinaryExpression(new Const(1000L), new Column(BYTES), OpType.OP_LT),
+                        new UnaryExpression(new Column(BYTES), OpType.OP_NULL),
+                        OpType.OP_OR),
+                    OpType.OP_AND),
+                new BinaryExpression(
+                    new BinaryExpression(new Column(PATH), new Const("/foo"), OpType.OP_EQ),
+                    new BinaryExpression(new Column(STATUS), new Const("404"), OpType.OP_EQ),
+                    OpType.OP_OR),
+                OpType.OP_AND);
+
+        Map<String, List<FieldFilter>> filters = PushdownPredicates.toFilters(expression);
+
+        // The OR over two different fields cannot be used.
+        assertEquals(2, filters.size());
+        assertEquals(1, filters.get(STATUS).size());
+        assertEquals(1, filters.get(BYTES).size());
+
+        assertTrue(accepts(filters, STATUS, new Value("500")));
+        assertFalse(accepts(filters, STATUS, new Value("200")));
+
+        assertTrue(accepts(filters, BYTES, new Value(1001L)));
+        assertTrue(accepts(filters, BYTES, new Value((Long) null)));
+        assertFalse(accepts(filters, BYTES, new Value(1000L)));
+    }
+
+    @Test
+    public void testUnsupported() {
+        // A comparison between two columns cannot be pushed down
+        Expression expression = new UnaryExpression(
+            new BinaryExpression(new Column(STATUS), new Column(PATH), OpType.OP_EQ), OpType.OP_NOT);
+        assertTrue(PushdownPredicates.toFilters(expression).isEmpty());
+    }
+
+}
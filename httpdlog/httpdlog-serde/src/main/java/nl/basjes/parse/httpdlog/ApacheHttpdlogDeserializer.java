@@ -18,15 +18,20 @@
 package nl.basjes.parse.httpdlog;
 
 import nl.basjes.hadoop.input.ParsedRecord;
+import nl.basjes.hadoop.input.ParsedRecordSchema;
+import nl.basjes.hadoop.input.ParserCache;
 import nl.basjes.parse.core.Casts;
 import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.FieldFilter;
 import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.Value;
 import nl.basjes.parse.core.exceptions.DissectionFailure;
 import nl.basjes.parse.core.exceptions.InvalidDissectorException;
 import nl.basjes.parse.core.exceptions.MissingDissectorsException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde.serdeConstants;
 import org.apache.hadoop.hive.serde2.AbstractDeserializer;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeStats;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
@@ -39,12 +44,14 @@ import org.apache.hadoop.io.Writable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -103,7 +110,7 @@ import static org.apache.hadoop.hive.serde.serdeConstants.STRING_TYPE_NAME;
 //})
 public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
     private static final Logger      LOG = LoggerFactory.getLogger(ApacheHttpdlogDeserializer.class);
-    private static final String      FIELD = "field:";
+    static final String              FIELD = "field:";
 
     private static final String      MAP_FIELD = "map:";
     private static final int         MAP_FIELD_LENGTH = MAP_FIELD.length();
@@ -129,6 +136,7 @@ public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
         private int    index;
         private Casts  casts;
         private String fieldValue;
+        private int    id;
     }
 
     private final List<ColumnToGetterMapping> columnToGetterMappings = new ArrayList<>();
@@ -143,9 +151,124 @@ public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
 
         String logformat = props.getProperty("logformat");
 
-        Map<String, Set<String>> typeRemappings = new HashMap<>();
-        List<Dissector> additionalDissectors = new ArrayList<>();
+        Map<String, Set<String>> typeRemappings = getTypeRemappings(props);
+        List<Dissector> additionalDissectors = getAdditionalDissectors(props);
+
+
+//        List<String>            fieldList;
+        int                     numColumns;
+
+        String columnNameProperty  = props.getProperty(serdeConstants.LIST_COLUMNS);
+        String columnTypeProperty  = props.getProperty(serdeConstants.LIST_COLUMN_TYPES);
+        List<String> columnNames   = Arrays.asList(columnNameProperty.split(","));
+        List<TypeInfo> columnTypes = TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty);
+        assert columnNames.size() == columnTypes.size();
+        numColumns = columnNames.size();
 
+        List<ObjectInspector> columnOIs = new ArrayList<>(columnNames.size());
+        List<String> parseTargets = new ArrayList<>(numColumns);
+
+        // Only the columns that are actually read by the query are parsed (the others remain null).
+        Set<Integer> readColumnIds = null;
+        if (conf != null && !ColumnProjectionUtils.isReadAllColumns(conf)) {
+            readColumnIds = new HashSet<>(ColumnProjectionUtils.getReadColumnIDs(conf));
+            LOG.info("Only reading columns {}", readColumnIds);
+        }
+        ColumnToGetterMapping firstSkippedColumn = null;
+
+        for (int columnNr = 0; columnNr < numColumns; columnNr++) {
+            columnOIs.add(TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(columnTypes.get(columnNr)));
+            String columnName = columnNames.get(columnNr);
+            TypeInfo columnType = columnTypes.get(columnNr);
+
+            String fieldValue = getFieldValue(props, columnName);
+
+            if (fieldValue == null) {
+                LOG.error("MUST have Field value for column \"{}\".", columnName);
+                usable = false;
+                continue;
+            }
+
+            ColumnToGetterMapping ctgm = new ColumnToGetterMapping();
+            ctgm.index      = columnNr;
+            ctgm.fieldValue = fieldValue;
+
+            ctgm.casts = getCasts(columnType);
+            if (ctgm.casts == null) {
+                LOG.error("Requested column type {} is not supported at this time.", columnType.getTypeName());
+                usable = false;
+                continue;
+            }
+            if (readColumnIds != null && !readColumnIds.contains(columnNr)) {
+                if (firstSkippedColumn == null) {
+                    firstSkippedColumn = ctgm;
+                }
+                continue;
+            }
+            columnToGetterMappings.add(ctgm);
+            parseTargets.add(ctgm.casts.name() + '=' + fieldValue);
+        }
+
+        // If no columns are read at all (i.e. SELECT count(*)) we still parse one
+        // so bad lines are still recognized as such.
+        if (columnToGetterMappings.isEmpty() && firstSkippedColumn != null) {
+            columnToGetterMappings.add(firstSkippedColumn);
+            parseTargets.add(firstSkippedColumn.casts.name() + '=' + firstSkippedColumn.fieldValue);
+        }
+
+        // The values of the columns are stored in (and retrieved from) fixed slots in the record.
+        // The parser calls the setters with the cleaned up name of the field.
+        List<String> layout = new ArrayList<>(columnToGetterMappings.size());
+        for (ColumnToGetterMapping ctgm : columnToGetterMappings) {
+            layout.add(Parser.cleanupFieldValue(ctgm.fieldValue));
+        }
+        currentValue = new ParsedRecord(new ParsedRecordSchema(layout));
+        for (ColumnToGetterMapping ctgm : columnToGetterMappings) {
+            ctgm.id = currentValue.getFieldId(Parser.cleanupFieldValue(ctgm.fieldValue));
+        }
+
+        // A line that is rejected by a filter is returned as null which Hive may still see as a row
+        // with all columns null. So we only use the filters that also reject a null value.
+        Map<String, List<FieldFilter>> filters = SearchArgumentFilters.getFilters(conf, props);
+        for (Iterator<Map.Entry<String, List<FieldFilter>>> it = filters.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, List<FieldFilter>> entry = it.next();
+            entry.getValue().removeIf(filter -> filter.accept(new Value((String) null)));
+            if (entry.getValue().isEmpty()) {
+                it.remove();
+            }
+        }
+
+        if (usable) {
+            // With JVM reuse (and LLAP) the same table is read many times so we reuse the assembled parser.
+            ParserCache.Key key = new ParserCache.Key(getClass(), logformat)
+                .withTargets(parseTargets)
+                .withTypeRemappings(typeRemappings)
+                .withAdditionalDissectors(additionalDissectors)
+                .withFilters(filters);
+            try {
+                parser = ParserCache.getParser(key, () -> createParser(logformat, typeRemappings, additionalDissectors, filters));
+            } catch (IOException e) {
+                throw new SerDeException("(Should not occur) Caught exception: {}", e);
+            }
+        }
+
+        // StandardStruct uses ArrayList to store the row.
+        rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(columnNames, columnOIs);
+
+        // Constructing the row object, etc, which will be reused for all rows.
+        row = new ArrayList<>(numColumns);
+        for (int c = 0; c < numColumns; c++) {
+            row.add(null);
+        }
+
+        if (!usable) {
+            throw new SerDeException("Fatal config error. Check the logged error messages why.");
+        }
+
+    }
+
+    static Map<String, Set<String>> getTypeRemappings(Properties props) {
+        Map<String, Set<String>> typeRemappings = new HashMap<>();
         for (Map.Entry<Object, Object> property: props.entrySet()){
             String key = (String)property.getKey();
 
@@ -156,8 +279,15 @@ public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
                 Set<String> remapping = typeRemappings.computeIfAbsent(mapField, k -> new HashSet<>());
                 remapping.add(mapType);
                 LOG.info("Add mapping for field \"{}\" to type \"{}\"", mapField, mapType);
-                continue;
             }
+        }
+        return typeRemappings;
+    }
+
+    static List<Dissector> getAdditionalDissectors(Properties props) throws SerDeException {
+        List<Dissector> additionalDissectors = new ArrayList<>();
+        for (Map.Entry<Object, Object> property: props.entrySet()){
+            String key = (String)property.getKey();
 
             if (key.startsWith(LOAD_DISSECTOR)) {
                 String dissectorClassName = key.substring(LOAD_DISSECTOR_LENGTH);
@@ -185,84 +315,64 @@ public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
                 LOG.debug("Loaded additional dissector: {}(\"{}\")", dissectorClassName, dissectorParam);
             }
         }
+        return additionalDissectors;
+    }
 
-        currentValue = new ParsedRecord();
-
-
-//        List<String>            fieldList;
-        int                     numColumns;
-
-        String columnNameProperty  = props.getProperty(serdeConstants.LIST_COLUMNS);
-        String columnTypeProperty  = props.getProperty(serdeConstants.LIST_COLUMN_TYPES);
-        List<String> columnNames   = Arrays.asList(columnNameProperty.split(","));
-        List<TypeInfo> columnTypes = TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty);
-        assert columnNames.size() == columnTypes.size();
-        numColumns = columnNames.size();
+    /**
+     * @return The field that must be put in the specified column (null if not specified).
+     */
+    static String getFieldValue(Properties props, String columnName) {
+        return props.getProperty(FIELD + columnName);
+    }
 
-        parser = new HttpdLoglineParser<>(ParsedRecord.class, logformat);
-        parser.setTypeRemappings(typeRemappings)
-              .addDissectors(additionalDissectors);
+    /**
+     * @return The cast needed for the column type, null if the column type is not supported.
+     */
+    static Casts getCasts(TypeInfo columnType) {
+        switch (columnType.getTypeName()) {
+            case STRING_TYPE_NAME:
+                return STRING;
+            case BIGINT_TYPE_NAME:
+                return LONG;
+            case DOUBLE_TYPE_NAME:
+                return DOUBLE;
+            default:
+                return null;
+        }
+    }
 
-        List<ObjectInspector> columnOIs = new ArrayList<>(columnNames.size());
+    private Parser<ParsedRecord> createParser(String logformat,
+                                              Map<String, Set<String>> typeRemappings,
+                                              List<Dissector> additionalDissectors,
+                                              Map<String, List<FieldFilter>> filters) throws IOException {
+        Parser<ParsedRecord> newParser = new HttpdLoglineParser<>(ParsedRecord.class, logformat);
+        newParser.setTypeRemappings(typeRemappings)
+                 .addDissectors(additionalDissectors);
+        filters.forEach((field, fieldFilters) -> fieldFilters.forEach(filter -> newParser.addFilter(field, filter)));
 
         try {
-            for (int columnNr = 0; columnNr < numColumns; columnNr++) {
-                columnOIs.add(TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(columnTypes.get(columnNr)));
-                String columnName = columnNames.get(columnNr);
-                TypeInfo columnType = columnTypes.get(columnNr);
-
-                String fieldValue = props.getProperty(FIELD + columnName);
-
-                if (fieldValue == null) {
-                    LOG.error("MUST have Field value for column \"{}\".", columnName);
-                    usable = false;
-                    continue;
-                }
-
-                ColumnToGetterMapping ctgm = new ColumnToGetterMapping();
-                ctgm.index      = columnNr;
-                ctgm.fieldValue = fieldValue;
-
-                List<String> singleFieldValue= new ArrayList<>();
-                singleFieldValue.add(fieldValue);
-                switch (columnType.getTypeName()) {
-                    case STRING_TYPE_NAME:
-                        ctgm.casts = STRING;
-                        parser.addParseTarget(ParsedRecord.class.getMethod("set", String.class, String.class), singleFieldValue);
+            for (ColumnToGetterMapping ctgm : columnToGetterMappings) {
+                List<String> singleFieldValue = new ArrayList<>();
+                singleFieldValue.add(ctgm.fieldValue);
+                switch (ctgm.casts) {
+                    case STRING:
+                        newParser.addParseTarget(ParsedRecord.class.getMethod("set", String.class, String.class), singleFieldValue);
                         break;
-                    case BIGINT_TYPE_NAME:
-                        ctgm.casts = LONG;
-                        parser.addParseTarget(ParsedRecord.class.getMethod("set", String.class, Long.class), singleFieldValue);
+                    case LONG:
+                        newParser.addParseTarget(ParsedRecord.class.getMethod("set", String.class, Long.class), singleFieldValue);
                         break;
-                    case DOUBLE_TYPE_NAME:
-                        ctgm.casts = DOUBLE;
-                        parser.addParseTarget(ParsedRecord.class.getMethod("set", String.class, Double.class), singleFieldValue);
+                    case DOUBLE:
+                        newParser.addParseTarget(ParsedRecord.class.getMethod("set", String.class, Double.class), singleFieldValue);
                         break;
                     default:
-                        LOG.error("Requested column type {} is not supported at this time.", columnType.getTypeName());
-                        usable = false;
-                        break;
+                        // Do nothing
                 }
-                columnToGetterMappings.add(ctgm);
             }
         } catch (NoSuchMethodException
                 |SecurityException e) {
-            throw new SerDeException("(Should not occur) Caught exception: {}", e);
+            throw new IOException(e.toString());
         }
-
-        // StandardStruct uses ArrayList to store the row.
-        rowOI = ObjectInspectorFactory.getStandardStructObjectInspector(columnNames, columnOIs);
-
-        // Constructing the row object, etc, which will be reused for all rows.
-        row = new ArrayList<>(numColumns);
-        for (int c = 0; c < numColumns; c++) {
-            row.add(null);
-        }
-
-        if (!usable) {
-            throw new SerDeException("Fatal config error. Check the logged error messages why.");
-        }
-
+        return newParser;
     }
 
     @Override
@@ -280,7 +390,9 @@ public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
 
         try {
             currentValue.clear();
-            parser.parse(currentValue, writable.toString());
+            if (parser.parse(currentValue, writable.toString()) == null) {
+                return null; // Rejected by a pushed down filter so Hive would have dropped it anyway.
+            }
         } catch (DissectionFailure dissectionFailure) {
             linesBad++;
             if (linesInput >= MINIMAL_FAIL_LINES) {
@@ -296,15 +408,15 @@ public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
         for (ColumnToGetterMapping ctgm: columnToGetterMappings) {
             switch(ctgm.casts) {
                 case STRING:
-                    String currentValueString = currentValue.getString(ctgm.fieldValue);
+                    String currentValueString = currentValue.getString(ctgm.id);
                     row.set(ctgm.index, currentValueString);
                     break;
                 case LONG:
-                    Long currentValueLong = currentValue.getLong(ctgm.fieldValue);
+                    Long currentValueLong = currentValue.getLong(ctgm.id);
                     row.set(ctgm.index, currentValueLong);
                     break;
                 case DOUBLE:
-                    Double currentValueDouble = currentValue.getDouble(ctgm.fieldValue);
+                    Double currentValueDouble = currentValue.getDouble(ctgm.id);
                     row.set(ctgm.index, currentValueDouble);
                     break;
                 default:
@@ -0,0 +1,60 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedInputFormatInterface;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextInputFormat;
+
+import java.io.IOException;
+
+/**
+ * A TextInputFormat that allows Hive to read the logfiles in vectorized mode.
+ * If Hive runs the query vectorized the lines are parsed straight into the column vectors
+ * (see {@link ApacheHttpdlogVectorizedRecordReader}) else the lines are handed to the
+ * {@link ApacheHttpdlogDeserializer} one at a time.
+ * <pre>
+ * ROW FORMAT SERDE 'nl.basjes.parse.httpdlog.ApacheHttpdlogDeserializer'
+ * WITH SERDEPROPERTIES ( ... )
+ * STORED AS
+ *   INPUTFORMAT  'nl.basjes.parse.httpdlog.ApacheHttpdlogInputFormat'
+ *   OUTPUTFORMAT 'org.apache.hadoop.hive.ql.io.HiveIgnoreKeyTextOutputFormat'
+ * </pre>
+ */
+public class ApacheHttpdlogInputFormat extends TextInputFormat implements VectorizedInputFormatInterface {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public RecordReader<LongWritable, Text> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+        throws IOException {
+        if (!Utilities.getUseVectorizedInputFileFormat(job)) {
+            return super.getRecordReader(split, job, reporter);
+        }
+        reporter.setStatus(split.toString());
+        // Hive uses the reader as a RecordReader<NullWritable, VectorizedRowBatch> in vectorized mode.
+        return (RecordReader<LongWritable, Text>) (RecordReader<?, ?>)
+            new ApacheHttpdlogVectorizedRecordReader(job, (FileSplit) split);
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import nl.basjes.hadoop.input.ParserCache;
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.FieldFilter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.hive.ql.io.HiveFileFormatUtils;
+import org.apache.hadoop.hive.ql.plan.MapWork;
+import org.apache.hadoop.hive.ql.plan.PartitionDesc;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.LineRecordReader;
+import org.apache.hadoop.mapred.RecordReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * Reads the loglines and fills the column vectors of a {@link VectorizedRowBatch} directly from the parser.
+ * Only the columns that are needed by the query are parsed.
+ * The configuration (logformat, fields, type remappings and additional dissectors) is the same
+ * as the SERDEPROPERTIES of the {@link ApacheHttpdlogDeserializer}.
+ */
+public class ApacheHttpdlogVectorizedRecordReader implements RecordReader<NullWritable, VectorizedRowBatch> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApacheHttpdlogVectorizedRecordReader.class);
+
+    // We do not want the parsing to fail immediately when we hit a single 'bad' line.
+    // So we count the good and bad lines.
+    // If we see more than 1% bad lines we abort (after we have seen 1000 lines)
+    private static final long    MINIMAL_FAIL_LINES      = 1000;
+    private static final int     MINIMAL_FAIL_PERCENTAGE =    1;
+    private long    linesInput  = 0;
+    private long    linesBad    = 0;
+
+    private final LineRecordReader          lineReader;
+    private final LongWritable              lineKey;
+    private final Text                      lineValue;
+
+    private final VectorizedRowBatchCtx     rbCtx;
+    private final boolean[]                 includedColumns;
+    private final Object[]                  partitionValues;
+
+    private final Parser<VectorizedRowBatchRecord> parser;
+    private final VectorizedRowBatchRecord         record;
+
+    public ApacheHttpdlogVectorizedRecordReader(JobConf job, FileSplit split) throws IOException {
+        this(job, split, Utilities.getVectorizedRowBatchCtx(job), getPartitionProperties(job, split));
+    }
+
+    ApacheHttpdlogVectorizedRecordReader(JobConf job, FileSplit split, VectorizedRowBatchCtx rbCtx, Properties props)
+        throws IOException {
+        this.rbCtx = rbCtx;
+        includedColumns = getIncludedColumns(job, rbCtx);
+
+        partitionValues = new Object[rbCtx.getPartitionColumnCount()];
+        if (partitionValues.length > 0) {
+            VectorizedRowBatchCtx.getPartitionValues(rbCtx, job, split, partitionValues);
+        }
+
+        String logformat = props.getProperty("logformat");
+        Map<String, Set<String>> typeRemappings = ApacheHttpdlogDeserializer.getTypeRemappings(props);
+        List<Dissector> additionalDissectors;
+        try {
+            additionalDissectors = ApacheHttpdlogDeserializer.getAdditionalDissectors(props);
+        } catch (SerDeException e) {
+            throw new IOException(e);
+        }
+
+        String[]   columnNames = rbCtx.getRowColumnNames();
+        TypeInfo[] columnTypes = rbCtx.getRowColumnTypeInfos();
+
+        Map<Casts, Map<String, List<Integer>>> fieldColumns = new HashMap<>();
+        List<Integer> columns = new ArrayList<>();
+        for (int columnNr = 0; columnNr < rbCtx.getDataColumnCount(); columnNr++) {
+            if (includedColumns != null &&
+                (columnNr >= includedColumns.length || !includedColumns[columnNr])) {
+                continue; // Not needed by the query
+            }
+            String columnName = columnNames[columnNr];
+            String fieldValue = ApacheHttpdlogDeserializer.getFieldValue(props, columnName);
+            if (fieldValue == null) {
+                throw new IOException("MUST have Field value for column \"" + columnName + "\".");
+            }
+            Casts casts = ApacheHttpdlogDeserializer.getCasts(columnTypes[columnNr]);
+            if (casts == null) {
+                throw new IOException("Requested column type " + columnTypes[columnNr].getTypeName() +
+                    " is not supported at this time.");
+            }
+            fieldColumns
+                .computeIfAbsent(casts, c -> new HashMap<>())
+                .computeIfAbsent(Parser.cleanupFieldValue(fieldValue), f -> new ArrayList<>())
+                .add(columnNr);
+            columns.add(columnNr);
+        }
+
+        List<String> parseTargets = new ArrayList<>();
+        for (Map.Entry<Casts, Map<String, List<Integer>>> castsFields : fieldColumns.entrySet()) {
+            for (String field : castsFields.getValue().keySet()) {
+                parseTargets.add(castsFields.getKey().name() + '=' + field);
+            }
+        }
+
+        // A line that is rejected by a filter is simply not added to the batch.
+        Map<String, List<FieldFilter>> filters = SearchArgumentFilters.getFilters(job, props);
+
+        // With JVM reuse (and LLAP) the same table is read many times so we reuse the assembled parser.
+        ParserCache.Key key = new ParserCache.Key(getClass(), logformat)
+            .withTargets(parseTargets)
+            .withTypeRemappings(typeRemappings)
+            .withAdditionalDissectors(additionalDissectors)
+            .withFilters(filters);
+        parser = ParserCache.getParser(key,
+            () -> createParser(logformat, typeRemappings, additionalDissectors, fieldColumns, filters));
+
+        record = new VectorizedRowBatchRecord(
+            toArrays(fieldColumns.get(Casts.STRING)),
+            toArrays(fieldColumns.get(Casts.LONG)),
+            toArrays(fieldColumns.get(Casts.DOUBLE)),
+            columns.stream().mapToInt(Integer::intValue).toArray());
+
+        String delimiter = job.get("textinputformat.record.delimiter");
+        byte[] recordDelimiterBytes = null;
+        if (delimiter != null) {
+            recordDelimiterBytes = delimiter.getBytes(StandardCharsets.UTF_8);
+        }
+        lineReader = new LineRecordReader(job, split, recordDelimiterBytes);
+        lineKey = lineReader.createKey();
+        lineValue = lineReader.createValue();
+    }
+
+    private static boolean[] getIncludedColumns(JobConf job, VectorizedRowBatchCtx rbCtx) {
+        if (ColumnProjectionUtils.isReadAllColumns(job)) {
+            return null; // All columns
+        }
+        boolean[] included = new boolean[rbCtx.getDataColumnCount()];
+        boolean any = false;
+        for (int columnId : ColumnProjectionUtils.getReadColumnIDs(job)) {
+            if (columnId < included.length) {
+                included[columnId] = true;
+                any = true;
+            }
+        }
+        // If no columns are read at all (i.e. SELECT count(*)) we still parse one
+        // so bad lines are still recognized as such.
+        if (!any && included.length > 0) {
+            included[0] = true;
+        }
+        return included;
+    }
+
+    private static Properties getPartitionProperties(JobConf job, FileSplit split) throws IOException {
+        MapWork mapWork = Utilities.getMapWork(job);
+        PartitionDesc partitionDesc = HiveFileFormatUtils
+            .getPartitionDescFromPathRecursively(mapWork.getPathToPartitionInfo(), split.getPath(), null);
+        return partitionDesc.getProperties();
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, List<Integer>> fieldColumns) {
+        Map<String, int[]> result = new HashMap<>();
+        if (fieldColumns != null) {
+            for (Map.Entry<String, List<Integer>> entry : fieldColumns.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        return result;
+    }
+
+    private static Parser<VectorizedRowBatchRecord> createParser(String logformat,
+                                                                 Map<String, Set<String>> typeRemappings,
+                                                                 List<Dissector> additionalDissectors,
+                                                                 Map<Casts, Map<String, List<Integer>>> fieldColumns,
+                                                                 Map<String, List<FieldFilter>> filters)
+        throws IOException {
+        Parser<VectorizedRowBatchRecord> newParser =
+            new HttpdLoglineParser<>(VectorizedRowBatchRecord.class, logformat);
+        newParser.setTypeRemappings(typeRemappings)
+                 .addDissectors(additionalDissectors);
+        filters.forEach((field, fieldFilters) -> fieldFilters.forEach(filter -> newParser.addFilter(field, filter)));
+
+        try {
+            for (Map.Entry<Casts, Map<String, List<Integer>>> castsFields : fieldColumns.entrySet()) {
+                Method setter;
+                switch (castsFields.getKey()) {
+                    case LONG:
+                        setter = VectorizedRowBatchRecord.class.getMethod("setLong", String.class, Long.class);
+                        break;
+                    case DOUBLE:
+                        setter = VectorizedRowBatchRecord.class.getMethod("setDouble", String.class, Double.class);
+                        break;
+                    default:
+                        setter = VectorizedRowBatchRecord.class.getMethod("setString", String.class, String.class);
+                        break;
+                }
+                newParser.addParseTarget(setter, NOT_NULL, new ArrayList<>(castsFields.getValue().keySet()));
+            }
+        } catch (NoSuchMethodException
+                |SecurityException e) {
+            throw new IOException(e.toString());
+        }
+        return newParser;
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public boolean next(NullWritable key, VectorizedRowBatch batch) throws IOException {
+        batch.reset();
+        for (int column : record.getColumns()) {
+            if (batch.cols[column] instanceof BytesColumnVector) {
+                ((BytesColumnVector) batch.cols[column]).initBuffer();
+            }
+        }
+        if (partitionValues.length > 0) {
+            rbCtx.addPartitionColsToBatch(batch, partitionValues);
+        }
+
+        int maxSize = batch.getMaxSize();
+        while (batch.size < maxSize && lineReader.next(lineKey, lineValue)) {
+            linesInput++;
+            record.startRow(batch, batch.size);
+            try {
+                if (parser.parse(record, lineValue.toString()) != null) {
+                    batch.size++;
+                }
+                // Else: Rejected by a pushed down filter; the row is reused for the next line.
+            } catch (DissectionFailure dissectionFailure) {
+                linesBad++;
+                if (linesInput >= MINIMAL_FAIL_LINES) {
+                    if (100* linesBad > MINIMAL_FAIL_PERCENTAGE * linesInput){
+                        throw new IOException("To many bad lines: " + linesBad + " of " + linesInput + " are bad.");
+                    }
+                }
+                // The row is reused for the next line.
+            } catch (InvalidDissectorException |MissingDissectorsException e) {
+                throw new IOException("Cannot continue; Fix the Dissectors before retrying", e);
+            }
+        }
+        return batch.size > 0;
+    }
+
+    @Override
+    public NullWritable createKey() {
+        return NullWritable.get();
+    }
+
+    @Override
+    public VectorizedRowBatch createValue() {
+        if (includedColumns == null) {
+            return rbCtx.createVectorizedRowBatch();
+        }
+        return rbCtx.createVectorizedRowBatch(includedColumns);
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return lineReader.getPos();
+    }
+
+    @Override
+    public void close() throws IOException {
+        LOG.info("Lines read: {} (of which {} were bad)", linesInput, linesBad);
+        lineReader.close();
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        return lineReader.getProgress();
+    }
+
+}
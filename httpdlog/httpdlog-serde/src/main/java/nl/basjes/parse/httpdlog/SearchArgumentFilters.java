@@ -0,0 +1,202 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import nl.basjes.parse.core.FieldFilter;
+import nl.basjes.parse.core.FieldFilters;
+import nl.basjes.parse.core.Parser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.io.sarg.ConvertAstToSearchArg;
+import org.apache.hadoop.hive.ql.io.sarg.ExpressionTree;
+import org.apache.hadoop.hive.ql.io.sarg.PredicateLeaf;
+import org.apache.hadoop.hive.ql.io.sarg.SearchArgument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Converts the filter that Hive pushes down (as a {@link SearchArgument}) into the filters of the parser.
+ * Only the parts of the filter that are a test on a single column are converted.
+ * Hive still applies the full filter so the filters only need to reject lines that are
+ * guaranteed not to pass that filter.
+ */
+final class SearchArgumentFilters {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchArgumentFilters.class);
+
+    private SearchArgumentFilters() {
+    }
+
+    /**
+     * @param conf  The configuration that may contain the pushed down filter.
+     * @param props The table properties that contain the field for each column.
+     * @return The filters per field (empty if nothing could be pushed down).
+     */
+    static Map<String, List<FieldFilter>> getFilters(Configuration conf, Properties props) {
+        Map<String, List<FieldFilter>> filters = new TreeMap<>();
+        if (conf == null || !ConvertAstToSearchArg.canCreateFromConf(conf)) {
+            return filters;
+        }
+        SearchArgument sarg;
+        try {
+            sarg = ConvertAstToSearchArg.createFromConf(conf);
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to use the pushed down filter: {}", e.getMessage());
+            return filters;
+        }
+        if (sarg == null) {
+            return filters;
+        }
+        addConjuncts(sarg.getExpression(), sarg.getLeaves(), props, filters);
+        if (!filters.isEmpty()) {
+            LOG.info("Using pushed down filters {}", filters);
+        }
+        return filters;
+    }
+
+    private static void addConjuncts(ExpressionTree expression, List<PredicateLeaf> leaves,
+                                     Properties props, Map<String, List<FieldFilter>> filters) {
+        if (expression == null) {
+            return;
+        }
+        if (expression.getOperator() == ExpressionTree.Operator.AND) {
+            // Each child of an AND can be used separately (even if they are about different columns).
+            for (ExpressionTree child : expression.getChildren()) {
+                addConjuncts(child, leaves, props, filters);
+            }
+            return;
+        }
+        String column = getColumn(expression, leaves);
+        if (column == null) {
+            return;
+        }
+        String fieldValue = getFieldValue(props, column);
+        if (fieldValue == null) {
+            return;
+        }
+        FieldFilter filter = toFilter(expression, leaves);
+        if (filter != null) {
+            filters.computeIfAbsent(Parser.cleanupFieldValue(fieldValue), f -> new ArrayList<>()).add(filter);
+        }
+    }
+
+    /**
+     * @return The field of the column; Hive passes the column names in lowercase.
+     */
+    private static String getFieldValue(Properties props, String column) {
+        String fieldValue = ApacheHttpdlogDeserializer.getFieldValue(props, column);
+        if (fieldValue != null) {
+            return fieldValue;
+        }
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith(ApacheHttpdlogDeserializer.FIELD) &&
+                name.substring(ApacheHttpdlogDeserializer.FIELD.length()).equalsIgnoreCase(column)) {
+                return props.getProperty(name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The only column that is used in this expression, null if there is not exactly one.
+     */
+    private static String getColumn(ExpressionTree expression, List<PredicateLeaf> leaves) {
+        switch (expression.getOperator()) {
+            case LEAF:
+                return leaves.get(expression.getLeaf()).getColumnName();
+            case AND:
+            case OR:
+            case NOT:
+                String column = null;
+                for (ExpressionTree child : expression.getChildren()) {
+                    String childColumn = getColumn(child, leaves);
+                    if (childColumn == null || (column != null && !column.equals(childColumn))) {
+                        return null;
+                    }
+                    column = childColumn;
+                }
+                return column;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return The filter or null if this is not a supported expression.
+     */
+    private static FieldFilter toFilter(ExpressionTree expression, List<PredicateLeaf> leaves) {
+        switch (expression.getOperator()) {
+            case LEAF:
+                return toFilter(leaves.get(expression.getLeaf()));
+            case NOT:
+                FieldFilter inner = toFilter(expression.getChildren().get(0), leaves);
+                return inner == null ? null : FieldFilters.not(inner);
+            case AND:
+            case OR:
+                List<FieldFilter> children = new ArrayList<>();
+                for (ExpressionTree child : expression.getChildren()) {
+                    FieldFilter childFilter = toFilter(child, leaves);
+                    if (childFilter == null) {
+                        return null;
+                    }
+                    children.add(childFilter);
+                }
+                return expression.getOperator() == ExpressionTree.Operator.AND ?
+                    FieldFilters.and(children) :
+                    FieldFilters.or(children);
+            default:
+                return null;
+        }
+    }
+
+    private static FieldFilter toFilter(PredicateLeaf leaf) {
+        switch (leaf.getOperator()) {
+            case IS_NULL:
+                return FieldFilters.isNull();
+            case EQUALS:
+            case NULL_SAFE_EQUALS:
+                return isSupported(leaf.getLiteral()) ? FieldFilters.equalTo(leaf.getLiteral()) : null;
+            case LESS_THAN:
+                return isSupported(leaf.getLiteral()) ? FieldFilters.lessThan(leaf.getLiteral()) : null;
+            case LESS_THAN_EQUALS:
+                return isSupported(leaf.getLiteral()) ? FieldFilters.lessOrEqual(leaf.getLiteral()) : null;
+            case IN:
+                List<Object> literals = leaf.getLiteralList();
+                if (literals == null || literals.isEmpty() || !literals.stream().allMatch(SearchArgumentFilters::isSupported)) {
+                    return null;
+                }
+                return FieldFilters.in(literals);
+            case BETWEEN:
+                List<Object> bounds = leaf.getLiteralList();
+                if (bounds == null || bounds.size() != 2 || !isSupported(bounds.get(0)) || !isSupported(bounds.get(1))) {
+                    return null;
+                }
+                return FieldFilters.between(bounds.get(0), bounds.get(1));
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isSupported(Object literal) {
+        return FieldFilters.isSupportedConstant(literal);
+    }
+
+}
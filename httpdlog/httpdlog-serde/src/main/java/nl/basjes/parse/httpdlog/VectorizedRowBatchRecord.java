@@ -0,0 +1,99 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * The 'record' that is filled by the parser in the vectorized reader.
+ * The values are written directly into the column vectors at the current row of the batch.
+ */
+public class VectorizedRowBatchRecord {
+
+    // Field --> The column numbers in the batch that must receive the value of this field.
+    private final Map<String, int[]> stringColumns;
+    private final Map<String, int[]> longColumns;
+    private final Map<String, int[]> doubleColumns;
+    // All columns that are filled by the parser.
+    private final int[] columns;
+
+    private VectorizedRowBatch batch;
+    private int row;
+
+    VectorizedRowBatchRecord(Map<String, int[]> stringColumns,
+                             Map<String, int[]> longColumns,
+                             Map<String, int[]> doubleColumns,
+                             int[] columns) {
+        this.stringColumns = stringColumns;
+        this.longColumns = longColumns;
+        this.doubleColumns = doubleColumns;
+        this.columns = columns;
+    }
+
+    int[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * Start filling the specified row. All values in this row start as null.
+     */
+    void startRow(VectorizedRowBatch newBatch, int newRow) {
+        batch = newBatch;
+        row = newRow;
+        for (int column : columns) {
+            ColumnVector vector = batch.cols[column];
+            vector.noNulls = false;
+            vector.isNull[row] = true;
+        }
+    }
+
+    // --------------------------------------------
+    // The setters that are called by the parser (null values are never passed).
+
+    public void setString(String name, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        for (int column : stringColumns.get(name)) {
+            BytesColumnVector vector = (BytesColumnVector) batch.cols[column];
+            vector.setVal(row, bytes);
+            vector.isNull[row] = false;
+        }
+    }
+
+    public void setLong(String name, Long value) {
+        for (int column : longColumns.get(name)) {
+            LongColumnVector vector = (LongColumnVector) batch.cols[column];
+            vector.vector[row] = value;
+            vector.isNull[row] = false;
+        }
+    }
+
+    public void setDouble(String name, Double value) {
+        for (int column : doubleColumns.get(name)) {
+            DoubleColumnVector vector = (DoubleColumnVector) batch.cols[column];
+            vector.vector[row] = value;
+            vector.isNull[row] = false;
+        }
+    }
+
+}
@@ -18,14 +18,27 @@
 package nl.basjes.parse.httpdlog;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.SerializationUtilities;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPLessThan;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPNot;
 import org.apache.hadoop.hive.serde.serdeConstants;
 import org.apache.hadoop.hive.serde2.AbstractDeserializer;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 import org.apache.hadoop.io.Text;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -127,7 +140,78 @@ public class TestApacheHttpdlogDeserializer {
         }
     }
 
+    @Test
+    public void testProjection() throws Throwable {
+        Configuration conf = new Configuration();
+        ColumnProjectionUtils.appendReadColumns(conf, Arrays.asList(0, 3));
+        AbstractDeserializer serDe = getTestSerDe(conf);
+
+        List<?> rowArray = (List<?>) serDe.deserialize(new Text(testLogLine));
+        assertEquals("127.0.0.1",     rowArray.get(0));
+        assertNull(rowArray.get(1));
+        assertNull(rowArray.get(2));
+        assertEquals(800L,            rowArray.get(3));
+        assertNull(rowArray.get(4));
+    }
+
+    @Test
+    public void testNoColumns() throws Throwable {
+        // Like a SELECT count(*)
+        Configuration conf = new Configuration();
+        ColumnProjectionUtils.setReadColumns(conf, Collections.emptyList());
+        AbstractDeserializer serDe = getTestSerDe(conf);
+
+        assertNotNull(serDe.deserialize(new Text(testLogLine)));
+        assertNull(serDe.deserialize(new Text("A really bad line")));
+    }
+
+    private static Configuration withFilter(ExprNodeGenericFuncDesc filter) {
+        Configuration conf = new Configuration();
+        conf.set(TableScanDesc.FILTER_EXPR_CONF_STR, SerializationUtilities.serializeExpression(filter));
+        return conf;
+    }
+
+    private static ExprNodeGenericFuncDesc function(GenericUDF udf, ExprNodeDesc... children) {
+        return new ExprNodeGenericFuncDesc(TypeInfoFactory.booleanTypeInfo, udf, Arrays.asList(children));
+    }
+
+    private static ExprNodeGenericFuncDesc screenWidthLessThan(long value) {
+        return function(new GenericUDFOPLessThan(),
+            new ExprNodeColumnDesc(TypeInfoFactory.longTypeInfo, "screenwidth", "clicks", false),
+            new ExprNodeConstantDesc(TypeInfoFactory.longTypeInfo, value));
+    }
+
+    @Test
+    public void testPushedDownFilter() throws Throwable {
+        // WHERE screenWidth < 700
+        AbstractDeserializer serDe = getTestSerDe(withFilter(screenWidthLessThan(700)));
+
+        // The line has a screenWidth of 800; Rejected lines are not bad lines so this does not fail.
+        for (int i = 0; i < 2000; i++) {
+            assertNull(serDe.deserialize(new Text(testLogLine)));
+        }
+
+        // WHERE screenWidth < 900
+        serDe = getTestSerDe(withFilter(screenWidthLessThan(900)));
+        List<?> rowArray = (List<?>) serDe.deserialize(new Text(testLogLine));
+        assertEquals(800L, rowArray.get(3));
+    }
+
+    @Test
+    public void testPushedDownFilterAcceptingNull() throws Throwable {
+        // WHERE NOT (screenWidth < 700) is also true for a line without a screenWidth.
+        // A rejected line may show up as a row with only nulls, so such a filter is not pushed down.
+        AbstractDeserializer serDe = getTestSerDe(withFilter(function(new GenericUDFOPNot(), screenWidthLessThan(700))));
+
+        List<?> rowArray = (List<?>) serDe.deserialize(new Text(testLogLine));
+        assertEquals(800L, rowArray.get(3));
+    }
+
     private AbstractDeserializer getTestSerDe() throws SerDeException {
+        return getTestSerDe(new Configuration());
+    }
+
+    private AbstractDeserializer getTestSerDe(Configuration conf) throws SerDeException {
         // Create the SerDe
         Properties schema = new Properties();
         schema.setProperty(serdeConstants.LIST_COLUMNS,
@@ -145,7 +229,7 @@ public class TestApacheHttpdlogDeserializer {
         schema.setProperty("field:screenHeight",  "SCREENHEIGHT:request.firstline.uri.query.s.height");
 
         AbstractDeserializer serDe = new ApacheHttpdlogDeserializer();
-        serDe.initialize(new Configuration(), createOverlayedProperties(schema, null));
+        serDe.initialize(conf, createOverlayedProperties(schema, null));
         return serDe;
     }
 
@@ -0,0 +1,175 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.SerializationUtilities;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.plan.TableScanDesc;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestApacheHttpdlogVectorizedRecordReader {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String[] LINES = {
+        "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html HTTP/1.1\" 200 1234",
+        "This is not a logline",
+        "127.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"POST /form HTTP/1.1\" 302 -",
+    };
+
+    private static final String[] COLUMN_NAMES = {"ip", "uri", "bytes", "epoch", "status", "unmapped"};
+    private static final TypeInfo[] COLUMN_TYPES = {
+        TypeInfoFactory.stringTypeInfo,
+        TypeInfoFactory.stringTypeInfo,
+        TypeInfoFactory.longTypeInfo,
+        TypeInfoFactory.longTypeInfo,
+        TypeInfoFactory.stringTypeInfo,
+        TypeInfoFactory.stringTypeInfo,
+    };
+
+    private Properties getProperties() {
+        Properties props = new Properties();
+        props.setProperty("logformat",    "common");
+        props.setProperty("field:ip",     "IP:connection.client.host");
+        props.setProperty("field:uri",    "HTTP.URI:request.firstline.uri");
+        props.setProperty("field:bytes",  "BYTES:response.body.bytes");
+        props.setProperty("field:epoch",  "TIME.EPOCH:request.receive.time.epoch");
+        props.setProperty("field:status", "STRING:request.status.last");
+        return props;
+    }
+
+    private FileSplit createSplit() throws Exception {
+        File file = temporaryFolder.newFile("access.log");
+        Files.write(file.toPath(), Arrays.asList(LINES), StandardCharsets.UTF_8);
+        return new FileSplit(new Path(file.getAbsolutePath()), 0, file.length(), (String[]) null);
+    }
+
+    private static String getString(VectorizedRowBatch batch, int column, int row) {
+        BytesColumnVector vector = (BytesColumnVector) batch.cols[column];
+        return new String(vector.vector[row], vector.start[row], vector.length[row], StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testVectorizedRead() throws Exception {
+        JobConf job = new JobConf();
+        // The "unmapped" column is not needed by the query (so it does not need a field)
+        ColumnProjectionUtils.appendReadColumns(job, Arrays.asList(0, 1, 2, 3, 4));
+
+        VectorizedRowBatchCtx rbCtx = new VectorizedRowBatchCtx(COLUMN_NAMES, COLUMN_TYPES, 0, new String[0]);
+
+        ApacheHttpdlogVectorizedRecordReader reader =
+            new ApacheHttpdlogVectorizedRecordReader(job, createSplit(), rbCtx, getProperties());
+
+        NullWritable key = reader.createKey();
+        VectorizedRowBatch batch = reader.createValue();
+
+        assertTrue(reader.next(key, batch));
+        assertEquals(2, batch.size);
+
+        assertEquals("127.0.0.1",   getString(batch, 0, 0));
+        assertEquals("127.0.0.2",   getString(batch, 0, 1));
+        assertEquals("/index.html", getString(batch, 1, 0));
+        assertEquals("/form",       getString(batch, 1, 1));
+
+        LongColumnVector bytes = (LongColumnVector) batch.cols[2];
+        assertFalse(bytes.isNull[0]);
+        assertEquals(1234L, bytes.vector[0]);
+        assertEquals(0L,    bytes.vector[1]); // "-" means 0 bytes
+
+        LongColumnVector epoch = (LongColumnVector) batch.cols[3];
+        assertEquals(1351112444000L, epoch.vector[0]);
+        assertEquals(1351112445000L, epoch.vector[1]);
+
+        assertEquals("200", getString(batch, 4, 0));
+        assertEquals("302", getString(batch, 4, 1));
+
+        assertFalse(reader.next(key, batch));
+        reader.close();
+    }
+
+    @Test
+    public void testNoColumns() throws Exception {
+        // Like a SELECT count(*)
+        JobConf job = new JobConf();
+        ColumnProjectionUtils.setReadColumns(job, Collections.emptyList());
+
+        VectorizedRowBatchCtx rbCtx = new VectorizedRowBatchCtx(COLUMN_NAMES, COLUMN_TYPES, 0, new String[0]);
+
+        ApacheHttpdlogVectorizedRecordReader reader =
+            new ApacheHttpdlogVectorizedRecordReader(job, createSplit(), rbCtx, getProperties());
+
+        VectorizedRowBatch batch = reader.createValue();
+        assertTrue(reader.next(reader.createKey(), batch));
+        // The bad line is still recognized
+        assertEquals(2, batch.size);
+        reader.close();
+    }
+
+    @Test
+    public void testPushedDownFilter() throws Exception {
+        // WHERE status = '302'
+        JobConf job = new JobConf();
+        ColumnProjectionUtils.appendReadColumns(job, Arrays.asList(0, 4));
+        ExprNodeGenericFuncDesc filter = new ExprNodeGenericFuncDesc(
+            TypeInfoFactory.booleanTypeInfo, new GenericUDFOPEqual(), Arrays.asList(
+                new ExprNodeColumnDesc(TypeInfoFactory.stringTypeInfo, "status", "access", false),
+                new ExprNodeConstantDesc(TypeInfoFactory.stringTypeInfo, "302")));
+        job.set(TableScanDesc.FILTER_EXPR_CONF_STR, SerializationUtilities.serializeExpression(filter));
+
+        VectorizedRowBatchCtx rbCtx = new VectorizedRowBatchCtx(COLUMN_NAMES, COLUMN_TYPES, 0, new String[0]);
+
+        ApacheHttpdlogVectorizedRecordReader reader =
+            new ApacheHttpdlogVectorizedRecordReader(job, createSplit(), rbCtx, getProperties());
+
+        VectorizedRowBatch batch = reader.createValue();
+        assertTrue(reader.next(reader.createKey(), batch));
+        // The rejected line is not in the batch at all
+        assertEquals(1, batch.size);
+        assertEquals("127.0.0.2", getString(batch, 0, 0));
+        assertEquals("302",       getString(batch, 4, 0));
+        reader.close();
+    }
+
+}
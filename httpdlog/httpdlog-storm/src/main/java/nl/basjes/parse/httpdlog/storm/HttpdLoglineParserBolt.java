@@ -0,0 +1,259 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.storm;
+
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.TypedSlotRecord;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.core.exceptions.RejectedByFilter;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.CountMetric;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.topology.base.BaseRichBolt;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.Values;
+import org.apache.storm.utils.TupleUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * A bolt that parses the loglines in micro batches.
+ * <pre>
+ * builder.setBolt("Parser", new HttpdLoglineParserBolt("combined", "line")
+ *         .addField("ip",    "IP:connection.client.host")
+ *         .addField("bytes", "BYTES:response.body.bytes")
+ *         .withBatchSize(500)
+ *         .withBatchTimeoutSeconds(1))
+ *     .shuffleGrouping("Spout");
+ * </pre>
+ * The incoming tuples are collected until there are {@link #withBatchSize(int)} of them or until the next
+ * tick tuple (every {@link #withBatchTimeoutSeconds(int)} seconds). Then they are parsed in a single call to
+ * {@link Parser#parseBatch(List, List)} (with records that are reused for every batch), the results are emitted
+ * (anchored to their input tuple) and all input tuples are acked.
+ * <ul>
+ * <li>A good line is emitted on the default stream with a tuple field for each requested field;
+ * the type of the value is a Long if the field can be cast to a LONG, else a Double if it can be cast
+ * to a DOUBLE, else a String.</li>
+ * <li>A bad line is emitted on the {@value #BAD_LINES_STREAM} stream (fields: line, error).</li>
+ * <li>A line that is rejected by a filter (see {@link #getParser()}) is only acked.</li>
+ * </ul>
+ * The counts are registered as the metrics linesGood, linesBad and linesFiltered.
+ */
+public class HttpdLoglineParserBolt extends BaseRichBolt {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpdLoglineParserBolt.class);
+
+    public static final String BAD_LINES_STREAM = "badlines";
+    public static final String BAD_LINE_FIELD = "line";
+    public static final String BAD_LINE_ERROR_FIELD = "error";
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_BATCH_TIMEOUT_SECONDS = 1;
+    private static final int METRICS_TIME_BUCKET_SECONDS = 60;
+
+    private final String logFormat;
+    private final String inputFieldName;
+    private final List<String> outputFieldNames = new ArrayList<>();
+    private final List<String> outputFields = new ArrayList<>();
+    private final Parser<TypedSlotRecord> parser;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int batchTimeoutSeconds = DEFAULT_BATCH_TIMEOUT_SECONDS;
+
+    private transient OutputCollector collector;
+    private transient List<Tuple> tuples;
+    private transient List<String> lines;
+    private transient List<TypedSlotRecord> records;
+
+    private transient CountMetric linesGood;
+    private transient CountMetric linesBad;
+    private transient CountMetric linesFiltered;
+    private transient LineCounter badLinesLogger;
+
+    /**
+     * @param logFormat The logformat of the lines.
+     * @param inputFieldName The name of the tuple field that contains the logline.
+     */
+    public HttpdLoglineParserBolt(String logFormat, String inputFieldName) {
+        this.logFormat = logFormat;
+        this.inputFieldName = inputFieldName;
+        this.parser = new HttpdLoglineParser<>(TypedSlotRecord.class, logFormat);
+    }
+
+    /**
+     * Add an output field.
+     * @param name The name of the tuple field.
+     * @param field The field ("TYPE:name") that is put in it (wildcards are not supported).
+     */
+    public HttpdLoglineParserBolt addField(String name, String field) {
+        if (field.endsWith(".*")) {
+            throw new IllegalArgumentException("Wildcard fields are not supported: " + field);
+        }
+        outputFieldNames.add(name);
+        outputFields.add(Parser.cleanupFieldValue(field));
+        return this;
+    }
+
+    /**
+     * @return The parser (without parse targets) to add dissectors, type remappings and filters.
+     */
+    public Parser<TypedSlotRecord> getParser() {
+        return parser;
+    }
+
+    public HttpdLoglineParserBolt withBatchSize(int newBatchSize) {
+        if (newBatchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1 (was " + newBatchSize + ")");
+        }
+        this.batchSize = newBatchSize;
+        return this;
+    }
+
+    public HttpdLoglineParserBolt withBatchTimeoutSeconds(int newBatchTimeoutSeconds) {
+        if (newBatchTimeoutSeconds < 1) {
+            throw new IllegalArgumentException("The batch timeout must be at least 1 second (was " +
+                newBatchTimeoutSeconds + ")");
+        }
+        this.batchTimeoutSeconds = newBatchTimeoutSeconds;
+        return this;
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Map<String, Object> conf = new HashMap<>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, batchTimeoutSeconds);
+        return conf;
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        declarer.declare(new Fields(outputFieldNames));
+        declarer.declareStream(BAD_LINES_STREAM, new Fields(BAD_LINE_FIELD, BAD_LINE_ERROR_FIELD));
+    }
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context, OutputCollector outputCollector) {
+        this.collector = outputCollector;
+        tuples  = new ArrayList<>(batchSize);
+        lines   = new ArrayList<>(batchSize);
+        records = new ArrayList<>(batchSize);
+
+        linesGood     = context.registerMetric("linesGood",     new CountMetric(), METRICS_TIME_BUCKET_SECONDS);
+        linesBad      = context.registerMetric("linesBad",      new CountMetric(), METRICS_TIME_BUCKET_SECONDS);
+        linesFiltered = context.registerMetric("linesFiltered", new CountMetric(), METRICS_TIME_BUCKET_SECONDS);
+        badLinesLogger = new LineCounter(LOG);
+
+        try {
+            createParseTargets();
+        } catch (MissingDissectorsException | InvalidDissectorException e) {
+            throw new IllegalStateException("Unable to create the parser: " + e.getMessage(), e);
+        }
+    }
+
+    private void createParseTargets() throws MissingDissectorsException, InvalidDissectorException {
+        // A slot per output field in the most specific type of that field
+        TypedSlotRecord.Layout layout = TypedSlotRecord.Layout.mostSpecific(parser, outputFields);
+        layout.addParseTargets(parser, NOT_NULL);
+        for (int i = 0; i < batchSize; i++) {
+            records.add(new TypedSlotRecord(layout));
+        }
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public void execute(Tuple tuple) {
+        if (TupleUtils.isTick(tuple)) {
+            flush();
+            return;
+        }
+        tuples.add(tuple);
+        lines.add(tuple.getStringByField(inputFieldName));
+        if (tuples.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (tuples.isEmpty()) {
+            return;
+        }
+        List<TypedSlotRecord> batchRecords = records.subList(0, tuples.size());
+        for (TypedSlotRecord record : batchRecords) {
+            record.clear();
+        }
+
+        List<DissectionFailure> failures;
+        try {
+            failures = parser.parseBatch(batchRecords, lines);
+        } catch (MissingDissectorsException | InvalidDissectorException e) {
+            // The parser is unusable: let Storm replay the tuples (after the problem has been fixed).
+            for (Tuple tuple : tuples) {
+                collector.fail(tuple);
+            }
+            collector.reportError(e);
+            tuples.clear();
+            lines.clear();
+            return;
+        }
+
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple tuple = tuples.get(i);
+            DissectionFailure failure = failures.get(i);
+            if (failure == null) {
+                linesGood.incr();
+                collector.emit(tuple, new Values(batchRecords.get(i).getValues()));
+            } else if (failure instanceof RejectedByFilter) {
+                linesFiltered.incr();
+            } else {
+                linesBad.incr();
+                badLinesLogger.bad(failure.getMessage(), lines.get(i));
+                collector.emit(BAD_LINES_STREAM, tuple, new Values(lines.get(i), failure.getMessage()));
+            }
+            collector.ack(tuple);
+        }
+        tuples.clear();
+        lines.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "HttpdLoglineParserBolt{logFormat='" + logFormat + "', input='" + inputFieldName +
+            "', output=" + Arrays.toString(outputFieldNames.toArray()) + " = " + outputFields +
+            ", batchSize=" + batchSize + ", batchTimeoutSeconds=" + batchTimeoutSeconds + '}';
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.storm;
+
+import clojure.lang.Atom;
+import nl.basjes.parse.core.FieldFilters;
+import org.apache.storm.Config;
+import org.apache.storm.Constants;
+import org.apache.storm.metric.api.CountMetric;
+import org.apache.storm.metric.api.IMetric;
+import org.apache.storm.task.IOutputCollector;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsGetter;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.TupleImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestHttpdLoglineParserBolt {
+
+    private static final String LOG_FORMAT = "common";
+    private static final String SPOUT = "spout";
+    private static final int SPOUT_TASK = 1;
+    private static final int BOLT_TASK = 2;
+
+    private static final String GOOD_1 = "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html HTTP/1.1\" 200 1234";
+    private static final String GOOD_2 = "127.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"POST /form HTTP/1.1\" 302 -";
+    private static final String BAD    = "This is not a logline";
+    private static final String ERROR  = "127.0.0.3 - - [24/Oct/2012:23:00:46 +0200] \"GET /missing HTTP/1.1\" 404 42";
+
+    private TopologyContext context;
+    private Map<Integer, Map<Integer, Map<String, IMetric>>> registeredMetrics;
+    private CapturingCollector output;
+
+    private static final class Emitted {
+        private final String stream;
+        private final Collection<Tuple> anchors;
+        private final List<Object> values;
+
+        Emitted(String stream, Collection<Tuple> anchors, List<Object> values) {
+            this.stream = stream;
+            this.anchors = anchors;
+            this.values = values;
+        }
+    }
+
+    private static final class CapturingCollector implements IOutputCollector {
+        private final List<Emitted> emitted = new ArrayList<>();
+        private final List<Tuple> acked = new ArrayList<>();
+        private final List<Tuple> failed = new ArrayList<>();
+
+        @Override
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            emitted.add(new Emitted(streamId, anchors, tuple));
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void ack(Tuple input) {
+            acked.add(input);
+        }
+
+        @Override
+        public void fail(Tuple input) {
+            failed.add(input);
+        }
+
+        @Override
+        public void resetTimeout(Tuple input) {
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+        }
+    }
+
+    @Before
+    public void createContext() {
+        Map<Integer, String> taskToComponent = new HashMap<>();
+        taskToComponent.put(SPOUT_TASK, SPOUT);
+        taskToComponent.put(BOLT_TASK, "bolt");
+        taskToComponent.put((int) Constants.SYSTEM_TASK_ID, Constants.SYSTEM_COMPONENT_ID);
+
+        Map<String, Map<String, Fields>> componentToStreamToFields = new HashMap<>();
+        componentToStreamToFields.put(SPOUT,
+            Collections.singletonMap("default", new Fields("line")));
+        componentToStreamToFields.put(Constants.SYSTEM_COMPONENT_ID,
+            Collections.singletonMap(Constants.SYSTEM_TICK_STREAM_ID, new Fields("rate_secs")));
+
+        registeredMetrics = new HashMap<>();
+        context = new TopologyContext(null, new HashMap<>(), taskToComponent, new HashMap<>(), componentToStreamToFields,
+            "test", null, null, BOLT_TASK, 6700, Collections.singletonList(BOLT_TASK),
+            new HashMap<>(), new HashMap<>(), new HashMap<>(), registeredMetrics, new Atom(false));
+        output = new CapturingCollector();
+    }
+
+    private Tuple line(String line) {
+        return new TupleImpl(context, Collections.singletonList(line), SPOUT_TASK, "default");
+    }
+
+    private Tuple tick() {
+        return new TupleImpl(context, Collections.singletonList(1), (int) Constants.SYSTEM_TASK_ID,
+            Constants.SYSTEM_TICK_STREAM_ID);
+    }
+
+    private HttpdLoglineParserBolt createBolt(int batchSize) {
+        HttpdLoglineParserBolt bolt = new HttpdLoglineParserBolt(LOG_FORMAT, "line")
+            .addField("ip",     "IP:connection.client.host")
+            .addField("bytes",  "BYTES:response.body.bytes")
+            .addField("status", "STRING:request.status.last")
+            .withBatchSize(batchSize);
+        bolt.prepare(new HashMap<>(), context, new OutputCollector(output));
+        return bolt;
+    }
+
+    private long metric(String name) {
+        return (Long) ((CountMetric) registeredMetrics.get(60).get(BOLT_TASK).get(name)).getValueAndReset();
+    }
+
+    @Test
+    public void testBatches() {
+        HttpdLoglineParserBolt bolt = createBolt(3);
+
+        Tuple good1 = line(GOOD_1);
+        Tuple bad   = line(BAD);
+        Tuple good2 = line(GOOD_2);
+        bolt.execute(good1);
+        bolt.execute(bad);
+        assertTrue("Nothing may happen before the batch is full", output.emitted.isEmpty());
+        assertTrue(output.acked.isEmpty());
+
+        bolt.execute(good2);
+        assertEquals(3, output.emitted.size());
+        assertEquals(Arrays.asList(good1, bad, good2), output.acked);
+
+        Emitted first = output.emitted.get(0);
+        assertEquals("default", first.stream);
+        assertEquals(Collections.singletonList(good1), new ArrayList<>(first.anchors));
+        assertEquals(Arrays.asList("127.0.0.1", 1234L, "200"), first.values);
+
+        Emitted badLine = output.emitted.get(1);
+        assertEquals(HttpdLoglineParserBolt.BAD_LINES_STREAM, badLine.stream);
+        assertEquals(Collections.singletonList(bad), new ArrayList<>(badLine.anchors));
+        assertEquals(BAD, badLine.values.get(0));
+
+        // The records are reused: the values of the first line must not leak into the next batch.
+        assertEquals(Arrays.asList("127.0.0.2", 0L, "302"), output.emitted.get(2).values);
+
+        assertEquals(2, metric("linesGood"));
+        assertEquals(1, metric("linesBad"));
+        assertEquals(0, metric("linesFiltered"));
+    }
+
+    @Test
+    public void testTickFlushesPartialBatch() {
+        HttpdLoglineParserBolt bolt = createBolt(100);
+        Tuple good1 = line(GOOD_1);
+        bolt.execute(good1);
+        assertTrue(output.acked.isEmpty());
+
+        bolt.execute(tick());
+        assertEquals(Collections.singletonList(good1), output.acked);
+        assertEquals(1, output.emitted.size());
+
+        // An empty batch does nothing
+        bolt.execute(tick());
+        assertEquals(1, output.acked.size());
+    }
+
+    @Test
+    public void testFilter() {
+        HttpdLoglineParserBolt bolt = new HttpdLoglineParserBolt(LOG_FORMAT, "line")
+            .addField("ip", "IP:connection.client.host")
+            .withBatchSize(2);
+        bolt.getParser().addFilter("STRING:request.status.last", FieldFilters.equalTo("404"));
+        bolt.prepare(new HashMap<>(), context, new OutputCollector(output));
+
+        Tuple good1 = line(GOOD_1);
+        Tuple error = line(ERROR);
+        bolt.execute(good1);
+        bolt.execute(error);
+
+        assertEquals(Arrays.asList(good1, error), output.acked);
+        assertEquals(1, output.emitted.size());
+        assertEquals(Collections.singletonList("127.0.0.3"), output.emitted.get(0).values);
+        assertEquals(1, metric("linesFiltered"));
+    }
+
+    @Test
+    public void testDeclaredFields() {
+        HttpdLoglineParserBolt bolt = createBolt(10);
+        OutputFieldsGetter declarer = new OutputFieldsGetter();
+        bolt.declareOutputFields(declarer);
+        assertEquals(Arrays.asList("ip", "bytes", "status"),
+            declarer.getFieldsDeclaration().get("default").get_output_fields());
+        assertEquals(Arrays.asList("line", "error"),
+            declarer.getFieldsDeclaration().get(HttpdLoglineParserBolt.BAD_LINES_STREAM).get_output_fields());
+        assertEquals(1, bolt.getComponentConfiguration().get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoWildcards() {
+        new HttpdLoglineParserBolt(LOG_FORMAT, "line").addField("query", "STRING:request.firstline.uri.query.*");
+    }
+
+}
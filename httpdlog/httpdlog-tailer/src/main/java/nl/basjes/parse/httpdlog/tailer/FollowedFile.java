@@ -0,0 +1,256 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.tailer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single file that is followed: reads the complete lines that were appended since the last read and
+ * detects rotation.
+ * <ul>
+ * <li>Rename (optionally followed by compressing and deleting the old file): a new file appeared under the same name.
+ *     The webserver may still write to the old file for a while (like during a graceful restart), so the old file
+ *     stays open until nothing was appended to it for the rotation grace period and it has been read
+ *     completely; only then the new file is read. No lines are lost.</li>
+ * <li>Copytruncate: the file became smaller than what was already read; reading continues at the start.</li>
+ * </ul>
+ * The data is read in large blocks using a positional read on the channel: when nothing was appended a poll
+ * costs a single read, a size and a stat call.
+ */
+final class FollowedFile implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FollowedFile.class);
+
+    private final Path path;
+    private final boolean startAtEnd;
+    private final long rotationGraceNanos;
+    // In 'read' mode: the bytes between position and limit have been read but not yet split into lines.
+    private final ByteBuffer buffer;
+    // The start of a line that did not have its newline yet.
+    private byte[] partial = new byte[1024];
+    private int partialLength = 0;
+
+    private FileChannel channel = null;
+    private Object fileKey = null;
+    private FileTime creationTime = null;
+    // The position in the file of the next byte to read.
+    private long position = 0;
+    private boolean opened = false;
+    private long rotations = 0;
+    // Since when (System.nanoTime) nothing was appended to the file after it was replaced by a new file.
+    private long rotatedIdleSince = 0;
+    private boolean rotationPending = false;
+
+    FollowedFile(Path path, boolean startAtEnd, int bufferSize, long rotationGraceMillis) {
+        this.path = path;
+        this.startAtEnd = startAtEnd;
+        this.rotationGraceNanos = TimeUnit.MILLISECONDS.toNanos(rotationGraceMillis);
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        buffer.flip();
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getRotations() {
+        return rotations;
+    }
+
+    /**
+     * Read the complete lines that are available.
+     * @param maxLines The maximum number of lines to read (the rest remains available for the next call).
+     * @param lines    The list to which the lines are added.
+     * @return The number of lines that were added.
+     */
+    int readLines(int maxLines, List<String> lines) throws IOException {
+        if (channel == null && !open()) {
+            return 0; // The file does not exist (yet)
+        }
+        long before = position;
+        int read = readAvailable(maxLines, lines);
+        return read + checkRotation(maxLines - read, lines, position != before);
+    }
+
+    private boolean open() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            return false;
+        }
+        fileKey = attributes.fileKey();
+        creationTime = attributes.creationTime();
+        position = (!opened && startAtEnd) ? channel.size() : 0;
+        opened = true;
+        buffer.clear();
+        buffer.flip();
+        partialLength = 0;
+        LOG.debug("Following {} from position {}", path, position);
+        return true;
+    }
+
+    /**
+     * A truncation is detected at every read (also when the maximum number of lines was read), else the file
+     * may have grown past the old position again before it is noticed. A new file is only looked for when all
+     * available data has been read (maxLines is then larger than 0).
+     */
+    private int checkRotation(int maxLines, List<String> lines, boolean appended) throws IOException {
+        if (channel.size() < position) {
+            LOG.info("The file {} was truncated (copytruncate rotation)", path);
+            rotations++;
+            position = 0;
+            partialLength = 0; // The start of this line was copied to the rotated file
+            return readAvailable(maxLines, lines);
+        }
+        if (maxLines == 0) {
+            return 0; // There may be more in the old file
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return 0; // Renamed and no new file yet: the old one may still be written.
+        }
+        if (isSameFile(attributes)) {
+            return 0;
+        }
+
+        // A new file: keep reading the old one until nothing was appended to it for the grace period.
+        long now = System.nanoTime();
+        if (!rotationPending || appended) {
+            rotationPending = true;
+            rotatedIdleSince = now;
+        }
+        if (now - rotatedIdleSince < rotationGraceNanos) {
+            return 0;
+        }
+
+        // The old file has been read completely (also a last line without a newline).
+        LOG.info("The file {} was rotated", path);
+        rotations++;
+        rotationPending = false;
+        int read = 0;
+        if (partialLength > 0) {
+            lines.add(toLine(partial, 0, 0));
+            read++;
+        }
+        channel.close();
+        channel = null;
+        if (!open()) {
+            return read;
+        }
+        return read + readAvailable(maxLines - read, lines);
+    }
+
+    private boolean isSameFile(BasicFileAttributes attributes) {
+        if (fileKey != null) {
+            return fileKey.equals(attributes.fileKey());
+        }
+        // No file keys on this platform (like Windows)
+        return creationTime.equals(attributes.creationTime());
+    }
+
+    private int readAvailable(int maxLines, List<String> lines) throws IOException {
+        byte[] array = buffer.array();
+        int read = 0;
+        while (read < maxLines) {
+            int start = buffer.position();
+            int limit = buffer.limit();
+            int newline = -1;
+            for (int i = start; i < limit; i++) {
+                if (array[i] == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            if (newline != -1) {
+                lines.add(toLine(array, start, newline - start));
+                buffer.position(newline + 1);
+                read++;
+                continue;
+            }
+
+            // No complete line left in the buffer
+            appendPartial(array, start, limit - start);
+            buffer.clear();
+            int bytes = channel.read(buffer, position);
+            buffer.flip();
+            if (bytes <= 0) {
+                break;
+            }
+            position += bytes;
+        }
+        return read;
+    }
+
+    private void appendPartial(byte[] bytes, int offset, int length) {
+        if (partialLength + length > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+        }
+        System.arraycopy(bytes, offset, partial, partialLength, length);
+        partialLength += length;
+    }
+
+    private String toLine(byte[] bytes, int offset, int length) {
+        byte[] lineBytes = bytes;
+        int lineOffset = offset;
+        int lineLength = length;
+        if (partialLength > 0) {
+            appendPartial(bytes, offset, length);
+            lineBytes = partial;
+            lineOffset = 0;
+            lineLength = partialLength;
+            partialLength = 0;
+        }
+        if (lineLength > 0 && lineBytes[lineOffset + lineLength - 1] == '\r') {
+            lineLength--;
+        }
+        return new String(lineBytes, lineOffset, lineLength, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.tailer;
+
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.core.exceptions.RejectedByFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Follows one or more growing logfiles (like tail -F) and parses the new lines in batches.
+ * Rotation by renaming (also when the rotated file is compressed afterwards) and by copytruncate is handled.
+ * <pre>
+ * LogTailer&lt;MyRecord&gt; tailer = new LogTailer&lt;&gt;(parser, MyRecord::new)
+ *     .follow("/var/log/httpd/access.log");
+ * tailer.tail(records -&gt; ...); // Blocks until tailer.close() is called (from another thread).
+ * </pre>
+ * For a push model with backpressure use a {@link LogTailerPublisher}.
+ * Only a single thread should poll (or tail); close may be called from any thread.
+ */
+public class LogTailer<RECORD> implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogTailer.class);
+
+    public static final long DEFAULT_ROTATION_GRACE_MILLIS = 5000;
+
+    private final Parser<RECORD> parser;
+    private final Supplier<RECORD> recordFactory;
+    private final List<FollowedFile> files = new ArrayList<>();
+
+    private int batchSize = 1000;
+    private long pollIntervalMillis = 250;
+    private int bufferSize = 256 * 1024;
+    private boolean startAtEnd = true;
+    private long rotationGraceMillis = DEFAULT_ROTATION_GRACE_MILLIS;
+    private volatile boolean closed = false;
+    // The file that is read first in the next poll.
+    private int firstFile = 0;
+
+    private final LineCounter counter = new LineCounter(LOG);
+
+    /**
+     * @param parser        The parser with all the required parse targets.
+     * @param recordFactory Creates a new record for each line (records are handed out so they are never reused).
+     */
+    public LogTailer(Parser<RECORD> parser, Supplier<RECORD> recordFactory) {
+        this.parser = parser;
+        this.recordFactory = recordFactory;
+    }
+
+    public LogTailer<RECORD> follow(String file) {
+        return follow(Paths.get(file));
+    }
+
+    /**
+     * Follow this file; it does not need to exist yet.
+     */
+    public LogTailer<RECORD> follow(Path file) {
+        files.add(new FollowedFile(file, startAtEnd, bufferSize, rotationGraceMillis));
+        return this;
+    }
+
+    /**
+     * Read the files that are followed after this call from the start instead of only the lines that are appended.
+     */
+    public LogTailer<RECORD> fromBeginning() {
+        startAtEnd = false;
+        return this;
+    }
+
+    /**
+     * The maximum number of lines that are parsed (and handed out) at once.
+     */
+    public LogTailer<RECORD> withBatchSize(int newBatchSize) {
+        this.batchSize = newBatchSize;
+        return this;
+    }
+
+    /**
+     * How long to wait after finding no new lines.
+     */
+    public LogTailer<RECORD> withPollIntervalMillis(long newPollIntervalMillis) {
+        this.pollIntervalMillis = newPollIntervalMillis;
+        return this;
+    }
+
+    /**
+     * The size of the read buffer of each file that is followed after this call.
+     */
+    public LogTailer<RECORD> withBufferSize(int newBufferSize) {
+        this.bufferSize = newBufferSize;
+        return this;
+    }
+
+    /**
+     * After a file was rotated by renaming, keep reading the old file (of each file that is followed after this call)
+     * until nothing was appended to it for this long; only then the new file is read.
+     */
+    public LogTailer<RECORD> withRotationGraceMillis(long newRotationGraceMillis) {
+        this.rotationGraceMillis = newRotationGraceMillis;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Read and parse the lines that have been appended since the previous call.
+     * The maximum is shared fairly by the files: a busy file cannot starve the others.
+     * @param maxLines The maximum number of lines to read (the rest is read in the next call).
+     * @return The records of the lines that were parsed correctly (bad and filtered lines are only counted).
+     */
+    public synchronized List<RECORD> poll(int maxLines)
+        throws IOException, MissingDissectorsException, InvalidDissectorException {
+        if (closed) {
+            return Collections.emptyList();
+        }
+        List<String> lines = readLines(maxLines);
+        if (lines.isEmpty()) {
+            return Collections.emptyList();
+        }
+        counter.read(lines.size());
+
+        List<RECORD> records = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            records.add(recordFactory.get());
+        }
+        List<DissectionFailure> failures = parser.parseBatch(records, lines);
+        List<RECORD> result = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            DissectionFailure failure = failures.get(i);
+            if (failure == null) {
+                result.add(records.get(i));
+            } else if (failure instanceof RejectedByFilter) {
+                counter.filtered();
+            } else {
+                counter.bad(failure.getMessage(), lines.get(i));
+            }
+        }
+        return result;
+    }
+
+    // Each file may read an equal share of the lines that are still allowed; what a file does not use goes to
+    // the files after it and, in a next round, to the files that used their full share.
+    // The file that is read first (and gets the rounding) changes with every poll.
+    private List<String> readLines(int maxLines) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (files.isEmpty()) {
+            return lines;
+        }
+        List<FollowedFile> pending = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            pending.add(files.get((firstFile + i) % files.size()));
+        }
+        firstFile = (firstFile + 1) % files.size();
+
+        while (!pending.isEmpty() && lines.size() < maxLines) {
+            List<FollowedFile> saturated = new ArrayList<>();
+            int remainingFiles = pending.size();
+            for (FollowedFile file : pending) {
+                int share = (maxLines - lines.size() + remainingFiles - 1) / remainingFiles;
+                remainingFiles--;
+                if (file.readLines(share, lines) == share && share > 0) {
+                    saturated.add(file);
+                }
+            }
+            pending = saturated;
+        }
+        return lines;
+    }
+
+    /**
+     * Keep following the files and hand out the records in batches (of at most the batch size)
+     * until {@link #close()} is called.
+     */
+    public void tail(Consumer<List<RECORD>> consumer)
+        throws IOException, MissingDissectorsException, InvalidDissectorException {
+        try {
+            while (!closed) {
+                long before = counter.getLinesRead();
+                List<RECORD> records = poll(batchSize);
+                if (!records.isEmpty()) {
+                    consumer.accept(records);
+                }
+                if (counter.getLinesRead() == before) {
+                    try {
+                        Thread.sleep(pollIntervalMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    public long getLinesRead() {
+        return counter.getLinesRead();
+    }
+
+    public long getLinesBad() {
+        return counter.getLinesBad();
+    }
+
+    public long getLinesFiltered() {
+        return counter.getLinesFiltered();
+    }
+
+    /**
+     * @return The number of rotations that have been detected over all files.
+     */
+    public long getRotations() {
+        long rotations = 0;
+        for (FollowedFile file : files) {
+            rotations += file.getRotations();
+        }
+        return rotations;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stop following the files (waits for a running poll). If {@link #tail(Consumer)} is running it returns
+     * after the current batch.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (FollowedFile file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close {}: {}", file.getPath(), e.getMessage());
+            }
+        }
+    }
+
+}
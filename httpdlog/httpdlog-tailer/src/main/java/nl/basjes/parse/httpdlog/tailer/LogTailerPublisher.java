@@ -0,0 +1,183 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.tailer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the records of a {@link LogTailer} to a single (Reactive Streams) {@link Subscriber} with backpressure:
+ * lines are only read from the files if the subscriber has requested more records, so a slow subscriber
+ * never causes the records to pile up in memory (the unread lines simply remain in the files).
+ * <p>
+ * The tailing runs in a separate thread (from the provided executor). The stream completes when the
+ * tailer is closed and fails when the tailing thread is interrupted; a cancel by the subscriber closes the tailer.
+ * With Java 9+ this can be adapted to a java.util.concurrent.Flow.Publisher using
+ * org.reactivestreams.FlowAdapters.
+ */
+public class LogTailerPublisher<RECORD> implements Publisher<RECORD> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogTailerPublisher.class);
+
+    private final LogTailer<RECORD> tailer;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    /**
+     * The tailing runs in a new (daemon) thread.
+     */
+    public LogTailerPublisher(LogTailer<RECORD> tailer) {
+        this(tailer, runnable -> {
+            Thread thread = new Thread(runnable, "LogTailerPublisher");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    public LogTailerPublisher(LogTailer<RECORD> tailer, Executor executor) {
+        this.tailer = tailer;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super RECORD> subscriber) {
+        Objects.requireNonNull(subscriber, "The subscriber may not be null");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A LogTailerPublisher allows only a single subscriber"));
+            return;
+        }
+        TailSubscription subscription = new TailSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        executor.execute(subscription);
+    }
+
+    // --------------------------------------------
+
+    private final class TailSubscription implements Subscription, Runnable {
+        private final Subscriber<? super RECORD> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final Object lock = new Object();
+        private volatile boolean cancelled = false;
+        private volatile Throwable invalidRequest = null;
+
+        TailSubscription(Subscriber<? super RECORD> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " records (must be > 0)");
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> {
+                    long sum = current + added;
+                    return sum < 0 ? Long.MAX_VALUE : sum; // Overflow means unbounded
+                });
+            }
+            wakeUp();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            wakeUp();
+        }
+
+        private void wakeUp() {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+
+        private boolean isActive() {
+            return !cancelled && invalidRequest == null && !tailer.isClosed();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (isActive()) {
+                    long requested = demand.get();
+                    if (requested == 0) {
+                        synchronized (lock) {
+                            // Also wake up regularly to notice that the tailer was closed.
+                            if (demand.get() == 0 && isActive()) {
+                                lock.wait(tailer.getPollIntervalMillis());
+                            }
+                        }
+                        continue;
+                    }
+
+                    long linesBefore = tailer.getLinesRead();
+                    List<RECORD> records = tailer.poll((int) Math.min(requested, tailer.getBatchSize()));
+                    for (RECORD record : records) {
+                        if (cancelled) {
+                            break;
+                        }
+                        subscriber.onNext(record);
+                        demand.decrementAndGet();
+                    }
+
+                    if (tailer.getLinesRead() == linesBefore) {
+                        synchronized (lock) {
+                            if (isActive()) {
+                                lock.wait(tailer.getPollIntervalMillis());
+                            }
+                        }
+                    }
+                }
+                if (invalidRequest != null) {
+                    cancelled = true;
+                    subscriber.onError(invalidRequest);
+                } else if (!cancelled) {
+                    subscriber.onComplete();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (!cancelled) {
+                    subscriber.onError(e);
+                }
+            } catch (Exception e) {
+                LOG.error("Tailing failed: {}", e.getMessage());
+                if (!cancelled) {
+                    subscriber.onError(e);
+                }
+            } finally {
+                tailer.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.tailer;
+
+import nl.basjes.parse.core.Field;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogTailer {
+
+    public static class MyRecord {
+        private long bytes;
+
+        @Field("BYTES:response.body.bytes")
+        public void setBytes(Long value) {
+            bytes = value;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static String line(long number) {
+        return "10.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.html HTTP/1.1\" 200 " + number + "\n";
+    }
+
+    private static void append(File file, String text) throws IOException {
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void appendLines(File file, long from, long to) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (long number = from; number < to; number++) {
+            sb.append(line(number));
+        }
+        append(file, sb.toString());
+    }
+
+    private static LogTailer<MyRecord> createTailer() {
+        return new LogTailer<>(new HttpdLoglineParser<>(MyRecord.class, "common"), MyRecord::new)
+            .withBufferSize(100); // Small to force lines that are spread over multiple reads
+    }
+
+    private static List<Long> pollAll(LogTailer<MyRecord> tailer) throws Exception {
+        List<Long> result = new ArrayList<>();
+        while (true) {
+            List<MyRecord> records = tailer.poll(7);
+            if (records.isEmpty()) {
+                return result;
+            }
+            for (MyRecord record : records) {
+                result.add(record.getBytes());
+            }
+        }
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> result = new ArrayList<>();
+        for (long number = from; number < to; number++) {
+            result.add(number);
+        }
+        return result;
+    }
+
+    @Test
+    public void testFollowAndPartialLines() throws Exception {
+        File log = folder.newFile("access.log");
+        appendLines(log, 0, 10);
+        try (LogTailer<MyRecord> tailer = createTailer().follow(log.toPath())) {
+            // Only the appended lines
+            assertEquals(Collections.emptyList(), pollAll(tailer));
+            appendLines(log, 10, 30);
+            String partial = line(30);
+            append(log, partial.substring(0, 20));
+            assertEquals(range(10, 30), pollAll(tailer));
+            append(log, partial.substring(20) + "This is not a valid logline\r\n");
+            assertEquals(range(30, 31), pollAll(tailer));
+            assertEquals(22, tailer.getLinesRead());
+            assertEquals(1, tailer.getLinesBad());
+        }
+    }
+
+    @Test
+    public void testRenameAndGzipRotation() throws Exception {
+        File log = new File(folder.getRoot(), "access.log");
+        try (LogTailer<MyRecord> tailer =
+                 createTailer().fromBeginning().withRotationGraceMillis(0).follow(log.toPath())) {
+            // Does not exist yet
+            assertEquals(Collections.emptyList(), pollAll(tailer));
+            appendLines(log, 0, 20);
+            assertEquals(range(0, 20), pollAll(tailer));
+
+            // Rotate: the old file still gets a few lines (one without newline) and is then compressed and deleted.
+            File rotated = new File(folder.getRoot(), "access.log.1");
+            assertTrue(log.renameTo(rotated));
+            appendLines(rotated, 20, 25);
+            append(rotated, line(25).trim());
+            appendLines(log, 26, 40);
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(rotated.getPath() + ".gz"))) {
+                out.write(Files.readAllBytes(rotated.toPath()));
+            }
+            Files.delete(rotated.toPath());
+
+            assertEquals(range(20, 40), pollAll(tailer));
+            assertEquals(1, tailer.getRotations());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRotationGracePeriod() throws Exception {
+        File log = folder.newFile("access.log");
+        try (LogTailer<MyRecord> tailer =
+                 createTailer().fromBeginning().withRotationGraceMillis(500).follow(log.toPath())) {
+            appendLines(log, 0, 10);
+            assertEquals(range(0, 10), pollAll(tailer));
+
+            // Rotate while the webserver still writes to the old file for a while.
+            File rotated = new File(folder.getRoot(), "access.log.1");
+            assertTrue(log.renameTo(rotated));
+            appendLines(log, 100, 110);
+            assertEquals(Collections.emptyList(), pollAll(tailer));
+            appendLines(rotated, 10, 20);
+            assertEquals(range(10, 20), pollAll(tailer));
+            assertEquals(0, tailer.getRotations());
+
+            // Once the old file has been idle for the grace period the new file is read.
+            appendLines(rotated, 20, 25);
+            List<Long> all = new ArrayList<>();
+            while (tailer.getRotations() == 0) {
+                all.addAll(pollAll(tailer));
+                Thread.sleep(50);
+            }
+            all.addAll(pollAll(tailer));
+            List<Long> expected = range(20, 25);
+            expected.addAll(range(100, 110));
+            assertEquals(expected, all);
+        }
+    }
+
+    @Test
+    public void testCopyTruncateRotation() throws Exception {
+        File log = folder.newFile("access.log");
+        try (LogTailer<MyRecord> tailer = createTailer().fromBeginning().follow(log.toPath())) {
+            appendLines(log, 0, 20);
+            assertEquals(range(0, 20), pollAll(tailer));
+
+            try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+                file.setLength(0);
+            }
+            appendLines(log, 20, 25);
+            assertEquals(range(20, 25), pollAll(tailer));
+            assertEquals(1, tailer.getRotations());
+        }
+    }
+
+    @Test
+    public void testMultipleFiles() throws Exception {
+        File log1 = folder.newFile("access1.log");
+        File log2 = folder.newFile("access2.log");
+        try (LogTailer<MyRecord> tailer = createTailer().follow(log1.toPath()).follow(log2.toPath())) {
+            // The files are opened (at the end) in the first poll
+            assertEquals(Collections.emptyList(), pollAll(tailer));
+            appendLines(log1, 0, 5);
+            appendLines(log2, 5, 10);
+            List<Long> all = pollAll(tailer);
+            Collections.sort(all);
+            assertEquals(range(0, 10), all);
+        }
+    }
+
+    @Test
+    public void testSaturatedFileDoesNotStarveOthers() throws Exception {
+        File busy = folder.newFile("busy.log");
+        File quiet = folder.newFile("quiet.log");
+        // The buffer holds many lines so the busy file can fill its share without reading from the file.
+        try (LogTailer<MyRecord> tailer = createTailer().withBufferSize(4096).fromBeginning()
+                 .follow(busy.toPath()).follow(quiet.toPath())) {
+            appendLines(busy, 0, 100);
+            appendLines(quiet, 1000, 1003);
+
+            // The quiet file gets its lines in the first poll; the busy file gets the rest of the maximum.
+            List<Long> first = new ArrayList<>();
+            for (MyRecord record : tailer.poll(10)) {
+                first.add(record.getBytes());
+            }
+            Collections.sort(first);
+            List<Long> expected = range(0, 7);
+            expected.addAll(range(1000, 1003));
+            assertEquals(expected, first);
+
+            // A busy file that is truncated is noticed even when it fills every poll.
+            appendLines(quiet, 1003, 1100);
+            try (RandomAccessFile file = new RandomAccessFile(busy, "rw")) {
+                file.setLength(0);
+            }
+            tailer.poll(10);
+            assertEquals(1, tailer.getRotations());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testTail() throws Exception {
+        File log = folder.newFile("access.log");
+        LogTailer<MyRecord> tailer = createTailer().fromBeginning().withPollIntervalMillis(10).follow(log.toPath());
+        List<Long> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                tailer.tail(records -> records.forEach(record -> received.add(record.getBytes())));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            } finally {
+                done.countDown();
+            }
+        });
+        thread.start();
+        appendLines(log, 0, 50);
+        while (received.size() < 50) {
+            Thread.sleep(10);
+        }
+        tailer.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(range(0, 50), received);
+    }
+
+    @Test(timeout = 10000)
+    public void testPublisherBackpressure() throws Exception {
+        File log = folder.newFile("access.log");
+        appendLines(log, 0, 100);
+        LogTailer<MyRecord> tailer = createTailer().fromBeginning().withPollIntervalMillis(10).follow(log.toPath());
+
+        List<Long> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch completed = new CountDownLatch(1);
+        Subscription[] subscription = new Subscription[1];
+        new LogTailerPublisher<>(tailer).subscribe(new Subscriber<MyRecord>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription[0] = s;
+                s.request(3);
+            }
+
+            @Override
+            public void onNext(MyRecord record) {
+                received.add(record.getBytes());
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        while (received.size() < 3) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        // Only what was requested has been read from the file
+        assertEquals(range(0, 3), received);
+        assertEquals(3, tailer.getLinesRead());
+
+        subscription[0].request(97);
+        while (received.size() < 100) {
+            Thread.sleep(10);
+        }
+        assertEquals(range(0, 100), received);
+
+        tailer.close();
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void testPublisherInterrupted() throws Exception {
+        File log = folder.newFile("access.log");
+        LogTailer<MyRecord> tailer = createTailer().withPollIntervalMillis(10).follow(log.toPath());
+
+        Thread[] thread = new Thread[1];
+        Throwable[] error = new Throwable[1];
+        CountDownLatch failed = new CountDownLatch(1);
+        new LogTailerPublisher<>(tailer, runnable -> {
+            thread[0] = new Thread(runnable);
+            thread[0].start();
+        }).subscribe(new Subscriber<MyRecord>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(10);
+            }
+
+            @Override
+            public void onNext(MyRecord record) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error[0] = t;
+                failed.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        thread[0].interrupt();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        // Depending on where the interrupt arrives: while waiting or while reading the file.
+        assertTrue(error[0] instanceof InterruptedException || error[0] instanceof ClosedByInterruptException);
+        // The tailer is closed when the thread ends (after the error has been signalled).
+        thread[0].join();
+        assertTrue(tailer.isClosed());
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A wrapper around any Dissector that remembers the outputs it produced for an input value.
+ * If the same input value is seen again the remembered outputs are simply replayed.
+ * This is useful for inputs that repeat a lot (like the first line of the request, the referrer,
+ * the useragent or the ip address).
+ * The number of remembered input values is bounded; the least recently used is dropped first.
+ * This is enabled per input type using {@link Parser#enableDissectorCaching(String, int)}.
+ */
+public class CachingDissector extends Dissector {
+
+    static final class DissectionOutput {
+        private final String  base;
+        private final boolean baseIsInputName;
+        private final String  type;
+        private final String  name;
+        private final Value   value;
+
+        DissectionOutput(String inputname, String base, String type, String name, Value value) {
+            this.baseIsInputName = inputname.equals(base);
+            this.base  = base;
+            this.type  = type;
+            this.name  = name;
+            this.value = value;
+        }
+    }
+
+    private Dissector dissector;
+    private int       maximumSize;
+
+    // The cache is a simple LRU and is never serialized.
+    private transient Map<String, List<DissectionOutput>> cache;
+
+    public CachingDissector() {
+    }
+
+    public CachingDissector(Dissector dissector, int maximumSize) {
+        this.dissector   = dissector;
+        this.maximumSize = maximumSize;
+    }
+
+    public Dissector getDissector() {
+        return dissector;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    // --------------------------------------------
+
+    private Map<String, List<DissectionOutput>> getCache() {
+        if (cache == null) {
+            cache = new LinkedHashMap<String, List<DissectionOutput>>(Math.min(maximumSize, 1024), 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<DissectionOutput>> eldest) {
+                    return size() > maximumSize;
+                }
+            };
+        }
+        return cache;
+    }
+
+    @Override
+    public void dissect(Parsable<?> parsable, String inputname) throws DissectionFailure {
+        final ParsedField field = parsable.getParsableField(getInputType(), inputname);
+        final String input = field == null ? null : field.getValue().getString();
+        if (input == null) {
+            dissector.dissect(parsable, inputname);
+            return;
+        }
+
+        Map<String, List<DissectionOutput>> theCache = getCache();
+        List<DissectionOutput> outputs = theCache.get(input);
+        if (outputs != null) {
+            for (DissectionOutput output : outputs) {
+                parsable.addDissection(
+                    output.baseIsInputName ? inputname : output.base,
+                    output.type, output.name, output.value);
+            }
+            return;
+        }
+
+        outputs = new ArrayList<>();
+        parsable.startRecording(inputname, outputs);
+        try {
+            dissector.dissect(parsable, inputname);
+        } finally {
+            parsable.stopRecording();
+        }
+        // Only a successful dissection is remembered
+        theCache.put(input, outputs);
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public boolean initializeFromSettingsParameter(String settings) {
+        return dissector.initializeFromSettingsParameter(settings);
+    }
+
+    @Override
+    public String getInputType() {
+        return dissector.getInputType();
+    }
+
+    @Override
+    public void setInputType(String s) throws InvalidDissectorException {
+        dissector.setInputType(s);
+    }
+
+    @Override
+    public List<String> getPossibleOutput() {
+        return dissector.getPossibleOutput();
+    }
+
+    @Override
+    public EnumSet<Casts> prepareForDissect(String inputname, String outputname) {
+        return dissector.prepareForDissect(inputname, outputname);
+    }
+
+    @Override
+    public void prepareForRun() throws InvalidDissectorException {
+        dissector.prepareForRun();
+        cache = null;
+    }
+
+    @Override
+    public Dissector getNewInstance() {
+        Dissector newDissector = dissector.getNewInstance();
+        if (newDissector == null) {
+            return null;
+        }
+        return new CachingDissector(newDissector, maximumSize);
+    }
+
+    @Override
+    public <RECORD> void createAdditionalDissectors(Parser<RECORD> parser) {
+        dissector.createAdditionalDissectors(parser);
+    }
+
+    @Override
+    public String toString() {
+        return "{ Caching(" + maximumSize + ") " + dissector + " }";
+    }
+}
@@ -53,6 +53,8 @@ import java.util.List;
  * <p><b>Dissecting</b></p>
  * <ul>
  * <li>During a run the instance will be called with {@link #dissect} many times.</li>
+ * <li>When parsing a batch of values the instance is called with {@link #dissectBatch(List, String)} once per column
+ * of values.</li>
  * <li>In the {@link #dissect(Parsable, String)} the actual value to be worked on must be retrieved using
  * {@link nl.basjes.parse.core.Parsable#getParsableField(String, String)}</li>
  * <li>The result(s) of the dissection must be put back using
@@ -87,6 +89,26 @@ public abstract class Dissector implements Serializable {
 
     // --------------------------------------------
 
+    /**
+     * This method must dissect the same field from all of the provided parsables (i.e. a column of values).
+     * The default implementation simply calls {@link #dissect(Parsable, String)} for each of them.
+     * A Dissector can override this to exploit the fact that a column of values often contains
+     * (consecutive) repetitions of the same value.
+     * A failure must be reported on the parsable that failed using
+     * {@link Parsable#setDissectionFailure(DissectionFailure)} so the other parsables are unaffected.
+     */
+    public void dissectBatch(final List<? extends Parsable<?>> parsables, final String inputname) {
+        for (Parsable<?> parsable : parsables) {
+            try {
+                dissect(parsable, inputname);
+            } catch (DissectionFailure dissectionFailure) {
+                parsable.setDissectionFailure(dissectionFailure);
+            }
+        }
+    }
+
+    // --------------------------------------------
+
     /**
      * @return The required typename of the input
      */
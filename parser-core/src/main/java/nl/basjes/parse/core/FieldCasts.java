@@ -0,0 +1,81 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.commons.lang3.SerializationUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.NOT_NULL;
+
+/**
+ * Determines the casts of a list of fields with the configuration of a parser, so an application can choose
+ * (before the first line is parsed) the single type in which each field is retrieved.
+ */
+public final class FieldCasts {
+
+    private FieldCasts() {
+    }
+
+    /**
+     * Determine the casts of the fields with everything that has been configured in the parser (the dissectors,
+     * type remappings and filters). The parser itself is not changed: the casts are determined on a copy of it.
+     * @param parser       The (configured) parser.
+     * @param stringSetter A setter (String name, String value) of the record class of the parser.
+     * @param fields       The fields ("TYPE:name").
+     * @return Key = the field, Value = the casts of that field (null if the field cannot be produced).
+     */
+    public static <RECORD> Map<String, EnumSet<Casts>> resolve(Parser<RECORD> parser,
+                                                            Method stringSetter,
+                                                            Collection<String> fields)
+        throws MissingDissectorsException, InvalidDissectorException {
+        Map<String, EnumSet<Casts>> result = new LinkedHashMap<>();
+        if (fields.isEmpty()) {
+            return result;
+        }
+        Parser<RECORD> castsParser = SerializationUtils.clone(parser);
+        castsParser.addParseTarget(stringSetter, NOT_NULL, new ArrayList<>(fields));
+        for (String field : fields) {
+            result.put(field, castsParser.getCasts(field));
+        }
+        return result;
+    }
+
+    /**
+     * @param casts The casts of a field (may be null).
+     * @return The most specific cast: LONG if possible, else DOUBLE, else STRING.
+     */
+    public static Casts mostSpecific(EnumSet<Casts> casts) {
+        if (casts != null) {
+            if (casts.contains(Casts.LONG)) {
+                return Casts.LONG;
+            }
+            if (casts.contains(Casts.DOUBLE)) {
+                return Casts.DOUBLE;
+            }
+        }
+        return Casts.STRING;
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.io.Serializable;
+
+/**
+ * A (cheap) test on the value of a single field that is done as soon as that field has been produced.
+ * If a value is not accepted the remainder of the dissection of that line is skipped.
+ * See {@link Parser#addFilter(String, FieldFilter)} and {@link FieldFilters} for the common filters.
+ */
+@FunctionalInterface
+public interface FieldFilter extends Serializable {
+    /**
+     * @param value The value of the field (the value itself may be null).
+     * @return true if the line that contains this value must be retained.
+     */
+    boolean accept(Value value);
+}
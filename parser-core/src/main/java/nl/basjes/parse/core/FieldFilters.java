@@ -0,0 +1,280 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The common filters that can be used to reject lines during parsing.
+ * The constants in these filters can be a String, an integral number (Long, Integer, Short, Byte)
+ * or a floating point number (Double, Float). A String constant compares the value as a String,
+ * a numerical constant compares the value as a number.
+ * A comparison with a field that does not have a value (or a value that is not a number when
+ * a number is expected) never matches.
+ */
+public final class FieldFilters {
+
+    private FieldFilters() {
+    }
+
+    /**
+     * @param constant The constant that must be used in a filter.
+     * @return true if this constant can be used in the comparisons of these filters.
+     */
+    public static boolean isSupportedConstant(Object constant) {
+        return constant instanceof String ||
+            isIntegral(constant) ||
+            constant instanceof Double ||
+            constant instanceof Float;
+    }
+
+    private static boolean isIntegral(Object constant) {
+        return constant instanceof Long ||
+            constant instanceof Integer ||
+            constant instanceof Short ||
+            constant instanceof Byte;
+    }
+
+    // --------------------------------------------
+
+    public static FieldFilter isNull() {
+        return new IsNull();
+    }
+
+    public static FieldFilter isNotNull() {
+        return not(isNull());
+    }
+
+    public static FieldFilter equalTo(Object constant) {
+        return new Compare(Operator.EQUAL, constant);
+    }
+
+    public static FieldFilter notEqualTo(Object constant) {
+        return new Compare(Operator.NOT_EQUAL, constant);
+    }
+
+    public static FieldFilter lessThan(Object constant) {
+        return new Compare(Operator.LESS_THAN, constant);
+    }
+
+    public static FieldFilter lessOrEqual(Object constant) {
+        return new Compare(Operator.LESS_OR_EQUAL, constant);
+    }
+
+    public static FieldFilter greaterThan(Object constant) {
+        return new Compare(Operator.GREATER_THAN, constant);
+    }
+
+    public static FieldFilter greaterOrEqual(Object constant) {
+        return new Compare(Operator.GREATER_OR_EQUAL, constant);
+    }
+
+    /**
+     * @param lower The lowest accepted value (inclusive)
+     * @param upper The highest accepted value (inclusive)
+     * @return The filter
+     */
+    public static FieldFilter between(Object lower, Object upper) {
+        List<FieldFilter> filters = new ArrayList<>(2);
+        filters.add(greaterOrEqual(lower));
+        filters.add(lessOrEqual(upper));
+        return and(filters);
+    }
+
+    public static FieldFilter in(Collection<?> constants) {
+        List<FieldFilter> filters = new ArrayList<>(constants.size());
+        for (Object constant : constants) {
+            filters.add(equalTo(constant));
+        }
+        return or(filters);
+    }
+
+    public static FieldFilter startsWith(String prefix) {
+        return new StartsWith(prefix);
+    }
+
+    public static FieldFilter not(FieldFilter filter) {
+        return new Not(filter);
+    }
+
+    public static FieldFilter and(List<FieldFilter> filters) {
+        return new Combined(true, filters);
+    }
+
+    public static FieldFilter or(List<FieldFilter> filters) {
+        return new Combined(false, filters);
+    }
+
+    // --------------------------------------------
+
+    private enum Operator {
+        EQUAL("=="),
+        NOT_EQUAL("!="),
+        LESS_THAN("<"),
+        LESS_OR_EQUAL("<="),
+        GREATER_THAN(">"),
+        GREATER_OR_EQUAL(">=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean matches(int comparison) {
+            switch (this) {
+                case EQUAL:             return comparison == 0;
+                case NOT_EQUAL:         return comparison != 0;
+                case LESS_THAN:         return comparison <  0;
+                case LESS_OR_EQUAL:     return comparison <= 0;
+                case GREATER_THAN:      return comparison >  0;
+                default:                return comparison >= 0; // GREATER_OR_EQUAL
+            }
+        }
+    }
+
+    private static final class Compare implements FieldFilter {
+        private final Operator operator;
+        private final Object   constant;
+
+        Compare(Operator operator, Object constant) {
+            if (!isSupportedConstant(constant)) {
+                throw new IllegalArgumentException("Unsupported constant in filter: " + constant);
+            }
+            this.operator = operator;
+            this.constant = constant;
+        }
+
+        @Override
+        public boolean accept(Value value) {
+            Integer comparison = compare(value);
+            return comparison != null && operator.matches(comparison);
+        }
+
+        private Integer compare(Value value) {
+            String stringValue = value.getString();
+            if (stringValue == null) {
+                return null;
+            }
+            if (constant instanceof String) {
+                return stringValue.compareTo((String) constant);
+            }
+            if (isIntegral(constant)) {
+                try {
+                    return Long.compare(Long.parseLong(stringValue), ((Number) constant).longValue());
+                } catch (NumberFormatException e) {
+                    // Not an integer: compare it as a floating point number.
+                }
+            }
+            Double doubleValue = value.getDouble();
+            if (doubleValue == null || doubleValue.isNaN()) {
+                return null;
+            }
+            return Double.compare(doubleValue, ((Number) constant).doubleValue());
+        }
+
+        @Override
+        public String toString() {
+            return operator.symbol + ' ' +
+                (constant instanceof String ? "'" + constant + "'" : constant.toString());
+        }
+    }
+
+    private static final class IsNull implements FieldFilter {
+        @Override
+        public boolean accept(Value value) {
+            return value.getString() == null;
+        }
+
+        @Override
+        public String toString() {
+            return "IS NULL";
+        }
+    }
+
+    private static final class StartsWith implements FieldFilter {
+        private final String prefix;
+
+        StartsWith(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean accept(Value value) {
+            String stringValue = value.getString();
+            return stringValue != null && stringValue.startsWith(prefix);
+        }
+
+        @Override
+        public String toString() {
+            return "STARTS WITH '" + prefix + "'";
+        }
+    }
+
+    private static final class Not implements FieldFilter {
+        private final FieldFilter filter;
+
+        Not(FieldFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean accept(Value value) {
+            return !filter.accept(value);
+        }
+
+        @Override
+        public String toString() {
+            return "NOT(" + filter + ")";
+        }
+    }
+
+    private static final class Combined implements FieldFilter {
+        private final boolean       and;
+        private final FieldFilter[] filters;
+
+        Combined(boolean and, List<FieldFilter> filters) {
+            this.and = and;
+            this.filters = filters.toArray(new FieldFilter[filters.size()]);
+        }
+
+        @Override
+        public boolean accept(Value value) {
+            for (FieldFilter filter : filters) {
+                if (filter.accept(value) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < filters.length; i++) {
+                if (i > 0) {
+                    sb.append(and ? " AND " : " OR ");
+                }
+                sb.append(filters[i]);
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * During assembly the parser determines for every name that can be produced how it is used.
+ * This way the hot path (Parsable.addDissection) needs a single lookup instead of probing
+ * several sets of strings for every value that is produced.
+ */
+final class FieldUsage implements Serializable {
+
+    static final FieldUsage UNUSED = new FieldUsage();
+
+    // This name must be cached because further dissection is needed.
+    private boolean     intermediate   = false;
+
+    // The types for which "TYPE:name" is a requested target.
+    private Set<String> neededTypes    = null;
+
+    // The types for which "TYPE:name.*" is a requested target (i.e. this name is the base of a wildcard).
+    private Set<String> wildcardTypes  = null;
+
+    // The types this name must be remapped to.
+    private String[]    remappedTypes  = null;
+
+    // The filters that must accept the value of "TYPE:name" (per type).
+    private Map<String, List<FieldFilter>> filters = null;
+
+    boolean isIntermediate() {
+        return intermediate;
+    }
+
+    boolean isNeeded(String type) {
+        return neededTypes != null && neededTypes.contains(type);
+    }
+
+    boolean isWildcardNeeded(String type) {
+        return wildcardTypes != null && wildcardTypes.contains(type);
+    }
+
+    String[] getRemappedTypes() {
+        return remappedTypes;
+    }
+
+    boolean accepts(String type, Value value) {
+        if (filters == null) {
+            return true;
+        }
+        List<FieldFilter> typeFilters = filters.get(type);
+        if (typeFilters == null) {
+            return true;
+        }
+        for (FieldFilter filter : typeFilters) {
+            if (!filter.accept(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // --------------------------------------------
+
+    void setIntermediate() {
+        intermediate = true;
+    }
+
+    void addNeededType(String type) {
+        if (neededTypes == null) {
+            neededTypes = new HashSet<>();
+        }
+        neededTypes.add(type);
+    }
+
+    void addWildcardType(String type) {
+        if (wildcardTypes == null) {
+            wildcardTypes = new HashSet<>();
+        }
+        wildcardTypes.add(type);
+    }
+
+    void addFilters(String type, List<FieldFilter> newFilters) {
+        if (filters == null) {
+            filters = new HashMap<>();
+        }
+        filters.computeIfAbsent(type, t -> new ArrayList<>()).addAll(newFilters);
+    }
+
+    void setRemappedTypes(Set<String> types) {
+        if (types == null || types.isEmpty()) {
+            remappedTypes = null;
+        } else {
+            remappedTypes = types.toArray(new String[types.size()]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FieldUsage{" +
+            "intermediate=" + intermediate +
+            ", neededTypes=" + neededTypes +
+            ", wildcardTypes=" + wildcardTypes +
+            ", remappedTypes=" + (remappedTypes == null ? "[]" : String.join(",", remappedTypes)) +
+            ", filters=" + filters +
+            '}';
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the lines that were read, that were bad (could not be parsed) and that were rejected by a filter.
+ * Only the first {@value #MAX_ERROR_LINES_LOGGED} bad lines are logged.
+ * The counts may be updated from several threads.
+ */
+public class LineCounter {
+
+    public static final int MAX_ERROR_LINES_LOGGED = 10;
+
+    private final Logger log;
+    private final AtomicLong linesRead     = new AtomicLong();
+    private final AtomicLong linesBad      = new AtomicLong();
+    private final AtomicLong linesFiltered = new AtomicLong();
+
+    /**
+     * @param log The logger to which the bad lines are logged.
+     */
+    public LineCounter(Logger log) {
+        this.log = log;
+    }
+
+    public void read() {
+        linesRead.incrementAndGet();
+    }
+
+    public void read(long lines) {
+        linesRead.addAndGet(lines);
+    }
+
+    public void filtered() {
+        linesFiltered.incrementAndGet();
+    }
+
+    /**
+     * Count a bad line; it is logged if it is one of the first {@value #MAX_ERROR_LINES_LOGGED} bad lines.
+     * @param error The reason why the line is bad.
+     * @param line  The line.
+     */
+    public void bad(String error, String line) {
+        long bad = linesBad.incrementAndGet();
+        if (bad <= MAX_ERROR_LINES_LOGGED) {
+            log.error("Parse error >>>{}<<< in line: >>>{}<<<", error, line);
+            if (bad == MAX_ERROR_LINES_LOGGED) {
+                log.error(">>>>>>>>>>> We now stop logging parse errors! <<<<<<<<<<<");
+            }
+        }
+    }
+
+    /**
+     * Add the counts of the other counter to this one.
+     */
+    public void add(LineCounter other) {
+        linesRead.addAndGet(other.getLinesRead());
+        linesBad.addAndGet(other.getLinesBad());
+        linesFiltered.addAndGet(other.getLinesFiltered());
+    }
+
+    public long getLinesRead() {
+        return linesRead.get();
+    }
+
+    public long getLinesBad() {
+        return linesBad.get();
+    }
+
+    public long getLinesFiltered() {
+        return linesFiltered.get();
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A cheap test on the raw line that is done before any parsing.
+ * A line is only parsed if it contains at least one of the needles.
+ * All needles are searched in a single pass over the line (Aho-Corasick) using
+ * a lookup table per byte of the UTF-8 encoded line so the cost does not depend
+ * on the number of needles.
+ * Note that this only looks at the raw text: a needle like " 503 " may also match in other places of the line.
+ */
+public final class LinePrefilter implements Serializable {
+
+    private static final int ALPHABET = 256;
+
+    private final List<String> needles;
+
+    // The next state for state s and byte b is transitions[(s << 8) | b]
+    private final int[]        transitions;
+    // The states where (at least) one of the needles has been found.
+    private final boolean[]    found;
+
+    private LinePrefilter(Collection<String> newNeedles) {
+        if (newNeedles == null || newNeedles.isEmpty()) {
+            throw new IllegalArgumentException("A prefilter needs at least one needle");
+        }
+        needles = new ArrayList<>(newNeedles);
+
+        // Build the trie of all needles
+        List<int[]> trie = new ArrayList<>();
+        List<Boolean> terminal = new ArrayList<>();
+        trie.add(newState());
+        terminal.add(false);
+        for (String needle : needles) {
+            if (needle == null) {
+                throw new IllegalArgumentException("A prefilter cannot have a null needle");
+            }
+            int state = 0;
+            for (byte b : needle.getBytes(StandardCharsets.UTF_8)) {
+                int next = trie.get(state)[b & 0xFF];
+                if (next == -1) {
+                    next = trie.size();
+                    trie.add(newState());
+                    terminal.add(false);
+                    trie.get(state)[b & 0xFF] = next;
+                }
+                state = next;
+            }
+            terminal.set(state, true);
+        }
+
+        // Turn the trie into a complete automaton (breadth first so the failure state is always done).
+        int states = trie.size();
+        transitions = new int[states * ALPHABET];
+        found = new boolean[states];
+        int[] failure = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+
+        found[0] = terminal.get(0);
+        for (int b = 0; b < ALPHABET; b++) {
+            int next = trie.get(0)[b];
+            if (next == -1) {
+                transitions[b] = 0;
+            } else {
+                transitions[b] = next;
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            found[state] = terminal.get(state) || found[failure[state]];
+            for (int b = 0; b < ALPHABET; b++) {
+                int next = trie.get(state)[b];
+                int fallback = transitions[(failure[state] << 8) | b];
+                if (next == -1) {
+                    transitions[(state << 8) | b] = fallback;
+                } else {
+                    transitions[(state << 8) | b] = next;
+                    failure[next] = fallback;
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private static int[] newState() {
+        int[] state = new int[ALPHABET];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    /**
+     * @param needles The texts of which at least one must be present in the line.
+     * @return The prefilter
+     */
+    public static LinePrefilter containsAny(String... needles) {
+        return new LinePrefilter(Arrays.asList(needles));
+    }
+
+    /**
+     * @param needles The texts of which at least one must be present in the line.
+     * @return The prefilter
+     */
+    public static LinePrefilter containsAny(Collection<String> needles) {
+        return new LinePrefilter(needles);
+    }
+
+    public List<String> getNeedles() {
+        return needles;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @param bytes  The UTF-8 encoded line
+     * @param offset The first byte of the line
+     * @param length The number of bytes in the line
+     * @return true if the line contains at least one of the needles.
+     */
+    public boolean matches(byte[] bytes, int offset, int length) {
+        if (found[0]) {
+            return true;
+        }
+        int state = 0;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            state = transitions[(state << 8) | (bytes[i] & 0xFF)];
+            if (found[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The line is matched as if it was UTF-8 encoded (without actually creating the encoded form).
+     * @param line The line
+     * @return true if the line contains at least one of the needles.
+     */
+    public boolean matches(CharSequence line) {
+        if (found[0]) {
+            return true;
+        }
+        int state = 0;
+        final int length = line.length();
+        for (int i = 0; i < length; i++) {
+            int c = line.charAt(i);
+            if (c < 0x80) {
+                state = transitions[(state << 8) | c];
+            } else {
+                if (Character.isHighSurrogate((char) c) && i + 1 < length &&
+                    Character.isLowSurrogate(line.charAt(i + 1))) {
+                    c = Character.toCodePoint((char) c, line.charAt(++i));
+                }
+                state = step(state, c);
+            }
+            if (found[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int step(int startState, int codePoint) {
+        int state = startState;
+        if (codePoint < 0x800) {
+            state = transitions[(state << 8) | (0xC0 | (codePoint >> 6))];
+        } else {
+            if (codePoint < 0x10000) {
+                state = transitions[(state << 8) | (0xE0 | (codePoint >> 12))];
+            } else {
+                state = transitions[(state << 8) | (0xF0 | (codePoint >> 18))];
+                if (found[state]) {
+                    return state;
+                }
+                state = transitions[(state << 8) | (0x80 | ((codePoint >> 12) & 0x3F))];
+            }
+            if (found[state]) {
+                return state;
+            }
+            state = transitions[(state << 8) | (0x80 | ((codePoint >> 6) & 0x3F))];
+        }
+        if (found[state]) {
+            return state;
+        }
+        return transitions[(state << 8) | (0x80 | (codePoint & 0x3F))];
+    }
+
+    @Override
+    public String toString() {
+        return "LinePrefilter{containsAny=" + needles + '}';
+    }
+}
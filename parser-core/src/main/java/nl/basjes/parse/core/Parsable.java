@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -37,26 +38,36 @@ public final class Parsable<RECORD> {
     // This caches the values and intermediate values
     private final Map<String, ParsedField> cache      = new TreeMap<>();
 
-    // The end nodes we really need as output
-    // Values look like "TYPE:foo.bar"
-    private final Set<String>              needed;
-
-    // Values look like "TYPE:foo.bar"
-    private final Set<String>              usefulIntermediates;
-
     // The set of ParsedFields that need to be parsed further
     private final Set<ParsedField>         toBeParsed = new HashSet<>();
 
-    private final Map<String, Set<String>> typeRemappings;
+    // Dissectors produce many values from the same base so we remember the last one we looked up.
+    private String                         lastBase;
+    private FieldUsage                     lastBaseUsage;
+
+    // Set when a filter rejected this line; nothing is dissected any further.
+    private boolean                                          rejected = false;
+
+    // Set when dissecting this parsable failed during a batch run.
+    private DissectionFailure                                dissectionFailure = null;
+
+    // When set all dissections are also appended to this list (used by the CachingDissector).
+    private String                                          recordingInputname = null;
+    private List<CachingDissector.DissectionOutput>         recording = null;
 
     // --------------------------------------------
 
-    public Parsable(final Parser<RECORD> parser, final RECORD record, Map<String, Set<String>> typeRemappings) {
+    public Parsable(final Parser<RECORD> parser, final RECORD record) {
         this.parser = parser;
         this.record = record;
-        this.typeRemappings = typeRemappings;
-        needed = parser.getNeeded();
-        usefulIntermediates = parser.getUsefulIntermediateFields();
+    }
+
+    /**
+     * @deprecated The type remappings are now taken from the parser; use {@link #Parsable(Parser, Object)}.
+     */
+    @Deprecated
+    public Parsable(final Parser<RECORD> parser, final RECORD record, Map<String, Set<String>> typeRemappings) {
+        this(parser, record);
     }
 
     // --------------------------------------------
@@ -147,24 +158,37 @@ public final class Parsable<RECORD> {
             final boolean recursion)
             throws DissectionFailure {
         String completeName;
-        String neededWildCardName;
         if (base.isEmpty()) { // The root name is an empty string
             completeName = name;
-            neededWildCardName = type + ':' + "*";
         } else {
             if (name.isEmpty()) {
                 completeName = base;
             } else {
                 completeName = base + '.' + name;
             }
-            neededWildCardName = type + ':' + base + ".*";
         }
-        String neededName = type + ':' + completeName;
+
+        final FieldUsage usage = parser.getFieldUsage(completeName);
+
+        if (!recursion && recording != null) {
+            // Also when rejected: The recorded outputs must be complete to be usable for other lines.
+            recording.add(new CachingDissector.DissectionOutput(recordingInputname, base, type, name, value));
+        }
+
+        if (rejected) {
+            return this;
+        }
+
+        if (!usage.accepts(type, value)) {
+            LOG.debug("Line rejected by filter on {}:{}", type, completeName);
+            rejected = true;
+            return this;
+        }
 
         if (!recursion) {
-            if (typeRemappings.containsKey(completeName)) {
-                Set<String> typeRemappingSet = typeRemappings.get(completeName);
-                for (String typeRemapping : typeRemappingSet) {
+            String[] typeRemappings = usage.getRemappedTypes();
+            if (typeRemappings != null) {
+                for (String typeRemapping : typeRemappings) {
                     if (type.equals(typeRemapping)) {
                         throw new DissectionFailure(
                                 "[Type Remapping] Trying to map to the same type (mapping definition bug!): " +
@@ -175,23 +199,55 @@ public final class Parsable<RECORD> {
             }
         }
 
-        final ParsedField parsedfield = new ParsedField(type, completeName, value);
-
-        if (usefulIntermediates.contains(completeName)) {
+        if (usage.isIntermediate()) {
+            final ParsedField parsedfield = new ParsedField(type, completeName, value);
             cache.put(parsedfield.getId(), parsedfield);
             toBeParsed.add(parsedfield);
         }
 
-        if (needed.contains(neededName)) {
+        final boolean needed = usage.isNeeded(type);
+        final boolean wildcardNeeded = getBaseUsage(base).isWildcardNeeded(type);
+        if (!(needed || wildcardNeeded)) {
+            return this;
+        }
+
+        String neededName = type + ':' + completeName;
+        if (needed) {
             parser.store(record, neededName, neededName, value);
         }
 
-        if (needed.contains(neededWildCardName)) {
+        if (wildcardNeeded) {
+            String neededWildCardName;
+            if (base.isEmpty()) { // The root name is an empty string
+                neededWildCardName = type + ':' + "*";
+            } else {
+                neededWildCardName = type + ':' + base + ".*";
+            }
             parser.store(record, neededWildCardName, neededName, value);
         }
         return this;
     }
 
+    private FieldUsage getBaseUsage(final String base) {
+        if (!base.equals(lastBase)) {
+            lastBase = base;
+            lastBaseUsage = parser.getFieldUsage(base);
+        }
+        return lastBaseUsage;
+    }
+
+    // --------------------------------------------
+
+    void startRecording(final String inputname, final List<CachingDissector.DissectionOutput> into) {
+        recordingInputname = inputname;
+        recording = into;
+    }
+
+    void stopRecording() {
+        recordingInputname = null;
+        recording = null;
+    }
+
     // --------------------------------------------
 
     public ParsedField getParsableField(final String type, final String name) {
@@ -212,6 +268,33 @@ public final class Parsable<RECORD> {
 
     // --------------------------------------------
 
+    /**
+     * Used during batch dissection to indicate this parsable failed.
+     * Only the first failure is retained.
+     */
+    public void setDissectionFailure(final DissectionFailure failure) {
+        if (dissectionFailure == null) {
+            dissectionFailure = failure;
+        }
+    }
+
+    public DissectionFailure getDissectionFailure() {
+        return dissectionFailure;
+    }
+
+    public boolean hasFailed() {
+        return dissectionFailure != null;
+    }
+
+    /**
+     * @return true if a filter rejected this line (so it was not dissected completely).
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    // --------------------------------------------
+
     public Set<ParsedField> getToBeParsed() {
         return toBeParsed;
     }
@@ -21,6 +21,7 @@ import nl.basjes.parse.core.exceptions.FatalErrorDuringCallOfSetterMethod;
 import nl.basjes.parse.core.exceptions.InvalidDissectorException;
 import nl.basjes.parse.core.exceptions.InvalidFieldMethodSignature;
 import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.core.exceptions.RejectedByFilter;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -85,6 +86,9 @@ public class Parser<RECORD> implements Serializable {
     // Value = the set of dissectors that must all be started once we have this value
     private Map<String, Set<DissectorPhase>> compiledDissectors = null;
     private Set<String> usefulIntermediateFields = null;
+    // Key = "request.time.hour"
+    // Value = How a value with this name is used (needed, wildcard base, remapped, intermediate)
+    private Map<String, FieldUsage> fieldUsages = null;
     private String rootType;
 
     // NOTE: The Method is NOT serializable. So after deserialization the 'assembled' is false
@@ -138,6 +142,18 @@ public class Parser<RECORD> implements Serializable {
         return usefulIntermediateFields;
     }
 
+    /**
+     * @param name The complete name (without the type) of a produced value
+     * @return How this value is used (never null).
+     */
+    FieldUsage getFieldUsage(String name) {
+        FieldUsage fieldUsage = fieldUsages.get(name);
+        if (fieldUsage == null) {
+            return FieldUsage.UNUSED;
+        }
+        return fieldUsage;
+    }
+
     // --------------------------------------------
 
     public final Parser<RECORD> addDissectors(final List<Dissector> dissectors) {
@@ -160,11 +176,77 @@ public class Parser<RECORD> implements Serializable {
 
     // --------------------------------------------
 
+    // Key = input type, Value = the maximum number of cached input values.
+    private final Map<String, Integer> dissectorCacheSizes = new TreeMap<>();
+
+    /**
+     * Remember the outputs of the dissectors that have this input type.
+     * When the same input value is seen again the dissection is not redone but the
+     * remembered outputs are replayed. Useful for values that repeat a lot.
+     * @param inputType The input type of the dissectors that must be cached.
+     * @param maximumSize The maximum number of different input values that are remembered (per dissector).
+     */
+    public Parser<RECORD> enableDissectorCaching(final String inputType, final int maximumSize) {
+        assembled = false;
+        if (maximumSize <= 0) {
+            dissectorCacheSizes.remove(inputType);
+        } else {
+            dissectorCacheSizes.put(inputType, maximumSize);
+        }
+        return this;
+    }
+
+    public Parser<RECORD> disableDissectorCaching(final String inputType) {
+        return enableDissectorCaching(inputType, 0);
+    }
+
+    // --------------------------------------------
+
+    private LinePrefilter linePrefilter = null;
+
+    /**
+     * Only parse the lines that pass this cheap test on the raw line.
+     * Lines that do not pass are rejected before any dissection is done (like a rejection by a filter).
+     * @param newLinePrefilter The prefilter (null to parse all lines).
+     */
+    public Parser<RECORD> setLinePrefilter(final LinePrefilter newLinePrefilter) {
+        linePrefilter = newLinePrefilter;
+        return this;
+    }
+
+    public LinePrefilter getLinePrefilter() {
+        return linePrefilter;
+    }
+
+    private boolean isPrefiltered(final String value) {
+        return linePrefilter != null && value != null && !linePrefilter.matches(value);
+    }
+
+    // --------------------------------------------
+
+    private Dissector createDissectorInstance(final DissectorPhase dissectorPhase) {
+        Dissector newInstance = dissectorPhase.instance.getNewInstance();
+        Integer cacheSize = dissectorCacheSizes.get(dissectorPhase.inputType);
+        if (cacheSize == null || newInstance == null || newInstance instanceof CachingDissector) {
+            return newInstance;
+        }
+        return new CachingDissector(newInstance, cacheSize);
+    }
+
+    private static Class<? extends Dissector> getDissectorClass(final Dissector dissector) {
+        if (dissector instanceof CachingDissector) {
+            return getDissectorClass(((CachingDissector) dissector).getDissector());
+        }
+        return dissector.getClass();
+    }
+
+    // --------------------------------------------
+
     public final Parser<RECORD> dropDissector(Class<? extends Dissector> dissectorClassToDrop) {
         assembled = false;
         Set<Dissector> removeDissector = new HashSet<>();
         for (final Dissector dissector : allDissectors) {
-            if (dissector.getClass().equals(dissectorClassToDrop)) {
+            if (getDissectorClass(dissector).equals(dissectorClassToDrop)) {
                 removeDissector.add(dissector);
             }
         }
@@ -302,6 +384,7 @@ public class Parser<RECORD> implements Serializable {
         // We first build a set of all possible subtargets that may be useful
         // this way we can skip anything we know not to be useful
         Set<String> needed = new HashSet<>(getNeeded());
+        needed.addAll(filters.keySet()); // Filtered fields must be produced even if they are not a target
         needed.add(rootType + ':'); // The root name is an empty string
         LOG.debug("Root: >>>{}:<<<", rootType);
 
@@ -329,7 +412,10 @@ public class Parser<RECORD> implements Serializable {
         Set<String> locatedTargets = new HashSet<>();
         findUsefulDissectorsFromField(allPossibleSubtargets, locatedTargets, rootType, "", true); // The root name is an empty string
 
-        // Step 3: Inform all dissectors to prepare for the run
+        // Step 3: Determine for each produced name how it is to be used during the run.
+        assembleFieldUsages();
+
+        // Step 4: Inform all dissectors to prepare for the run
         for (Set<DissectorPhase> dissectorPhases : compiledDissectors.values()) {
             for (DissectorPhase dissectorPhase : dissectorPhases) {
                 dissectorPhase.instance.prepareForRun();
@@ -341,7 +427,7 @@ public class Parser<RECORD> implements Serializable {
         }
 
         if (failOnMissingDissectors) {
-            // Step 4: As a final step we verify that every required input can be found
+            // Step 5: As a final step we verify that every required input can be found
             Set<String> missingDissectors = getTheMissingFields(locatedTargets);
             if (missingDissectors != null && !missingDissectors.isEmpty()) {
                 StringBuilder allMissing = new StringBuilder(missingDissectors.size() * 64);
@@ -356,6 +442,47 @@ public class Parser<RECORD> implements Serializable {
 
     // --------------------------------------------
 
+    private void assembleFieldUsages() {
+        fieldUsages = new HashMap<>();
+
+        for (String need : getNeeded()) {
+            final int colonPos = need.indexOf(':');
+            if (colonPos == -1) {
+                continue; // Without a type this can never be produced.
+            }
+            final String type = need.substring(0, colonPos);
+            final String name = need.substring(colonPos + 1);
+
+            fieldUsages.computeIfAbsent(name, k -> new FieldUsage()).addNeededType(type);
+
+            if (name.equals("*")) {
+                // The root name is an empty string
+                fieldUsages.computeIfAbsent("", k -> new FieldUsage()).addWildcardType(type);
+            } else if (name.endsWith(".*")) {
+                String base = name.substring(0, name.length() - 2);
+                fieldUsages.computeIfAbsent(base, k -> new FieldUsage()).addWildcardType(type);
+            }
+        }
+
+        for (Entry<String, List<FieldFilter>> filter : filters.entrySet()) {
+            final String field = filter.getKey();
+            final int colonPos = field.indexOf(':');
+            fieldUsages.computeIfAbsent(field.substring(colonPos + 1), k -> new FieldUsage())
+                .addFilters(field.substring(0, colonPos), filter.getValue());
+        }
+
+        for (String intermediate : usefulIntermediateFields) {
+            fieldUsages.computeIfAbsent(intermediate, k -> new FieldUsage()).setIntermediate();
+        }
+
+        for (Entry<String, Set<String>> typeRemapping : typeRemappings.entrySet()) {
+            fieldUsages.computeIfAbsent(typeRemapping.getKey(), k -> new FieldUsage())
+                .setRemappedTypes(typeRemapping.getValue());
+        }
+    }
+
+    // --------------------------------------------
+
     private void findUsefulDissectorsFromField(
             final Set<String> possibleTargets,
             final Set<String> locatedTargets,
@@ -417,13 +544,13 @@ public class Parser<RECORD> implements Serializable {
                         usefulIntermediateFields.add(subRootName);
                     }
 
-                    Class<? extends Dissector> clazz = dissector.instance.getClass();
+                    Class<? extends Dissector> clazz = getDissectorClass(dissector.instance);
                     DissectorPhase dissectorPhaseInstance = findDissectorInstance(subRootPhases, clazz);
 
                     if (dissectorPhaseInstance == null) {
                         dissectorPhaseInstance =
                                 new DissectorPhase(dissector.inputType, dissector.outputType,
-                                        checkField, dissector.instance.getNewInstance());
+                                        checkField, createDissectorInstance(dissector));
                         subRootPhases.add(dissectorPhaseInstance);
                     }
 
@@ -459,7 +586,7 @@ public class Parser<RECORD> implements Serializable {
     private DissectorPhase findDissectorInstance(Set<DissectorPhase> dissectorPhases,
                                                  Class<? extends Dissector> clazz) {
         for (DissectorPhase phase : dissectorPhases) {
-            if (phase.instance.getClass() == clazz) {
+            if (getDissectorClass(phase.instance) == clazz) {
                 return phase;
             }
         }
@@ -470,7 +597,9 @@ public class Parser<RECORD> implements Serializable {
 
     private Set<String> getTheMissingFields(Set<String> locatedTargets) {
         Set<String> missing = new HashSet<>();
-        for (String target : getNeeded()) {
+        Set<String> needed = new HashSet<>(getNeeded());
+        needed.addAll(filters.keySet());
+        for (String target : needed) {
             if (!locatedTargets.contains(target)) {
                 // Handle wildcard targets differently
                 if (target.endsWith("*")) {
@@ -610,9 +739,11 @@ public class Parser<RECORD> implements Serializable {
                 }
 
                 // We have 1 real target
-                Set<Pair<Method, SetterPolicy>> fieldTargets = targets.computeIfAbsent(cleanedFieldValue, k -> new HashSet<>());
-                fieldTargets.add(Pair.of(method, setterPolicy));
-                targets.put(cleanedFieldValue, fieldTargets);
+                // (After deserialization the targets are restored from the method names during the assembly.)
+                if (targets != null) {
+                    Set<Pair<Method, SetterPolicy>> fieldTargets = targets.computeIfAbsent(cleanedFieldValue, k -> new HashSet<>());
+                    fieldTargets.add(Pair.of(method, setterPolicy));
+                }
 
                 // We have 1 real target
                 Set<Pair<List<String>, SetterPolicy>> fieldTargetNames = targetsMethodNames.get(cleanedFieldValue);
@@ -635,9 +766,40 @@ public class Parser<RECORD> implements Serializable {
 
     // --------------------------------------------
 
+    // Key = "TYPE:name", Value = the filters that must all accept the value of that field.
+    private final Map<String, List<FieldFilter>> filters = new TreeMap<>();
+
+    /**
+     * Only lines where the value of this field is accepted by the filter are dissected completely.
+     * The filter is applied as soon as the field has been produced; if the value is rejected the
+     * remainder of the dissection of that line is skipped and parse returns null.
+     * The field does not need to be a parse target (it is produced anyway).
+     * If the field is not produced at all for a line then that line is retained.
+     * Multiple filters (also on different fields) must all accept the line.
+     * @param fieldValue The field ("TYPE:name") that is tested (wildcards are not allowed).
+     * @param filter The filter that must accept the value of the field.
+     */
+    public Parser<RECORD> addFilter(final String fieldValue, final FieldFilter filter) {
+        assembled = false;
+        final String field = cleanupFieldValue(fieldValue);
+        if (field.indexOf(':') == -1 || field.endsWith("*")) {
+            throw new IllegalArgumentException("A filter needs a single field of the form TYPE:name (got \"" +
+                fieldValue + "\")");
+        }
+        filters.computeIfAbsent(field, f -> new ArrayList<>()).add(filter);
+        return this;
+    }
+
+    public Map<String, List<FieldFilter>> getFilters() {
+        return filters;
+    }
+
+    // --------------------------------------------
+
     private Map<String, Set<String>> typeRemappings = new HashMap<>(16);
 
     public Parser<RECORD> setTypeRemappings(Map<String, Set<String>> pTypeRemappings) {
+        assembled = false;
         if (pTypeRemappings == null) {
             this.typeRemappings.clear();
         } else {
@@ -695,29 +857,156 @@ public class Parser<RECORD> implements Serializable {
     /**
      * Parse the value and return a new instance of RECORD.
      * For this method to work the RECORD class may NOT be an inner class.
+     * @return The new record or null if the line was rejected by a filter.
      */
     public RECORD parse(final String value)
         throws DissectionFailure, InvalidDissectorException, MissingDissectorsException {
         assembleDissectors();
+        if (isPrefiltered(value)) {
+            return null;
+        }
         final Parsable<RECORD> parsable = createParsable();
         if (parsable == null) {
             return null;
         }
         parsable.setRootDissection(rootType, value);
-        return parse(parsable).getRecord();
+        return getRecordIfAccepted(parse(parsable));
     }
 
     // --------------------------------------------
 
     /**
      * Parse the value and call all configured setters in the provided instance of RECORD.
+     * @return The provided record or null if the line was rejected by a filter
+     * (some of the setters may have been called already).
      */
     public RECORD parse(final RECORD record, final String value)
         throws DissectionFailure, InvalidDissectorException, MissingDissectorsException {
         assembleDissectors();
+        if (isPrefiltered(value)) {
+            return null;
+        }
         final Parsable<RECORD> parsable = createParsable(record);
         parsable.setRootDissection(rootType, value);
-        return parse(parsable).getRecord();
+        return getRecordIfAccepted(parse(parsable));
+    }
+
+    private RECORD getRecordIfAccepted(final Parsable<RECORD> parsable) {
+        if (parsable == null || parsable.isRejected()) {
+            return null;
+        }
+        return parsable.getRecord();
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Parse a batch of values and call all configured setters in the corresponding instances of RECORD.
+     * Instead of running the entire tree for each value separately the values are handled one level
+     * at a time: all values of the same field (over all lines in the batch) are given to each dissector
+     * in a single call ({@link Dissector#dissectBatch(List, String)}).
+     * A line that fails (or is rejected by a filter) is not dissected any further and does not affect the other lines.
+     * @param records The records in which the results must be stored.
+     * @param values  The values to parse (the same size as records).
+     * @return For each value the failure that occurred or null if the value was parsed correctly.
+     * A line that was rejected by a filter (or the line prefilter) is reported with a {@link RejectedByFilter}.
+     */
+    public List<DissectionFailure> parseBatch(final List<RECORD> records, final List<String> values)
+        throws InvalidDissectorException, MissingDissectorsException {
+        if (records.size() != values.size()) {
+            throw new IllegalArgumentException("The number of records (" + records.size() + ") " +
+                "is different from the number of values (" + values.size() + ")");
+        }
+        assembleDissectors();
+
+        // A line that is rejected by the prefilter does not get a parsable at all (i.e. null).
+        final List<Parsable<RECORD>> parsables = new ArrayList<>(values.size());
+        List<Parsable<RECORD>> active = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            if (isPrefiltered(values.get(i))) {
+                parsables.add(null);
+                continue;
+            }
+            final Parsable<RECORD> parsable = createParsable(records.get(i));
+            parsable.setRootDissection(rootType, values.get(i));
+            parsables.add(parsable);
+            active.add(parsable);
+        }
+
+        // Field id --> The parsables that have that field (within this level of the tree).
+        final Map<String, List<Parsable<RECORD>>> columns = new TreeMap<>();
+        // Field id --> The name of that field.
+        final Map<String, String> columnNames = new HashMap<>();
+
+        while (!active.isEmpty()) {
+            columns.clear();
+            columnNames.clear();
+            for (Parsable<RECORD> parsable : active) {
+                Set<ParsedField> toBeParsed = new HashSet<>(parsable.getToBeParsed());
+                for (ParsedField fieldThatNeedsToBeParsed : toBeParsed) {
+                    parsable.setAsParsed(fieldThatNeedsToBeParsed);
+                    String id = fieldThatNeedsToBeParsed.getId();
+                    if (!compiledDissectors.containsKey(id)) {
+                        LOG.trace("NO DISSECTORS FOR \"{}\"", fieldThatNeedsToBeParsed);
+                        continue;
+                    }
+                    columns.computeIfAbsent(id, k -> new ArrayList<>()).add(parsable);
+                    columnNames.put(id, fieldThatNeedsToBeParsed.getName());
+                }
+            }
+
+            boolean failures = false;
+            for (Entry<String, List<Parsable<RECORD>>> column : columns.entrySet()) {
+                final String name = columnNames.get(column.getKey());
+                List<Parsable<RECORD>> columnParsables = column.getValue();
+                for (DissectorPhase dissector : compiledDissectors.get(column.getKey())) {
+                    if (failures) {
+                        columnParsables = withoutFinished(columnParsables);
+                    }
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Dissect {} values of {} with {}",
+                            columnParsables.size(), column.getKey(), dissector.instance.getClass().getName());
+                    }
+                    dissector.instance.dissectBatch(columnParsables, name);
+                    if (!failures) {
+                        for (Parsable<RECORD> parsable : columnParsables) {
+                            if (parsable.hasFailed() || parsable.isRejected()) {
+                                failures = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+
+            final List<Parsable<RECORD>> next = new ArrayList<>(active.size());
+            for (Parsable<RECORD> parsable : active) {
+                if (!parsable.hasFailed() && !parsable.isRejected() && !parsable.getToBeParsed().isEmpty()) {
+                    next.add(parsable);
+                }
+            }
+            active = next;
+        }
+
+        final List<DissectionFailure> result = new ArrayList<>(parsables.size());
+        for (Parsable<RECORD> parsable : parsables) {
+            if (parsable == null || (parsable.isRejected() && !parsable.hasFailed())) {
+                result.add(new RejectedByFilter());
+            } else {
+                result.add(parsable.getDissectionFailure());
+            }
+        }
+        return result;
+    }
+
+    private List<Parsable<RECORD>> withoutFinished(final List<Parsable<RECORD>> parsables) {
+        final List<Parsable<RECORD>> result = new ArrayList<>(parsables.size());
+        for (Parsable<RECORD> parsable : parsables) {
+            if (!parsable.hasFailed() && !parsable.isRejected()) {
+                result.add(parsable);
+            }
+        }
+        return result;
     }
 
     // --------------------------------------------
@@ -735,6 +1024,9 @@ public class Parser<RECORD> implements Serializable {
 
         while (toBeParsed.size() > 0) {
             for (ParsedField fieldThatNeedsToBeParsed : toBeParsed) {
+                if (parsable.isRejected()) {
+                    return parsable; // A filter rejected this line: Skip all remaining work.
+                }
                 parsable.setAsParsed(fieldThatNeedsToBeParsed);
                 Set<DissectorPhase> dissectorSet = compiledDissectors.get(fieldThatNeedsToBeParsed.getId());
                 if (dissectorSet != null) {
@@ -877,7 +1169,7 @@ public class Parser<RECORD> implements Serializable {
     // --------------------------------------------
 
     private Parsable<RECORD> createParsable(RECORD record) {
-        return new Parsable<>(this, record, typeRemappings);
+        return new Parsable<>(this, record);
     }
 
     public Parsable<RECORD> createParsable() {
@@ -0,0 +1,223 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A 'record' for the parser with a fixed set of typed slots that is reused for every line.
+ * Each slot holds one field in one type (String, Long or Double); the same field can have several slots.
+ * Which slot receives which field is described by a {@link Layout}.
+ * Subclasses can override {@link #set(int, Object)} and {@link #clear()} to put the values elsewhere.
+ */
+public class TypedSlotRecord {
+
+    /**
+     * The slots of a record: per slot the field ("TYPE:name") and the type in which it is retrieved.
+     */
+    public static final class Layout implements Serializable {
+        private final List<String> fields;
+        private final List<Casts> casts;
+
+        // Key = "TYPE:name", Value = the slots of that field with that type
+        private final Map<String, int[]> stringSlots = new HashMap<>();
+        private final Map<String, int[]> longSlots   = new HashMap<>();
+        private final Map<String, int[]> doubleSlots = new HashMap<>();
+
+        /**
+         * @param fields The field of each slot.
+         * @param casts  The type of each slot (STRING, LONG or DOUBLE).
+         */
+        public Layout(List<String> fields, List<Casts> casts) {
+            if (fields.size() != casts.size()) {
+                throw new IllegalArgumentException("Got " + fields.size() + " fields and " + casts.size() + " casts");
+            }
+            this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+            this.casts  = Collections.unmodifiableList(new ArrayList<>(casts));
+            for (int slot = 0; slot < fields.size(); slot++) {
+                addSlot(slotsOf(this.casts.get(slot)), this.fields.get(slot), slot);
+            }
+        }
+
+        /**
+         * A layout with a slot per field (in the same order) in the most specific type the field can be
+         * retrieved in (see {@link FieldCasts#mostSpecific}) with everything that has been configured in the parser.
+         * @param parser The (configured) parser, it is not changed.
+         * @param fields The fields, a field that is listed more than once gets a slot each time.
+         */
+        public static <RECORD extends TypedSlotRecord> Layout mostSpecific(Parser<RECORD> parser, List<String> fields)
+            throws MissingDissectorsException, InvalidDissectorException {
+            Map<String, EnumSet<Casts>> fieldCasts = resolveCasts(parser, fields);
+            List<Casts> casts = new ArrayList<>(fields.size());
+            for (String field : fields) {
+                casts.add(FieldCasts.mostSpecific(fieldCasts.get(field)));
+            }
+            return new Layout(fields, casts);
+        }
+
+        /**
+         * Make the parser call the setters of the {@link TypedSlotRecord} for all slots of this layout.
+         */
+        public void addParseTargets(Parser<? extends TypedSlotRecord> parser, Parser.SetterPolicy setterPolicy) {
+            addParseTargets(parser, STRING_SETTER, setterPolicy, stringSlots);
+            addParseTargets(parser, LONG_SETTER,   setterPolicy, longSlots);
+            addParseTargets(parser, DOUBLE_SETTER, setterPolicy, doubleSlots);
+        }
+
+        private static void addParseTargets(Parser<? extends TypedSlotRecord> parser, Method setter,
+                                            Parser.SetterPolicy setterPolicy, Map<String, int[]> slots) {
+            if (!slots.isEmpty()) {
+                parser.addParseTarget(setter, setterPolicy, new ArrayList<>(slots.keySet()));
+            }
+        }
+
+        private Map<String, int[]> slotsOf(Casts cast) {
+            switch (cast) {
+                case STRING: return stringSlots;
+                case LONG:   return longSlots;
+                case DOUBLE: return doubleSlots;
+                default: throw new IllegalArgumentException("Unsupported cast " + cast);
+            }
+        }
+
+        private static void addSlot(Map<String, int[]> slots, String field, int slot) {
+            int[] existing = slots.get(field);
+            if (existing == null) {
+                slots.put(field, new int[]{slot});
+            } else {
+                int[] extended = Arrays.copyOf(existing, existing.length + 1);
+                extended[existing.length] = slot;
+                slots.put(field, extended);
+            }
+        }
+
+        public int size() {
+            return fields.size();
+        }
+
+        public String getField(int slot) {
+            return fields.get(slot);
+        }
+
+        public Casts getCast(int slot) {
+            return casts.get(slot);
+        }
+
+        /**
+         * @return The first slot of the field (in any type) or -1 if the field has no slot.
+         */
+        public int getSlot(String field) {
+            return fields.indexOf(field);
+        }
+    }
+
+    private static final Method STRING_SETTER;
+    private static final Method LONG_SETTER;
+    private static final Method DOUBLE_SETTER;
+
+    static {
+        try {
+            STRING_SETTER = TypedSlotRecord.class.getMethod("setString", String.class, String.class);
+            LONG_SETTER   = TypedSlotRecord.class.getMethod("setLong",   String.class, Long.class);
+            DOUBLE_SETTER = TypedSlotRecord.class.getMethod("setDouble", String.class, Double.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Determine the casts of the fields with everything that has been configured in the parser
+     * (see {@link FieldCasts#resolve}).
+     */
+    public static <RECORD extends TypedSlotRecord> Map<String, EnumSet<Casts>> resolveCasts(
+            Parser<RECORD> parser, Collection<String> fields)
+        throws MissingDissectorsException, InvalidDissectorException {
+        return FieldCasts.resolve(parser, STRING_SETTER, fields);
+    }
+
+    private final Layout layout;
+    private final Object[] values;
+
+    public TypedSlotRecord(Layout layout) {
+        this.layout = layout;
+        this.values = new Object[layout.size()];
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return The value of the slot of the last parsed line (null if absent).
+     */
+    public Object get(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * @return A copy of the values of all slots.
+     */
+    public Object[] getValues() {
+        return values.clone();
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+    }
+
+    /**
+     * Store the value of a slot; subclasses that put the values elsewhere override this.
+     */
+    protected void set(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    private void set(Map<String, int[]> slots, String name, Object value) {
+        int[] fieldSlots = slots.get(name);
+        if (fieldSlots == null) {
+            return;
+        }
+        for (int slot : fieldSlots) {
+            set(slot, value);
+        }
+    }
+
+    public void setString(String name, String value) {
+        set(layout.stringSlots, name, value);
+    }
+
+    public void setLong(String name, Long value) {
+        set(layout.longSlots, name, value);
+    }
+
+    public void setDouble(String name, Double value) {
+        set(layout.doubleSlots, name, value);
+    }
+
+}
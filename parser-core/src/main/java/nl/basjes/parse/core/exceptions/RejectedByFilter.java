@@ -0,0 +1,34 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core.exceptions;
+
+/**
+ * Reported by {@link nl.basjes.parse.core.Parser#parseBatch} for a line that was not parsed completely
+ * because a filter rejected it. This is not an error in the line.
+ */
+public class RejectedByFilter extends DissectionFailure {
+    private static final long serialVersionUID = 1L;
+
+    public RejectedByFilter() {
+        super("The line was rejected by a filter");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this; // Is only used as a marker so the (expensive) stacktrace is not needed.
+    }
+}
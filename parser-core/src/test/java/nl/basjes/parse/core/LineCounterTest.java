@@ -0,0 +1,51 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineCounterTest {
+
+    @Test
+    public void testCounting() {
+        LineCounter counter = new LineCounter(LoggerFactory.getLogger(LineCounterTest.class));
+        for (int line = 0; line < 25; line++) {
+            counter.read();
+            if (line % 2 == 0) {
+                counter.bad("Bad line", "Line " + line);
+            }
+        }
+        counter.filtered();
+        counter.read(5);
+
+        assertEquals(30, counter.getLinesRead());
+        assertEquals(13, counter.getLinesBad());
+        assertEquals(1,  counter.getLinesFiltered());
+
+        LineCounter total = new LineCounter(LoggerFactory.getLogger(LineCounterTest.class));
+        total.read();
+        total.add(counter);
+        total.add(counter);
+        assertEquals(61, total.getLinesRead());
+        assertEquals(26, total.getLinesBad());
+        assertEquals(2,  total.getLinesFiltered());
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.ParserFilterTest.FilterRecord;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.RejectedByFilter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LinePrefilterTest {
+
+    private void assertMatches(LinePrefilter prefilter, String line, boolean expected) {
+        assertEquals(line, expected, prefilter.matches(line));
+        byte[] bytes = ("xx" + line + "yy").getBytes(StandardCharsets.UTF_8);
+        int prefix = "xx".length();
+        assertEquals(line, expected, prefilter.matches(bytes, prefix, bytes.length - prefix - "yy".length()));
+    }
+
+    @Test
+    public void testSingleNeedle() {
+        LinePrefilter prefilter = LinePrefilter.containsAny("/api/checkout");
+        assertMatches(prefilter, "GET /api/checkout HTTP/1.1", true);
+        assertMatches(prefilter, "GET /api/checkout", true);
+        assertMatches(prefilter, "/api/checkout", true);
+        assertMatches(prefilter, "GET /api/check HTTP/1.1", false);
+        assertMatches(prefilter, "GET /api/api/checkou", false);
+        assertMatches(prefilter, "", false);
+    }
+
+    @Test
+    public void testMultipleOverlappingNeedles() {
+        LinePrefilter prefilter = LinePrefilter.containsAny("she", "he", "hers", "his", " 503 ");
+        assertMatches(prefilter, "ushers", true);
+        assertMatches(prefilter, "xhix", false);
+        assertMatches(prefilter, "xhisx", true);
+        assertMatches(prefilter, "shhe", true);
+        assertMatches(prefilter, "\"GET / HTTP/1.1\" 503 1234", true);
+        assertMatches(prefilter, "\"GET / HTTP/1.1\" 5030 1234", false);
+    }
+
+    @Test
+    public void testNonAscii() {
+        LinePrefilter prefilter = LinePrefilter.containsAny("café", "€", "😀");
+        assertMatches(prefilter, "Un café s'il vous plait", true);
+        assertMatches(prefilter, "Un cafe s'il vous plait", false);
+        assertMatches(prefilter, "5€", true);
+        assertMatches(prefilter, "Smile 😀!", true);
+        assertMatches(prefilter, "Other 😁!", false);
+        assertMatches(prefilter, "ééé", false);
+    }
+
+    @Test
+    public void testEmptyNeedleMatchesEverything() {
+        LinePrefilter prefilter = LinePrefilter.containsAny("");
+        assertMatches(prefilter, "", true);
+        assertMatches(prefilter, "Something", true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoNeedles() {
+        LinePrefilter.containsAny(new ArrayList<>());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(LinePrefilter.containsAny("one", "two"));
+        }
+        LinePrefilter prefilter;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            prefilter = (LinePrefilter) in.readObject();
+        }
+        assertEquals(Arrays.asList("one", "two"), prefilter.getNeedles());
+        assertMatches(prefilter, "number two", true);
+        assertMatches(prefilter, "number three", false);
+    }
+
+    // --------------------------------------------
+
+    private Parser<FilterRecord> createParser() {
+        return new Parser<>(FilterRecord.class)
+            .addDissector(new ParserCachingTest.CountingDissector())
+            .addDissector(new ParserBatchTest.FirstLetterDissector())
+            .setRootType("INPUT")
+            .setLinePrefilter(LinePrefilter.containsAny("ne", "hr"));
+    }
+
+    @Test
+    public void testParserWithPrefilter() throws Exception {
+        Parser<FilterRecord> parser = createParser();
+
+        assertNotNull(parser.parse("one"));
+        assertNotNull(parser.parse("three"));
+        assertNull(parser.parse("two"));
+
+        assertNull(parser.parse(new FilterRecord(), "four"));
+    }
+
+    @Test
+    public void testParseBatchWithPrefilter() throws Exception {
+        Parser<FilterRecord> parser = createParser();
+
+        List<String> values = Arrays.asList("one", "two", "three");
+        List<FilterRecord> records = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++) {
+            records.add(new FilterRecord());
+        }
+
+        List<DissectionFailure> failures = parser.parseBatch(records, values);
+        assertNull(failures.get(0));
+        assertTrue(failures.get(1) instanceof RejectedByFilter);
+        assertNull(failures.get(2));
+    }
+
+}
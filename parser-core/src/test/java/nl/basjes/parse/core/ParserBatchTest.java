@@ -0,0 +1,122 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ParserBatchTest {
+
+    public static class FirstLetterDissector extends SimpleDissector {
+        private static final Map<String, EnumSet<Casts>> OUTPUTS = new HashMap<>();
+        static {
+            OUTPUTS.put("LETTER:first",   Casts.STRING_ONLY);
+        }
+
+        static int batchCalls = 0;
+
+        public FirstLetterDissector() {
+            super("STRING", OUTPUTS);
+        }
+
+        @Override
+        public void dissectBatch(List<? extends Parsable<?>> parsables, String inputname) {
+            batchCalls++;
+            super.dissectBatch(parsables, inputname);
+        }
+
+        @Override
+        public void dissect(Parsable<?> parsable, String inputname, Value value) throws DissectionFailure {
+            parsable.addDissection(inputname, "LETTER", "first", value.getString().substring(0, 1));
+        }
+    }
+
+    public static class BatchRecord {
+        private String upper;
+        private Long   length;
+        private String first;
+
+        @Field("STRING:upper")
+        public void setUpper(String value) {
+            upper = value;
+        }
+
+        @Field("LENGTH:length")
+        public void setLength(Long value) {
+            length = value;
+        }
+
+        @Field("LETTER:upper.first")
+        public void setFirst(String value) {
+            first = value;
+        }
+    }
+
+    @Test
+    public void testBatchParsing() throws Exception {
+        Parser<BatchRecord> parser = new Parser<>(BatchRecord.class)
+            .addDissector(new ParserCachingTest.CountingDissector())
+            .addDissector(new FirstLetterDissector())
+            .setRootType("INPUT");
+
+        List<String> values = Arrays.asList("one", "bad", "three", "four");
+        List<BatchRecord> records = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++) {
+            records.add(new BatchRecord());
+        }
+
+        FirstLetterDissector.batchCalls = 0;
+        List<DissectionFailure> failures = parser.parseBatch(records, values);
+        assertEquals(values.size(), failures.size());
+
+        // The second level dissector is called once for the entire column.
+        assertEquals(1, FirstLetterDissector.batchCalls);
+
+        assertNotNull(failures.get(1));
+        assertNull(records.get(1).upper);
+        assertNull(records.get(1).first);
+
+        for (int i : new int[]{0, 2, 3}) {
+            String value = values.get(i);
+            BatchRecord record = records.get(i);
+            assertNull(failures.get(i));
+            assertEquals(value.toUpperCase(), record.upper);
+            assertEquals(value.length(), record.length.longValue());
+            assertEquals(value.toUpperCase().substring(0, 1), record.first);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedSizes() throws Exception {
+        new Parser<>(BatchRecord.class)
+            .addDissector(new ParserCachingTest.CountingDissector())
+            .setRootType("INPUT")
+            .parseBatch(new ArrayList<>(), Arrays.asList("one", "two"));
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParserCachingTest {
+
+    public static class CountingDissector extends SimpleDissector {
+        private static final Map<String, EnumSet<Casts>> OUTPUTS = new HashMap<>();
+        static {
+            OUTPUTS.put("STRING:upper",   Casts.STRING_ONLY);
+            OUTPUTS.put("LENGTH:length",  Casts.STRING_OR_LONG);
+        }
+
+        static int calls = 0;
+
+        public CountingDissector() {
+            super("INPUT", OUTPUTS);
+        }
+
+        @Override
+        public void dissect(Parsable<?> parsable, String inputname, Value value) throws DissectionFailure {
+            calls++;
+            String input = value.getString();
+            if ("bad".equals(input)) {
+                throw new DissectionFailure("Bad input");
+            }
+            parsable.addDissection(inputname, "STRING", "upper", input.toUpperCase());
+            parsable.addDissection(inputname, "LENGTH", "length", input.length());
+        }
+    }
+
+    public static class CachingRecord {
+        private String upper;
+        private Long   length;
+
+        @Field("STRING:upper")
+        public void setUpper(String value) {
+            upper = value;
+        }
+
+        @Field("LENGTH:length")
+        public void setLength(Long value) {
+            length = value;
+        }
+    }
+
+    private Parser<CachingRecord> createParser(int cacheSize) {
+        return new Parser<>(CachingRecord.class)
+            .addDissector(new CountingDissector())
+            .setRootType("INPUT")
+            .enableDissectorCaching("INPUT", cacheSize);
+    }
+
+    private void check(Parser<CachingRecord> parser, String input) throws Exception {
+        CachingRecord record = parser.parse(input);
+        assertEquals(input.toUpperCase(), record.upper);
+        assertEquals(input.length(), record.length.longValue());
+    }
+
+    @Test
+    public void testRepeatedInputIsCached() throws Exception {
+        Parser<CachingRecord> parser = createParser(10);
+
+        CountingDissector.calls = 0;
+        check(parser, "one");
+        check(parser, "two");
+        check(parser, "one");
+        check(parser, "one");
+        check(parser, "two");
+        assertEquals(2, CountingDissector.calls);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        Parser<CachingRecord> parser = createParser(2);
+
+        CountingDissector.calls = 0;
+        check(parser, "one");
+        check(parser, "two");
+        check(parser, "one");   // Cached: "two" is now the least recently used
+        check(parser, "three"); // Evicts "two"
+        assertEquals(3, CountingDissector.calls);
+        check(parser, "one");   // Still cached
+        assertEquals(3, CountingDissector.calls);
+        check(parser, "two");   // Evicted
+        assertEquals(4, CountingDissector.calls);
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        Parser<CachingRecord> parser = createParser(10);
+
+        CountingDissector.calls = 0;
+        for (int i = 0; i < 2; i++) {
+            try {
+                parser.parse("bad");
+            } catch (DissectionFailure e) {
+                // Expected
+            }
+        }
+        assertEquals(2, CountingDissector.calls);
+    }
+
+    @Test
+    public void testDisabledCaching() throws Exception {
+        Parser<CachingRecord> parser = createParser(10)
+            .disableDissectorCaching("INPUT");
+
+        CountingDissector.calls = 0;
+        check(parser, "one");
+        check(parser, "one");
+        assertEquals(2, CountingDissector.calls);
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.ParserNormalTest.TestParser;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ParserFieldUsageTest {
+
+    @Test
+    public void testFieldUsages() throws Exception {
+        Parser<ParserNormalRecordTest> parser = new TestParser<>(ParserNormalRecordTest.class);
+        parser.addTypeRemapping("output1.foo", "SOMETYPE");
+        parser.getAllCasts(); // Forces the assembly
+
+        FieldUsage root = parser.getFieldUsage("");
+        assertTrue(root.isIntermediate());
+        assertTrue(root.isWildcardNeeded("SOMETYPE"));
+        assertTrue(root.isWildcardNeeded("OTHERTYPE"));
+        assertFalse(root.isWildcardNeeded("FOO"));
+
+        FieldUsage output1 = parser.getFieldUsage("output1");
+        assertTrue(output1.isIntermediate());
+        assertTrue(output1.isNeeded("SOMETYPE"));
+        assertFalse(output1.isNeeded("OTHERTYPE"));
+        assertNull(output1.getRemappedTypes());
+
+        FieldUsage foo = parser.getFieldUsage("output1.foo");
+        assertTrue(foo.isNeeded("FOO"));
+        assertArrayEquals(new String[]{"SOMETYPE"}, foo.getRemappedTypes());
+
+        assertSame(FieldUsage.UNUSED, parser.getFieldUsage("something.else"));
+    }
+
+}
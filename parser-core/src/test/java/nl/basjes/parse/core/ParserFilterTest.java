@@ -0,0 +1,213 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.ParserBatchTest.FirstLetterDissector;
+import nl.basjes.parse.core.ParserCachingTest.CountingDissector;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.RejectedByFilter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static nl.basjes.parse.core.FieldFilters.between;
+import static nl.basjes.parse.core.FieldFilters.equalTo;
+import static nl.basjes.parse.core.FieldFilters.greaterThan;
+import static nl.basjes.parse.core.FieldFilters.in;
+import static nl.basjes.parse.core.FieldFilters.isNotNull;
+import static nl.basjes.parse.core.FieldFilters.isNull;
+import static nl.basjes.parse.core.FieldFilters.lessThan;
+import static nl.basjes.parse.core.FieldFilters.not;
+import static nl.basjes.parse.core.FieldFilters.notEqualTo;
+import static nl.basjes.parse.core.FieldFilters.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParserFilterTest {
+
+    public static class FilterRecord {
+        private String upper;
+        private Long   length;
+        private String first;
+
+        @Field("STRING:upper")
+        public void setUpper(String value) {
+            upper = value;
+        }
+
+        @Field("LENGTH:length")
+        public void setLength(Long value) {
+            length = value;
+        }
+
+        @Field("LETTER:upper.first")
+        public void setFirst(String value) {
+            first = value;
+        }
+    }
+
+    public static class FirstOnlyRecord {
+        private String first;
+
+        @Field("LETTER:upper.first")
+        public void setFirst(String value) {
+            first = value;
+        }
+    }
+
+    private Parser<FilterRecord> createParser() {
+        return new Parser<>(FilterRecord.class)
+            .addDissector(new CountingDissector())
+            .addDissector(new FirstLetterDissector())
+            .setRootType("INPUT");
+    }
+
+    @Test
+    public void testRejectedLinesAreNotDissectedFurther() throws Exception {
+        Parser<FilterRecord> parser = createParser()
+            .addFilter("LENGTH:length", greaterThan(3));
+
+        FilterRecord record = new FilterRecord();
+        assertNull(parser.parse(record, "one"));
+        // Only the values produced before the rejection have been set.
+        assertEquals("ONE", record.upper);
+        assertNull(record.length);
+        assertNull(record.first);
+
+        record = parser.parse("three");
+        assertNotNull(record);
+        assertEquals("THREE", record.upper);
+        assertEquals("T", record.first);
+    }
+
+    @Test
+    public void testFilterOnFieldThatIsNotATarget() throws Exception {
+        Parser<FirstOnlyRecord> parser = new Parser<>(FirstOnlyRecord.class)
+            .addDissector(new CountingDissector())
+            .addDissector(new FirstLetterDissector())
+            .setRootType("INPUT")
+            .addFilter("length:LENGTH", in(Arrays.asList(3L, 5L)));
+
+        assertEquals("O", parser.parse("one").first);
+        assertNull(parser.parse("four"));
+        assertEquals("T", parser.parse("three").first);
+    }
+
+    @Test
+    public void testAllFiltersMustAccept() throws Exception {
+        Parser<FilterRecord> parser = createParser()
+            .addFilter("LENGTH:length", greaterThan(3))
+            .addFilter("LETTER:upper.first", equalTo("T"));
+
+        assertNull(parser.parse("four"));
+        assertNull(parser.parse("one"));
+        assertNotNull(parser.parse("three"));
+    }
+
+    @Test
+    public void testFilterWithCaching() throws Exception {
+        Parser<FilterRecord> parser = createParser()
+            .enableDissectorCaching("INPUT", 10)
+            .addFilter("STRING:upper", startsWith("T"));
+
+        // The first one is rejected while the output is being recorded; the replay must still be complete.
+        assertNull(parser.parse("one"));
+        assertNull(parser.parse("one"));
+        assertNotNull(parser.parse("two"));
+        FilterRecord record = parser.parse("two");
+        assertNotNull(record);
+        assertEquals("TWO", record.upper);
+        assertEquals(3, record.length.longValue());
+        assertEquals("T", record.first);
+    }
+
+    @Test
+    public void testBatchWithFilter() throws Exception {
+        Parser<FilterRecord> parser = createParser()
+            .addFilter("LENGTH:length", greaterThan(3));
+
+        List<String> values = Arrays.asList("one", "bad", "three", "four");
+        List<FilterRecord> records = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++) {
+            records.add(new FilterRecord());
+        }
+
+        List<DissectionFailure> failures = parser.parseBatch(records, values);
+        assertTrue(failures.get(0) instanceof RejectedByFilter);
+        assertNull(records.get(0).first);
+        assertFalse(failures.get(1) instanceof RejectedByFilter);
+        assertNull(failures.get(2));
+        assertEquals("T", records.get(2).first);
+        assertNull(failures.get(3));
+        assertEquals("F", records.get(3).first);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoWildcardFilter() {
+        createParser().addFilter("STRING:upper.*", isNotNull());
+    }
+
+    // --------------------------------------------
+
+    private static final Value NULL_VALUE = new Value((String) null);
+
+    @Test
+    public void testFieldFilters() {
+        assertTrue(equalTo("GET").accept(new Value("GET")));
+        assertFalse(equalTo("GET").accept(new Value("POST")));
+        assertFalse(equalTo("GET").accept(NULL_VALUE));
+
+        // Numbers are compared as numbers
+        assertTrue(equalTo(200L).accept(new Value("200")));
+        assertTrue(equalTo(200).accept(new Value(200L)));
+        assertTrue(equalTo(200).accept(new Value("200.0")));
+        assertTrue(lessThan(5).accept(new Value(4.6D)));
+        assertFalse(lessThan(5).accept(new Value(5.4D)));
+        assertTrue(greaterThan(9).accept(new Value("10")));
+        assertFalse(greaterThan(9).accept(new Value("abc")));
+        assertFalse(notEqualTo(Long.MAX_VALUE).accept(new Value(Long.MAX_VALUE)));
+        assertTrue(notEqualTo(Long.MAX_VALUE).accept(new Value(Long.MAX_VALUE - 1)));
+
+        // Strings are compared as strings
+        assertTrue(greaterThan("9").accept(new Value("90")));
+        assertFalse(greaterThan("9").accept(new Value("10")));
+
+        assertTrue(between(500, 599).accept(new Value(503L)));
+        assertFalse(between(500, 599).accept(new Value(404L)));
+
+        assertTrue(isNull().accept(NULL_VALUE));
+        assertFalse(isNull().accept(new Value("")));
+        assertTrue(isNotNull().accept(new Value("")));
+
+        // A comparison with a missing value never matches; the negation of that does match.
+        assertFalse(notEqualTo(1).accept(NULL_VALUE));
+        assertTrue(not(equalTo(1)).accept(NULL_VALUE));
+
+        assertEquals("(== 'GET' OR == 'POST')", in(Arrays.asList("GET", "POST")).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedConstant() {
+        equalTo(new Object());
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.test.NormalValuesDissector;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static nl.basjes.parse.core.Parser.SetterPolicy.ALWAYS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TypedSlotRecordTest {
+
+    private static final List<String> FIELDS = Arrays.asList("ANY:any", "STRING:string", "DOUBLE:double", "ANY:any");
+
+    private Parser<TypedSlotRecord> createParser() {
+        return new Parser<>(TypedSlotRecord.class)
+            .setRootType("INPUT")
+            .addDissector(new NormalValuesDissector());
+    }
+
+    @Test
+    public void testFieldCasts() throws Exception {
+        Parser<TypedSlotRecord> parser = createParser();
+        Map<String, EnumSet<Casts>> casts = FieldCasts.resolve(parser,
+            TypedSlotRecord.class.getMethod("setString", String.class, String.class),
+            Arrays.asList("ANY:any", "STRING:string", "LONG:long"));
+
+        assertEquals(Casts.STRING_OR_LONG_OR_DOUBLE, casts.get("ANY:any"));
+        assertEquals(Casts.STRING_ONLY,              casts.get("STRING:string"));
+        assertEquals(Casts.STRING_OR_LONG,           casts.get("LONG:long"));
+
+        assertEquals(Casts.LONG,   FieldCasts.mostSpecific(casts.get("ANY:any")));
+        assertEquals(Casts.STRING, FieldCasts.mostSpecific(casts.get("STRING:string")));
+        assertEquals(Casts.DOUBLE, FieldCasts.mostSpecific(Casts.STRING_OR_DOUBLE));
+        assertEquals(Casts.STRING, FieldCasts.mostSpecific(null));
+
+        // The casts were determined on a copy: the parser itself has no targets.
+        assertEquals(0, parser.getNeeded().size());
+    }
+
+    @Test
+    public void testMostSpecificLayout() throws Exception {
+        Parser<TypedSlotRecord> parser = createParser();
+        TypedSlotRecord.Layout layout = TypedSlotRecord.Layout.mostSpecific(parser, FIELDS);
+
+        assertEquals(4, layout.size());
+        assertEquals("ANY:any",       layout.getField(0));
+        assertEquals(Casts.LONG,      layout.getCast(0));
+        assertEquals(Casts.STRING,    layout.getCast(1));
+        assertEquals(Casts.DOUBLE,    layout.getCast(2));
+        assertEquals(Casts.LONG,      layout.getCast(3));
+        assertEquals(0,               layout.getSlot("ANY:any"));
+        assertEquals(2,               layout.getSlot("DOUBLE:double"));
+        assertEquals(-1,              layout.getSlot("LONG:long"));
+
+        layout.addParseTargets(parser, ALWAYS);
+        TypedSlotRecord record = parser.parse(new TypedSlotRecord(layout), "Doesn't matter");
+        assertArrayEquals(new Object[]{42L, "FortyTwo", 42D, 42L}, record.getValues());
+
+        record.clear();
+        assertNull(record.get(0));
+    }
+
+    @Test
+    public void testLayoutUsesTypeRemapping() throws Exception {
+        Parser<TypedSlotRecord> parser = createParser()
+            .addTypeRemapping("any", "TEXT", Casts.STRING_ONLY);
+        TypedSlotRecord.Layout layout = TypedSlotRecord.Layout.mostSpecific(parser, Arrays.asList("TEXT:any"));
+
+        assertEquals(Casts.STRING, layout.getCast(0));
+
+        layout.addParseTargets(parser, ALWAYS);
+        assertEquals("42", parser.parse(new TypedSlotRecord(layout), "Doesn't matter").get(0));
+    }
+
+    @Test
+    public void testSameFieldInSeveralSlots() throws Exception {
+        TypedSlotRecord.Layout layout = new TypedSlotRecord.Layout(
+            Arrays.asList("ANY:any",    "ANY:any",  "ANY:any",    "DOUBLE:double"),
+            Arrays.asList(Casts.STRING, Casts.LONG, Casts.DOUBLE, Casts.STRING));
+
+        Parser<TypedSlotRecord> parser = createParser();
+        layout.addParseTargets(parser, ALWAYS);
+        TypedSlotRecord record = parser.parse(new TypedSlotRecord(layout), "Doesn't matter");
+        assertArrayEquals(new Object[]{"42", 42L, 42D, "42.0"}, record.getValues());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLayoutNeedsCastPerField() {
+        new TypedSlotRecord.Layout(Arrays.asList("ANY:any", "STRING:string"), Arrays.asList(Casts.STRING));
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where the converted lines go: it creates the converter of each worker thread and receives the converted chunks.
+ * Closing it (also after a failure) closes everything it opened.
+ */
+interface ConversionOutput extends Closeable {
+    /**
+     * @return A converter for a single worker thread.
+     */
+    ChunkConverter createConverter() throws MissingDissectorsException, InvalidDissectorException;
+
+    /**
+     * Called from a single thread for all chunks in the order of the input.
+     */
+    void write(EncodedChunk chunk) throws IOException;
+}
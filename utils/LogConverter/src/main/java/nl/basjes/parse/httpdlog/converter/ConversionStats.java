@@ -0,0 +1,76 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import java.util.Locale;
+
+/**
+ * The counters of a conversion (only updated by the thread that writes the output).
+ */
+public final class ConversionStats {
+    private final long startNanos = System.nanoTime();
+    private long linesRead = 0;
+    private long linesGood = 0;
+    private long linesBad = 0;
+    private long linesFiltered = 0;
+    private int filesDone = 0;
+    private final int files;
+
+    ConversionStats(int files) {
+        this.files = files;
+    }
+
+    void add(EncodedChunk chunk) {
+        linesRead     += chunk.getLinesRead();
+        linesGood     += chunk.getRecords();
+        linesBad      += chunk.getLinesBad();
+        linesFiltered += chunk.getLinesFiltered();
+    }
+
+    void fileDone() {
+        filesDone++;
+    }
+
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    public long getLinesGood() {
+        return linesGood;
+    }
+
+    public long getLinesBad() {
+        return linesBad;
+    }
+
+    public long getLinesFiltered() {
+        return linesFiltered;
+    }
+
+    public double getLinesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        return seconds <= 0 ? 0 : linesRead / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+            "Files %d/%d: %,d lines (good %,d, bad %,d, filtered %,d) in %.1f s = %,.0f lines/sec",
+            filesDone, files, linesRead, linesGood, linesBad, linesFiltered,
+            (System.nanoTime() - startNanos) / 1_000_000_000.0, getLinesPerSecond());
+    }
+}
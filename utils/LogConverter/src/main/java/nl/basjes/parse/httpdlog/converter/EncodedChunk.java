@@ -0,0 +1,77 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+/**
+ * The encoded output of a chunk of lines and the counters of that chunk.
+ */
+final class EncodedChunk {
+    private final byte[] data;
+    // The end offset (in data) of each encoded record
+    private final int[] recordEnds;
+    private final int records;
+    private final long linesRead;
+    private final long linesBad;
+    private final long linesFiltered;
+    private final boolean endOfFile;
+
+    EncodedChunk(byte[] data, int[] recordEnds, int records,
+                 long linesRead, long linesBad, long linesFiltered, boolean endOfFile) {
+        this.data = data;
+        this.recordEnds = recordEnds;
+        this.records = records;
+        this.linesRead = linesRead;
+        this.linesBad = linesBad;
+        this.linesFiltered = linesFiltered;
+        this.endOfFile = endOfFile;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    int getRecords() {
+        return records;
+    }
+
+    int getRecordStart(int record) {
+        return record == 0 ? 0 : recordEnds[record - 1];
+    }
+
+    int getRecordEnd(int record) {
+        return recordEnds[record];
+    }
+
+    long getLinesRead() {
+        return linesRead;
+    }
+
+    long getLinesBad() {
+        return linesBad;
+    }
+
+    long getLinesFiltered() {
+        return linesFiltered;
+    }
+
+    /**
+     * @return true if this is the last chunk of an input file.
+     */
+    boolean isEndOfFile() {
+        return endOfFile;
+    }
+}
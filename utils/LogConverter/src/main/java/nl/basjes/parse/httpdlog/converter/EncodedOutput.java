@@ -0,0 +1,129 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import nl.basjes.parse.core.LineCounter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.TypedSlotRecord;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.core.exceptions.RejectedByFilter;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import nl.basjes.parse.httpdlog.avro.AvroFieldMapping;
+import nl.basjes.parse.httpdlog.avro.ParsedAvroRecord;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The worker threads parse and encode the records; the single writer only copies the encoded bytes.
+ */
+final class EncodedOutput implements ConversionOutput {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EncodedOutput.class);
+
+    private final String logFormat;
+    private final AvroFieldMapping mapping;
+    private final Supplier<RecordEncoder> encoders;
+    private final ChunkWriter writer;
+    // Only used to log the first bad lines of all worker threads
+    private final LineCounter badLinesLogger = new LineCounter(LOG);
+
+    /**
+     * @param encoders Creates the encoder of each worker thread.
+     * @param writer   Writes the encoded chunks (in the order of the input) to the output.
+     */
+    EncodedOutput(String logFormat, AvroFieldMapping mapping, Supplier<RecordEncoder> encoders, ChunkWriter writer) {
+        this.logFormat = logFormat;
+        this.mapping = mapping;
+        this.encoders = encoders;
+        this.writer = writer;
+    }
+
+    @Override
+    public ChunkConverter createConverter() throws MissingDissectorsException, InvalidDissectorException {
+        return new EncodingConverter();
+    }
+
+    @Override
+    public void write(EncodedChunk chunk) throws IOException {
+        writer.write(chunk);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * The parser, the (reused) records and the encoder of a single worker thread.
+     */
+    private final class EncodingConverter implements ChunkConverter {
+        private final Parser<ParsedAvroRecord> parser;
+        private final TypedSlotRecord.Layout layout;
+        private final List<ParsedAvroRecord> records = new ArrayList<>();
+        private final RecordEncoder encoder;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024 * 1024);
+
+        EncodingConverter() throws MissingDissectorsException, InvalidDissectorException {
+            parser = new HttpdLoglineParser<>(ParsedAvroRecord.class, logFormat);
+            layout = mapping.addParseTargets(parser);
+            encoder = encoders.get();
+        }
+
+        @Override
+        public EncodedChunk convert(List<String> lines, boolean endOfFile)
+            throws IOException, MissingDissectorsException, InvalidDissectorException {
+            while (records.size() < lines.size()) {
+                records.add(mapping.createRecord(layout, GenericData.get()));
+            }
+            List<ParsedAvroRecord> chunkRecords = records.subList(0, lines.size());
+            for (ParsedAvroRecord record : chunkRecords) {
+                record.clear();
+            }
+            List<DissectionFailure> failures = parser.parseBatch(chunkRecords, lines);
+
+            buffer.reset();
+            int[] recordEnds = new int[lines.size()];
+            int good = 0;
+            long bad = 0;
+            long filtered = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                DissectionFailure failure = failures.get(i);
+                if (failure == null) {
+                    encoder.encode((GenericRecord) chunkRecords.get(i).getRecord(), buffer);
+                    recordEnds[good++] = buffer.size();
+                } else if (failure instanceof RejectedByFilter) {
+                    filtered++;
+                } else {
+                    bad++;
+                    badLinesLogger.bad(failure.getMessage(), lines.get(i));
+                }
+            }
+            return new EncodedChunk(buffer.toByteArray(), recordEnds, good, lines.size(), bad, filtered, endOfFile);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Expanding the input arguments (files, directories and globs) and opening them (plain or gzip).
+ */
+final class InputFiles {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private InputFiles() {
+    }
+
+    /**
+     * @param patterns Files, directories (all regular files in it) or globs (like /logs/2018-*&#47;access*.gz)
+     * @return The matching files (sorted per pattern)
+     */
+    static List<Path> expand(List<String> patterns) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String pattern : patterns) {
+            int firstGlobChar = indexOfGlobChar(pattern);
+            if (firstGlobChar == -1) {
+                Path path = Paths.get(pattern);
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> children = Files.list(path)) {
+                        files.addAll(children.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    files.add(path);
+                } else {
+                    throw new IOException("No such file: " + pattern);
+                }
+                continue;
+            }
+
+            // Walk from the deepest directory that does not contain any glob characters
+            int lastSeparator = pattern.lastIndexOf('/', firstGlobChar);
+            Path base = Paths.get(lastSeparator == -1 ? "." : (lastSeparator == 0 ? "/" : pattern.substring(0, lastSeparator)));
+            String glob = lastSeparator == -1 ? "./" + pattern : pattern;
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            List<Path> matches;
+            try (Stream<Path> candidates = Files.walk(base)) {
+                matches = candidates
+                    .filter(Files::isRegularFile)
+                    .filter(matcher::matches)
+                    .sorted()
+                    .collect(Collectors.toList());
+            }
+            if (matches.isEmpty()) {
+                throw new IOException("No files match: " + pattern);
+            }
+            files.addAll(matches);
+        }
+        return Collections.unmodifiableList(files);
+    }
+
+    private static int indexOfGlobChar(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            switch (pattern.charAt(i)) {
+                case '*':
+                case '?':
+                case '[':
+                case '{':
+                    return i;
+                default:
+                    break;
+            }
+        }
+        return -1;
+    }
+
+    static boolean isCompressed(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".gz");
+    }
+
+    static BufferedReader open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (isCompressed(file)) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+}
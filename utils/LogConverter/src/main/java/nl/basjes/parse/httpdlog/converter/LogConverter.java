@@ -0,0 +1,240 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts logfiles (plain or gzip) into CSV, JSON lines, an Avro file or Parquet files using all cores.
+ * <p>
+ * A single thread reads the lines and hands them out in chunks to a pool of worker threads that each have their own
+ * parser; these parse and encode the records. The encoded chunks are written in the same order as the input so the
+ * output is deterministic.
+ * <pre>
+ * java -jar LogConverter.jar -logformat combined -format AVRO -output out.avro \
+ *      -field IP:connection.client.host -field TIME.EPOCH:request.receive.time.epoch \
+ *      '/var/log/httpd/access.log*'
+ * </pre>
+ */
+public class LogConverter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogConverter.class);
+
+    @Option(name = "-logformat", usage = "<Apache HTTPD Logformat>", required = true)
+    private String logFormat = "common";
+
+    @Option(name = "-field", usage = "A field to output (repeat for each field)", required = true)
+    private List<String> fields = new ArrayList<>();
+
+    @Option(name = "-format", usage = "The output format")
+    private OutputFormat format = OutputFormat.CSV;
+
+    @Option(name = "-output", usage = "The output file ('-' is stdout; a CSV or JSON file ending in .gz is compressed) " +
+        "or the output directory for PARQUET")
+    private String output = "-";
+
+    @Option(name = "-threads", usage = "The number of parsing threads (default: all cores)")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "-chunk", usage = "The number of lines per chunk of work")
+    private int chunkSize = 10000;
+
+    @Option(name = "-progress", usage = "The interval in seconds for reporting the progress (0 = never)")
+    private int progressSeconds = 10;
+
+    @Argument(usage = "The input files, directories or globs", metaVar = "input", required = true, multiValued = true)
+    private List<String> inputs = new ArrayList<>();
+
+    private static final Future<EncodedChunk> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+    private final ThreadLocal<ChunkConverter> converters = new ThreadLocal<>();
+
+    public static void main(String[] args) {
+        System.exit(new LogConverter().doMain(args));
+    }
+
+    /**
+     * @return The exit code: 0 = success, 1 = the conversion failed, 2 = invalid arguments.
+     */
+    public int doMain(String[] args) {
+        CmdLineParser cmdLineParser = new CmdLineParser(this);
+        try {
+            cmdLineParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            cmdLineParser.printUsage(System.err);
+            return 2;
+        }
+        try {
+            ConversionStats stats = convert();
+            LOG.info("Done. {}", stats);
+            return 0;
+        } catch (Exception e) {
+            LOG.error("The conversion failed: {}", e.getMessage(), e);
+            return 1;
+        }
+    }
+
+    /**
+     * Run the conversion with the current options.
+     */
+    public ConversionStats convert() throws Exception {
+        List<Path> files = InputFiles.expand(inputs);
+
+        ConversionStats stats = new ConversionStats(files.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // Bounded: the reader blocks if the workers or the writer cannot keep up.
+        BlockingQueue<Future<EncodedChunk>> pending = new ArrayBlockingQueue<>(threads * 4);
+
+        try (ConversionOutput out = format.createOutput(logFormat, fields, output)) {
+            Reader reader = new Reader(files, executor, pending, out);
+            Thread readerThread = new Thread(reader, "LogConverter-reader");
+            readerThread.setDaemon(true);
+            try {
+                readerThread.start();
+                long nextProgress = System.nanoTime() + TimeUnit.SECONDS.toNanos(progressSeconds);
+                while (true) {
+                    Future<EncodedChunk> future = pending.take();
+                    if (future == END_OF_INPUT) {
+                        break;
+                    }
+                    EncodedChunk chunk = getChunk(future);
+                    out.write(chunk);
+                    stats.add(chunk);
+                    if (chunk.isEndOfFile()) {
+                        stats.fileDone();
+                    }
+                    if (progressSeconds > 0 && System.nanoTime() > nextProgress) {
+                        LOG.info("{}", stats);
+                        nextProgress += TimeUnit.SECONDS.toNanos(progressSeconds);
+                    }
+                }
+                Throwable failure = reader.failure;
+                if (failure instanceof Exception) {
+                    throw (Exception) failure;
+                }
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+            } finally {
+                readerThread.interrupt();
+                executor.shutdownNow();
+                // The output is closed (also after a failure) only when the workers no longer use it.
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+        return stats;
+    }
+
+    private static EncodedChunk getChunk(Future<EncodedChunk> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Reads all files and submits the chunks of lines (in order) to the workers.
+     */
+    private final class Reader implements Runnable {
+        private final List<Path> files;
+        private final ExecutorService executor;
+        private final BlockingQueue<Future<EncodedChunk>> pending;
+        private final ConversionOutput conversionOutput;
+        private volatile Throwable failure = null;
+
+        Reader(List<Path> files, ExecutorService executor, BlockingQueue<Future<EncodedChunk>> pending,
+               ConversionOutput conversionOutput) {
+            this.files = files;
+            this.executor = executor;
+            this.pending = pending;
+            this.conversionOutput = conversionOutput;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Path file : files) {
+                    try (BufferedReader in = InputFiles.open(file)) {
+                        List<String> lines = new ArrayList<>(chunkSize);
+                        for (String line = in.readLine(); line != null; line = in.readLine()) {
+                            lines.add(line);
+                            if (lines.size() == chunkSize) {
+                                submit(lines, false);
+                                lines = new ArrayList<>(chunkSize);
+                            }
+                        }
+                        submit(lines, true);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The conversion was aborted; nobody is waiting for the end marker anymore.
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                // Reported by the writer (the main thread) after the chunks that were already submitted.
+                failure = e;
+            } finally {
+                try {
+                    pending.put(END_OF_INPUT);
+                } catch (InterruptedException e) {
+                    // The conversion was aborted
+                }
+            }
+        }
+
+        private void submit(List<String> lines, boolean endOfFile) throws InterruptedException {
+            pending.put(executor.submit(() -> getConverter(conversionOutput).convert(lines, endOfFile)));
+        }
+    }
+
+    private ChunkConverter getConverter(ConversionOutput conversionOutput)
+        throws MissingDissectorsException, InvalidDissectorException {
+        ChunkConverter converter = converters.get();
+        if (converter == null) {
+            converter = conversionOutput.createConverter();
+            converters.set(converter);
+        }
+        return converter;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import nl.basjes.parse.httpdlog.index.GzipIndex;
+import nl.basjes.parse.httpdlog.index.TimeIndex;
+import nl.basjes.parse.httpdlog.index.TimeWindowReader;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the time index (a sidecar file) of logfiles and extracts the lines in a time window using these indexes.
+ * <pre>
+ * java -cp LogConverter.jar nl.basjes.parse.httpdlog.converter.LogIndexer -logformat combined access.log
+ * java -cp LogConverter.jar nl.basjes.parse.httpdlog.converter.LogIndexer -logformat combined \
+ *      -from 2018-03-01T14:00:00Z -until 2018-03-01T14:10:00Z access.log
+ * java -cp LogConverter.jar nl.basjes.parse.httpdlog.converter.LogIndexer -logformat combined -gzindex access.log.gz
+ * </pre>
+ */
+public class LogIndexer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogIndexer.class);
+
+    @Option(name = "-logformat", usage = "<Apache HTTPD Logformat>", required = true)
+    private String logFormat = "common";
+
+    @Option(name = "-interval", usage = "Sample the time of a line every this many KB")
+    private int intervalKB = TimeIndex.DEFAULT_INTERVAL / 1024;
+
+    @Option(name = "-from", usage = "Extract the lines from this time (ISO-8601 like 2018-03-01T14:00:00Z or epoch milliseconds)",
+        depends = "-until")
+    private String from = null;
+
+    @Option(name = "-until", usage = "Extract the lines until (excluding) this time", depends = "-from")
+    private String until = null;
+
+    @Option(name = "-maxdisorder", usage = "The maximum number of seconds a line can be out of time order")
+    private int maxDisorderSeconds = (int) (TimeWindowReader.DEFAULT_MAX_DISORDER / 1000);
+
+    @Option(name = "-gzindex", usage = "Build the gzip index (for reading the .gz files in parallel parts) instead of the time index",
+        forbids = "-from")
+    private boolean gzipIndex = false;
+
+    @Option(name = "-gzspan", usage = "The number of uncompressed MB between the checkpoints of the gzip index")
+    private int gzipSpanMB = (int) (GzipIndex.DEFAULT_SPAN / (1024 * 1024));
+
+    @Argument(usage = "The input files, directories or globs", metaVar = "input", required = true, multiValued = true)
+    private List<String> inputs = new ArrayList<>();
+
+    public static void main(String[] args) {
+        System.exit(new LogIndexer().doMain(args));
+    }
+
+    /**
+     * @return The exit code: 0 = success, 1 = failed, 2 = invalid arguments.
+     */
+    public int doMain(String[] args) {
+        CmdLineParser cmdLineParser = new CmdLineParser(this);
+        try {
+            cmdLineParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            cmdLineParser.printUsage(System.err);
+            return 2;
+        }
+        try {
+            List<Path> files = new ArrayList<>();
+            for (Path file : InputFiles.expand(inputs)) {
+                String name = file.toString();
+                if (!name.endsWith(TimeIndex.EXTENSION) && !name.endsWith(GzipIndex.EXTENSION)) {
+                    files.add(file);
+                }
+            }
+            if (gzipIndex) {
+                for (Path file : files) {
+                    buildGzipIndex(file);
+                }
+            } else if (from == null) {
+                for (Path file : files) {
+                    buildIndex(file);
+                }
+            } else {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1024 * 1024);
+                extract(files, parseTime(from), parseTime(until), out);
+                out.flush();
+            }
+            return 0;
+        } catch (Exception e) {
+            LOG.error("Failed: {}", e.getMessage(), e);
+            return 1;
+        }
+    }
+
+    private TimeIndex buildIndex(Path file) throws Exception {
+        long start = System.nanoTime();
+        TimeIndex index = TimeIndex.build(logFormat, file, intervalKB * 1024);
+        index.write(TimeIndex.getIndexFile(file));
+        LOG.info("Indexed {} ({} bytes, {} samples) in {} ms", file, index.getIndexedLength(), index.size(),
+            (System.nanoTime() - start) / 1000000);
+        return index;
+    }
+
+    private void buildGzipIndex(Path file) throws Exception {
+        long start = System.nanoTime();
+        GzipIndex index = GzipIndex.build(file, gzipSpanMB * 1024L * 1024L);
+        index.write(GzipIndex.getIndexFile(file));
+        LOG.info("Indexed {} ({} bytes uncompressed, {} checkpoints) in {} ms", file, index.getUncompressedLength(),
+            index.getCheckpoints().size(), (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Write the lines of the files in the time window [from, until) to the output.
+     * Files without a (valid) index are indexed first.
+     */
+    void extract(List<Path> files, long fromTime, long untilTime, Writer out) throws Exception {
+        for (Path file : files) {
+            TimeIndex index = TimeIndex.load(file);
+            if (index == null) {
+                index = buildIndex(file);
+            }
+            try (TimeWindowReader reader = new TimeWindowReader(logFormat, file, index, fromTime, untilTime)
+                .withMaxDisorder(maxDisorderSeconds * 1000L)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    out.write(line);
+                    out.write('\n');
+                }
+                LOG.info("Read {} lines from {} starting at offset {}", reader.getLinesRead(), file, reader.getStartOffset());
+            }
+        }
+    }
+
+    static long parseTime(String time) {
+        if (time.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(time);
+        }
+        return Instant.parse(time).toEpochMilli();
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import nl.basjes.parse.httpdlog.avro.AvroFieldMapping;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The supported output formats.
+ */
+public enum OutputFormat {
+    /** Comma separated values (RFC 4180) with a header line. */
+    CSV {
+        @Override
+        ConversionOutput createOutput(String logFormat, List<String> fields, String output)
+            throws IOException, MissingDissectorsException, InvalidDissectorException {
+            AvroFieldMapping mapping = createMapping(logFormat, fields);
+            List<Schema.Field> schemaFields = mapping.getSchema().getFields();
+            OutputStream out = openOutput(output, true);
+            StringBuilder header = new StringBuilder();
+            for (Schema.Field field : schemaFields) {
+                if (header.length() > 0) {
+                    header.append(',');
+                }
+                header.append(field.name());
+            }
+            header.append('\n');
+            out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+            return new EncodedOutput(logFormat, mapping, () -> new CsvEncoder(schemaFields.size()), new BytesChunkWriter(out));
+        }
+    },
+
+    /** One JSON object per line. */
+    JSON {
+        @Override
+        ConversionOutput createOutput(String logFormat, List<String> fields, String output)
+            throws IOException, MissingDissectorsException, InvalidDissectorException {
+            AvroFieldMapping mapping = createMapping(logFormat, fields);
+            List<Schema.Field> schemaFields = mapping.getSchema().getFields();
+            return new EncodedOutput(logFormat, mapping, () -> new JsonEncoder(schemaFields),
+                new BytesChunkWriter(openOutput(output, true)));
+        }
+    },
+
+    /** An Avro container file (deflate compressed). */
+    AVRO {
+        @Override
+        ConversionOutput createOutput(String logFormat, List<String> fields, String output)
+            throws IOException, MissingDissectorsException, InvalidDissectorException {
+            AvroFieldMapping mapping = createMapping(logFormat, fields);
+            Schema schema = mapping.getSchema();
+            return new EncodedOutput(logFormat, mapping, () -> new AvroEncoder(schema),
+                new AvroChunkWriter(schema, openOutput(output, false)));
+        }
+    },
+
+    /**
+     * Parquet files (snappy compressed): the output is a directory in which each worker thread writes its own file.
+     */
+    PARQUET {
+        @Override
+        ConversionOutput createOutput(String logFormat, List<String> fields, String output)
+            throws IOException, MissingDissectorsException, InvalidDissectorException {
+            if ("-".equals(output)) {
+                throw new IllegalArgumentException("The " + this + " output must be a directory");
+            }
+            Files.createDirectories(Paths.get(output));
+            return new ParquetOutput(logFormat, fields, new File(output));
+        }
+    };
+
+    /**
+     * @param output The output file ('-' is stdout) or directory.
+     */
+    abstract ConversionOutput createOutput(String logFormat, List<String> fields, String output)
+        throws IOException, MissingDissectorsException, InvalidDissectorException;
+
+    private static AvroFieldMapping createMapping(String logFormat, List<String> fields)
+        throws MissingDissectorsException, InvalidDissectorException {
+        return AvroFieldMapping.fromSchema(AvroFieldMapping.createSchema(logFormat, "LogLine", fields));
+    }
+
+    private static OutputStream openOutput(String output, boolean compressIfGz) throws IOException {
+        OutputStream out = "-".equals(output) ? System.out : new FileOutputStream(output);
+        if (compressIfGz && output.toLowerCase().endsWith(".gz")) {
+            return new GZIPOutputStream(out, 1024 * 1024);
+        }
+        return new BufferedOutputStream(out, 1024 * 1024);
+    }
+
+    // --------------------------------------------
+
+    private static final class CsvEncoder implements RecordEncoder {
+        private final int columns;
+        private final StringBuilder sb = new StringBuilder(1024);
+
+        CsvEncoder(int columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public void encode(GenericRecord record, OutputStream out) throws IOException {
+            sb.setLength(0);
+            for (int column = 0; column < columns; column++) {
+                if (column > 0) {
+                    sb.append(',');
+                }
+                Object value = record.get(column);
+                if (value == null) {
+                    continue;
+                }
+                String text = value.toString();
+                if (text.indexOf(',') == -1 && text.indexOf('"') == -1 &&
+                    text.indexOf('\n') == -1 && text.indexOf('\r') == -1) {
+                    sb.append(text);
+                    continue;
+                }
+                sb.append('"');
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c == '"') {
+                        sb.append('"');
+                    }
+                    sb.append(c);
+                }
+                sb.append('"');
+            }
+            sb.append('\n');
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static final class JsonEncoder implements RecordEncoder {
+        private final String[] keys;
+        private final StringBuilder sb = new StringBuilder(1024);
+
+        JsonEncoder(List<Schema.Field> fields) {
+            keys = new String[fields.size()];
+            for (int column = 0; column < keys.length; column++) {
+                StringBuilder key = new StringBuilder();
+                appendString(key, fields.get(column).name());
+                keys[column] = key.append(':').toString();
+            }
+        }
+
+        @Override
+        public void encode(GenericRecord record, OutputStream out) throws IOException {
+            sb.setLength(0);
+            sb.append('{');
+            for (int column = 0; column < keys.length; column++) {
+                if (column > 0) {
+                    sb.append(',');
+                }
+                sb.append(keys[column]);
+                Object value = record.get(column);
+                if (value == null) {
+                    sb.append("null");
+                } else if (value instanceof Long) {
+                    sb.append(value);
+                } else if (value instanceof Double) {
+                    double d = (Double) value;
+                    sb.append(Double.isNaN(d) || Double.isInfinite(d) ? "null" : value);
+                } else {
+                    appendString(sb, value.toString());
+                }
+            }
+            sb.append("}\n");
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void appendString(StringBuilder sb, String value) {
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':  sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n");  break;
+                    case '\r': sb.append("\\r");  break;
+                    case '\t': sb.append("\\t");  break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+    }
+
+    private static final class AvroEncoder implements RecordEncoder {
+        private final GenericDatumWriter<GenericRecord> datumWriter;
+        private BinaryEncoder encoder = null;
+
+        AvroEncoder(Schema schema) {
+            datumWriter = new GenericDatumWriter<>(schema);
+        }
+
+        @Override
+        public void encode(GenericRecord record, OutputStream out) throws IOException {
+            encoder = EncoderFactory.get().directBinaryEncoder(out, encoder);
+            datumWriter.write(record, encoder);
+        }
+    }
+
+    // --------------------------------------------
+
+    private static final class BytesChunkWriter implements ChunkWriter {
+        private final OutputStream out;
+
+        BytesChunkWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(EncodedChunk chunk) throws IOException {
+            if (chunk.getRecords() > 0) {
+                out.write(chunk.getData(), 0, chunk.getRecordEnd(chunk.getRecords() - 1));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class AvroChunkWriter implements ChunkWriter {
+        private final DataFileWriter<GenericRecord> writer;
+
+        AvroChunkWriter(Schema schema, OutputStream out) throws IOException {
+            writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(schema));
+            writer.setCodec(CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL));
+            writer.create(schema, out);
+        }
+
+        @Override
+        public void write(EncodedChunk chunk) throws IOException {
+            for (int record = 0; record < chunk.getRecords(); record++) {
+                int start = chunk.getRecordStart(record);
+                writer.appendEncoded(ByteBuffer.wrap(chunk.getData(), start, chunk.getRecordEnd(record) - start));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import nl.basjes.parse.httpdlog.parquet.HttpdLogParquetWriter;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parquet files (snappy compressed) in a directory in which each worker thread writes its own file.
+ * Encoding and compressing the columns is the expensive part, so this is not done by a single writer.
+ */
+final class ParquetOutput implements ConversionOutput {
+
+    private final String logFormat;
+    private final List<String> fields;
+    private final File directory;
+    private final List<HttpdLogParquetWriter> writers = new ArrayList<>();
+
+    ParquetOutput(String logFormat, List<String> fields, File directory) {
+        this.logFormat = logFormat;
+        this.fields = fields;
+        this.directory = directory;
+    }
+
+    @Override
+    public ChunkConverter createConverter() {
+        HttpdLogParquetWriter writer;
+        synchronized (writers) {
+            File file = new File(directory, String.format("part-%05d.parquet", writers.size()));
+            writer = new HttpdLogParquetWriter(logFormat, fields, new Path(file.toURI()));
+            writers.add(writer);
+        }
+        return (lines, endOfFile) -> {
+            long bad = writer.getLinesBad();
+            long filtered = writer.getLinesFiltered();
+            int good = 0;
+            for (String line : lines) {
+                if (writer.add(line)) {
+                    good++;
+                }
+            }
+            return new EncodedChunk(new byte[0], new int[0], good, lines.size(),
+                writer.getLinesBad() - bad, writer.getLinesFiltered() - filtered, endOfFile);
+        };
+    }
+
+    @Override
+    public void write(EncodedChunk chunk) {
+        // Already written by the worker
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        synchronized (writers) {
+            for (HttpdLogParquetWriter writer : writers) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            writers.clear();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
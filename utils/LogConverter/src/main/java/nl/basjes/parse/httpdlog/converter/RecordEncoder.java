@@ -0,0 +1,29 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a single record (used by the worker threads, one instance per thread).
+ */
+interface RecordEncoder {
+    void encode(GenericRecord record, OutputStream out) throws IOException;
+}
@@ -0,0 +1,174 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogConverter {
+
+    private static final File LOGS = new File("src/test/resources");
+
+    // The records in src/test/resources/access-*.log (in order, without the bad line).
+    private static final List<Long> BYTES = Arrays.asList(3525L, 1204L, 812L, 20480L, 2210L, 0L, 209L);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeLogfiles() throws IOException {
+        File dir = folder.newFolder("logs");
+        // One compressed and one plain file
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(dir, "access.log.1.gz")))) {
+            Files.copy(new File(LOGS, "access-1.log").toPath(), out);
+        }
+        Files.copy(new File(LOGS, "access-2.log").toPath(), new File(dir, "access.log.2").toPath());
+        return dir;
+    }
+
+    private String[] args(String format, File output, File logs) {
+        return new String[]{
+            "-logformat", "common",
+            "-field", "IP:connection.client.host",
+            "-field", "HTTP.URI:request.firstline.uri",
+            "-field", "BYTES:response.body.bytes",
+            "-format", format,
+            "-output", output.getAbsolutePath(),
+            "-threads", "4",
+            "-chunk", "2",
+            "-progress", "0",
+            logs.getAbsolutePath() + "/access.log.*",
+        };
+    }
+
+    @Test
+    public void testCsv() throws IOException {
+        File output = new File(folder.getRoot(), "out.csv");
+        assertEquals(0, new LogConverter().doMain(args("CSV", output, writeLogfiles())));
+
+        List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+        assertEquals("connection_client_host,request_firstline_uri,response_body_bytes", lines.get(0));
+        // All lines, in the same order as the input
+        assertEquals(Arrays.asList(
+            "10.0.0.1,/index.html,3525",
+            "10.0.0.2,/css/style.css,1204",
+            "10.0.0.3,\"/search,\\\"\"logparser\\\"\"\",812",
+            "10.0.0.1,/img/logo.png,20480",
+            "10.0.0.4,/about.html,2210",
+            "10.0.0.2,/contact,0",
+            "10.0.0.5,/missing.html,209"),
+            lines.subList(1, lines.size()));
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        File output = new File(folder.getRoot(), "out.json");
+        assertEquals(0, new LogConverter().doMain(args("JSON", output, writeLogfiles())));
+
+        List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+        assertEquals(BYTES.size(), lines.size());
+        assertEquals("{\"connection_client_host\":\"10.0.0.3\"," +
+            "\"request_firstline_uri\":\"/search,\\\\\\\"logparser\\\\\\\"\"," +
+            "\"response_body_bytes\":812}", lines.get(2));
+        assertEquals("{\"connection_client_host\":\"10.0.0.2\"," +
+            "\"request_firstline_uri\":\"/contact\"," +
+            "\"response_body_bytes\":0}", lines.get(5));
+    }
+
+    @Test
+    public void testAvro() throws IOException {
+        File output = new File(folder.getRoot(), "out.avro");
+        assertEquals(0, new LogConverter().doMain(args("AVRO", output, writeLogfiles())));
+
+        List<String> hosts = new ArrayList<>();
+        List<Long> bytes = new ArrayList<>();
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(output, new GenericDatumReader<>())) {
+            for (GenericRecord record : reader) {
+                hosts.add(record.get("connection_client_host").toString());
+                bytes.add((Long) record.get("response_body_bytes"));
+            }
+        }
+        assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.1", "10.0.0.4", "10.0.0.2", "10.0.0.5"),
+            hosts);
+        assertEquals(BYTES, bytes);
+    }
+
+    @Test
+    public void testParquet() throws IOException {
+        File output = new File(folder.getRoot(), "out");
+        assertEquals(0, new LogConverter().doMain(args("PARQUET", output, writeLogfiles())));
+
+        List<Long> bytes = new ArrayList<>();
+        File[] parts = output.listFiles((dir, name) -> name.endsWith(".parquet"));
+        assertTrue(parts != null && parts.length > 0);
+        for (File part : parts) {
+            try (ParquetReader<Group> reader =
+                     ParquetReader.builder(new GroupReadSupport(), new Path(part.toURI())).build()) {
+                for (Group group = reader.read(); group != null; group = reader.read()) {
+                    bytes.add(group.getLong("response_body_bytes", 0));
+                }
+            }
+        }
+        // Each worker writes its own file so only the set of records is the same as the input.
+        List<Long> expected = new ArrayList<>(BYTES);
+        Collections.sort(expected);
+        Collections.sort(bytes);
+        assertEquals(expected, bytes);
+    }
+
+    @Test
+    public void testMissingInput() {
+        File output = new File(folder.getRoot(), "out.csv");
+        assertEquals(1, new LogConverter().doMain(args("CSV", output, new File(folder.getRoot(), "nosuchdir"))));
+        assertEquals(2, new LogConverter().doMain(new String[]{"-format", "CSV"}));
+    }
+
+    @Test(timeout = 60000)
+    public void testReaderFailure() throws IOException {
+        File output = new File(folder.getRoot(), "out.csv");
+        String[] args = args("CSV", output, writeLogfiles());
+        for (int i = 0; i < args.length; i++) {
+            if ("-chunk".equals(args[i])) {
+                args[i + 1] = "-1"; // Makes the reader thread fail with a RuntimeException
+            }
+        }
+        assertEquals(1, new LogConverter().doMain(args));
+    }
+
+}
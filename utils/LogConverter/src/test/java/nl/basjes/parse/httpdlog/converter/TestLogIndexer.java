@@ -0,0 +1,90 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2018 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.converter;
+
+import nl.basjes.parse.httpdlog.index.GzipIndex;
+import nl.basjes.parse.httpdlog.index.TimeIndex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogIndexer {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testIndexAndExtract() throws Exception {
+        Path logfile = folder.newFile("access.log").toPath();
+        List<String> lines = new ArrayList<>();
+        for (int minute = 0; minute < 60; minute++) {
+            for (int second = 0; second < 60; second++) {
+                lines.add(String.format("10.0.0.1 - - [24/Oct/2012:23:%02d:%02d +0000] \"GET / HTTP/1.1\" 200 100",
+                    minute, second));
+            }
+        }
+        Files.write(logfile, lines, StandardCharsets.UTF_8);
+
+        LogIndexer indexer = new LogIndexer();
+        assertEquals(0, indexer.doMain(new String[]{"-logformat", "common", "-interval", "4", logfile.toString()}));
+        TimeIndex index = TimeIndex.load(logfile);
+        assertTrue(index.size() > 20);
+
+        StringWriter out = new StringWriter();
+        indexer.extract(Collections.singletonList(logfile),
+            LogIndexer.parseTime("2012-10-24T23:10:00Z"), LogIndexer.parseTime("2012-10-24T23:20:00Z"), out);
+        String[] window = out.toString().split("\n");
+        assertEquals(600, window.length);
+        assertEquals(lines.get(600), window[0]);
+        assertEquals(lines.get(1199), window[599]);
+    }
+
+    @Test
+    public void testGzipIndex() throws Exception {
+        Path logfile = folder.newFile("access.log.gz").toPath();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(logfile))) {
+            for (int i = 0; i < 100000; i++) {
+                out.write(("10.0.0.1 - - [24/Oct/2012:23:00:00 +0000] \"GET /" + i + " HTTP/1.1\" 200 100\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        assertEquals(0, new LogIndexer().doMain(new String[]{"-logformat", "common", "-gzindex", "-gzspan", "1", logfile.toString()}));
+        GzipIndex index = GzipIndex.load(logfile);
+        assertTrue(index.getCheckpoints().size() > 2);
+        assertEquals(Files.size(logfile), index.getCompressedLength());
+    }
+
+    @Test
+    public void testBadArguments() {
+        assertEquals(2, new LogIndexer().doMain(new String[]{"-from", "2012-10-24T23:10:00Z"}));
+    }
+
+}